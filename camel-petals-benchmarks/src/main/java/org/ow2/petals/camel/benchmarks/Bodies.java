@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlValue;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.Message;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ow2.petals.camel.helpers.MarshallingHelper;
+import org.ow2.petals.jbi.xml.BytesSource;
+import org.w3c.dom.Document;
+
+/**
+ * The bodies given to the benchmarks, in each of the forms they can take in a route and of the sizes we care about.
+ * 
+ * Sources that can only be read once are created for each invocation, the others are prepared once.
+ */
+@State(Scope.Thread)
+public class Bodies {
+
+    public enum BodyType {
+        BYTES_SOURCE, DOM_SOURCE, STREAM_SOURCE,
+        /**
+         * The route works with JAXB objects and uses a {@link MarshallingHelper}
+         */
+        POJO
+    }
+
+    @Param({ "BYTES_SOURCE", "DOM_SOURCE", "STREAM_SOURCE", "POJO" })
+    public BodyType bodyType;
+
+    @Param({ "1024", "102400", "10485760" })
+    public int payloadSize;
+
+    private byte[] payload;
+
+    private Document document;
+
+    private Items items;
+
+    private MarshallingHelper helper;
+
+    @Setup
+    public void setup() throws Exception {
+        this.payload = Payloads.xml(this.payloadSize);
+        final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        this.document = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(this.payload));
+        this.helper = new MarshallingHelper(JAXBContext.newInstance(Items.class));
+        this.items = (Items) this.helper.basicUnmarshal(new ByteArrayInputStream(this.payload));
+    }
+
+    /**
+     * @return the content of a Petals message, a POJO is received as bytes by the route
+     */
+    public Source newSource() {
+        switch (this.bodyType) {
+            case DOM_SOURCE:
+                return new DOMSource(this.document);
+            case STREAM_SOURCE:
+                return new StreamSource(new ByteArrayInputStream(this.payload));
+            default:
+                return new BytesSource(this.payload, (String) null);
+        }
+    }
+
+    /**
+     * Set the body of a Camel message as a route would do it
+     */
+    public void setBody(final Message msg) throws Exception {
+        switch (this.bodyType) {
+            case BYTES_SOURCE:
+                msg.setBody(new org.apache.camel.BytesSource(this.payload));
+                break;
+            case DOM_SOURCE:
+                msg.setBody(new DOMSource(this.document));
+                break;
+            case STREAM_SOURCE:
+                msg.setBody(new StreamSource(new ByteArrayInputStream(this.payload)));
+                break;
+            default:
+                this.helper.marshal(msg, this.items);
+        }
+    }
+
+    /**
+     * Read the body of a Camel message as a route would do it
+     */
+    public Object readBody(final Message msg) throws Exception {
+        if (this.bodyType == BodyType.POJO) {
+            return this.helper.unmarshal(msg, Items.class);
+        } else {
+            return msg.getBody();
+        }
+    }
+
+    @XmlRootElement(name = "items", namespace = Payloads.NAMESPACE)
+    public static class Items {
+
+        @XmlElement(name = "item", namespace = Payloads.NAMESPACE)
+        public List<Item> items;
+    }
+
+    public static class Item {
+
+        @XmlAttribute
+        public int id;
+
+        @XmlValue
+        public String text;
+    }
+}
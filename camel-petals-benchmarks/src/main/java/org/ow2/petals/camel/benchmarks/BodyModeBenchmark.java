@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
+import org.ow2.petals.camel.component.BodyMode;
+import org.ow2.petals.camel.component.utils.Conversions;
+import org.ow2.petals.component.framework.junit.TestMessageExchangeFactory;
+import org.ow2.petals.component.framework.junit.impl.mock.MockEndpointDirectory;
+import org.ow2.petals.component.framework.junit.impl.mock.TestMessageExchangeFactoryImpl;
+import org.ow2.petals.component.framework.message.ExchangeImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Compares the {@link BodyMode}s when a Camel exchange with a non-XML-source body is converted to a Petals exchange.
+ * 
+ * The heap allocated per exchange is given by the <code>gc.alloc.rate.norm</code> metric when running with the GC
+ * profiler: <code>java -jar target/benchmarks.jar BodyModeBenchmark -prof gc</code>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BodyModeBenchmark {
+
+    @Param({ "DOM", "STREAM" })
+    public BodyMode bodyMode;
+
+    @Param({ "1024", "102400", "5242880" })
+    public int payloadSize;
+
+    private byte[] payload;
+
+    private CamelContext context;
+
+    private TestMessageExchangeFactory factory;
+
+    private Transformer transformer;
+
+    @Setup
+    public void setup() throws Exception {
+        this.payload = Payloads.xml(this.payloadSize);
+        this.context = new DefaultCamelContext();
+        // type converters are loaded on start
+        this.context.start();
+        this.factory = new TestMessageExchangeFactoryImpl(new MockEndpointDirectory(),
+                Logger.getLogger(BodyModeBenchmark.class.getName()));
+        this.transformer = TransformerFactory.newInstance().newTransformer();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.context.stop();
+    }
+
+    /**
+     * Only the conversion done by the producer
+     */
+    @Benchmark
+    public Source convert() throws Exception {
+        return toPetals().getInMessage().getContent();
+    }
+
+    /**
+     * The conversion done by the producer followed by the reading of the content as a provider would do it: with the
+     * streaming mode, the parsing is only deferred to this step.
+     */
+    @Benchmark
+    public void convertAndRead() throws Exception {
+        this.transformer.transform(toPetals().getInMessage().getContent(), new SAXResult(new DefaultHandler()));
+    }
+
+    private org.ow2.petals.component.framework.api.message.Exchange toPetals() throws Exception {
+        final Exchange camelExchange = new DefaultExchange(this.context, ExchangePattern.InOut);
+        camelExchange.getIn().setBody(this.payload);
+
+        final org.ow2.petals.component.framework.api.message.Exchange petalsExchange = new ExchangeImpl(
+                this.factory.createExchange(MEPPatternConstants.IN_OUT.value()));
+
+        Conversions.populateNewPetalsExchange(camelExchange, petalsExchange, this.bodyMode);
+
+        return petalsExchange;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.jbi.messaging.MessageExchange.Role;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
+import org.ow2.petals.camel.component.BodyMode;
+import org.ow2.petals.camel.component.utils.Conversions;
+import org.ow2.petals.component.framework.junit.TestMessageExchangeFactory;
+import org.ow2.petals.component.framework.junit.impl.mock.MockEndpointDirectory;
+import org.ow2.petals.component.framework.junit.impl.mock.TestMessageExchangeFactoryImpl;
+import org.ow2.petals.component.framework.message.ExchangeImpl;
+import org.ow2.petals.jbi.messaging.exchange.PetalsMessageExchange;
+
+/**
+ * The conversions done by the consumers (a Petals request becomes a Camel exchange) and by the producers (a Camel
+ * answer is put back in the Petals exchange), with the body read or written as a route would do it.
+ * 
+ * Run with the GC profiler to get the allocation rate:
+ * <code>java -jar target/benchmarks.jar ConversionsBenchmark -prof gc</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ConversionsBenchmark {
+
+    private CamelContext context;
+
+    private TestMessageExchangeFactory factory;
+
+    @Setup
+    public void setup() throws Exception {
+        this.context = new DefaultCamelContext();
+        // type converters are loaded on start
+        this.context.start();
+        this.factory = new TestMessageExchangeFactoryImpl(new MockEndpointDirectory(),
+                Logger.getLogger(ConversionsBenchmark.class.getName()));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.context.stop();
+    }
+
+    /**
+     * A request received by a consumer
+     */
+    @Benchmark
+    public Object populateNewCamelExchange(final Bodies bodies) throws Exception {
+        final PetalsMessageExchange petalsExchange = this.factory.createExchange(MEPPatternConstants.IN_OUT.value());
+        final org.ow2.petals.component.framework.api.message.Exchange exchange = new ExchangeImpl(petalsExchange);
+        exchange.setInMessageContent(bodies.newSource());
+
+        final Exchange camelExchange = new DefaultExchange(this.context, ExchangePattern.InOut);
+        Conversions.populateNewCamelExchange(exchange, true, camelExchange);
+
+        return bodies.readBody(camelExchange.getIn());
+    }
+
+    /**
+     * An answer sent back by a consumer
+     */
+    @Benchmark
+    public Object populateAnswerPetalsExchange(final Bodies bodies) throws Exception {
+        final Exchange camelExchange = new DefaultExchange(this.context, ExchangePattern.InOut);
+        bodies.setBody(camelExchange.getOut());
+
+        final PetalsMessageExchange petalsExchange = this.factory.createExchange(MEPPatternConstants.IN_OUT.value());
+        // the answer is set by the provider
+        petalsExchange.setRole(Role.PROVIDER);
+        final org.ow2.petals.component.framework.api.message.Exchange exchange = new ExchangeImpl(petalsExchange);
+
+        Conversions.populateAnswerPetalsExchange(camelExchange, exchange, BodyMode.DOM);
+
+        return exchange.getOutMessage().getContent();
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jbi.messaging.MessagingException;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.AsyncProcessor;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Processor;
+import org.apache.camel.Producer;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.impl.JndiRegistry;
+import org.apache.camel.util.AsyncProcessorConverterHelper;
+import org.apache.camel.util.ServiceHelper;
+import org.apache.camel.util.jndi.JndiContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
+import org.ow2.petals.camel.PetalsCamelContext;
+import org.ow2.petals.camel.ServiceEndpointOperation.ServiceType;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockSendHandler;
+import org.ow2.petals.camel.component.mocks.ServiceEndpointOperationMock;
+import org.ow2.petals.commons.log.PetalsExecutionContext;
+
+/**
+ * A whole exchange going through a consumer (from a Petals request to the Petals answer) and through a producer (from
+ * a Camel exchange to its answer), with a sync or an async endpoint. The NMR is replaced by
+ * {@link PetalsCamelContextMock}, which answers immediately.
+ * 
+ * Run with the GC profiler to get the allocation rate:
+ * <code>java -jar target/benchmarks.jar DispatchBenchmark -prof gc</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+
+    private static final String PROVIDES = "provides";
+
+    private static final String CONSUMES = "consumes";
+
+    private static final AsyncCallback NOOP = new AsyncCallback() {
+        @Override
+        public void done(final boolean doneSync) {
+            // nothing to do
+        }
+    };
+
+    @Param({ "true", "false" })
+    public boolean synchronous;
+
+    private DefaultCamelContext context;
+
+    private PetalsCamelContextMock pcc;
+
+    private Producer petalsProducer;
+
+    private AsyncProcessor producer;
+
+    private Bodies bodies;
+
+    @Setup
+    public void setup(final Bodies bodies) throws Exception {
+        this.bodies = bodies;
+
+        final JndiRegistry registry = new JndiRegistry(new JndiContext());
+        this.context = new DefaultCamelContext(registry);
+        this.pcc = new PetalsCamelContextMock(this.context);
+        registry.bind(PetalsCamelContext.class.getName(), this.pcc);
+
+        this.pcc.addMockService(PROVIDES, new ServiceEndpointOperationMock("Provided", "Interface", "endpoint",
+                "operation", ServiceType.PROVIDES, MEPPatternConstants.IN_OUT.value()), new MockSendHandler() {
+                    @Override
+                    public boolean sendSync(final org.ow2.petals.component.framework.api.message.Exchange exchange,
+                            final long timeout) throws MessagingException {
+                        exchange.setDoneStatus();
+                        return true;
+                    }
+
+                    @Override
+                    public void sendAsync(final org.ow2.petals.component.framework.api.message.Exchange exchange,
+                            final long timeout) throws MessagingException {
+                        exchange.setDoneStatus();
+                    }
+                });
+
+        this.pcc.addMockService(CONSUMES, new ServiceEndpointOperationMock("Consumed", "Interface", "endpoint",
+                "operation", ServiceType.CONSUMES, MEPPatternConstants.IN_OUT.value()), new MockSendHandler() {
+                    @Override
+                    public boolean sendSync(final org.ow2.petals.component.framework.api.message.Exchange exchange,
+                            final long timeout) throws MessagingException {
+                        exchange.setOutMessageContent(DispatchBenchmark.this.bodies.newSource());
+                        return true;
+                    }
+
+                    @Override
+                    public void sendAsync(final org.ow2.petals.component.framework.api.message.Exchange exchange,
+                            final long timeout) throws MessagingException {
+                        exchange.setOutMessageContent(DispatchBenchmark.this.bodies.newSource());
+                    }
+                });
+
+        final String options = "?synchronous=" + this.synchronous;
+
+        this.context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("petals:" + PROVIDES + options).process(new Processor() {
+                    @Override
+                    public void process(final Exchange exchange) throws Exception {
+                        DispatchBenchmark.this.bodies.readBody(exchange.getIn());
+                        DispatchBenchmark.this.bodies.setBody(exchange.getOut());
+                    }
+                });
+            }
+        });
+        this.context.start();
+
+        this.petalsProducer = this.context.getEndpoint("petals:" + CONSUMES + options).createProducer();
+        ServiceHelper.startService(this.petalsProducer);
+        this.producer = AsyncProcessorConverterHelper.convert(this.petalsProducer);
+
+        // as if the producer was used in a route started by a Petals exchange
+        PetalsExecutionContext.initFlowAttributes();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ServiceHelper.stopService(this.petalsProducer);
+        this.context.stop();
+    }
+
+    /**
+     * A Petals exchange received by a route
+     */
+    @Benchmark
+    public Object consumer() throws Exception {
+        final org.ow2.petals.component.framework.api.message.Exchange exchange = this.pcc.createExchange(PROVIDES);
+        exchange.setInMessageContent(this.bodies.newSource());
+        this.pcc.process(PROVIDES, exchange);
+        return exchange;
+    }
+
+    /**
+     * A Camel exchange sent to Petals by a route
+     */
+    @Benchmark
+    public Object producer() throws Exception {
+        final Exchange exchange = new DefaultExchange(this.context, ExchangePattern.InOut);
+        this.bodies.setBody(exchange.getIn());
+        this.producer.process(exchange, NOOP);
+        return this.bodies.readBody(exchange.getOut());
+    }
+}
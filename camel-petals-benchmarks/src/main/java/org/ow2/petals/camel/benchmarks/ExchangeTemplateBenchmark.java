@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.benchmarks;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.xml.namespace.QName;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.impl.JndiRegistry;
+import org.apache.camel.util.jndi.JndiContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
+import org.ow2.petals.camel.PetalsCamelContext;
+import org.ow2.petals.camel.PetalsChannel.PetalsConsumesChannel;
+import org.ow2.petals.camel.ServiceEndpointOperation.ServiceType;
+import org.ow2.petals.camel.component.ExchangeTemplate;
+import org.ow2.petals.camel.component.PetalsCamelEndpoint;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockSendHandler;
+import org.ow2.petals.camel.component.mocks.ServiceEndpointOperationMock;
+
+/**
+ * What the producer does for each exchange to know the MEP, service, endpoint and operation of the Petals exchange it
+ * creates: computed from the options of its endpoint and of its consumes (as it was done before
+ * {@link ExchangeTemplate}) or taken from an {@link ExchangeTemplate}.
+ * 
+ * The consumes sets neither MEP nor endpoint name, they come from the Camel exchange and the endpoint options, which
+ * is the case that needed the most work.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ExchangeTemplateBenchmark {
+
+    private static final String CONSUMES = "consumes";
+
+    private DefaultCamelContext context;
+
+    private PetalsCamelEndpoint endpoint;
+
+    private PetalsConsumesChannel channel;
+
+    private ExchangeTemplate template;
+
+    private Exchange camelExchange;
+
+    private org.ow2.petals.component.framework.api.message.Exchange exchange;
+
+    @Setup
+    public void setup() throws Exception {
+        final JndiRegistry registry = new JndiRegistry(new JndiContext());
+        this.context = new DefaultCamelContext(registry);
+        final PetalsCamelContextMock pcc = new PetalsCamelContextMock(this.context);
+        registry.bind(PetalsCamelContext.class.getName(), pcc);
+
+        pcc.addMockService(CONSUMES, new ServiceEndpointOperationMock("Consumed", "Interface", null, "operation",
+                ServiceType.CONSUMES, null), new MockSendHandler());
+        this.context.start();
+
+        this.endpoint = (PetalsCamelEndpoint) this.context.getEndpoint("petals:" + CONSUMES + "?endpointName=endpoint");
+        this.channel = pcc.getConsumesChannel(this.endpoint.getService());
+        this.template = new ExchangeTemplate(this.endpoint);
+        this.camelExchange = new DefaultExchange(this.context, ExchangePattern.InOut);
+        this.exchange = this.channel.newExchange(MEPPatternConstants.IN_OUT, Optional.<Boolean> empty());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.context.stop();
+    }
+
+    @Benchmark
+    public Object perExchange() throws Exception {
+        final MEPPatternConstants mep;
+        if (this.endpoint.getService().getMEP() == null && this.endpoint.getMep() == null) {
+            mep = MEPPatternConstants.fromString(this.camelExchange.getPattern().getWsdlUri());
+            if (mep == null) {
+                throw new MessagingException("Can't resolve MEP");
+            }
+        } else {
+            mep = this.endpoint.getMep();
+        }
+
+        final QName serviceName;
+        if (this.endpoint.getServiceName() == null) {
+            serviceName = this.endpoint.getService().getService();
+        } else {
+            serviceName = this.endpoint.getServiceName();
+        }
+
+        final String endpointName = this.endpoint.getEndpointName();
+        final QName operation = this.endpoint.getOperation();
+
+        if (serviceName != null && endpointName != null) {
+            final ServiceEndpoint ep = this.channel.resolveEndpoint(serviceName, endpointName);
+            if (ep == null) {
+                throw new MessagingException("Can't resolve endpoint");
+            }
+            this.exchange.setEndpoint(ep);
+            this.exchange.setService(serviceName);
+        } else if (serviceName != null) {
+            this.exchange.setService(serviceName);
+        }
+
+        if (operation != null) {
+            this.exchange.setOperation(operation);
+        }
+
+        return mep;
+    }
+
+    @Benchmark
+    public Object template() throws Exception {
+        final MEPPatternConstants mep = this.template.getMEP(this.camelExchange);
+        this.template.populate(this.exchange, this.channel);
+        return mep;
+    }
+}
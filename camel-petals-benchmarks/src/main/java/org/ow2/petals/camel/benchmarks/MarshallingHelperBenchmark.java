@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Message;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.petals.camel.helpers.MarshallingHelper;
+
+/**
+ * Marshalling then unmarshalling of a message with a {@link MarshallingHelper} shared by 1, 8 and 32 threads, as it is
+ * when a helper is shared by the routes of a service unit.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarshallingHelperBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedHelper {
+
+        @Param({ "16" })
+        public int poolSize;
+
+        public MarshallingHelper helper;
+
+        public CamelContext context;
+
+        @Setup
+        public void setup() throws Exception {
+            this.helper = new MarshallingHelper(JAXBContext.newInstance(Order.class), this.poolSize);
+            this.context = new DefaultCamelContext();
+            this.context.start();
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            this.context.stop();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadData {
+
+        public final Order order = new Order();
+
+        @Setup
+        public void setup() {
+            this.order.id = 42;
+            this.order.customer = "customer";
+            this.order.product = "product";
+            this.order.quantity = 3;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Order roundTrip1Thread(final SharedHelper shared, final ThreadData data) throws Exception {
+        return roundTrip(shared, data);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Order roundTrip8Threads(final SharedHelper shared, final ThreadData data) throws Exception {
+        return roundTrip(shared, data);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Order roundTrip32Threads(final SharedHelper shared, final ThreadData data) throws Exception {
+        return roundTrip(shared, data);
+    }
+
+    private static Order roundTrip(final SharedHelper shared, final ThreadData data) throws Exception {
+        final Message msg = new DefaultExchange(shared.context, ExchangePattern.InOut).getIn();
+        shared.helper.marshal(msg, data.order);
+        return shared.helper.unmarshal(msg, Order.class);
+    }
+
+    @XmlRootElement(name = "order", namespace = "http://petals.ow2.org/benchmarks")
+    public static class Order {
+
+        @XmlAttribute
+        public int id;
+
+        @XmlElement(namespace = "http://petals.ow2.org/benchmarks")
+        public String customer;
+
+        @XmlElement(namespace = "http://petals.ow2.org/benchmarks")
+        public String product;
+
+        @XmlElement(namespace = "http://petals.ow2.org/benchmarks")
+        public int quantity;
+    }
+}
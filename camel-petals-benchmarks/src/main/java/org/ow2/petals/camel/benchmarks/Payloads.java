@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * XML payloads used by the benchmarks
+ */
+public final class Payloads {
+
+    public static final String NAMESPACE = "http://petals.ow2.org/benchmarks";
+
+    private Payloads() {
+    }
+
+    /**
+     * @return an XML document of approximately the given size in bytes
+     */
+    public static byte[] xml(final int size) {
+        final StringBuilder sb = new StringBuilder(size + 64);
+        sb.append("<items xmlns=\"").append(NAMESPACE).append("\">");
+        int i = 0;
+        while (sb.length() < size) {
+            sb.append("<item id=\"").append(i++).append("\">Lorem ipsum dolor sit amet</item>");
+        }
+        sb.append("</items>");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
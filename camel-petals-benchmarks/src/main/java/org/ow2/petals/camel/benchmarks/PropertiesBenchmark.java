@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.jbi.messaging.MessageExchange.Role;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
+import org.ow2.petals.camel.component.BodyMode;
+import org.ow2.petals.camel.component.PetalsCamelComponent;
+import org.ow2.petals.camel.component.utils.Conversions;
+import org.ow2.petals.component.framework.junit.TestMessageExchangeFactory;
+import org.ow2.petals.component.framework.junit.impl.mock.MockEndpointDirectory;
+import org.ow2.petals.component.framework.junit.impl.mock.TestMessageExchangeFactoryImpl;
+import org.ow2.petals.component.framework.message.ExchangeImpl;
+import org.ow2.petals.jbi.messaging.exchange.PetalsMessageExchange;
+import org.ow2.petals.jbi.xml.BytesSource;
+
+/**
+ * The properties of a Petals exchange received by a consumer going through the route and back to the Petals answer,
+ * depending on their number and on what the route does with them. The body is small so that the properties are most of
+ * the work.
+ * 
+ * Run with the GC profiler to get the allocation rate:
+ * <code>java -jar target/benchmarks.jar PropertiesBenchmark -prof gc</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PropertiesBenchmark {
+
+    private static final byte[] BODY = "<a/>".getBytes();
+
+    /**
+     * What the route does with the properties coming from the Petals exchange
+     */
+    public enum Usage {
+        /**
+         * They are not used
+         */
+        NONE,
+        /**
+         * One is read
+         */
+        READ,
+        /**
+         * One is changed
+         */
+        WRITE
+    }
+
+    @Param({ "0", "10", "50" })
+    public int propertyCount;
+
+    @Param
+    public Usage usage;
+
+    private CamelContext context;
+
+    private TestMessageExchangeFactory factory;
+
+    private String[] names;
+
+    @Setup
+    public void setup() throws Exception {
+        this.context = new DefaultCamelContext();
+        this.context.start();
+        this.factory = new TestMessageExchangeFactoryImpl(new MockEndpointDirectory(),
+                Logger.getLogger(PropertiesBenchmark.class.getName()));
+        this.names = new String[this.propertyCount];
+        for (int i = 0; i < this.propertyCount; i++) {
+            this.names[i] = "property" + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.context.stop();
+    }
+
+    @Benchmark
+    public Object consumer() throws Exception {
+        final PetalsMessageExchange petalsExchange = this.factory.createExchange(MEPPatternConstants.IN_OUT.value());
+        final org.ow2.petals.component.framework.api.message.Exchange exchange = new ExchangeImpl(petalsExchange);
+        exchange.setInMessageContent(new BytesSource(BODY));
+        for (final String name : this.names) {
+            exchange.setProperty(name, name);
+        }
+
+        final Exchange camelExchange = new DefaultExchange(this.context, ExchangePattern.InOut);
+        Conversions.populateNewCamelExchange(exchange, true, camelExchange);
+
+        if (this.propertyCount > 0) {
+            final String property = PetalsCamelComponent.EXCHANGE_ORIGINAL_PROPERTY_PREFIX + this.names[0];
+            if (this.usage == Usage.READ) {
+                camelExchange.getProperty(property);
+            } else if (this.usage == Usage.WRITE) {
+                camelExchange.setProperty(property, "changed");
+            }
+        }
+
+        camelExchange.getOut().setBody(new org.apache.camel.BytesSource(BODY));
+        petalsExchange.setRole(Role.PROVIDER);
+        Conversions.populateAnswerPetalsExchange(camelExchange, exchange, BodyMode.DOM);
+
+        return exchange;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.benchmarks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.petals.component.framework.util.ServiceEndpointOperationKey;
+import org.ow2.petals.se.camel.utils.ServiceEndpointOperationIndex;
+
+/**
+ * The lookup of the route of an exchange among thousands of registered operations, with the map of
+ * {@link ServiceEndpointOperationKey} previously used by the SU manager and with the
+ * {@link ServiceEndpointOperationIndex}.
+ * 
+ * The looked up names are copies of the registered ones, as they are when they come from an exchange.
+ * 
+ * Run with the GC profiler, its <code>gc.alloc.rate.norm</code> metric gives the allocation per lookup:
+ * <code>java -jar target/benchmarks.jar RouteLookupBenchmark -prof gc</code>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RouteLookupBenchmark {
+
+    private static final String NAMESPACE = "http://petals.ow2.org";
+
+    /**
+     * The operations are spread over services of 10 operations
+     */
+    @Param({ "1000", "10000" })
+    public int operations;
+
+    private final ConcurrentMap<ServiceEndpointOperationKey, Object> map = new ConcurrentHashMap<>();
+
+    private final ServiceEndpointOperationIndex<Object> index = new ServiceEndpointOperationIndex<>();
+
+    private QName[] services;
+
+    private String[] endpoints;
+
+    private QName[] operationNames;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        this.services = new QName[this.operations];
+        this.endpoints = new String[this.operations];
+        this.operationNames = new QName[this.operations];
+        for (int i = 0; i < this.operations; i++) {
+            final QName service = new QName(NAMESPACE, "Service" + (i / 10));
+            final String endpoint = "endpoint" + (i / 10);
+            final QName operation = new QName(NAMESPACE, "operation" + (i % 10));
+            final Object route = new Object();
+            this.map.put(new ServiceEndpointOperationKey(service, endpoint, operation), route);
+            this.index.put(service, endpoint, operation, route);
+
+            this.services[i] = new QName(NAMESPACE, "Service" + (i / 10));
+            this.endpoints[i] = new String(endpoint);
+            this.operationNames[i] = new QName(NAMESPACE, "operation" + (i % 10));
+        }
+    }
+
+    private int nextOperation() {
+        final int i = this.next;
+        this.next = i + 1 == this.operations ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public Object keyedMap() {
+        final int i = nextOperation();
+        return this.map
+                .get(new ServiceEndpointOperationKey(this.services[i], this.endpoints[i], this.operationNames[i]));
+    }
+
+    @Benchmark
+    public Object index() {
+        final int i = nextOperation();
+        return this.index.get(this.services[i], this.endpoints[i], this.operationNames[i]);
+    }
+}
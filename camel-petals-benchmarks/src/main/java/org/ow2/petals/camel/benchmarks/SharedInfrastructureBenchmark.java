@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.petals.camel.helpers.JAXBContexts;
+import org.ow2.petals.camel.helpers.MarshallingHelper;
+import org.ow2.petals.camel.helpers.SharedCamelInfrastructure;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The deployment of N service units, each one with its own Camel context with a route using a thread pool and a JAXB
+ * context, with and without sharing the Camel infrastructure between them.
+ * 
+ * The score is the time to create and start the contexts, their allocations can be measured with the gc profiler of
+ * JMH (<code>-prof gc</code>).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class SharedInfrastructureBenchmark {
+
+    @Param({ "10", "50", "150" })
+    public int serviceUnits;
+
+    @Param({ "false", "true" })
+    public boolean shared;
+
+    private final List<DefaultCamelContext> contexts = Lists.newArrayList();
+
+    private SharedCamelInfrastructure infrastructure;
+
+    @Setup
+    public void setup() {
+        this.infrastructure = new SharedCamelInfrastructure(getClass().getClassLoader());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.infrastructure.close();
+    }
+
+    @TearDown(Level.Invocation)
+    public void undeploy() throws Exception {
+        for (final DefaultCamelContext context : this.contexts) {
+            context.stop();
+        }
+        this.contexts.clear();
+    }
+
+    @Benchmark
+    public Object deploy() throws Exception {
+        for (int i = 0; i < this.serviceUnits; i++) {
+            final DefaultCamelContext context = new DefaultCamelContext();
+            final JAXBContext jaxb;
+            if (this.shared) {
+                this.infrastructure.share(context, getClass().getClassLoader());
+                jaxb = JAXBContexts.get(Order.class);
+            } else {
+                jaxb = JAXBContext.newInstance(Order.class);
+            }
+            final MarshallingHelper helper = new MarshallingHelper(jaxb);
+            context.addRoutes(new RouteBuilder() {
+                @Override
+                public void configure() throws Exception {
+                    from("direct:in").threads(2).convertBodyTo(String.class).bean(helper, "basicUnmarshal");
+                }
+            });
+            context.start();
+            this.contexts.add(context);
+        }
+        return this.contexts;
+    }
+
+    @XmlRootElement
+    public static class Order {
+
+        @XmlAttribute
+        public String id;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.benchmarks;
+
+import java.io.StringReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.easywsdl.extensions.wsdl4complexwsdl.WSDL4ComplexWsdlFactory;
+import org.ow2.petals.component.framework.jbidescriptor.generated.Provides;
+import org.ow2.petals.se.camel.utils.PetalsCamelJBIHelper;
+import org.ow2.petals.se.camel.utils.PetalsCamelJBIHelper.OperationData;
+import org.ow2.petals.se.camel.utils.WsdlDescriptions;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+
+/**
+ * The WSDL processing of the deployment of a SU with 50 provides: the baseline parses each description serially with
+ * a new reader as it was done before, the others go through {@link PetalsCamelJBIHelper#getOperationsAndServiceIds}
+ * with a cold (as the first deployment) or warm (as a redeployment or another SU using the same descriptions) cache.
+ * 
+ * Run with: <code>java -jar target/benchmarks.jar WsdlParsingBenchmark</code>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Thread)
+public class WsdlParsingBenchmark {
+
+    private static final int PROVIDES = 50;
+
+    private static final String NAMESPACE = "http://petals.ow2.org";
+
+    /**
+     * If <code>false</code>, all the provides use the same description
+     */
+    @Param({ "false", "true" })
+    public boolean distinct;
+
+    @Param({ "false", "true" })
+    public boolean warm;
+
+    private final List<Provides> provides = Lists.newArrayList();
+
+    private final List<Document> docs = Lists.newArrayList();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final URL url = WsdlParsingBenchmark.class.getResource("/service-1.1.wsdl");
+        final String wsdl = Resources.toString(url, StandardCharsets.UTF_8);
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        for (int i = 0; i < PROVIDES; i++) {
+            final String service = distinct ? "HelloService" + i : "HelloService";
+            final Provides p = new Provides();
+            p.setEndpointName("autogenerate");
+            p.setServiceName(new QName(NAMESPACE, service));
+            p.setInterfaceName(new QName(NAMESPACE, "HelloInterface"));
+            provides.add(p);
+            final Document doc = factory.newDocumentBuilder()
+                    .parse(new InputSource(new StringReader(wsdl.replace("HelloService", service))));
+            doc.setDocumentURI(url.toString());
+            docs.add(doc);
+        }
+        if (warm) {
+            PetalsCamelJBIHelper.getOperationsAndServiceIds(provides, docs);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCache() {
+        if (!warm) {
+            WsdlDescriptions.clear();
+        }
+    }
+
+    @Benchmark
+    public int serialBaseline() throws Exception {
+        int operations = 0;
+        for (int i = 0; i < PROVIDES; i++) {
+            operations += WSDL4ComplexWsdlFactory.newInstance().newWSDLReader().read(docs.get(i))
+                    .getInterfaces().get(0).getOperations().size();
+        }
+        return operations;
+    }
+
+    @Benchmark
+    public int deploy() throws Exception {
+        int operations = 0;
+        for (final List<OperationData> ods : PetalsCamelJBIHelper.getOperationsAndServiceIds(provides, docs)) {
+            operations += ods.size();
+        }
+        return operations;
+    }
+}
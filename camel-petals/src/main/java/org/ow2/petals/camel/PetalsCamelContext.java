@@ -19,10 +19,15 @@ package org.ow2.petals.camel;
 
 import java.util.logging.Logger;
 
+import javax.xml.namespace.QName;
+
 import org.apache.camel.CamelContext;
+import org.eclipse.jdt.annotation.Nullable;
 import org.ow2.petals.camel.PetalsChannel.PetalsConsumesChannel;
 import org.ow2.petals.camel.PetalsChannel.PetalsProvidesChannel;
 import org.ow2.petals.camel.exceptions.UnknownServiceException;
+import org.ow2.petals.camel.metrics.ExchangeJournal;
+import org.ow2.petals.camel.metrics.PetalsCamelMetrics;
 import org.ow2.petals.component.framework.api.monitoring.MonitTraceLogger;
 
 /**
@@ -85,10 +90,34 @@ public interface PetalsCamelContext {
      */
     public void unregisterRoute(ServiceEndpointOperation service);
 
+    /**
+     * To get the route hosted in the same container (but possibly in another {@link PetalsCamelContext}) that
+     * implements the given service endpoint operation, it is used to dispatch exchanges without going through the NMR.
+     *
+     * @param service
+     *            The service name of the provider
+     * @param endpoint
+     *            The endpoint name of the provider
+     * @param operation
+     *            The operation invoked
+     * @return the route or <code>null</code> if no route implements the service endpoint operation in this container
+     */
+    public @Nullable PetalsCamelRoute getLocalRoute(QName service, String endpoint, QName operation);
+
     public CamelContext getCamelContext();
 
     public Logger getLogger();
 
     public MonitTraceLogger getMonitTraceLogger();
 
+    /**
+     * @return the metrics of the services used by the routes of this context
+     */
+    public PetalsCamelMetrics getMetrics();
+
+    /**
+     * @return the journal where the routes of this context record the events of the exchanges instead of logging them
+     */
+    public ExchangeJournal getJournal();
+
 }
@@ -27,6 +27,7 @@ import javax.xml.namespace.QName;
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
+import org.ow2.petals.camel.component.CircuitBreaker;
 import org.ow2.petals.component.framework.api.message.Exchange;
 
 /**
@@ -73,6 +74,13 @@ public interface PetalsChannel {
 
         public @Nullable ServiceEndpoint resolveEndpoint(QName serviceName, String endpointName);
 
+        /**
+         * @param interfaceName
+         *            used if there is no service name
+         * @return the endpoints activated for the service or the interface, possibly none
+         */
+        public ServiceEndpoint[] getEndpoints(QName interfaceName, @Nullable QName serviceName);
+
         /**
          * Create an new JBI exchange according to the current consumer service definition, the provided MEP and the
          * provided flow tracing activation.
@@ -89,6 +97,29 @@ public interface PetalsChannel {
         public Exchange newExchange(final @Nullable MEPPatternConstants mep,
                 final @NonNull Optional<Boolean> currentFlowTracingActivationState) throws MessagingException;
 
+        /**
+         * @return the timeout in milliseconds of the exchanges sent for this consumes when the endpoint does not set
+         *         one, if 0 there is no timeout
+         */
+        public long getTimeout();
+
+        /**
+         * @return the time to live in milliseconds of the answers cached for this consumes, if less or equal to 0
+         *         answers are not cached unless an endpoint enables it
+         */
+        public long getResponseCacheTTL();
+
+        /**
+         * @return the maximum size in bytes of the answers cached for this consumes
+         */
+        public long getResponseCacheMaxSize();
+
+        /**
+         * @return the circuit breaker shared by the producers sending exchanges with this consumes, or
+         *         <code>null</code> if there is none
+         */
+        public @Nullable CircuitBreaker getCircuitBreaker();
+
     }
 
     public interface PetalsProvidesChannel extends PetalsChannel {
@@ -105,6 +136,12 @@ public interface PetalsChannel {
          * @return The flow tracing activation state.
          */
         public boolean isFlowTracingActivated(final @NonNull Exchange exchange);
+
+        /**
+         * @return the time in milliseconds the routes have to answer the exchanges received without a deadline, if
+         *         less or equal to 0 they have no deadline
+         */
+        public long getTimeout();
     }
 
     public interface SendAsyncCallback {
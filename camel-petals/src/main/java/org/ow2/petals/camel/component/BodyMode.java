@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.util.Locale;
+
+import javax.xml.transform.dom.DOMSource;
+
+/**
+ * How the body of a Camel message that is not already a {@link javax.xml.transform.Source} is converted to the content
+ * of a Petals message.
+ */
+public enum BodyMode {
+
+    /**
+     * The body is converted to a {@link DOMSource} using Camel type converters: the whole XML tree is built in memory.
+     */
+    DOM,
+
+    /**
+     * Bodies that are bytes, streams, readers, strings or StAX readers are wrapped in a streaming source without being
+     * parsed, other bodies are converted as with {@link #DOM}. Note that a streamed body can only be read once.
+     */
+    STREAM;
+
+    public static BodyMode parse(final String value) {
+        return BodyMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stops sending exchanges to a service that keeps timing out or answering with errors.
+ * 
+ * The breaker opens when the number of failures of the last window reaches the threshold: the exchanges are then
+ * rejected without being sent. After the open duration, one exchange at a time is sent as a probe: the breaker closes
+ * if it succeeds and opens again if it fails.
+ * 
+ * Outcomes are counted in buckets of a tenth of the window, and an allowed exchange or a success costs no lock while
+ * the breaker is closed.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The window in milliseconds in which failures are counted if it is not configured
+     */
+    public static final long DEFAULT_WINDOW = 60000;
+
+    /**
+     * The time in milliseconds during which exchanges are rejected if it is not configured
+     */
+    public static final long DEFAULT_OPEN_DURATION = 30000;
+
+    private static final int BUCKETS = 10;
+
+    public enum State {
+        /**
+         * The exchanges are sent
+         */
+        CLOSED,
+        /**
+         * The exchanges are rejected
+         */
+        OPEN,
+        /**
+         * One exchange at a time is sent to know if the breaker can be closed
+         */
+        HALF_OPEN
+    }
+
+    public enum Admission {
+        /**
+         * The exchange can be sent, its outcome must then be recorded
+         */
+        ALLOWED,
+        /**
+         * The exchange can be sent as the probe of the half-open breaker, its outcome must then be recorded
+         */
+        PROBE,
+        /**
+         * The exchange must not be sent
+         */
+        REJECTED
+    }
+
+    private final String name;
+
+    private final int failureThreshold;
+
+    private final long window;
+
+    private final long openDuration;
+
+    private final long bucketNanos;
+
+    private final long[] bucketEpochs = new long[BUCKETS];
+
+    private final int[] bucketFailures = new int[BUCKETS];
+
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile State state = State.CLOSED;
+
+    private volatile long lastTransitionTime = System.currentTimeMillis();
+
+    private long openedAt;
+
+    private long openings = 0;
+
+    private boolean probing = false;
+
+    /**
+     * @param name
+     *            identifies the breaker, for example the service-id of the consumes
+     * @param failureThreshold
+     *            the number of failures in the window that opens the breaker
+     * @param window
+     *            in milliseconds
+     * @param openDuration
+     *            in milliseconds
+     */
+    public CircuitBreaker(final String name, final int failureThreshold, final long window,
+            final long openDuration) {
+        assert failureThreshold > 0;
+        assert window > 0;
+        assert openDuration > 0;
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.window = window;
+        this.openDuration = openDuration;
+        this.bucketNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(window) / BUCKETS);
+        Arrays.fill(this.bucketEpochs, Long.MIN_VALUE);
+    }
+
+    /**
+     * @return if not {@link Admission#REJECTED}, the outcome of the exchange must be given to
+     *         {@link #onSuccess(Admission)}, {@link #onFailure(Admission)} or {@link #cancel(Admission)}
+     */
+    public Admission tryAcquire() {
+        if (this.state == State.CLOSED) {
+            return Admission.ALLOWED;
+        }
+
+        synchronized (this) {
+            if (this.state == State.OPEN
+                    && System.nanoTime() - this.openedAt >= TimeUnit.MILLISECONDS.toNanos(this.openDuration)) {
+                transition(State.HALF_OPEN);
+            }
+            if (this.state == State.CLOSED) {
+                return Admission.ALLOWED;
+            } else if (this.state == State.HALF_OPEN && !this.probing) {
+                this.probing = true;
+                return Admission.PROBE;
+            }
+        }
+
+        this.rejected.increment();
+        return Admission.REJECTED;
+    }
+
+    /**
+     * The exchange was answered, even with a fault.
+     * 
+     * @return <code>true</code> if the breaker was closed by this success
+     */
+    public boolean onSuccess(final Admission admission) {
+        if (admission != Admission.PROBE) {
+            return false;
+        }
+
+        synchronized (this) {
+            this.probing = false;
+            Arrays.fill(this.bucketFailures, 0);
+            transition(State.CLOSED);
+            return true;
+        }
+    }
+
+    /**
+     * The exchange timed out or was answered with an error.
+     * 
+     * @return <code>true</code> if the breaker was opened by this failure
+     */
+    public boolean onFailure(final Admission admission) {
+        synchronized (this) {
+            if (admission == Admission.PROBE) {
+                this.probing = false;
+                open();
+                return true;
+            }
+            // an exchange sent before the breaker opened is not counted again
+            if (this.state != State.CLOSED) {
+                return false;
+            }
+
+            final long epoch = Math.floorDiv(System.nanoTime(), this.bucketNanos);
+            final int bucket = (int) Math.floorMod(epoch, (long) BUCKETS);
+            if (this.bucketEpochs[bucket] != epoch) {
+                this.bucketEpochs[bucket] = epoch;
+                this.bucketFailures[bucket] = 0;
+            }
+            this.bucketFailures[bucket]++;
+
+            if (countFailures(epoch) >= this.failureThreshold) {
+                open();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The exchange was not sent after all: its outcome says nothing about the service.
+     */
+    public void cancel(final Admission admission) {
+        if (admission == Admission.PROBE) {
+            synchronized (this) {
+                this.probing = false;
+            }
+        }
+    }
+
+    private void open() {
+        this.openedAt = System.nanoTime();
+        this.openings++;
+        transition(State.OPEN);
+    }
+
+    private void transition(final State newState) {
+        this.state = newState;
+        this.lastTransitionTime = System.currentTimeMillis();
+    }
+
+    private int countFailures(final long epoch) {
+        int failures = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (this.bucketEpochs[i] > epoch - BUCKETS) {
+                failures += this.bucketFailures[i];
+            }
+        }
+        return failures;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    public int getFailureThreshold() {
+        return this.failureThreshold;
+    }
+
+    /**
+     * @return in milliseconds
+     */
+    public long getWindow() {
+        return this.window;
+    }
+
+    /**
+     * @return in milliseconds
+     */
+    public long getOpenDuration() {
+        return this.openDuration;
+    }
+
+    /**
+     * @return the number of failures in the current window, failures are not counted while the breaker is not closed
+     */
+    public synchronized int getFailures() {
+        return countFailures(Math.floorDiv(System.nanoTime(), this.bucketNanos));
+    }
+
+    /**
+     * @return the number of times the breaker opened
+     */
+    public synchronized long getOpenings() {
+        return this.openings;
+    }
+
+    /**
+     * @return the number of exchanges rejected because the breaker was not closed
+     */
+    public long getRejected() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch of the last change of state
+     */
+    public long getLastTransitionTime() {
+        return this.lastTransitionTime;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker[" + this.name + ", " + this.state + "]";
+    }
+}
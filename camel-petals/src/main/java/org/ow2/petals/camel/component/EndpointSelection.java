@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.util.Locale;
+
+/**
+ * How a producer chooses the endpoint of the exchanges it sends when neither its consumes nor its endpoint set one.
+ */
+public enum EndpointSelection {
+
+    /**
+     * The NMR chooses the endpoint.
+     */
+    NMR,
+
+    /**
+     * Two endpoints of the service are picked at random and the one with the lowest cost (latency weighted by the
+     * exchanges in flight and the errors) is chosen.
+     */
+    POWER_OF_TWO_CHOICES,
+
+    /**
+     * The endpoint of the service with the lowest cost (latency weighted by the exchanges in flight and the errors)
+     * is chosen.
+     */
+    LEAST_LATENCY;
+
+    public static EndpointSelection parse(final String value) {
+        return EndpointSelection.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.xml.namespace.QName;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.ow2.petals.camel.PetalsChannel.PetalsConsumesChannel;
+import org.ow2.petals.camel.metrics.EndpointMetrics;
+import org.ow2.petals.camel.metrics.ServiceMetrics;
+import org.ow2.petals.component.framework.api.message.Exchange;
+
+/**
+ * Chooses the endpoint of the exchanges of a producer among the endpoints that implement the service (or the interface
+ * if there is no service) they target, according to the {@link EndpointMetrics} of the consumes.
+ */
+public class EndpointSelector {
+
+    private final EndpointSelection selection;
+
+    private final PetalsConsumesChannel consumes;
+
+    private final QName interfaceName;
+
+    private final @Nullable QName serviceName;
+
+    private final ServiceMetrics metrics;
+
+    public EndpointSelector(final EndpointSelection selection, final PetalsConsumesChannel consumes,
+            final QName interfaceName, final @Nullable QName serviceName, final ServiceMetrics metrics) {
+        assert selection != EndpointSelection.NMR;
+        this.selection = selection;
+        this.consumes = consumes;
+        this.interfaceName = interfaceName;
+        this.serviceName = serviceName;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the endpoint of the exchange, unless it already has one or no endpoint is activated (the NMR will then
+     * fail as usual).
+     * 
+     * @return the metrics of the chosen endpoint, the exchange must then be {@link EndpointMetrics#end(long, boolean)
+     *         ended} on them, or <code>null</code> if no endpoint was chosen
+     */
+    public @Nullable EndpointMetrics select(final Exchange exchange) {
+        if (exchange.getEndpoint() != null) {
+            return null;
+        }
+
+        final ServiceEndpoint[] endpoints = this.consumes.getEndpoints(this.interfaceName, this.serviceName);
+        if (endpoints.length == 0) {
+            return null;
+        }
+
+        final ServiceEndpoint chosen;
+        if (endpoints.length == 1) {
+            chosen = endpoints[0];
+        } else if (this.selection == EndpointSelection.POWER_OF_TWO_CHOICES) {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final int first = random.nextInt(endpoints.length);
+            // a different one, uniformly among the others
+            final int second = (first + 1 + random.nextInt(endpoints.length - 1)) % endpoints.length;
+            chosen = cheapest(endpoints[first], endpoints[second]);
+        } else {
+            ServiceEndpoint best = endpoints[0];
+            for (int i = 1; i < endpoints.length; i++) {
+                best = cheapest(best, endpoints[i]);
+            }
+            chosen = best;
+        }
+
+        exchange.setEndpoint(chosen);
+        final EndpointMetrics chosenMetrics = this.metrics.getEndpointMetrics(chosen.getEndpointName());
+        chosenMetrics.begin();
+        return chosenMetrics;
+    }
+
+    /**
+     * On a tie, the first one is chosen
+     */
+    private ServiceEndpoint cheapest(final ServiceEndpoint first, final ServiceEndpoint second) {
+        final double firstCost = this.metrics.getEndpointMetrics(first.getEndpointName()).getCost();
+        final double secondCost = this.metrics.getEndpointMetrics(second.getEndpointName()).getCost();
+        return secondCost < firstCost ? second : first;
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.xml.namespace.QName;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
+import org.eclipse.jdt.annotation.Nullable;
+import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
+import org.ow2.petals.camel.PetalsChannel.PetalsConsumesChannel;
+import org.ow2.petals.camel.ServiceEndpointOperation;
+
+/**
+ * What a producer puts in the Petals exchanges it creates, computed once from the options of its endpoint and from its
+ * consumes so that creating an exchange does not need to look at them again.
+ * 
+ * The endpoint reference is still resolved for each exchange (the resolution is cached by the container) so that a
+ * provider deployed after the producer is started is found.
+ */
+public class ExchangeTemplate {
+
+    private static final Map<ExchangePattern, MEPPatternConstants> MEPS = new EnumMap<>(ExchangePattern.class);
+
+    static {
+        for (final ExchangePattern pattern : ExchangePattern.values()) {
+            final MEPPatternConstants mep = MEPPatternConstants.fromString(pattern.getWsdlUri());
+            if (mep != null) {
+                MEPS.put(pattern, mep);
+            }
+        }
+    }
+
+    /**
+     * If neither the consumes nor the endpoint set the MEP, the one of the Camel exchange is used
+     */
+    private final boolean mepFromExchange;
+
+    /**
+     * The MEP set by the endpoint, <code>null</code> if it is the one of the consumes (or of the Camel exchange)
+     */
+    private final @Nullable MEPPatternConstants mep;
+
+    private final @Nullable MEPPatternConstants consumesMEP;
+
+    /**
+     * The service set by the endpoint or the one of the consumes
+     */
+    private final @Nullable QName serviceName;
+
+    /**
+     * The endpoint name set by the endpoint (the one of the consumes is already in the created exchanges)
+     */
+    private final @Nullable String endpointName;
+
+    private final @Nullable String targetEndpointName;
+
+    /**
+     * The operation set by the endpoint (the one of the consumes is already in the created exchanges)
+     */
+    private final @Nullable QName operation;
+
+    private final @Nullable QName targetOperation;
+
+    /**
+     * The timeout set by the endpoint or the one of the consumes
+     */
+    private final long timeout;
+
+    public ExchangeTemplate(final PetalsCamelEndpoint endpoint, final PetalsConsumesChannel consumesChannel) {
+        final ServiceEndpointOperation consumes = endpoint.getService();
+
+        final URI consumesMEP = consumes.getMEP();
+        this.consumesMEP = consumesMEP == null ? null : MEPPatternConstants.fromURI(consumesMEP);
+        this.mep = endpoint.getMep();
+        this.mepFromExchange = consumesMEP == null && this.mep == null;
+
+        final QName endpointServiceName = endpoint.getServiceName();
+        this.serviceName = endpointServiceName == null ? consumes.getService() : endpointServiceName;
+
+        this.endpointName = endpoint.getEndpointName();
+        final String endpointName = this.endpointName;
+        this.targetEndpointName = endpointName == null ? consumes.getEndpoint() : endpointName;
+
+        this.operation = endpoint.getOperation();
+        final QName operation = this.operation;
+        this.targetOperation = operation == null ? consumes.getOperation() : operation;
+
+        final long timeout = endpoint.getTimeout();
+        this.timeout = timeout < 0 ? consumesChannel.getTimeout() : timeout;
+    }
+
+    /**
+     * @return the MEP to use to create the Petals exchange or <code>null</code> if the one of the consumes must be used
+     */
+    public @Nullable MEPPatternConstants getMEP(final Exchange camelExchange) throws MessagingException {
+        if (this.mepFromExchange) {
+            final MEPPatternConstants mep = MEPS.get(camelExchange.getPattern());
+            if (mep == null) {
+                throw new MessagingException(
+                        "Can't resolve MEP on the Camel exchange: " + camelExchange.getPattern().getWsdlUri());
+            }
+            return mep;
+        } else {
+            return this.mep;
+        }
+    }
+
+    /**
+     * @return the MEP the Petals exchange created for the Camel exchange has
+     */
+    public @Nullable MEPPatternConstants getExchangeMEP(final Exchange camelExchange) throws MessagingException {
+        final MEPPatternConstants mep = getMEP(camelExchange);
+        return mep == null ? this.consumesMEP : mep;
+    }
+
+    /**
+     * Sets on an exchange created by the consumes what the endpoint adds to it
+     */
+    public void populate(final org.ow2.petals.component.framework.api.message.Exchange exchange,
+            final PetalsConsumesChannel consumes) throws MessagingException {
+        final QName serviceName = this.serviceName;
+        final String endpointName = this.endpointName;
+        if (serviceName != null && endpointName != null) {
+            assert exchange.getEndpoint() == null;
+            final ServiceEndpoint ep = consumes.resolveEndpoint(serviceName, endpointName);
+            if (ep == null) {
+                throw new MessagingException(
+                        "Can't resolve endpoint for service " + serviceName + " and endpoint name " + endpointName);
+            }
+            exchange.setEndpoint(ep);
+            // let's set it anyway in case it's useful
+            exchange.setService(serviceName);
+        } else if (serviceName != null) {
+            exchange.setService(serviceName);
+        }
+
+        final QName operation = this.operation;
+        if (operation != null) {
+            // we tested in deploy that the camel endpoint options do not conflict with the consumes parameters
+            assert exchange.getOperation() == null;
+            exchange.setOperation(operation);
+        }
+    }
+
+    /**
+     * @return the service of the created exchanges, <code>null</code> if the NMR must choose it
+     */
+    public @Nullable QName getServiceName() {
+        return serviceName;
+    }
+
+    /**
+     * @return the endpoint name set by the endpoint, <code>null</code> if there is none or it is the one of the
+     *         consumes (which is then already in the created exchanges)
+     */
+    public @Nullable String getEndpointName() {
+        return endpointName;
+    }
+
+    /**
+     * @return the endpoint name of the created exchanges, <code>null</code> if the NMR must choose it
+     */
+    public @Nullable String getTargetEndpointName() {
+        return targetEndpointName;
+    }
+
+    /**
+     * @return the operation of the created exchanges
+     */
+    public @Nullable QName getTargetOperation() {
+        return targetOperation;
+    }
+
+    /**
+     * @return the timeout in milliseconds to use to send the created exchanges, if 0 there is no timeout
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+}
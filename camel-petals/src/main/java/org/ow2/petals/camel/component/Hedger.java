@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.jbi.servicedesc.ServiceEndpoint;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Decides when a producer sends a second copy of an exchange that is not answered yet, see
+ * {@link PetalsCamelEndpoint#getHedgeDelay()}.
+ * 
+ * The delay is either fixed or a percentile of the latencies of the last {@value #SAMPLES} answers, which is computed
+ * again every {@value #RECOMPUTE_EVERY} answers. There is no hedging until {@value #MIN_SAMPLES} answers are known.
+ */
+public class Hedger {
+
+    private static final int SAMPLES = 1024;
+
+    private static final int MIN_SAMPLES = 20;
+
+    private static final int RECOMPUTE_EVERY = 64;
+
+    private final long fixedDelayNanos;
+
+    private final double percentile;
+
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+
+    private final AtomicLong recorded = new AtomicLong();
+
+    private volatile long percentileDelayNanos = 0;
+
+    /**
+     * @param fixedDelay
+     *            in milliseconds, if 0 or less the percentile is used
+     * @param percentile
+     *            between 0 and 100 excluded, used if there is no fixed delay
+     */
+    public Hedger(final long fixedDelay, final double percentile) {
+        assert fixedDelay > 0 || (percentile > 0 && percentile < 100);
+        this.fixedDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, fixedDelay));
+        this.percentile = percentile;
+    }
+
+    /**
+     * @return in nanoseconds, 0 if the exchange must not be hedged
+     */
+    public long getDelayNanos() {
+        return this.fixedDelayNanos > 0 ? this.fixedDelayNanos : this.percentileDelayNanos;
+    }
+
+    /**
+     * @param latencyNanos
+     *            the time an exchange took to be answered
+     */
+    public void record(final long latencyNanos) {
+        if (this.fixedDelayNanos > 0) {
+            return;
+        }
+        final long index = this.recorded.getAndIncrement();
+        this.samples.set((int) (index % SAMPLES), latencyNanos);
+        final long count = index + 1;
+        if (count == MIN_SAMPLES || (count > MIN_SAMPLES && count % RECOMPUTE_EVERY == 0)) {
+            recompute((int) Math.min(count, SAMPLES));
+        }
+    }
+
+    private void recompute(final int count) {
+        final long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = this.samples.get(i);
+        }
+        Arrays.sort(sorted);
+        final int rank = (int) Math.ceil(count * this.percentile / 100);
+        this.percentileDelayNanos = sorted[Math.max(0, Math.min(count, rank) - 1)];
+    }
+
+    /**
+     * @param primary
+     *            the endpoint the exchange was first sent to
+     * @return an endpoint different from the primary one, chosen at random, or <code>null</code> if there is none
+     */
+    public static @Nullable ServiceEndpoint chooseOther(final ServiceEndpoint[] endpoints,
+            final ServiceEndpoint primary) {
+        if (endpoints.length == 0) {
+            return null;
+        }
+        final int offset = ThreadLocalRandom.current().nextInt(endpoints.length);
+        for (int i = 0; i < endpoints.length; i++) {
+            final ServiceEndpoint candidate = endpoints[(offset + i) % endpoints.length];
+            if (!primary.getEndpointName().equals(candidate.getEndpointName())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.camel.StreamCache;
+import org.eclipse.jdt.annotation.Nullable;
+import org.ow2.petals.camel.metrics.ServiceMetrics;
+import org.ow2.petals.jbi.xml.BytesSource;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Bounds the number of exchanges (and the size of their bodies) that a producer has in flight.
+ * 
+ * If nothing is in flight, an exchange is always accepted, even if its body is bigger than the limit: it could else
+ * never be sent.
+ */
+public class InFlightLimiter {
+
+    public enum Admission {
+        /**
+         * The exchange can be sent, it must then be {@link InFlightLimiter#release(long) released}
+         */
+        ACQUIRED,
+        /**
+         * The exchange will be sent by the task given to {@link InFlightLimiter#acquireOrQueue(long, QueuedTask)}
+         */
+        QUEUED,
+        /**
+         * The exchange must not be sent
+         */
+        REJECTED
+    }
+
+    /**
+     * Sends an exchange that waited for room in the queue
+     */
+    public interface QueuedTask {
+
+        /**
+         * Called by the thread releasing an exchange once the queued one is acquired: it must not send it in this
+         * thread and it must {@link InFlightLimiter#release(long) release} it once answered.
+         */
+        public void run();
+
+        /**
+         * Called instead of {@link #run()} if the queued exchange will never be sent
+         */
+        public void cancel();
+    }
+
+    private final int maxInFlight;
+
+    private final long maxInFlightBytes;
+
+    private final int maxQueued;
+
+    private final ServiceMetrics metrics;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = this.lock.newCondition();
+
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+
+    private int inFlight = 0;
+
+    private long inFlightBytes = 0;
+
+    /**
+     * @param maxInFlight
+     *            if 0 or less, the number of exchanges is not limited
+     * @param maxInFlightBytes
+     *            if 0 or less, the size of the exchanges is not limited
+     * @param maxQueued
+     *            the number of exchanges that can wait with {@link #acquireOrQueue(long, QueuedTask)}
+     */
+    public InFlightLimiter(final int maxInFlight, final long maxInFlightBytes, final int maxQueued,
+            final ServiceMetrics metrics) {
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.maxQueued = maxQueued;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queued exchanges go first, so an exchange is accepted only if none is waiting.
+     */
+    private boolean hasRoom(final long bytes) {
+        if (this.inFlight == 0) {
+            return true;
+        }
+        return (this.maxInFlight <= 0 || this.inFlight < this.maxInFlight)
+                && (this.maxInFlightBytes <= 0 || this.inFlightBytes + bytes <= this.maxInFlightBytes);
+    }
+
+    private void take(final long bytes) {
+        this.inFlight++;
+        this.inFlightBytes += bytes;
+    }
+
+    /**
+     * @return <code>true</code> if the exchange can be sent, it must then be {@link #release(long) released}
+     */
+    public boolean tryAcquire(final long bytes) {
+        this.lock.lock();
+        try {
+            if (this.queue.isEmpty() && hasRoom(bytes)) {
+                take(bytes);
+                return true;
+            }
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @param timeout
+     *            in milliseconds, if 0 or less, waits until the exchange can be sent
+     * @return <code>true</code> if the exchange can be sent, it must then be {@link #release(long) released}, or
+     *         <code>false</code> if the timeout elapsed
+     */
+    public boolean acquire(final long bytes, final long timeout) throws InterruptedException {
+        this.lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (!this.queue.isEmpty() || !hasRoom(bytes)) {
+                if (timeout <= 0) {
+                    this.released.await();
+                } else if (remaining <= 0) {
+                    return false;
+                } else {
+                    remaining = this.released.awaitNanos(remaining);
+                }
+            }
+            take(bytes);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * If the exchange can't be sent now, the task is queued and will be executed (after the exchange has been
+     * acquired) in the thread releasing an exchange.
+     */
+    public Admission acquireOrQueue(final long bytes, final QueuedTask task) {
+        this.lock.lock();
+        try {
+            if (this.queue.isEmpty() && hasRoom(bytes)) {
+                take(bytes);
+                return Admission.ACQUIRED;
+            } else if (this.queue.size() < this.maxQueued) {
+                this.queue.add(new Pending(bytes, task));
+                this.metrics.enqueued();
+                return Admission.QUEUED;
+            } else {
+                return Admission.REJECTED;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void release(final long bytes) {
+        @Nullable
+        List<Pending> ready = null;
+
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            this.inFlightBytes -= bytes;
+
+            @Nullable
+            Pending next;
+            while ((next = this.queue.peek()) != null && hasRoom(next.bytes)) {
+                this.queue.poll();
+                take(next.bytes);
+                if (ready == null) {
+                    ready = Lists.newArrayList();
+                }
+                ready.add(next);
+            }
+
+            this.released.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (ready != null) {
+            for (final Pending pending : ready) {
+                this.metrics.dequeued();
+                pending.task.run();
+            }
+        }
+    }
+
+    /**
+     * The queued exchanges will never be sent: their tasks are cancelled.
+     */
+    public void cancelQueued() {
+        final List<Pending> cancelled;
+
+        this.lock.lock();
+        try {
+            cancelled = Lists.newArrayList(this.queue);
+            this.queue.clear();
+        } finally {
+            this.lock.unlock();
+        }
+
+        for (final Pending pending : cancelled) {
+            this.metrics.dequeued();
+            pending.task.cancel();
+        }
+    }
+
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getInFlightBytes() {
+        this.lock.lock();
+        try {
+            return this.inFlightBytes;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the size of the body if it can be known without reading it, else 0
+     */
+    public static long sizeOf(final @Nullable Object body) {
+        if (body instanceof byte[]) {
+            return ((byte[]) body).length;
+        } else if (body instanceof org.apache.camel.BytesSource) {
+            return ((org.apache.camel.BytesSource) body).getData().length;
+        } else if (body instanceof BytesSource) {
+            return ((BytesSource) body).getData().length;
+        } else if (body instanceof String) {
+            return ((String) body).length();
+        } else if (body instanceof StreamCache) {
+            return Math.max(0, ((StreamCache) body).length());
+        } else {
+            return 0;
+        }
+    }
+
+    private static class Pending {
+
+        private final long bytes;
+
+        private final QueuedTask task;
+
+        public Pending(final long bytes, final QueuedTask task) {
+            this.bytes = bytes;
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.util.Locale;
+
+/**
+ * What a producer does with an exchange when its in-flight limits are reached.
+ */
+public enum InFlightPolicy {
+
+    /**
+     * The thread sending the exchange waits for an in-flight exchange to finish (at most for the timeout of the
+     * endpoint, or of its consumes, if it has one).
+     */
+    BLOCK,
+
+    /**
+     * The exchange fails immediately.
+     */
+    REJECT,
+
+    /**
+     * The exchange is put in a bounded queue and sent when an in-flight exchange finishes, it fails if the queue is
+     * full. Synchronous endpoints behave as with {@link #BLOCK}.
+     */
+    QUEUE;
+
+    public static InFlightPolicy parse(final String value) {
+        return InFlightPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
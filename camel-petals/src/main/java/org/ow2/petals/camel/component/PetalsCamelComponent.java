@@ -20,6 +20,8 @@ package org.ow2.petals.camel.component;
 import java.io.Serializable;
 import java.net.URI;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import javax.jbi.servicedesc.ServiceEndpoint;
 import javax.xml.namespace.QName;
@@ -28,12 +30,15 @@ import org.apache.camel.Endpoint;
 import org.apache.camel.Message;
 import org.apache.camel.impl.DefaultEndpoint;
 import org.apache.camel.impl.UriEndpointComponent;
+import org.apache.camel.spi.HeaderFilterStrategy;
+import org.apache.camel.spi.HeaderFilterStrategyAware;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.ow2.petals.camel.PetalsCamelContext;
 import org.ow2.petals.camel.ServiceEndpointOperation.ServiceType;
+import org.ow2.petals.camel.component.utils.AttachmentSpool;
 
-public class PetalsCamelComponent extends UriEndpointComponent {
+public class PetalsCamelComponent extends UriEndpointComponent implements HeaderFilterStrategyAware {
 
     /**
      * Prefix for a property that will be converted from a property in a new Petals exchange in Petals Consumers.
@@ -78,6 +83,24 @@ public class PetalsCamelComponent extends UriEndpointComponent {
      */
     public static final String EXCHANGE_CURRENT_FLOW_TRACING_ACTIVATION = "PetalsCurrentFlowTracingActivationStateOnJBIExchangeProcessingAtServiceProviderLevel";
 
+    /**
+     * The flow attributes of the Petals exchange that started the route, so that producers find them even if the route
+     * switched threads. Type is {@link org.ow2.petals.commons.log.FlowAttributes}
+     */
+    public static final String EXCHANGE_FLOW_ATTRIBUTES = "PetalsFlowAttributes";
+
+    /**
+     * The time (in milliseconds since the epoch) after which the caller of the route does not wait for its answer
+     * anymore: the producers of the route bound their timeout with it. Type is {@link Long}
+     */
+    public static final String EXCHANGE_DEADLINE = "PetalsDeadline";
+
+    /**
+     * The property of the Petals exchanges carrying the deadline of their caller, set by the producers and read by the
+     * consumers. Type is {@link Long} (a {@link String} is also accepted on received exchanges)
+     */
+    public static final String DEADLINE_PROPERTY = "org.ow2.petals.camel.deadline";
+
     /**
      * Set to <code>true</code> if the message is a fault ({@link Message#isFault()} is legacy and limited in Camel and
      * so should not be used!)
@@ -89,6 +112,28 @@ public class PetalsCamelComponent extends UriEndpointComponent {
     @Nullable
     private PetalsCamelContext pcc;
 
+    /**
+     * Used by endpoints that do not set explicitly their body mode
+     */
+    private BodyMode bodyMode = BodyMode.DOM;
+
+    /**
+     * Used by endpoints that do not set explicitly their header filter strategy
+     */
+    private HeaderFilterStrategy headerFilterStrategy = new PetalsHeaderFilterStrategy();
+
+    /**
+     * Where the large attachments crossing the Camel/Petals boundary are written, if they are spooled
+     */
+    @Nullable
+    private AttachmentSpool attachmentSpool;
+
+    /**
+     * Triggers the hedges of the producers, created when the first producer hedging its exchanges starts
+     */
+    @Nullable
+    private ScheduledExecutorService hedgeScheduler;
+
     public PetalsCamelComponent() {
         super(PetalsCamelEndpoint.class);
     }
@@ -103,6 +148,19 @@ public class PetalsCamelComponent extends UriEndpointComponent {
         return new PetalsCamelEndpoint(uri, this, remaining);
     }
 
+    @Override
+    protected void doStop() throws Exception {
+        final ScheduledExecutorService hedgeScheduler;
+        synchronized (this) {
+            hedgeScheduler = this.hedgeScheduler;
+            this.hedgeScheduler = null;
+        }
+        if (hedgeScheduler != null) {
+            getCamelContext().getExecutorServiceManager().shutdownNow(hedgeScheduler);
+        }
+        super.doStop();
+    }
+
     @Override
     protected boolean useIntrospectionOnEndpoint() {
         // we want to handle manually the setting of parameters because producers and consumers are different
@@ -127,6 +185,52 @@ public class PetalsCamelComponent extends UriEndpointComponent {
         }
     }
 
+    public BodyMode getBodyMode() {
+        return bodyMode;
+    }
+
+    public void setBodyMode(final BodyMode bodyMode) {
+        this.bodyMode = bodyMode;
+    }
+
+    @Override
+    public HeaderFilterStrategy getHeaderFilterStrategy() {
+        return headerFilterStrategy;
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public void setHeaderFilterStrategy(final HeaderFilterStrategy headerFilterStrategy) {
+        assert headerFilterStrategy != null;
+        this.headerFilterStrategy = headerFilterStrategy;
+    }
+
+    public @Nullable AttachmentSpool getAttachmentSpool() {
+        return attachmentSpool;
+    }
+
+    public void setAttachmentSpool(final @Nullable AttachmentSpool attachmentSpool) {
+        this.attachmentSpool = attachmentSpool;
+    }
+
+    /**
+     * Shared by the producers of the component: its only thread triggers the hedges, which are then sent by the
+     * producers
+     */
+    public synchronized ScheduledExecutorService getHedgeScheduler() {
+        ScheduledExecutorService result = this.hedgeScheduler;
+        if (result == null) {
+            result = getCamelContext().getExecutorServiceManager().newSingleThreadScheduledExecutor(this,
+                    "PetalsHedger");
+            if (result instanceof ScheduledThreadPoolExecutor) {
+                // answered exchanges cancel their hedge, it must not stay in the queue until its delay
+                ((ScheduledThreadPoolExecutor) result).setRemoveOnCancelPolicy(true);
+            }
+            this.hedgeScheduler = result;
+        }
+        return result;
+    }
+
     public PetalsCamelContext getContext() {
         PetalsCamelContext result = this.pcc;
         if (result == null) {
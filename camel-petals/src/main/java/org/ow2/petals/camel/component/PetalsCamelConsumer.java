@@ -17,29 +17,54 @@
  */
 package org.ow2.petals.camel.component;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import javax.jbi.messaging.MessagingException;
+import javax.jbi.servicedesc.ServiceEndpoint;
 
 import org.apache.camel.AsyncCallback;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
+import org.apache.camel.Suspendable;
 import org.apache.camel.impl.DefaultConsumer;
+import org.eclipse.jdt.annotation.Nullable;
 import org.ow2.petals.camel.PetalsCamelRoute;
 import org.ow2.petals.camel.PetalsChannel.PetalsProvidesChannel;
 import org.ow2.petals.camel.PetalsChannel.SendAsyncCallback;
 import org.ow2.petals.camel.component.utils.Conversions;
+import org.ow2.petals.camel.metrics.ServiceMetrics;
 import org.ow2.petals.commons.log.FlowAttributes;
 import org.ow2.petals.commons.log.PetalsExecutionContext;
 
-// TODO should I be suspendable?
-public class PetalsCamelConsumer extends DefaultConsumer implements PetalsCamelRoute {
+/**
+ * A PetalsConsumer get exchanges from Petals and pass them to a Camel route
+ * 
+ * When suspended, it refuses new exchanges and the ones it already had can be waited for with {@link #drain(long)}.
+ */
+public class PetalsCamelConsumer extends DefaultConsumer implements PetalsCamelRoute, Suspendable {
+
+    /**
+     * Maximum time between two checks of the in-flight exchanges while draining, in case a notification is missed
+     */
+    private static final long DRAIN_CHECK_PERIOD_MS = 100;
 
     private final PetalsProvidesChannel provides;
 
+    private final ServiceMetrics metrics;
+
+    /**
+     * Exchanges received and not yet answered
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Object drainLock = new Object();
+
     public PetalsCamelConsumer(final PetalsCamelEndpoint endpoint, final Processor processor) {
         super(endpoint, processor);
         this.provides = endpoint.getComponent().getContext().getProvidesChannel(endpoint.getService());
+        this.metrics = endpoint.getComponent().getContext().getMetrics().getServiceMetrics(endpoint.getServiceId());
     }
 
     @Override
@@ -56,14 +81,84 @@ public class PetalsCamelConsumer extends DefaultConsumer implements PetalsCamelR
         super.doStop();
     }
 
+    /**
+     * Waits for the exchanges in flight to be answered: it is meant to be used once the consumer is suspended so that
+     * no new exchange is accepted.
+     * 
+     * @param timeout
+     *            in milliseconds
+     * @return <code>true</code> if there is no more exchange in flight, <code>false</code> if the timeout elapsed
+     */
+    public boolean drain(final long timeout) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        synchronized (this.drainLock) {
+            while (this.inFlight.get() > 0) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                this.drainLock.wait(Math.max(1, Math.min(TimeUnit.NANOSECONDS.toMillis(remaining),
+                        DRAIN_CHECK_PERIOD_MS)));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of exchanges received and not yet answered
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    private void exchangeEnded() {
+        if (this.inFlight.decrementAndGet() == 0 && isSuspendingOrSuspended()) {
+            synchronized (this.drainLock) {
+                this.drainLock.notifyAll();
+            }
+        }
+    }
+
+    private MessagingException suspendedException() {
+        return new MessagingException("The route of " + getEndpoint().getServiceId() + " is suspended");
+    }
+
     @Override
     public boolean process(final org.ow2.petals.component.framework.api.message.Exchange exchange) {
 
+        // counted before checking the state so that drain() can't miss an exchange entering the route
+        this.inFlight.incrementAndGet();
+
+        if (isSuspendingOrSuspended()) {
+            exchangeEnded();
+            this.provides.getLogger().warning("Refusing the Petals exchange " + exchange.getExchangeId()
+                    + " because the route is suspended");
+            exchange.setError(suspendedException());
+            try {
+                this.provides.send(exchange);
+            } catch (final MessagingException e) {
+                this.provides.getLogger().log(Level.SEVERE,
+                        "An exchange (" + exchange.getExchangeId() + ") couldn't be sent back", e);
+            }
+            return true;
+        }
+
+        final long start = this.metrics.begin();
+
         final Exchange camelExchange = getEndpoint().createExchange();
         assert camelExchange != null;
 
         final boolean currentFlowTracingActivation = this.provides.isFlowTracingActivated(exchange);
-        Conversions.populateNewCamelExchange(exchange, currentFlowTracingActivation, camelExchange);
+        Conversions.populateNewCamelExchange(exchange, currentFlowTracingActivation, camelExchange,
+                getEndpoint().getHeaderFilterStrategy(), getEndpoint().getAttachmentSpool());
+
+        setDeadline(camelExchange, exchange.getProperty(PetalsCamelComponent.DEADLINE_PROPERTY));
+
+        // so that producers of this route find them even if the route switches threads
+        final FlowAttributes current = PetalsExecutionContext.getFlowAttributes();
+        if (current != null) {
+            camelExchange.setProperty(PetalsCamelComponent.EXCHANGE_FLOW_ATTRIBUTES, current);
+        }
 
         if (getEndpoint().isSynchronous()) {
             // in that case, this method won't return until the route is fully executed
@@ -86,7 +181,7 @@ public class PetalsCamelConsumer extends DefaultConsumer implements PetalsCamelR
                         + exchange.getExchangeId() + ") processed by the route in sync mode ");
             }
 
-            handleAnswer(camelExchange, exchange);
+            handleAnswer(camelExchange, exchange, start);
             return true;
         } else {
             if (this.provides.getLogger().isLoggable(Level.FINE)) {
@@ -94,8 +189,7 @@ public class PetalsCamelConsumer extends DefaultConsumer implements PetalsCamelR
                         + ") with the route in async mode");
             }
 
-            // let's store it for later in case we come back in a different thread
-            final FlowAttributes current = PetalsExecutionContext.getFlowAttributes();
+            // let's keep it for later in case we come back in a different thread
             assert current != null;
 
             return getAsyncProcessor().process(camelExchange, new AsyncCallback() {
@@ -116,14 +210,156 @@ public class PetalsCamelConsumer extends DefaultConsumer implements PetalsCamelR
                                         + (doneSync ? "(but executed in sync mode apparently)" : ""));
                     }
 
-                    handleAnswer(camelExchange, exchange);
+                    handleAnswer(camelExchange, exchange, start);
+                }
+            });
+        }
+    }
+
+    /**
+     * Process an exchange sent by a {@link PetalsCamelProducer} of the same container without going through the NMR:
+     * the route is given a copy of the producer's exchange and the answer is copied back into it once the route is
+     * finished.
+     * 
+     * @param producerExchange
+     *            the exchange of the producer, it will contain the answer when the callback is called
+     * @param targetEndpoint
+     *            the endpoint the producer targeted
+     * @param flowTracingActivation
+     *            the flow tracing activation of the provides for the exchange, as resolved through the NMR
+     * @param producerEndpoint
+     *            the endpoint of the producer, whose body mode and header filter strategy apply as through the NMR
+     * @param doSync
+     *            if the processing must be done synchronously even if the route is asynchronous
+     * @param callback
+     *            called when the answer has been copied back into the producer's exchange
+     * @return <code>true</code> if the processing was done synchronously
+     */
+    public boolean processLocally(final Exchange producerExchange, final @Nullable ServiceEndpoint targetEndpoint,
+            final boolean flowTracingActivation, final PetalsCamelEndpoint producerEndpoint, final boolean doSync,
+            final AsyncCallback callback) {
+
+        this.inFlight.incrementAndGet();
+
+        if (isSuspendingOrSuspended()) {
+            exchangeEnded();
+            producerExchange.setException(suspendedException());
+            callback.done(true);
+            return true;
+        }
+
+        final long start = this.metrics.begin();
+
+        final Exchange camelExchange = getEndpoint().createExchange();
+        assert camelExchange != null;
+
+        Conversions.populateNewLocalCamelExchange(producerExchange, getEndpoint().getService(), targetEndpoint,
+                flowTracingActivation, camelExchange, producerEndpoint.getBodyMode(),
+                producerEndpoint.getHeaderFilterStrategy(), getEndpoint().getHeaderFilterStrategy());
+
+        setDeadline(camelExchange, producerExchange.getProperty(PetalsCamelComponent.EXCHANGE_DEADLINE));
+
+        final FlowAttributes current = PetalsExecutionContext.getFlowAttributes();
+        assert current != null;
+        camelExchange.setProperty(PetalsCamelComponent.EXCHANGE_FLOW_ATTRIBUTES, current);
+
+        if (doSync || getEndpoint().isSynchronous()) {
+
+            if (this.provides.getLogger().isLoggable(Level.FINE)) {
+                this.provides.getLogger().fine("Processing a Camel exchange (with id: "
+                        + producerExchange.getExchangeId() + ") locally with the route in sync mode");
+            }
+
+            try {
+                getProcessor().process(camelExchange);
+            } catch (final Exception e) {
+                this.provides.getLogger().log(Level.SEVERE,
+                        "Just set an error on the Camel Exchange " + producerExchange.getExchangeId(), e);
+                camelExchange.setException(e);
+            }
+
+            populateLocalAnswer(camelExchange, producerExchange, producerEndpoint);
+            recordLocalAnswer(producerExchange, start);
+            exchangeEnded();
+            callback.done(true);
+            return true;
+        } else {
+            if (this.provides.getLogger().isLoggable(Level.FINE)) {
+                this.provides.getLogger().fine("Processing a Camel exchange (with id: "
+                        + producerExchange.getExchangeId() + ") locally with the route in async mode");
+            }
+
+            return getAsyncProcessor().process(camelExchange, new AsyncCallback() {
+                @Override
+                public void done(final boolean doneSync) {
+                    final FlowAttributes previous = PetalsExecutionContext.getFlowAttributes();
+                    PetalsExecutionContext.putFlowAttributes(current);
+                    try {
+                        populateLocalAnswer(camelExchange, producerExchange, producerEndpoint);
+                        recordLocalAnswer(producerExchange, start);
+                        exchangeEnded();
+                        callback.done(doneSync);
+                    } finally {
+                        if (previous == null) {
+                            PetalsExecutionContext.clear();
+                        } else {
+                            PetalsExecutionContext.putFlowAttributes(previous);
+                        }
+                    }
                 }
             });
         }
     }
 
+    private void populateLocalAnswer(final Exchange camelExchange, final Exchange producerExchange,
+            final PetalsCamelEndpoint producerEndpoint) {
+        Conversions.populateLocalAnswerCamelExchange(camelExchange, producerExchange, getEndpoint().getBodyMode(),
+                getEndpoint().getHeaderFilterStrategy(), producerEndpoint.getHeaderFilterStrategy());
+    }
+
+    /**
+     * The deadline of the caller is used if there is one, else the one given by the timeout of the provides.
+     * 
+     * @param callerDeadline
+     *            the deadline of the caller in milliseconds since the epoch, possibly <code>null</code>
+     */
+    private void setDeadline(final Exchange camelExchange, final @Nullable Object callerDeadline) {
+        long deadline = 0;
+        if (callerDeadline instanceof Number) {
+            deadline = ((Number) callerDeadline).longValue();
+        } else if (callerDeadline instanceof String) {
+            try {
+                deadline = Long.parseLong(((String) callerDeadline).trim());
+            } catch (final NumberFormatException e) {
+                this.provides.getLogger().warning("Ignoring the invalid deadline " + callerDeadline + " of exchange "
+                        + camelExchange.getExchangeId());
+            }
+        }
+
+        if (deadline <= 0) {
+            final long timeout = this.provides.getTimeout();
+            if (timeout <= 0) {
+                return;
+            }
+            deadline = System.currentTimeMillis() + timeout;
+        }
+
+        camelExchange.setProperty(PetalsCamelComponent.EXCHANGE_DEADLINE, deadline);
+    }
+
+    private void recordLocalAnswer(final Exchange producerExchange, final long start) {
+        if (producerExchange.getException() != null) {
+            this.metrics.error(start);
+        } else if (producerExchange.hasOut() && Boolean.TRUE
+                .equals(producerExchange.getOut().getHeader(PetalsCamelComponent.MESSAGE_FAULT_HEADER))) {
+            this.metrics.fault(start);
+        } else {
+            this.metrics.success(start);
+        }
+    }
+
     private void handleAnswer(final Exchange camelExchange,
-            final org.ow2.petals.component.framework.api.message.Exchange exchange) {
+            final org.ow2.petals.component.framework.api.message.Exchange exchange, final long start) {
 
         // it costs nothing to also support isFault for outbound messages
         if (camelExchange.hasOut() && camelExchange.getOut().isFault()) {
@@ -134,7 +370,8 @@ public class PetalsCamelConsumer extends DefaultConsumer implements PetalsCamelR
         }
 
         try {
-            Conversions.populateAnswerPetalsExchange(camelExchange, exchange);
+            Conversions.populateAnswerPetalsExchange(camelExchange, exchange, getEndpoint().getBodyMode(),
+                    getEndpoint().getHeaderFilterStrategy(), getEndpoint().getAttachmentSpool());
         } catch (final MessagingException e) {
             // this must be caught before sending to be sure that if an error happens here it is sent back!
             this.provides.getLogger().log(Level.SEVERE,
@@ -142,6 +379,15 @@ public class PetalsCamelConsumer extends DefaultConsumer implements PetalsCamelR
             exchange.setError(e);
         }
 
+        // the latency is the one of the route, the acknowledgment of the answer is not taken into account
+        if (exchange.getError() != null) {
+            this.metrics.error(start);
+        } else if (exchange.getFault() != null) {
+            this.metrics.fault(start);
+        } else {
+            this.metrics.success(start);
+        }
+
         try {
             if (!exchange.isActiveStatus()) {
                 this.provides.send(exchange);
@@ -172,6 +418,8 @@ public class PetalsCamelConsumer extends DefaultConsumer implements PetalsCamelR
             // if the send fails, there is nothing we can do except logging the error
             provides.getLogger().log(Level.SEVERE,
                     "An exchange (" + exchange.getExchangeId() + ") couldn't be sent back", e);
+        } finally {
+            exchangeEnded();
         }
     }
 
@@ -208,6 +456,13 @@ public class PetalsCamelConsumer extends DefaultConsumer implements PetalsCamelR
         }
     }
 
+    /**
+     * @return the flow tracing activation of the provides for an exchange it would receive
+     */
+    public boolean isFlowTracingActivated(final org.ow2.petals.component.framework.api.message.Exchange exchange) {
+        return this.provides.isFlowTracingActivated(exchange);
+    }
+
     @SuppressWarnings("null")
     @Override
     public PetalsCamelEndpoint getEndpoint() {
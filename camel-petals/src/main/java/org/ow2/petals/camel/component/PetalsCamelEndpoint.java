@@ -30,20 +30,25 @@ import org.apache.camel.Producer;
 import org.apache.camel.ResolveEndpointFailedException;
 import org.apache.camel.RuntimeCamelException;
 import org.apache.camel.impl.DefaultEndpoint;
+import org.apache.camel.spi.HeaderFilterStrategy;
+import org.apache.camel.spi.HeaderFilterStrategyAware;
 import org.apache.camel.spi.Metadata;
 import org.apache.camel.spi.UriEndpoint;
 import org.apache.camel.spi.UriParam;
 import org.apache.camel.spi.UriPath;
+import org.apache.camel.util.EndpointHelper;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
+import org.ow2.petals.camel.PetalsChannel.PetalsConsumesChannel;
 import org.ow2.petals.camel.ServiceEndpointOperation;
 import org.ow2.petals.camel.ServiceEndpointOperation.ServiceType;
 import org.ow2.petals.camel.component.exceptions.IncompatibleEndpointUsageException;
 import org.ow2.petals.camel.component.exceptions.InvalidURIException;
+import org.ow2.petals.camel.component.utils.AttachmentSpool;
 
 @UriEndpoint(scheme = "petals", syntax = "petals:serviceId", title = "Petals ESB", label = "jbi,soa,esb", consumerClass = PetalsCamelConsumer.class)
-public class PetalsCamelEndpoint extends DefaultEndpoint {
+public class PetalsCamelEndpoint extends DefaultEndpoint implements HeaderFilterStrategyAware {
 
     @SuppressWarnings("null")
     private static final Pattern URI_PATTERN = Pattern.compile("^[a-zA-Z][\\w.-]*$");
@@ -60,6 +65,38 @@ public class PetalsCamelEndpoint extends DefaultEndpoint {
 
     private static final String PARAMETER_MEP = "exchangePattern";
 
+    private static final String PARAMETER_LOCAL_DISPATCH = "localDispatch";
+
+    private static final String PARAMETER_BODY_MODE = "bodyMode";
+
+    private static final String PARAMETER_MAX_IN_FLIGHT = "maxInFlight";
+
+    private static final String PARAMETER_MAX_IN_FLIGHT_BYTES = "maxInFlightBytes";
+
+    private static final String PARAMETER_IN_FLIGHT_POLICY = "inFlightPolicy";
+
+    private static final String PARAMETER_IN_FLIGHT_QUEUE_SIZE = "inFlightQueueSize";
+
+    private static final String PARAMETER_RESPONSE_CACHE_TTL = "responseCacheTTL";
+
+    private static final String PARAMETER_RESPONSE_CACHE_MAX_SIZE = "responseCacheMaxSize";
+
+    private static final String PARAMETER_COALESCE = "coalesce";
+
+    private static final String PARAMETER_ENDPOINT_SELECTION = "endpointSelection";
+
+    private static final String PARAMETER_HEDGE_DELAY = "hedgeDelay";
+
+    private static final String PARAMETER_HEADER_FILTER_STRATEGY = "headerFilterStrategy";
+
+    private static final String PARAMETER_INCLUDE_HEADERS_TO_PETALS = "includeHeadersToPetals";
+
+    private static final String PARAMETER_EXCLUDE_HEADERS_TO_PETALS = "excludeHeadersToPetals";
+
+    private static final String PARAMETER_INCLUDE_HEADERS_FROM_PETALS = "includeHeadersFromPetals";
+
+    private static final String PARAMETER_EXCLUDE_HEADERS_FROM_PETALS = "excludeHeadersFromPetals";
+
     private static final String FORBIDDEN_FROM_FORMAT = "The parameter %s can't be set on a from() endpoint";
 
     private static final String FORBIDDEN_TO_FORMAT = "The parameter %s can't be set on a to() endpoint";
@@ -89,6 +126,63 @@ public class PetalsCamelEndpoint extends DefaultEndpoint {
     @UriParam(name = PARAMETER_ENDPOINT, description = "If set and the Consumes does not declare any endpoint name, this will be used as the endpoint name of created Exchanges for this endpoint. A service name must also be set.")
     private String endpointName;
 
+    @UriParam(defaultValue = "false", name = PARAMETER_LOCAL_DISPATCH, description = "If true and the service, endpoint and operation of created Exchanges are provided by a route hosted in the same container, the exchanges are directly passed to this route without going through the NMR. Note that the timeout is then not applied.")
+    private boolean localDispatch = false;
+
+    @UriParam(defaultValue = "DOM", name = PARAMETER_BODY_MODE, description = "How bodies that are not XML sources are converted to the content of Petals messages: DOM builds the whole XML tree in memory while STREAM wraps bytes, streams, readers, strings and StAX readers without parsing them. If not set, the one of the service unit is used.")
+    private BodyMode bodyMode;
+
+    @UriParam(defaultValue = "0", name = PARAMETER_MAX_IN_FLIGHT, description = "If greater than 0, the maximum number of exchanges sent by this endpoint that can wait for their answer")
+    private int maxInFlight = 0;
+
+    @UriParam(defaultValue = "0", name = PARAMETER_MAX_IN_FLIGHT_BYTES, description = "If greater than 0, the maximum size of the bodies of the exchanges sent by this endpoint that can wait for their answer. Only bodies whose size is known without reading them (bytes, strings, stream caches) are counted.")
+    private long maxInFlightBytes = 0;
+
+    @UriParam(defaultValue = "BLOCK", name = PARAMETER_IN_FLIGHT_POLICY, description = "What to do with an exchange when maxInFlight or maxInFlightBytes is reached: BLOCK waits (at most for the timeout), REJECT fails the exchange and QUEUE puts it in a bounded queue (synchronous endpoints then block)")
+    private InFlightPolicy inFlightPolicy = InFlightPolicy.BLOCK;
+
+    @UriParam(defaultValue = "1000", name = PARAMETER_IN_FLIGHT_QUEUE_SIZE, description = "The number of exchanges that can wait with the QUEUE in-flight policy, the next ones fail")
+    private int inFlightQueueSize = 1000;
+
+    @UriParam(defaultValue = "0", name = PARAMETER_RESPONSE_CACHE_TTL, description = "If greater than 0, the answers of the InOut exchanges sent by this endpoint are cached for this time in milliseconds and an exchange with the same operation and IN body is answered from the cache. Faults, errors and answers with attachments are never cached. If not set, the one of the consumes is used.")
+    private long responseCacheTTL = 0;
+
+    @UriParam(defaultValue = "10485760", name = PARAMETER_RESPONSE_CACHE_MAX_SIZE, description = "The maximum size in bytes of the answers cached by this endpoint, the least recently used are evicted first. If not set, the one of the consumes is used.")
+    private long responseCacheMaxSize = ResponseCache.DEFAULT_MAX_SIZE;
+
+    @UriParam(defaultValue = "false", name = PARAMETER_COALESCE, description = "If true, an InOut exchange with the same operation and IN body as an exchange already sent by this endpoint and not yet answered is not sent: it gets a copy of the answer of the latter")
+    private boolean coalesce = false;
+
+    @UriParam(defaultValue = "NMR", name = PARAMETER_ENDPOINT_SELECTION, description = "How the endpoint of the created Exchanges is chosen when neither the Consumes nor this endpoint set one: NMR lets the NMR choose, POWER_OF_TWO_CHOICES picks two endpoints of the service (or interface) at random and chooses the one with the lowest latency weighted by its exchanges in flight and errors, and LEAST_LATENCY chooses the lowest of all the endpoints")
+    private EndpointSelection endpointSelection = EndpointSelection.NMR;
+
+    @Nullable
+    @UriParam(name = PARAMETER_HEDGE_DELAY, description = "If set, an InOut exchange that is not answered within this delay is sent again to another endpoint of the service, the first answer is used and the other is acknowledged when it arrives. It is either a time in milliseconds or a percentile of the latencies of the last answers, such as p95. The primary endpoint must be chosen by the producer (see endpointSelection), so it can't be used if the Consumes or this endpoint set an endpoint name. The IN body is read once as bytes before the first send.")
+    private String hedgeDelay;
+
+    private long hedgeFixedDelay = 0;
+
+    private double hedgePercentile = 0;
+
+    @UriParam(name = PARAMETER_HEADER_FILTER_STRATEGY, description = "A reference to the HeaderFilterStrategy deciding which headers of the Camel messages become properties of the Petals messages and the other way around. If not set, the one of the component is used: by default it drops the Camel internals (Camel*, org.apache.camel.* and breadcrumbId).")
+    private HeaderFilterStrategy headerFilterStrategy;
+
+    @Nullable
+    @UriParam(name = PARAMETER_INCLUDE_HEADERS_TO_PETALS, description = "If set, only the Camel headers matching this regular expression become properties of the Petals messages. It can't be used with headerFilterStrategy.")
+    private String includeHeadersToPetals;
+
+    @Nullable
+    @UriParam(defaultValue = PetalsHeaderFilterStrategy.DEFAULT_EXCLUDE, name = PARAMETER_EXCLUDE_HEADERS_TO_PETALS, description = "The Camel headers matching this regular expression don't become properties of the Petals messages, set it to an empty value to keep all of them. It can't be used with headerFilterStrategy.")
+    private String excludeHeadersToPetals;
+
+    @Nullable
+    @UriParam(name = PARAMETER_INCLUDE_HEADERS_FROM_PETALS, description = "If set, only the properties of the Petals messages matching this regular expression become Camel headers. It can't be used with headerFilterStrategy.")
+    private String includeHeadersFromPetals;
+
+    @Nullable
+    @UriParam(defaultValue = PetalsHeaderFilterStrategy.DEFAULT_EXCLUDE, name = PARAMETER_EXCLUDE_HEADERS_FROM_PETALS, description = "The properties of the Petals messages matching this regular expression don't become Camel headers, set it to an empty value to keep all of them. It can't be used with headerFilterStrategy.")
+    private String excludeHeadersFromPetals;
+
     public PetalsCamelEndpoint(final String endpointUri, final PetalsCamelComponent component, final String remaining)
             throws Exception {
         super(endpointUri, component);
@@ -103,12 +197,20 @@ public class PetalsCamelEndpoint extends DefaultEndpoint {
         
         this.service = component.getContext().getService(serviceId);
 
+        this.bodyMode = component.getBodyMode();
+
+        this.headerFilterStrategy = component.getHeaderFilterStrategy();
+
         if (this.service.getType() == ServiceType.PROVIDES) {
             final URI serviceMEP = this.service.getMEP();
             assert serviceMEP != null;
 
             // this will be used to set the Camel Exchange MEP
             setExchangePattern(ExchangePattern.fromWsdlUri(serviceMEP.toString()));
+        } else {
+            final PetalsConsumesChannel consumes = component.getContext().getConsumesChannel(this.service);
+            this.responseCacheTTL = consumes.getResponseCacheTTL();
+            this.responseCacheMaxSize = consumes.getResponseCacheMaxSize();
         }
     }
 
@@ -204,6 +306,158 @@ public class PetalsCamelEndpoint extends DefaultEndpoint {
 
             this.operation = QName.valueOf(operation);
         }
+
+        final String localDispatchParameter = (String) options.remove(PARAMETER_LOCAL_DISPATCH);
+        if (localDispatchParameter != null) {
+            if (this.service.getType() == ServiceType.PROVIDES) {
+                throw new RuntimeCamelException(String.format(FORBIDDEN_FROM_FORMAT, PARAMETER_LOCAL_DISPATCH));
+            }
+
+            this.localDispatch = Boolean.parseBoolean(localDispatchParameter);
+        }
+
+        final String bodyModeParameter = (String) options.remove(PARAMETER_BODY_MODE);
+        if (bodyModeParameter != null) {
+            this.bodyMode = BodyMode.parse(bodyModeParameter);
+        }
+
+        final String maxInFlightParameter = (String) options.remove(PARAMETER_MAX_IN_FLIGHT);
+        if (maxInFlightParameter != null) {
+            if (this.service.getType() == ServiceType.PROVIDES) {
+                throw new RuntimeCamelException(String.format(FORBIDDEN_FROM_FORMAT, PARAMETER_MAX_IN_FLIGHT));
+            }
+
+            this.maxInFlight = Integer.parseInt(maxInFlightParameter);
+        }
+
+        final String maxInFlightBytesParameter = (String) options.remove(PARAMETER_MAX_IN_FLIGHT_BYTES);
+        if (maxInFlightBytesParameter != null) {
+            if (this.service.getType() == ServiceType.PROVIDES) {
+                throw new RuntimeCamelException(String.format(FORBIDDEN_FROM_FORMAT, PARAMETER_MAX_IN_FLIGHT_BYTES));
+            }
+
+            this.maxInFlightBytes = Long.parseLong(maxInFlightBytesParameter);
+        }
+
+        final String inFlightPolicyParameter = (String) options.remove(PARAMETER_IN_FLIGHT_POLICY);
+        if (inFlightPolicyParameter != null) {
+            if (this.service.getType() == ServiceType.PROVIDES) {
+                throw new RuntimeCamelException(String.format(FORBIDDEN_FROM_FORMAT, PARAMETER_IN_FLIGHT_POLICY));
+            }
+
+            this.inFlightPolicy = InFlightPolicy.parse(inFlightPolicyParameter);
+        }
+
+        final String inFlightQueueSizeParameter = (String) options.remove(PARAMETER_IN_FLIGHT_QUEUE_SIZE);
+        if (inFlightQueueSizeParameter != null) {
+            if (this.service.getType() == ServiceType.PROVIDES) {
+                throw new RuntimeCamelException(String.format(FORBIDDEN_FROM_FORMAT, PARAMETER_IN_FLIGHT_QUEUE_SIZE));
+            }
+
+            this.inFlightQueueSize = Integer.parseInt(inFlightQueueSizeParameter);
+        }
+
+        final String responseCacheTTLParameter = (String) options.remove(PARAMETER_RESPONSE_CACHE_TTL);
+        if (responseCacheTTLParameter != null) {
+            if (this.service.getType() == ServiceType.PROVIDES) {
+                throw new RuntimeCamelException(String.format(FORBIDDEN_FROM_FORMAT, PARAMETER_RESPONSE_CACHE_TTL));
+            }
+
+            this.responseCacheTTL = Long.parseLong(responseCacheTTLParameter);
+        }
+
+        final String responseCacheMaxSizeParameter = (String) options.remove(PARAMETER_RESPONSE_CACHE_MAX_SIZE);
+        if (responseCacheMaxSizeParameter != null) {
+            if (this.service.getType() == ServiceType.PROVIDES) {
+                throw new RuntimeCamelException(
+                        String.format(FORBIDDEN_FROM_FORMAT, PARAMETER_RESPONSE_CACHE_MAX_SIZE));
+            }
+
+            this.responseCacheMaxSize = Long.parseLong(responseCacheMaxSizeParameter);
+        }
+
+        final String coalesceParameter = (String) options.remove(PARAMETER_COALESCE);
+        if (coalesceParameter != null) {
+            if (this.service.getType() == ServiceType.PROVIDES) {
+                throw new RuntimeCamelException(String.format(FORBIDDEN_FROM_FORMAT, PARAMETER_COALESCE));
+            }
+
+            this.coalesce = Boolean.parseBoolean(coalesceParameter);
+        }
+
+        final String endpointSelectionParameter = (String) options.remove(PARAMETER_ENDPOINT_SELECTION);
+        if (endpointSelectionParameter != null) {
+            if (this.service.getType() == ServiceType.PROVIDES) {
+                throw new RuntimeCamelException(String.format(FORBIDDEN_FROM_FORMAT, PARAMETER_ENDPOINT_SELECTION));
+            }
+
+            this.endpointSelection = EndpointSelection.parse(endpointSelectionParameter);
+        }
+
+        final String hedgeDelayParameter = (String) options.remove(PARAMETER_HEDGE_DELAY);
+        if (hedgeDelayParameter != null) {
+            if (this.service.getType() == ServiceType.PROVIDES) {
+                throw new RuntimeCamelException(String.format(FORBIDDEN_FROM_FORMAT, PARAMETER_HEDGE_DELAY));
+            }
+
+            if (this.endpointName != null || this.service.getEndpoint() != null) {
+                throw new RuntimeCamelException(String.format(FORBIDDEN_TO_FORMAT, PARAMETER_HEDGE_DELAY)
+                        + " if an endpoint name is set");
+            }
+
+            // the hedge must go to another endpoint than the primary exchange, which must thus be known
+            if (this.endpointSelection == EndpointSelection.NMR) {
+                throw new RuntimeCamelException(String.format(FORBIDDEN_TO_FORMAT, PARAMETER_HEDGE_DELAY)
+                        + " if the NMR chooses the endpoint (" + PARAMETER_ENDPOINT_SELECTION + ")");
+            }
+
+            final String value = hedgeDelayParameter.trim();
+            if (value.startsWith("p") || value.startsWith("P")) {
+                this.hedgePercentile = Double.parseDouble(value.substring(1));
+                if (this.hedgePercentile <= 0 || this.hedgePercentile >= 100) {
+                    throw new RuntimeCamelException("Invalid percentile for " + PARAMETER_HEDGE_DELAY + ": " + value);
+                }
+            } else {
+                this.hedgeFixedDelay = Long.parseLong(value);
+            }
+            this.hedgeDelay = value;
+        }
+
+        final String headerFilterStrategyParameter = (String) options.remove(PARAMETER_HEADER_FILTER_STRATEGY);
+        final String includeToPetalsParameter = (String) options.remove(PARAMETER_INCLUDE_HEADERS_TO_PETALS);
+        final String excludeToPetalsParameter = (String) options.remove(PARAMETER_EXCLUDE_HEADERS_TO_PETALS);
+        final String includeFromPetalsParameter = (String) options.remove(PARAMETER_INCLUDE_HEADERS_FROM_PETALS);
+        final String excludeFromPetalsParameter = (String) options.remove(PARAMETER_EXCLUDE_HEADERS_FROM_PETALS);
+        final boolean patterns = includeToPetalsParameter != null || excludeToPetalsParameter != null
+                || includeFromPetalsParameter != null || excludeFromPetalsParameter != null;
+        if (headerFilterStrategyParameter != null) {
+            if (patterns) {
+                throw new RuntimeCamelException("The parameter " + PARAMETER_HEADER_FILTER_STRATEGY
+                        + " can't be set together with header patterns");
+            }
+
+            this.headerFilterStrategy = EndpointHelper.resolveReferenceParameter(getCamelContext(),
+                    headerFilterStrategyParameter, HeaderFilterStrategy.class);
+        } else if (patterns) {
+            final PetalsHeaderFilterStrategy filter = new PetalsHeaderFilterStrategy();
+            if (includeToPetalsParameter != null) {
+                filter.setIncludeToPetals(includeToPetalsParameter);
+            }
+            if (excludeToPetalsParameter != null) {
+                filter.setExcludeToPetals(excludeToPetalsParameter);
+            }
+            if (includeFromPetalsParameter != null) {
+                filter.setIncludeFromPetals(includeFromPetalsParameter);
+            }
+            if (excludeFromPetalsParameter != null) {
+                filter.setExcludeFromPetals(excludeFromPetalsParameter);
+            }
+            this.includeHeadersToPetals = filter.getIncludeToPetals();
+            this.excludeHeadersToPetals = filter.getExcludeToPetals();
+            this.includeHeadersFromPetals = filter.getIncludeFromPetals();
+            this.excludeHeadersFromPetals = filter.getExcludeFromPetals();
+            this.headerFilterStrategy = filter;
+        }
     }
 
 
@@ -227,6 +481,110 @@ public class PetalsCamelEndpoint extends DefaultEndpoint {
         return mep;
     }
 
+    public boolean isLocalDispatch() {
+        return localDispatch;
+    }
+
+    public BodyMode getBodyMode() {
+        return bodyMode;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    public InFlightPolicy getInFlightPolicy() {
+        return inFlightPolicy;
+    }
+
+    public int getInFlightQueueSize() {
+        return inFlightQueueSize;
+    }
+
+    public long getResponseCacheTTL() {
+        return responseCacheTTL;
+    }
+
+    public long getResponseCacheMaxSize() {
+        return responseCacheMaxSize;
+    }
+
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    public EndpointSelection getEndpointSelection() {
+        return endpointSelection;
+    }
+
+    /**
+     * @return the hedge delay as configured, <code>null</code> if the exchanges are not hedged
+     */
+    public @Nullable String getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * @return in milliseconds, 0 if the delay is a percentile or if the exchanges are not hedged
+     */
+    public long getHedgeFixedDelay() {
+        return hedgeFixedDelay;
+    }
+
+    /**
+     * @return between 0 and 100, 0 if the delay is fixed or if the exchanges are not hedged
+     */
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public boolean isHedging() {
+        return hedgeFixedDelay > 0 || hedgePercentile > 0;
+    }
+
+    @Override
+    public HeaderFilterStrategy getHeaderFilterStrategy() {
+        return headerFilterStrategy;
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public void setHeaderFilterStrategy(final HeaderFilterStrategy headerFilterStrategy) {
+        assert headerFilterStrategy != null;
+        this.headerFilterStrategy = headerFilterStrategy;
+    }
+
+    public @Nullable String getIncludeHeadersToPetals() {
+        return includeHeadersToPetals;
+    }
+
+    public @Nullable String getExcludeHeadersToPetals() {
+        return excludeHeadersToPetals;
+    }
+
+    public @Nullable String getIncludeHeadersFromPetals() {
+        return includeHeadersFromPetals;
+    }
+
+    public @Nullable String getExcludeHeadersFromPetals() {
+        return excludeHeadersFromPetals;
+    }
+
+    /**
+     * @return the spool of the large attachments of the SU, if there is one
+     */
+    public @Nullable AttachmentSpool getAttachmentSpool() {
+        return getComponent().getAttachmentSpool();
+    }
+
+    public String getServiceId() {
+        return serviceId;
+    }
+
     public ServiceEndpointOperation getService() {
         return service;
     }
@@ -18,30 +18,58 @@
 package org.ow2.petals.camel.component;
 
 
+import java.net.URI;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.jbi.messaging.MessagingException;
 import javax.jbi.servicedesc.ServiceEndpoint;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.camel.AsyncCallback;
+import org.apache.camel.BytesSource;
+import org.apache.camel.CamelExchangeException;
 import org.apache.camel.Exchange;
+import org.apache.camel.InvalidPayloadException;
+import org.apache.camel.Message;
 import org.apache.camel.impl.DefaultAsyncProducer;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
+import org.ow2.petals.camel.PetalsCamelRoute;
 import org.ow2.petals.camel.PetalsChannel.PetalsConsumesChannel;
 import org.ow2.petals.camel.PetalsChannel.SendAsyncCallback;
+import org.ow2.petals.camel.ServiceEndpointOperation;
+import org.ow2.petals.camel.component.exceptions.CircuitBreakerOpenException;
+import org.ow2.petals.camel.component.exceptions.DeadlineExceededException;
+import org.ow2.petals.camel.component.exceptions.InFlightLimitExceededException;
 import org.ow2.petals.camel.component.utils.Conversions;
+import org.ow2.petals.camel.component.utils.Messages;
+import org.ow2.petals.camel.metrics.EndpointMetrics;
+import org.ow2.petals.camel.metrics.ExchangeJournal;
+import org.ow2.petals.camel.metrics.ServiceMetrics;
 import org.ow2.petals.commons.log.FlowAttributes;
 import org.ow2.petals.commons.log.Level;
 import org.ow2.petals.commons.log.PetalsExecutionContext;
 import org.ow2.petals.component.framework.api.monitoring.MonitTraceLogger;
 import org.ow2.petals.component.framework.logger.ConsumeExtFlowStepBeginLogData;
+import org.ow2.petals.component.framework.logger.ConsumeExtFlowStepEndLogData;
 import org.ow2.petals.component.framework.logger.ConsumeExtFlowStepFailureLogData;
+import org.ow2.petals.component.framework.logger.ProvideFlowStepBeginLogData;
+import org.ow2.petals.component.framework.logger.ProvideFlowStepEndLogData;
+import org.ow2.petals.component.framework.logger.ProvideFlowStepFailureLogData;
 import org.ow2.petals.component.framework.logger.StepLogHelper;
 import org.ow2.petals.component.framework.util.exception.InvalidFlowTracingActivationExchangePropertyValueException;
 
+import com.google.common.util.concurrent.Uninterruptibles;
+
 /**
  * A PetalsProducer get messages from Camel and send them to a Petals service
  * 
@@ -65,11 +93,139 @@ public class PetalsCamelProducer extends DefaultAsyncProducer {
 
     private final MonitTraceLogger monitTraceLogger;
 
+    private final ServiceMetrics metrics;
+
+    private final ExchangeJournal journal;
+
+    private final ExchangeTemplate template;
+
+    /**
+     * <code>null</code> if the endpoint has no in-flight limits
+     */
+    private final @Nullable InFlightLimiter limiter;
+
+    /**
+     * Sends the queued exchanges, <code>null</code> if the endpoint does not queue them or the producer is stopped
+     */
+    private volatile @Nullable ExecutorService queuedExecutor;
+
+    /**
+     * <code>null</code> if the answers are not cached
+     */
+    private final @Nullable ResponseCache responseCache;
+
+    /**
+     * <code>null</code> if the concurrent exchanges with the same request are not coalesced
+     */
+    private final @Nullable RequestCoalescer coalescer;
+
+    /**
+     * <code>null</code> if the consumes has no circuit breaker
+     */
+    private final @Nullable CircuitBreaker circuitBreaker;
+
+    /**
+     * <code>null</code> if the NMR chooses the endpoint of the exchanges
+     */
+    private final @Nullable EndpointSelector endpointSelector;
+
+    /**
+     * <code>null</code> if the exchanges are not hedged
+     */
+    private final @Nullable Hedger hedger;
+
+    /**
+     * Creates and sends the hedge exchanges, <code>null</code> if the exchanges are not hedged or the producer is
+     * stopped
+     */
+    private volatile @Nullable ExecutorService hedgeExecutor;
+
+    /**
+     * Triggers the hedges once their delay elapsed, <code>null</code> if the exchanges are not hedged or the producer
+     * is stopped
+     */
+    private volatile @Nullable ScheduledExecutorService hedgeScheduler;
+
     public PetalsCamelProducer(final PetalsCamelEndpoint endpoint) {
         super(endpoint);
         this.component = endpoint.getComponent();
         this.consumes = this.component.getContext().getConsumesChannel(endpoint.getService());
         this.monitTraceLogger = this.component.getContext().getMonitTraceLogger();
+        this.metrics = this.component.getContext().getMetrics().getServiceMetrics(endpoint.getServiceId());
+        this.journal = this.component.getContext().getJournal();
+        this.template = new ExchangeTemplate(endpoint, this.consumes);
+        if (endpoint.getMaxInFlight() > 0 || endpoint.getMaxInFlightBytes() > 0) {
+            this.limiter = new InFlightLimiter(endpoint.getMaxInFlight(), endpoint.getMaxInFlightBytes(),
+                    endpoint.getInFlightQueueSize(), this.metrics);
+        } else {
+            this.limiter = null;
+        }
+        if (endpoint.getResponseCacheTTL() > 0) {
+            this.responseCache = new ResponseCache(endpoint.getResponseCacheTTL(), endpoint.getResponseCacheMaxSize(),
+                    this.metrics);
+        } else {
+            this.responseCache = null;
+        }
+        if (endpoint.isCoalesce()) {
+            this.coalescer = new RequestCoalescer(this.metrics);
+        } else {
+            this.coalescer = null;
+        }
+        this.circuitBreaker = this.consumes.getCircuitBreaker();
+        if (endpoint.getEndpointSelection() != EndpointSelection.NMR && this.template.getTargetEndpointName() == null) {
+            this.endpointSelector = new EndpointSelector(endpoint.getEndpointSelection(), this.consumes,
+                    endpoint.getService().getInterface(), this.template.getServiceName(), this.metrics);
+        } else {
+            this.endpointSelector = null;
+        }
+        // the hedge must go to another endpoint than the primary exchange, so the producer must know the latter
+        if (endpoint.isHedging() && this.template.getTargetEndpointName() == null && this.endpointSelector == null) {
+            this.consumes.getLogger().warning("The exchanges of " + endpoint.getEndpointUri()
+                    + " are not hedged: their endpoint is chosen by the NMR (see endpointSelection)");
+            this.hedger = null;
+        } else if (endpoint.isHedging()) {
+            this.hedger = new Hedger(endpoint.getHedgeFixedDelay(), endpoint.getHedgePercentile());
+        } else {
+            this.hedger = null;
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        if (this.limiter != null && getEndpoint().getInFlightPolicy() == InFlightPolicy.QUEUE) {
+            this.queuedExecutor = getEndpoint().getCamelContext().getExecutorServiceManager()
+                    .newCachedThreadPool(this, "PetalsQueuedExchanges");
+        }
+        if (this.hedger != null) {
+            this.hedgeScheduler = getEndpoint().getComponent().getHedgeScheduler();
+            this.hedgeExecutor = getEndpoint().getCamelContext().getExecutorServiceManager()
+                    .newCachedThreadPool(this, "PetalsHedgeExchanges");
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        final ExecutorService queuedExecutor = this.queuedExecutor;
+        this.queuedExecutor = null;
+        final InFlightLimiter limiter = this.limiter;
+        if (limiter != null) {
+            // they would else wait forever for an answer that will never come
+            limiter.cancelQueued();
+        }
+        if (queuedExecutor != null) {
+            // the exchanges already dispatched are answered as usual
+            getEndpoint().getCamelContext().getExecutorServiceManager().shutdown(queuedExecutor);
+        }
+        // the scheduler is shared by the producers of the component, which stops it
+        this.hedgeScheduler = null;
+        final ExecutorService hedgeExecutor = this.hedgeExecutor;
+        this.hedgeExecutor = null;
+        if (hedgeExecutor != null) {
+            // the primary exchanges are still answered, they are just not hedged anymore
+            getEndpoint().getCamelContext().getExecutorServiceManager().shutdown(hedgeExecutor);
+        }
+        super.doStop();
     }
 
     @NonNullByDefault(false)
@@ -115,22 +271,500 @@ public class PetalsCamelProducer extends DefaultAsyncProducer {
      * @return <code>true</code> if the processing was done synchronously
      */
     private boolean process(final Exchange camelExchange, final boolean doSync, final AsyncCallback callback) {
+        final ResponseCache responseCache = this.responseCache;
+        final RequestCoalescer coalescer = this.coalescer;
+        if (responseCache == null && coalescer == null) {
+            return send(camelExchange, doSync, callback);
+        }
 
-        final long timeout = getEndpoint().getTimeout();
+        final Optional<Boolean> flowTracingActivation;
+        try {
+            if (!isInOut(camelExchange)) {
+                return send(camelExchange, doSync, callback);
+            }
+            flowTracingActivation = isFlowTracingActivated(camelExchange);
+        } catch (final Exception e) {
+            this.consumes.getLogger().log(Level.SEVERE,
+                    "Just set an error on the Camel Exchange " + camelExchange.getExchangeId(), e);
+            camelExchange.setException(e);
+            callback.done(true);
+            return true;
+        }
 
+        final String key = requestKey(camelExchange);
+        if (key == null) {
+            return send(camelExchange, doSync, callback);
+        }
+
+        if (responseCache != null && responseCache.answer(key, camelExchange)) {
+            if (this.consumes.getLogger().isLoggable(Level.FINE)) {
+                this.consumes.getLogger().fine("The Camel exchange (with id: " + camelExchange.getExchangeId()
+                        + ") was answered from the response cache");
+            }
+            answeredFromCache(camelExchange, flowTracingActivation);
+            callback.done(true);
+            return true;
+        }
+
+        final AsyncCallback sentCallback = responseCache == null ? callback
+                : caching(responseCache, key, camelExchange, callback);
+
+        if (coalescer == null) {
+            return send(camelExchange, doSync, sentCallback);
+        } else {
+            return processCoalesced(coalescer, key, camelExchange, doSync, sentCallback, callback,
+                    flowTracingActivation);
+        }
+    }
+
+    /**
+     * @return <code>null</code> if the request can't be identified (for example if its body is not XML), it is then
+     *         sent as if its answers were neither cached nor shared
+     */
+    private @Nullable String requestKey(final Exchange camelExchange) {
+        try {
+            return Messages.requestKey(camelExchange, this.template.getTargetOperation());
+        } catch (final InvalidPayloadException | XMLStreamException | RuntimeException e) {
+            if (this.consumes.getLogger().isLoggable(Level.FINE)) {
+                this.consumes.getLogger().fine("The request of the Camel exchange (with id: "
+                        + camelExchange.getExchangeId() + ") can't be identified, it is sent as is: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * An answer from the cache is accounted and traced as if the exchange went through a provider, so that the
+     * metrics and MONIT traces of the flow stay complete.
+     */
+    private void answeredFromCache(final Exchange camelExchange, final Optional<Boolean> flowTracingActivation) {
+        endUnsentStep(camelExchange, beginUnsentStep(camelExchange, flowTracingActivation));
+    }
+
+    /**
+     * The provide step of an exchange answered without being sent: from the response cache or with the answer of the
+     * exchange sent with the same request.
+     */
+    private static final class UnsentStep {
+
+        private final long start;
+
+        private final FlowAttributes provideStep;
+
+        private final Optional<Boolean> flowTracingActivation;
+
+        /**
+         * Not <code>null</code> if the flow started with this exchange
+         */
+        private final @Nullable FlowAttributes faAsBC;
+
+        private UnsentStep(final long start, final FlowAttributes provideStep,
+                final Optional<Boolean> flowTracingActivation, final @Nullable FlowAttributes faAsBC) {
+            this.start = start;
+            this.provideStep = provideStep;
+            this.flowTracingActivation = flowTracingActivation;
+            this.faAsBC = faAsBC;
+        }
+    }
+
+    private UnsentStep beginUnsentStep(final Exchange camelExchange, final Optional<Boolean> flowTracingActivation) {
+        final long start = this.metrics.begin();
+
+        final Object routeFlowAttributes = camelExchange.getProperty(PetalsCamelComponent.EXCHANGE_FLOW_ATTRIBUTES);
+        final FlowAttributes previous = PetalsExecutionContext.getFlowAttributes();
+
+        final FlowAttributes caller;
         final FlowAttributes faAsBC;
-        if (PetalsExecutionContext.getFlowAttributes() == null) {
-            // if there is no flow attributes set, it can means 3 things:
+        if (routeFlowAttributes instanceof FlowAttributes) {
+            caller = (FlowAttributes) routeFlowAttributes;
+            faAsBC = null;
+        } else if (previous != null) {
+            caller = previous;
+            faAsBC = null;
+        } else {
+            // as in dispatch(), we are acting as a BC: the flow starts here
+            faAsBC = PetalsExecutionContext.initFlowAttributes();
+            restoreFlowAttributes(previous);
+            this.journal.record(ExchangeJournal.Event.NEW_FLOW, faAsBC.getFlowInstanceId());
+            camelExchange.setProperty(PetalsCamelComponent.EXCHANGE_FLOW_ATTRIBUTES, faAsBC);
+            this.monitTraceLogger.logMonitTrace(
+                    new ConsumeExtFlowStepBeginLogData(faAsBC.getFlowInstanceId(), faAsBC.getFlowStepId()));
+            caller = faAsBC;
+        }
+
+        final FlowAttributes provideStep = new FlowAttributes(caller.getFlowInstanceId(),
+                UUID.randomUUID().toString());
+        this.monitTraceLogger.logMonitTrace(flowTracingActivation,
+                new ProvideFlowStepBeginLogData(provideStep.getFlowInstanceId(), provideStep.getFlowStepId(),
+                        getEndpoint().getService().getInterface(), this.template.getServiceName(),
+                        this.template.getTargetEndpointName(), this.template.getTargetOperation(),
+                        caller.getFlowStepId()));
+
+        return new UnsentStep(start, provideStep, flowTracingActivation, faAsBC);
+    }
+
+    private void endUnsentStep(final Exchange camelExchange, final UnsentStep step) {
+        traceAnswer(camelExchange, step.provideStep, step.flowTracingActivation, step.faAsBC, step.start,
+                "A fault was returned to the exchange sent with the same request");
+    }
+
+    private static AsyncCallback caching(final ResponseCache responseCache, final String key,
+            final Exchange camelExchange, final AsyncCallback callback) {
+        return new AsyncCallback() {
+            @Override
+            public void done(final boolean doneSync) {
+                responseCache.store(key, camelExchange);
+                callback.done(doneSync);
+            }
+        };
+    }
+
+    /**
+     * Only the first of the concurrent exchanges with the same request is sent, the others get a copy of its answer.
+     * These are accounted and traced as if they went through a provider, as the answers from the cache.
+     * 
+     * @param sentCallback
+     *            the callback to use if the exchange is sent
+     * @param callback
+     *            the callback to use if the exchange gets the answer of another one
+     */
+    private boolean processCoalesced(final RequestCoalescer coalescer, final String key, final Exchange camelExchange,
+            final boolean doSync, final AsyncCallback sentCallback, final AsyncCallback callback,
+            final Optional<Boolean> flowTracingActivation) {
+
+        // as in dispatch(), there is no need to wait for an answer the caller of the route would not wait for
+        final Object deadline = camelExchange.getProperty(PetalsCamelComponent.EXCHANGE_DEADLINE);
+        if (deadline instanceof Long) {
+            final long remaining = (Long) deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return expire(camelExchange, -remaining, callback);
+            }
+        }
+
+        final CoalescedCallback coalescedCallback = doSync ? null : new CoalescedCallback(camelExchange, callback);
+        final RequestCoalescer.Flight flight;
+        // null if the exchange is the one sent
+        final @Nullable UnsentStep step;
+        if (coalescedCallback == null) {
+            flight = coalescer.join(key, camelExchange, null);
+            step = flight.isLeader(camelExchange) ? null : beginUnsentStep(camelExchange, flowTracingActivation);
+        } else {
+            // the answer can be copied as soon as the exchange joined the flight, but it must wait for the step to
+            // have begun
+            synchronized (coalescedCallback) {
+                flight = coalescer.join(key, camelExchange, coalescedCallback);
+                step = flight.isLeader(camelExchange) ? null : beginUnsentStep(camelExchange, flowTracingActivation);
+                coalescedCallback.step = step;
+            }
+        }
+
+        if (step == null) {
+            return send(camelExchange, doSync, new AsyncCallback() {
+                @Override
+                public void done(final boolean doneSync) {
+                    // the waiters must be completed first: the callback can let Camel reuse this exchange
+                    coalescer.complete(flight);
+                    sentCallback.done(doneSync);
+                }
+            });
+        }
+
+        if (this.consumes.getLogger().isLoggable(Level.FINE)) {
+            this.consumes.getLogger().fine("The Camel exchange (with id: " + camelExchange.getExchangeId()
+                    + ") waits for the answer of the same request already sent");
+        }
+
+        if (doSync) {
+            flight.await();
+            endUnsentStep(camelExchange, step);
+            callback.done(true);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Ends the step of an exchange waiting asynchronously for the answer of the exchange sent with the same request
+     */
+    private class CoalescedCallback implements AsyncCallback {
+
+        private final Exchange camelExchange;
+
+        private final AsyncCallback callback;
+
+        /**
+         * Set (while holding the lock of this callback) once the exchange joined the flight
+         */
+        private @Nullable UnsentStep step;
+
+        private CoalescedCallback(final Exchange camelExchange, final AsyncCallback callback) {
+            this.camelExchange = camelExchange;
+            this.callback = callback;
+        }
+
+        @Override
+        public void done(final boolean doneSync) {
+            final UnsentStep step;
+            synchronized (this) {
+                step = this.step;
+            }
+            assert step != null;
+            endUnsentStep(this.camelExchange, step);
+            this.callback.done(doneSync);
+        }
+    }
+
+    private boolean send(final Exchange camelExchange, final boolean doSync, final AsyncCallback callback) {
+        final InFlightLimiter limiter = this.limiter;
+        if (limiter == null) {
+            return dispatch(camelExchange, doSync, callback);
+        } else {
+            return processLimited(limiter, camelExchange, doSync, callback);
+        }
+    }
+
+    /**
+     * The exchange is only dispatched if the in-flight limits allow it, and it is released when its answer is handled.
+     */
+    private boolean processLimited(final InFlightLimiter limiter, final Exchange camelExchange, final boolean doSync,
+            final AsyncCallback callback) {
+
+        final long bytes = InFlightLimiter.sizeOf(camelExchange.getIn().getBody());
+
+        if (getEndpoint().getInFlightPolicy() == InFlightPolicy.QUEUE && !doSync) {
+            final FlowAttributes queuedFlowAttributes = PetalsExecutionContext.getFlowAttributes();
+            final InFlightLimiter.Admission admission = limiter.acquireOrQueue(bytes,
+                    new InFlightLimiter.QueuedTask() {
+                        @Override
+                        public void run() {
+                            // we are called by the thread of another exchange that has just been answered: it must
+                            // not be held by this one
+                            final ExecutorService executor = PetalsCamelProducer.this.queuedExecutor;
+                            try {
+                                if (executor == null) {
+                                    throw new RejectedExecutionException();
+                                }
+                                executor.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        dispatchQueued(limiter, bytes, camelExchange, queuedFlowAttributes,
+                                                callback);
+                                    }
+                                });
+                            } catch (final RejectedExecutionException e) {
+                                limiter.release(bytes);
+                                cancel();
+                            }
+                        }
+
+                        @Override
+                        public void cancel() {
+                            cancelQueued(camelExchange, callback);
+                        }
+                    });
+
+            switch (admission) {
+                case ACQUIRED:
+                    return dispatch(camelExchange, doSync, releasing(limiter, bytes, callback));
+                case QUEUED:
+                    if (this.consumes.getLogger().isLoggable(Level.FINE)) {
+                        this.consumes.getLogger().fine("Too many exchanges in flight, the Camel exchange (with id: "
+                                + camelExchange.getExchangeId() + ") is queued");
+                    }
+                    return false;
+                default:
+                    return reject(limiter, camelExchange, callback);
+            }
+        }
+
+        final boolean acquired;
+        if (getEndpoint().getInFlightPolicy() == InFlightPolicy.REJECT) {
+            acquired = limiter.tryAcquire(bytes);
+        } else {
+            try {
+                acquired = limiter.acquire(bytes, this.template.getTimeout());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                camelExchange.setException(e);
+                callback.done(true);
+                return true;
+            }
+        }
+
+        if (acquired) {
+            return dispatch(camelExchange, doSync, releasing(limiter, bytes, callback));
+        } else {
+            return reject(limiter, camelExchange, callback);
+        }
+    }
+
+    private void dispatchQueued(final InFlightLimiter limiter, final long bytes, final Exchange camelExchange,
+            final @Nullable FlowAttributes queuedFlowAttributes, final AsyncCallback callback) {
+        final FlowAttributes previous = PetalsExecutionContext.getFlowAttributes();
+        if (queuedFlowAttributes != null) {
+            PetalsExecutionContext.putFlowAttributes(queuedFlowAttributes);
+        }
+        try {
+            dispatch(camelExchange, false, new AsyncCallback() {
+                @Override
+                public void done(final boolean doneSync) {
+                    limiter.release(bytes);
+                    // we already told Camel that this is done asynchronously
+                    callback.done(false);
+                }
+            });
+        } finally {
+            restoreFlowAttributes(previous);
+        }
+    }
+
+    private void cancelQueued(final Exchange camelExchange, final AsyncCallback callback) {
+        final CamelExchangeException e = new CamelExchangeException(
+                "The producer was stopped while the exchange was waiting to be sent", camelExchange);
+        this.consumes.getLogger().log(Level.WARNING,
+                "Just set an error on the Camel Exchange " + camelExchange.getExchangeId() + ": " + e.getMessage());
+        camelExchange.setException(e);
+        // we already told Camel that this is done asynchronously
+        callback.done(false);
+    }
+
+    private static AsyncCallback releasing(final InFlightLimiter limiter, final long bytes,
+            final AsyncCallback callback) {
+        return new AsyncCallback() {
+            @Override
+            public void done(final boolean doneSync) {
+                limiter.release(bytes);
+                callback.done(doneSync);
+            }
+        };
+    }
+
+    private boolean reject(final InFlightLimiter limiter, final Exchange camelExchange, final AsyncCallback callback) {
+        final InFlightLimitExceededException e = new InFlightLimitExceededException(getEndpoint().getEndpointUri(),
+                limiter.getInFlight(), limiter.getInFlightBytes());
+        this.consumes.getLogger().log(Level.WARNING,
+                "Just set an error on the Camel Exchange " + camelExchange.getExchangeId() + ": " + e.getMessage());
+        this.metrics.rejected();
+        camelExchange.setException(e);
+        callback.done(true);
+        return true;
+    }
+
+    private boolean reject(final CircuitBreaker circuitBreaker, final Exchange camelExchange,
+            final AsyncCallback callback) {
+        final CircuitBreakerOpenException e = new CircuitBreakerOpenException(getEndpoint().getEndpointUri(),
+                circuitBreaker.getState().name());
+        if (this.consumes.getLogger().isLoggable(Level.FINE)) {
+            this.consumes.getLogger().fine(
+                    "Just set an error on the Camel Exchange " + camelExchange.getExchangeId() + ": " + e.getMessage());
+        }
+        camelExchange.setException(e);
+        callback.done(true);
+        return true;
+    }
+
+    /**
+     * Timeouts and errors are failures, an answer (even a fault) is a success.
+     * 
+     * @param target
+     *            the metrics of the endpoint chosen by the producer, <code>null</code> if it did not choose it
+     */
+    private void recordOutcome(final CircuitBreaker.Admission admission, final @Nullable EndpointMetrics target,
+            final long start, final boolean failed) {
+        if (target != null) {
+            target.end(System.nanoTime() - start, failed);
+        }
+
+        final CircuitBreaker circuitBreaker = this.circuitBreaker;
+        if (circuitBreaker == null) {
+            return;
+        }
+        if (failed) {
+            if (circuitBreaker.onFailure(admission)) {
+                this.consumes.getLogger().warning("Too many timeouts or errors, the circuit breaker of "
+                        + getEndpoint().getEndpointUri() + " is open for " + circuitBreaker.getOpenDuration() + "ms");
+            }
+        } else if (circuitBreaker.onSuccess(admission)) {
+            this.consumes.getLogger()
+                    .info("The circuit breaker of " + getEndpoint().getEndpointUri() + " is closed again");
+        }
+    }
+
+    /**
+     * The timeout of the endpoint (or of its consumes) is bounded by the time the caller of the route still waits for
+     * the answer: if there is no timeout, this remaining time is used.
+     * 
+     * @param remaining
+     *            in milliseconds, strictly positive
+     */
+    private long boundTimeout(final long remaining) {
+        // it is already resolved against the consumes, 0 meaning no timeout
+        final long timeout = this.template.getTimeout();
+        return timeout > 0 ? Math.min(timeout, remaining) : remaining;
+    }
+
+    private boolean expire(final Exchange camelExchange, final long expiredSince, final AsyncCallback callback) {
+        final DeadlineExceededException e = new DeadlineExceededException(getEndpoint().getEndpointUri(),
+                expiredSince);
+        if (this.consumes.getLogger().isLoggable(Level.FINE)) {
+            this.consumes.getLogger().fine(
+                    "Just set an error on the Camel Exchange " + camelExchange.getExchangeId() + ": " + e.getMessage());
+        }
+        this.metrics.expired();
+        camelExchange.setException(e);
+        callback.done(true);
+        return true;
+    }
+
+    private boolean dispatch(final Exchange camelExchange, final boolean doSync, final AsyncCallback callback) {
+
+        // no need to send an exchange whose answer would not be waited for by the caller of the route
+        final long timeout;
+        final Object deadline = camelExchange.getProperty(PetalsCamelComponent.EXCHANGE_DEADLINE);
+        if (deadline instanceof Long) {
+            final long remaining = (Long) deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return expire(camelExchange, -remaining, callback);
+            }
+            timeout = boundTimeout(remaining);
+        } else {
+            timeout = this.template.getTimeout();
+        }
+
+        final CircuitBreaker circuitBreaker = this.circuitBreaker;
+        final CircuitBreaker.Admission admission;
+        if (circuitBreaker == null) {
+            admission = CircuitBreaker.Admission.ALLOWED;
+        } else {
+            admission = circuitBreaker.tryAcquire();
+            if (admission == CircuitBreaker.Admission.REJECTED) {
+                return reject(circuitBreaker, camelExchange, callback);
+            }
+        }
+
+        final long start = this.metrics.begin();
+
+        final Object routeFlowAttributes = camelExchange.getProperty(PetalsCamelComponent.EXCHANGE_FLOW_ATTRIBUTES);
+
+        // the flow attributes are only put in the thread for the send: a pooled thread of the route must not keep them
+        // for the exchanges it processes later
+        final FlowAttributes previous = PetalsExecutionContext.getFlowAttributes();
+
+        final FlowAttributes faAsBC;
+        if (routeFlowAttributes instanceof FlowAttributes) {
+            // the route was started by a petals exchange: its flow attributes are the right ones even if the route
+            // switched threads (the thread-local ones could then be missing or be those of another exchange)
+            PetalsExecutionContext.putFlowAttributes((FlowAttributes) routeFlowAttributes);
+            faAsBC = null;
+        } else if (previous == null) {
+            // if there is no flow attributes set, it can means 2 things:
             // 1) we received an exchange from petals without flow attributes in the beginning of this route
-            // 2) we lost the context flow attributes because we switched threads (because of async execution)
-            // 3) we never received a petals exchange and we are acting as a BC
+            // 2) we never received a petals exchange and we are acting as a BC
             faAsBC = PetalsExecutionContext.initFlowAttributes();
-            this.consumes.getLogger().log(Level.WARNING,
-                    "There is no flow attributes in the Execution Context: "
-                            + "either we lost them somewhere in the route, "
-                            + "either we received a petals exchange without flow attributes "
-                            + "or we are acting as a BC and we are starting a new flow. "
-                            + "We assume the later and initialise a new flow: " + faAsBC);
+            this.journal.record(ExchangeJournal.Event.NEW_FLOW, faAsBC.getFlowInstanceId());
+            // the next producers of the route will be part of this flow
+            camelExchange.setProperty(PetalsCamelComponent.EXCHANGE_FLOW_ATTRIBUTES, faAsBC);
             this.monitTraceLogger.logMonitTrace(
                     new ConsumeExtFlowStepBeginLogData(faAsBC.getFlowInstanceId(), faAsBC.getFlowStepId()));
         } else {
@@ -138,9 +772,54 @@ public class PetalsCamelProducer extends DefaultAsyncProducer {
         }
 
         try {
+            return dispatch(camelExchange, doSync, callback, timeout, circuitBreaker, admission, start, faAsBC);
+        } finally {
+            restoreFlowAttributes(previous);
+        }
+    }
+
+    private static void restoreFlowAttributes(final @Nullable FlowAttributes previous) {
+        if (previous == null) {
+            PetalsExecutionContext.clear();
+        } else {
+            PetalsExecutionContext.putFlowAttributes(previous);
+        }
+    }
+
+    private boolean dispatch(final Exchange camelExchange, final boolean doSync, final AsyncCallback callback,
+            final long timeout, final @Nullable CircuitBreaker circuitBreaker,
+            final CircuitBreaker.Admission admission, final long start, final @Nullable FlowAttributes faAsBC) {
+        @Nullable
+        EndpointMetrics selected = null;
+        try {
+            if (getEndpoint().isLocalDispatch()) {
+                final PetalsCamelConsumer route = getLocalRoute(camelExchange);
+                if (route != null) {
+                    this.metrics.localDispatch();
+                    return processLocally(camelExchange, route, doSync, callback, faAsBC, start, admission);
+                }
+            }
+
+            final Hedger hedger = this.hedger != null && isInOut(camelExchange) ? this.hedger : null;
+            // the request is only copied if a hedge can be sent: there is none until the delay is known
+            final long hedgeDelay = hedger != null ? hedger.getDelayNanos() : 0;
+            final Exchange hedgeRequest = hedgeDelay > 0 ? hedgeRequest(camelExchange) : null;
+
             final org.ow2.petals.component.framework.api.message.Exchange exchange = createPetalsExchange(
                     camelExchange);
 
+            final EndpointSelector endpointSelector = this.endpointSelector;
+            if (endpointSelector != null) {
+                selected = endpointSelector.select(exchange);
+            }
+            final EndpointMetrics target = selected;
+
+            // the hedge must go to another endpoint than the primary exchange, so the latter must be known
+            if (hedger != null && exchange.getEndpoint() != null) {
+                return sendHedged(hedger, hedgeDelay, camelExchange, hedgeRequest, exchange, timeout, doSync,
+                        callback, faAsBC, start, admission, target);
+            }
+
             if (doSync) {
 
                 if (this.consumes.getLogger().isLoggable(Level.FINE)) {
@@ -158,7 +837,8 @@ public class PetalsCamelProducer extends DefaultAsyncProducer {
                             + exchange.getExchangeId() + ") back from a send in sync mode ");
                 }
 
-                handleAnswer(camelExchange, exchange, timedOut, doneSync, callback, faAsBC);
+                handleAnswer(camelExchange, exchange, timedOut, doneSync, callback, faAsBC, start, admission,
+                        target);
                 return doneSync;
             } else {
                 // this is done asynchronously (except if the send fail, but then the value of this variable won't be
@@ -182,7 +862,8 @@ public class PetalsCamelProducer extends DefaultAsyncProducer {
                                             + (doneSync ? "(but executed in sync mode apparently)" : ""));
                         }
 
-                        handleAnswer(camelExchange, exchange, timedOut, doneSync, callback, faAsBC);
+                        handleAnswer(camelExchange, exchange, timedOut, doneSync, callback, faAsBC, start,
+                                admission, target);
                     }
                 });
                 return doneSync;
@@ -199,73 +880,345 @@ public class PetalsCamelProducer extends DefaultAsyncProducer {
                         StepLogHelper.getMonitExtFailureTrace(faAsBC, e, true));
             }
             camelExchange.setException(e);
+            this.metrics.error(start);
+            if (circuitBreaker != null) {
+                circuitBreaker.cancel(admission);
+            }
+            if (selected != null) {
+                // the endpoint could not be sent the exchange
+                selected.end(System.nanoTime() - start, true);
+            }
             callback.done(doneSync);
             return doneSync;
         }
     }
 
     /**
-     * we tested in deploy that the camel endpoint options do not conflict with the consumes parameters, hence the
-     * assert in the code.
+     * The exchange is sent asynchronously (even in sync mode, the thread then waits for the answer) and, if it is not
+     * answered within the hedge delay, a copy is sent to another endpoint of the service.
+     * 
+     * @param hedgeRequest
+     *            <code>null</code> if no hedge can be sent, the latency of the exchange is then only recorded
      */
-    private org.ow2.petals.component.framework.api.message.Exchange createPetalsExchange(final Exchange camelExchange)
+    private boolean sendHedged(final Hedger hedger, final long delay, final Exchange camelExchange,
+            final @Nullable Exchange hedgeRequest,
+            final org.ow2.petals.component.framework.api.message.Exchange exchange, final long timeout,
+            final boolean doSync, final AsyncCallback callback, final @Nullable FlowAttributes faAsBC,
+            final long start, final CircuitBreaker.Admission admission, final @Nullable EndpointMetrics target)
             throws MessagingException {
 
-        final MEPPatternConstants mep;
-        if (getEndpoint().getService().getMEP() == null && getEndpoint().getMep() == null) {
-            mep = MEPPatternConstants.fromString(camelExchange.getPattern().getWsdlUri());
-            if (mep == null) {
-                throw new MessagingException(
-                        "Can't resolve MEP on the Camel exchange: " + camelExchange.getPattern().getWsdlUri());
+        final HedgedCall call = new HedgedCall(camelExchange, hedgeRequest, exchange, doSync, callback, faAsBC, start,
+                admission, target);
+
+        this.consumes.sendAsync(exchange, timeout, new SendAsyncCallback() {
+            @Override
+            public void done(final org.ow2.petals.component.framework.api.message.Exchange answer,
+                    final boolean timedOut) {
+                if (!timedOut) {
+                    hedger.record(System.nanoTime() - start);
+                }
+                call.answered(answer, timedOut, false);
             }
+        });
+
+        final ScheduledExecutorService scheduler = this.hedgeScheduler;
+        if (hedgeRequest != null && scheduler != null) {
+            final FlowAttributes flowAttributes = PetalsExecutionContext.getFlowAttributes();
+            final Runnable trigger = new Runnable() {
+                @Override
+                public void run() {
+                    // the thread of the scheduler is shared by all the producers: it only triggers the hedges
+                    final ExecutorService executor = PetalsCamelProducer.this.hedgeExecutor;
+                    if (executor == null) {
+                        return;
+                    }
+                    try {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                hedge(call, timeout, flowAttributes);
+                            }
+                        });
+                    } catch (final RejectedExecutionException e) {
+                        // the producer is stopped, the primary exchange is still answered
+                    }
+                }
+            };
+            try {
+                final ScheduledFuture<?> timer = scheduler.schedule(trigger, delay, TimeUnit.NANOSECONDS);
+                assert timer != null;
+                call.setTimer(timer);
+            } catch (final RejectedExecutionException e) {
+                // the component is stopped, the primary exchange is still answered
+            }
+        }
+
+        if (doSync) {
+            call.awaitAndHandle();
+            return true;
         } else {
-            mep = getEndpoint().getMep();
+            return false;
         }
+    }
 
-        // If mep is null, the consumes one will be used, and if not, we verified in deploy it was null in consumes
-        final org.ow2.petals.component.framework.api.message.Exchange exchange = consumes.newExchange(mep,
-                isFlowTracingActivated(camelExchange));
+    /**
+     * The IN body is read as bytes so that the primary and the hedge exchanges do not share a stream that can only be
+     * read once or a DOM that can't be read concurrently.
+     * 
+     * @return a copy of the Camel exchange to create the hedge exchange from (the route may use the Camel exchange
+     *         again once answered), or <code>null</code> if the body can't be read as bytes
+     */
+    private static @Nullable Exchange hedgeRequest(final Exchange camelExchange) {
+        final Message in = camelExchange.getIn();
+        if (in.getBody() != null) {
+            final byte[] body = Messages.bodyAsBytes(in);
+            if (body == null) {
+                return null;
+            }
+            in.setBody(new BytesSource(body));
+        }
+        return camelExchange.copy();
+    }
 
-        // the idea is that if there was the service name in the consumes but not the endpoint name,
-        // we can still resolve the endpoint now
-        final QName serviceName;
-        if (getEndpoint().getServiceName() == null) {
-            // could be null, but it's ok
-            serviceName = exchange.getService();
-        } else {
-            assert exchange.getService() == null;
-            serviceName = getEndpoint().getServiceName();
+    /**
+     * Executed for the {@link Hedger} when the delay elapsed
+     */
+    private void hedge(final HedgedCall call, final long timeout, final @Nullable FlowAttributes flowAttributes) {
+        // the hedge must not be waited for longer than the primary exchange, which was sent a delay ago
+        final long remaining = timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - call.start);
+        if (timeout > 0 && remaining <= 0) {
+            return;
         }
+        final long hedgeTimeout = timeout > 0 ? remaining : timeout;
+
+        final FlowAttributes current = PetalsExecutionContext.getFlowAttributes();
+        if (flowAttributes != null) {
+            PetalsExecutionContext.putFlowAttributes(flowAttributes);
+        }
+        try {
+            final ServiceEndpoint primaryEndpoint = call.primary.getEndpoint();
+            assert primaryEndpoint != null;
+            final ServiceEndpoint other = Hedger.chooseOther(
+                    this.consumes.getEndpoints(getEndpoint().getService().getInterface(),
+                            this.template.getServiceName()),
+                    primaryEndpoint);
+            if (other == null || !call.reserveHedge()) {
+                return;
+            }
 
-        final String endpointName = getEndpoint().getEndpointName();
-        final QName operation = getEndpoint().getOperation();
+            final Exchange hedgeRequest = call.hedgeRequest;
+            // the hedge is only scheduled if there is a request to create it from
+            assert hedgeRequest != null;
+            final org.ow2.petals.component.framework.api.message.Exchange hedge;
+            try {
+                hedge = createPetalsExchange(hedgeRequest);
+                hedge.setEndpoint(other);
+            } catch (final Exception e) {
+                this.consumes.getLogger().log(Level.WARNING, "Can't create the hedge of a Camel exchange", e);
+                call.answered(null, false, true);
+                return;
+            }
 
-        if (serviceName != null && endpointName != null) {
-            assert exchange.getEndpoint() == null;
-            final ServiceEndpoint ep = consumes.resolveEndpoint(serviceName, endpointName);
-            if (ep == null) {
-                throw new MessagingException(
-                        "Can't resolve endpoint for service " + serviceName + " and endpoint name " + endpointName);
+            this.metrics.hedged();
+            if (this.consumes.getLogger().isLoggable(Level.FINE)) {
+                this.consumes.getLogger().fine("Sending a hedge Petals exchange (with id: " + hedge.getExchangeId()
+                        + ") for an exchange not answered in time");
             }
-            exchange.setEndpoint(ep);
-            // let's set it anyway in case it's useful
-            exchange.setService(serviceName);
-        } else if (serviceName != null) {
-            exchange.setService(serviceName);
+
+            try {
+                this.consumes.sendAsync(hedge, hedgeTimeout, new SendAsyncCallback() {
+                    @Override
+                    public void done(final org.ow2.petals.component.framework.api.message.Exchange answer,
+                            final boolean timedOut) {
+                        call.answered(answer, timedOut, true);
+                    }
+                });
+            } catch (final MessagingException e) {
+                this.consumes.getLogger().log(Level.WARNING,
+                        "Can't send the hedge Petals exchange " + hedge.getExchangeId(), e);
+                call.answered(null, false, true);
+            }
+        } finally {
+            restoreFlowAttributes(current);
+        }
+    }
+
+    /**
+     * The exchange is directly passed to the route without creating a Petals exchange: the flow step that the provider
+     * would have started is started here so that flow attributes and MONIT traces stay the same as through the NMR.
+     */
+    private boolean processLocally(final Exchange camelExchange, final PetalsCamelConsumer route,
+            final boolean doSync, final AsyncCallback callback, final @Nullable FlowAttributes faAsBC,
+            final long start, final CircuitBreaker.Admission admission)
+            throws InvalidFlowTracingActivationExchangePropertyValueException, MessagingException {
+
+        final ServiceEndpointOperation target = route.getEndpoint().getService();
+        final QName targetService = target.getService();
+        final String targetEndpointName = target.getEndpoint();
+        assert targetService != null;
+        assert targetEndpointName != null;
+
+        // the exchange the consumes would have sent through the NMR (it is not sent, nor its body set) gives the
+        // endpoint and the flow tracing activation that the route gets, the latter resolved by the provides
+        final org.ow2.petals.component.framework.api.message.Exchange nmrExchange = this.consumes
+                .newExchange(this.template.getMEP(camelExchange), isFlowTracingActivated(camelExchange));
+        this.template.populate(nmrExchange, this.consumes);
+        final ServiceEndpoint targetEndpoint = nmrExchange.getEndpoint();
+        final boolean providesFlowTracingActivation = route.isFlowTracingActivated(nmrExchange);
+        final Optional<Boolean> flowTracingActivation = Optional.of(providesFlowTracingActivation);
+
+        final FlowAttributes caller = PetalsExecutionContext.getFlowAttributes();
+        assert caller != null;
+        final FlowAttributes provideStep = new FlowAttributes(caller.getFlowInstanceId(),
+                UUID.randomUUID().toString());
+
+        this.monitTraceLogger.logMonitTrace(flowTracingActivation,
+                new ProvideFlowStepBeginLogData(provideStep.getFlowInstanceId(), provideStep.getFlowStepId(),
+                        target.getInterface(), targetService, targetEndpointName, target.getOperation(),
+                        caller.getFlowStepId()));
+
+        if (this.consumes.getLogger().isLoggable(Level.FINE)) {
+            this.consumes.getLogger().log(Level.FINE, "Passing a Camel exchange (with id: "
+                    + camelExchange.getExchangeId() + ") to the local route of " + target);
         }
 
-        if (operation != null) {
-            // we tested in deploy that the camel endpoint options do not conflict with the consumes parameters
-            assert exchange.getOperation() == null;
-            exchange.setOperation(operation);
+        PetalsExecutionContext.putFlowAttributes(provideStep);
+        try {
+            return route.processLocally(camelExchange, targetEndpoint, providesFlowTracingActivation, getEndpoint(),
+                    doSync, new AsyncCallback() {
+                        @Override
+                        public void done(final boolean doneSync) {
+                            // it can be called by a thread of the route, which must not keep the flow attributes
+                            final FlowAttributes previous = PetalsExecutionContext.getFlowAttributes();
+                            PetalsExecutionContext.putFlowAttributes(caller);
+                            try {
+                                handleLocalAnswer(camelExchange, provideStep, flowTracingActivation, faAsBC, start,
+                                        admission);
+                                callback.done(doneSync);
+                            } finally {
+                                restoreFlowAttributes(previous);
+                            }
+                        }
+                    });
+        } finally {
+            PetalsExecutionContext.putFlowAttributes(caller);
         }
+    }
+
+    private void handleLocalAnswer(final Exchange camelExchange, final FlowAttributes provideStep,
+            final Optional<Boolean> flowTracingActivation, final @Nullable FlowAttributes faAsBC, final long start,
+            final CircuitBreaker.Admission admission) {
+
+        recordOutcome(admission, null, start, camelExchange.getException() != null);
+
+        traceAnswer(camelExchange, provideStep, flowTracingActivation, faAsBC, start,
+                "A fault was returned by the local route");
+    }
+
+    /**
+     * Accounts and traces the end of the provide step of an exchange that was not sent through the NMR, once its
+     * answer is set.
+     * 
+     * @param faultFailure
+     *            the failure traced when the answer is a fault
+     */
+    private void traceAnswer(final Exchange camelExchange, final FlowAttributes provideStep,
+            final Optional<Boolean> flowTracingActivation, final @Nullable FlowAttributes faAsBC, final long start,
+            final String faultFailure) {
+
+        final String failure;
+        if (camelExchange.getException() != null) {
+            failure = String.valueOf(camelExchange.getException().getMessage());
+            this.metrics.error(start);
+        } else if (camelExchange.hasOut()
+                && Boolean.TRUE.equals(camelExchange.getOut().getHeader(PetalsCamelComponent.MESSAGE_FAULT_HEADER))) {
+            failure = faultFailure;
+            this.metrics.fault(start);
+        } else {
+            failure = null;
+            this.metrics.success(start);
+        }
+
+        if (failure == null) {
+            this.monitTraceLogger.logMonitTrace(flowTracingActivation,
+                    new ProvideFlowStepEndLogData(provideStep.getFlowInstanceId(), provideStep.getFlowStepId()));
+            if (faAsBC != null) {
+                this.monitTraceLogger.logMonitTrace(
+                        new ConsumeExtFlowStepEndLogData(faAsBC.getFlowInstanceId(), faAsBC.getFlowStepId()));
+            }
+        } else {
+            this.monitTraceLogger.logMonitTrace(flowTracingActivation, new ProvideFlowStepFailureLogData(
+                    provideStep.getFlowInstanceId(), provideStep.getFlowStepId(), failure));
+            if (faAsBC != null) {
+                this.monitTraceLogger.logMonitTrace(new ConsumeExtFlowStepFailureLogData(faAsBC.getFlowInstanceId(),
+                        faAsBC.getFlowStepId(), failure));
+            }
+        }
+    }
+
+    /**
+     * @return the consumer of the same container that provides the service endpoint operation targeted by this
+     *         producer if there is one and it is compatible with the MEP of the exchange, else <code>null</code>.
+     */
+    private @Nullable PetalsCamelConsumer getLocalRoute(final Exchange camelExchange) throws MessagingException {
+        final QName serviceName = this.template.getServiceName();
+        final String endpointName = this.template.getTargetEndpointName();
+        final QName operation = this.template.getTargetOperation();
+
+        if (serviceName == null || endpointName == null || operation == null) {
+            // the NMR must choose the provider
+            return null;
+        }
+
+        final PetalsCamelRoute route = this.component.getContext().getLocalRoute(serviceName, endpointName, operation);
+        if (!(route instanceof PetalsCamelConsumer)) {
+            return null;
+        }
+
+        final PetalsCamelConsumer consumer = (PetalsCamelConsumer) route;
+
+        // the NMR would have refused an exchange with a MEP different from the one of the operation
+        final MEPPatternConstants exchangeMEP = this.template.getExchangeMEP(camelExchange);
+        final URI providerMEP = consumer.getEndpoint().getService().getMEP();
+        if (providerMEP == null || exchangeMEP != MEPPatternConstants.fromURI(providerMEP)) {
+            return null;
+        }
+
+        return consumer;
+    }
+
+    private boolean isInOut(final Exchange camelExchange) throws MessagingException {
+        return this.template.getExchangeMEP(camelExchange) == MEPPatternConstants.IN_OUT;
+    }
+
+    /**
+     * we tested in deploy that the camel endpoint options do not conflict with the consumes parameters, hence the
+     * assert in the code.
+     */
+    private org.ow2.petals.component.framework.api.message.Exchange createPetalsExchange(final Exchange camelExchange)
+            throws MessagingException {
+
+        // If mep is null, the consumes one will be used, and if not, we verified in deploy it was null in consumes
+        final org.ow2.petals.component.framework.api.message.Exchange exchange = consumes
+                .newExchange(this.template.getMEP(camelExchange), isFlowTracingActivated(camelExchange));
+
+        // the idea is that if there was the service name in the consumes but not the endpoint name,
+        // we can still resolve the endpoint now
+        this.template.populate(exchange, this.consumes);
 
         // TODO should I check that the camel exchange has the same MEP as the consumes MEP? or compatibility?
         // for example if I have a inonly exchange sent to an inout service, then I just discard the out
         // while an InOut exchange for an InOnly service is not possible!
-        // TODO and also I should take into account the MEP of the endpoint??!!
+        // TODO and also I should take into account the MEP of the endpoint??!!
 
-        Conversions.populateNewPetalsExchange(camelExchange, exchange);
+        Conversions.populateNewPetalsExchange(camelExchange, exchange, getEndpoint().getBodyMode(),
+                getEndpoint().getHeaderFilterStrategy(), getEndpoint().getAttachmentSpool());
+
+        // so that the provider can also stop its own processing when the caller of the route stops waiting
+        final Object deadline = camelExchange.getProperty(PetalsCamelComponent.EXCHANGE_DEADLINE);
+        if (deadline instanceof Long) {
+            exchange.setProperty(PetalsCamelComponent.DEADLINE_PROPERTY, deadline);
+        }
 
         return exchange;
     }
@@ -301,8 +1254,14 @@ public class PetalsCamelProducer extends DefaultAsyncProducer {
 
     private void handleAnswer(final Exchange camelExchange,
             final org.ow2.petals.component.framework.api.message.Exchange exchange, final boolean timedOut,
-            final boolean doneSync, final AsyncCallback callback, @Nullable final FlowAttributes faAsBC) {
+            final boolean doneSync, final AsyncCallback callback, @Nullable final FlowAttributes faAsBC,
+            final long start, final CircuitBreaker.Admission admission, final @Nullable EndpointMetrics target) {
+
+        recordOutcome(admission, target, start, timedOut || exchange.getError() != null);
+
         if (timedOut) {
+            this.metrics.timeout(start);
+
             this.consumes.getLogger().warning(
                     "The exchange I sent to the NMR never got acknowledged, it timed out: " + exchange.getExchangeId());
 
@@ -319,7 +1278,16 @@ public class PetalsCamelProducer extends DefaultAsyncProducer {
             this.consumes.getLogger().fine("Got an answer for the request I sent to the NMR for exchange "
                     + exchange.getExchangeId() + ", sending status DONE to provider and passing it back into Camel");
 
-            Conversions.populateAnswerCamelExchange(exchange, camelExchange);
+            Conversions.populateAnswerCamelExchange(exchange, camelExchange, getEndpoint().getHeaderFilterStrategy(),
+                    getEndpoint().getAttachmentSpool());
+
+            if (exchange.getError() != null) {
+                this.metrics.error(start);
+            } else if (exchange.getFault() != null) {
+                this.metrics.fault(start);
+            } else {
+                this.metrics.success(start);
+            }
 
             if (faAsBC != null) {
                 this.monitTraceLogger.logMonitTrace(
@@ -348,4 +1316,170 @@ public class PetalsCamelProducer extends DefaultAsyncProducer {
     public PetalsCamelEndpoint getEndpoint() {
         return (PetalsCamelEndpoint) super.getEndpoint();
     }
+
+    /**
+     * A Camel exchange sent as a primary Petals exchange and possibly a hedge one: the first answer (or the last
+     * failure if none succeeds) is passed back into Camel and the other Petals exchange is acknowledged when it is
+     * answered.
+     */
+    private class HedgedCall {
+
+        private final Exchange camelExchange;
+
+        /**
+         * The copy of the Camel exchange the hedge exchange is created from, <code>null</code> if there is no hedge
+         */
+        private final @Nullable Exchange hedgeRequest;
+
+        private final org.ow2.petals.component.framework.api.message.Exchange primary;
+
+        private final boolean doSync;
+
+        private final AsyncCallback callback;
+
+        private final @Nullable FlowAttributes faAsBC;
+
+        private final long start;
+
+        private final CircuitBreaker.Admission admission;
+
+        /**
+         * The metrics of the endpoint of the primary exchange if the producer chose it
+         */
+        private final @Nullable EndpointMetrics target;
+
+        /**
+         * Released when the answer to pass back into Camel is known, for the thread waiting in sync mode
+         */
+        private final CountDownLatch decision = new CountDownLatch(1);
+
+        private int pending = 1;
+
+        private boolean decided = false;
+
+        private @Nullable ScheduledFuture<?> timer;
+
+        /**
+         * Before the decision, the last failure, which is used if no other answer succeeds
+         */
+        private org.ow2.petals.component.framework.api.message.@Nullable Exchange winner;
+
+        private boolean winnerTimedOut;
+
+        private boolean winnerIsHedge;
+
+        public HedgedCall(final Exchange camelExchange, final @Nullable Exchange hedgeRequest,
+                final org.ow2.petals.component.framework.api.message.Exchange primary, final boolean doSync,
+                final AsyncCallback callback, final @Nullable FlowAttributes faAsBC, final long start,
+                final CircuitBreaker.Admission admission, final @Nullable EndpointMetrics target) {
+            this.camelExchange = camelExchange;
+            this.hedgeRequest = hedgeRequest;
+            this.primary = primary;
+            this.doSync = doSync;
+            this.callback = callback;
+            this.faAsBC = faAsBC;
+            this.start = start;
+            this.admission = admission;
+            this.target = target;
+        }
+
+        public synchronized void setTimer(final ScheduledFuture<?> timer) {
+            if (this.decided) {
+                timer.cancel(false);
+            } else {
+                this.timer = timer;
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the hedge exchange must be sent, it must then be {@link #answered answered}
+         *         even if it can't be sent, or <code>false</code> if the primary exchange was already answered
+         */
+        public synchronized boolean reserveHedge() {
+            if (this.decided) {
+                return false;
+            }
+            this.pending++;
+            return true;
+        }
+
+        /**
+         * @param exchange
+         *            <code>null</code> if the hedge exchange could not be sent
+         */
+        public void answered(final org.ow2.petals.component.framework.api.message.@Nullable Exchange exchange,
+                final boolean timedOut, final boolean hedge) {
+            final boolean failed = exchange == null || timedOut || exchange.getError() != null;
+
+            final EndpointMetrics target = this.target;
+            if (!hedge && target != null) {
+                // even if it loses, the endpoint was busy with the exchange until now
+                target.end(System.nanoTime() - this.start, failed);
+            }
+
+            final boolean wins;
+            final ScheduledFuture<?> timer;
+            synchronized (this) {
+                this.pending--;
+                wins = !this.decided && (!failed || this.pending == 0);
+                if (!this.decided && exchange != null) {
+                    this.winner = exchange;
+                    this.winnerTimedOut = timedOut;
+                    this.winnerIsHedge = hedge;
+                }
+                if (wins) {
+                    this.decided = true;
+                }
+                timer = this.timer;
+            }
+
+            if (!wins) {
+                acknowledge(exchange, timedOut);
+                return;
+            }
+
+            if (timer != null) {
+                timer.cancel(false);
+            }
+
+            if (this.doSync) {
+                this.decision.countDown();
+            } else {
+                handleWinner(false);
+            }
+        }
+
+        public void awaitAndHandle() {
+            Uninterruptibles.awaitUninterruptibly(this.decision);
+            handleWinner(true);
+        }
+
+        private void handleWinner(final boolean doneSync) {
+            final org.ow2.petals.component.framework.api.message.Exchange winner = this.winner;
+            assert winner != null;
+            if (this.winnerIsHedge && !this.winnerTimedOut && winner.getError() == null) {
+                metrics.hedgeWon();
+            }
+            // the endpoint metrics were already updated when the primary exchange was answered
+            handleAnswer(this.camelExchange, winner, this.winnerTimedOut, doneSync, this.callback, this.faAsBC,
+                    this.start, this.admission, null);
+        }
+
+        /**
+         * The answer of the losing exchange is not passed back into Camel, but its exchange must still be completed
+         */
+        private void acknowledge(final org.ow2.petals.component.framework.api.message.@Nullable Exchange exchange,
+                final boolean timedOut) {
+            if (exchange == null || timedOut || !exchange.isActiveStatus()) {
+                return;
+            }
+            try {
+                exchange.setDoneStatus();
+                consumes.send(exchange);
+            } catch (final MessagingException e) {
+                consumes.getLogger().log(Level.WARNING,
+                        "Can't send back status DONE for exchange " + exchange.getExchangeId(), e);
+            }
+        }
+    }
 }
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.util.regex.Pattern;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.spi.HeaderFilterStrategy;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Decides which headers of the Camel messages become properties of the Petals messages and the other way around.
+ * 
+ * In each direction, a header is kept if its name matches the include pattern (when there is one) and does not match
+ * the exclude pattern (when there is one). By default, nothing is included explicitly and the Camel internals
+ * (<code>Camel*</code>, <code>org.apache.camel.*</code> and <code>breadcrumbId</code>) are excluded: they only make
+ * sense in the Camel context that created them and would otherwise travel through the NMR.
+ */
+public class PetalsHeaderFilterStrategy implements HeaderFilterStrategy {
+
+    public static final String DEFAULT_EXCLUDE = "(?i)(Camel|org\\.apache\\.camel)[\\.a-z0-9]*|breadcrumbId";
+
+    @SuppressWarnings("null")
+    private static final Pattern DEFAULT_EXCLUDE_PATTERN = Pattern.compile(DEFAULT_EXCLUDE);
+
+    @Nullable
+    private Pattern includeToPetals;
+
+    @Nullable
+    private Pattern excludeToPetals = DEFAULT_EXCLUDE_PATTERN;
+
+    @Nullable
+    private Pattern includeFromPetals;
+
+    @Nullable
+    private Pattern excludeFromPetals = DEFAULT_EXCLUDE_PATTERN;
+
+    private static @Nullable Pattern compile(final @Nullable String regex) {
+        return regex == null || regex.isEmpty() ? null : Pattern.compile(regex);
+    }
+
+    private static @Nullable String toString(final @Nullable Pattern pattern) {
+        return pattern == null ? null : pattern.pattern();
+    }
+
+    private static boolean isFiltered(final String header, final @Nullable Pattern include,
+            final @Nullable Pattern exclude) {
+        return (include != null && !include.matcher(header).matches())
+                || (exclude != null && exclude.matcher(header).matches());
+    }
+
+    /**
+     * Camel headers that don't match this regular expression don't become Petals properties, <code>null</code> or
+     * empty to include everything.
+     */
+    public void setIncludeToPetals(final @Nullable String regex) {
+        this.includeToPetals = compile(regex);
+    }
+
+    public @Nullable String getIncludeToPetals() {
+        return toString(this.includeToPetals);
+    }
+
+    /**
+     * Camel headers that match this regular expression don't become Petals properties, <code>null</code> or empty to
+     * exclude nothing.
+     */
+    public void setExcludeToPetals(final @Nullable String regex) {
+        this.excludeToPetals = compile(regex);
+    }
+
+    public @Nullable String getExcludeToPetals() {
+        return toString(this.excludeToPetals);
+    }
+
+    /**
+     * Petals properties that don't match this regular expression don't become Camel headers, <code>null</code> or
+     * empty to include everything.
+     */
+    public void setIncludeFromPetals(final @Nullable String regex) {
+        this.includeFromPetals = compile(regex);
+    }
+
+    public @Nullable String getIncludeFromPetals() {
+        return toString(this.includeFromPetals);
+    }
+
+    /**
+     * Petals properties that match this regular expression don't become Camel headers, <code>null</code> or empty to
+     * exclude nothing.
+     */
+    public void setExcludeFromPetals(final @Nullable String regex) {
+        this.excludeFromPetals = compile(regex);
+    }
+
+    public @Nullable String getExcludeFromPetals() {
+        return toString(this.excludeFromPetals);
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public boolean applyFilterToCamelHeaders(final String headerName, final Object headerValue,
+            final Exchange exchange) {
+        assert headerName != null;
+        return isFiltered(headerName, this.includeToPetals, this.excludeToPetals);
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public boolean applyFilterToExternalHeaders(final String headerName, final Object headerValue,
+            final Exchange exchange) {
+        assert headerName != null;
+        return isFiltered(headerName, this.includeFromPetals, this.excludeFromPetals);
+    }
+}
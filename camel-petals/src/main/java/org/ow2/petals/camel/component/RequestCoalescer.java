@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import javax.activation.DataHandler;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.BytesSource;
+import org.apache.camel.CamelExchangeException;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.eclipse.jdt.annotation.Nullable;
+import org.ow2.petals.camel.component.utils.AttachmentSpool;
+import org.ow2.petals.camel.component.utils.Messages;
+import org.ow2.petals.camel.metrics.ServiceMetrics;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Makes the concurrent InOut exchanges of a producer with the same request (see
+ * {@link Messages#requestKey(Exchange, javax.xml.namespace.QName)}) share one exchange sent through the NMR: the first
+ * one is sent and the others wait for its answer, of which they get a copy.
+ */
+public class RequestCoalescer {
+
+    /**
+     * The exchanges waiting for the answer of the exchange sent for a request
+     */
+    public static class Flight {
+
+        private final String key;
+
+        private final Exchange leader;
+
+        private final List<Waiter> waiters = Lists.newArrayList();
+
+        private final CountDownLatch answered = new CountDownLatch(1);
+
+        private boolean completed = false;
+
+        private Flight(final String key, final Exchange leader) {
+            this.key = key;
+            this.leader = leader;
+        }
+
+        /**
+         * @return <code>true</code> if the exchange is the one that must be sent
+         */
+        public boolean isLeader(final Exchange exchange) {
+            return this.leader == exchange;
+        }
+
+        /**
+         * Wait for the answer to be copied in the exchanges of the flight
+         */
+        public void await() {
+            Uninterruptibles.awaitUninterruptibly(this.answered);
+        }
+
+        private synchronized boolean add(final Waiter waiter) {
+            if (this.completed) {
+                return false;
+            }
+            this.waiters.add(waiter);
+            return true;
+        }
+
+        private synchronized List<Waiter> complete() {
+            this.completed = true;
+            return this.waiters;
+        }
+    }
+
+    private static class Waiter {
+
+        private final Exchange exchange;
+
+        private final @Nullable AsyncCallback callback;
+
+        private Waiter(final Exchange exchange, final @Nullable AsyncCallback callback) {
+            this.exchange = exchange;
+            this.callback = callback;
+        }
+    }
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private final ServiceMetrics metrics;
+
+    public RequestCoalescer(final ServiceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * If the exchange is the {@link Flight#isLeader(Exchange) leader} of the returned flight, it must be sent and
+     * {@link #complete(Flight)} called once it is answered. Else its answer is copied from the leader and then, if a
+     * callback is given, it is called as done asynchronously, or else the caller must {@link Flight#await()} the
+     * answer.
+     */
+    public Flight join(final String key, final Exchange exchange, final @Nullable AsyncCallback callback) {
+        final Flight flight = new Flight(key, exchange);
+        while (true) {
+            final Flight current = this.flights.putIfAbsent(key, flight);
+            if (current == null) {
+                return flight;
+            }
+            if (current.add(new Waiter(exchange, callback))) {
+                this.metrics.coalesced();
+                return current;
+            }
+            // it was answered in the meantime
+            this.flights.remove(key, current);
+        }
+    }
+
+    /**
+     * Copies the answer of the leader of the flight to the exchanges waiting for it
+     */
+    public void complete(final Flight flight) {
+        this.flights.remove(flight.key, flight);
+
+        final List<Waiter> waiters = flight.complete();
+        if (!waiters.isEmpty()) {
+            final Exchange leader = flight.leader;
+            final byte[] body = leader.getException() == null && leader.hasOut()
+                    ? Messages.bodyAsBytes(leader.getOut())
+                    : null;
+            for (final Waiter waiter : waiters) {
+                copyAnswer(leader, body, waiter.exchange);
+            }
+        }
+
+        flight.answered.countDown();
+
+        for (final Waiter waiter : waiters) {
+            final AsyncCallback callback = waiter.callback;
+            if (callback != null) {
+                callback.done(false);
+            }
+        }
+    }
+
+    /**
+     * Only the answer is copied: the properties of the exchange (such as those of its Petals exchange) stay its own,
+     * and so does the exception, which wraps the one of the leader.
+     */
+    private static void copyAnswer(final Exchange from, final @Nullable byte[] body, final Exchange to) {
+        final Exception exception = from.getException();
+        if (exception != null) {
+            to.setException(new CamelExchangeException("The exchange " + from.getExchangeId()
+                    + " sent with the same request failed: " + exception.getMessage(), to, exception));
+        } else if (from.hasOut()) {
+            final Message fromOut = from.getOut();
+            final Message toOut = to.getOut();
+            toOut.getHeaders().putAll(fromOut.getHeaders());
+            if (fromOut.hasAttachments()) {
+                for (final Entry<String, DataHandler> attachment : fromOut.getAttachments().entrySet()) {
+                    // a spooled attachment must outlive the exchange of the leader
+                    AttachmentSpool.share(attachment.getValue(), to);
+                    toOut.addAttachment(attachment.getKey(), attachment.getValue());
+                }
+            }
+            toOut.setFault(fromOut.isFault());
+            toOut.setBody(body == null ? fromOut.getBody() : new BytesSource(body));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.BytesSource;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.ow2.petals.camel.component.utils.Messages;
+import org.ow2.petals.camel.metrics.ServiceMetrics;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Caches the answers of the InOut exchanges sent by a producer so that the same request (see
+ * {@link Messages#requestKey(Exchange, javax.xml.namespace.QName)}) is not sent again through the NMR while its
+ * answer is fresh.
+ * 
+ * Only the OUT body (as bytes) and headers of successful answers are kept, and the least recently used answers are
+ * evicted when the cached answers take more than the maximum size.
+ */
+public class ResponseCache {
+
+    /**
+     * The maximum size of the cached answers if it is not configured
+     */
+    public static final long DEFAULT_MAX_SIZE = 10L * 1024L * 1024L;
+
+    private final Cache<String, Answer> answers;
+
+    private final ServiceMetrics metrics;
+
+    /**
+     * @param ttl
+     *            time to live of the answers in milliseconds
+     * @param maxSize
+     *            maximum size in bytes of the cached answers (and of their keys)
+     */
+    public ResponseCache(final long ttl, final long maxSize, final ServiceMetrics metrics) {
+        this.metrics = metrics;
+        final Cache<String, Answer> answers = CacheBuilder.newBuilder().expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .maximumWeight(maxSize).weigher(new Weigher<String, Answer>() {
+                    @NonNullByDefault(false)
+                    @Override
+                    public int weigh(final String key, final Answer answer) {
+                        return sizeOf(key, answer);
+                    }
+                }).removalListener(new RemovalListener<String, Answer>() {
+                    @NonNullByDefault(false)
+                    @Override
+                    public void onRemoval(final RemovalNotification<String, Answer> notification) {
+                        final String key = notification.getKey();
+                        final Answer answer = notification.getValue();
+                        if (key != null && answer != null) {
+                            metrics.uncached(sizeOf(key, answer));
+                        }
+                    }
+                }).build();
+        assert answers != null;
+        this.answers = answers;
+    }
+
+    private static int sizeOf(final String key, final Answer answer) {
+        return 2 * key.length() + answer.size;
+    }
+
+    /**
+     * @return <code>true</code> if the OUT message of the exchange was set with a cached answer
+     */
+    public boolean answer(final String key, final Exchange exchange) {
+        final Answer answer = this.answers.getIfPresent(key);
+        if (answer == null) {
+            this.metrics.cacheMiss();
+            return false;
+        }
+        this.metrics.cacheHit();
+        final Message out = exchange.getOut();
+        out.setBody(new BytesSource(answer.body));
+        out.getHeaders().putAll(answer.headers);
+        return true;
+    }
+
+    /**
+     * Keeps the answer of the exchange unless it is an error, a fault or it has attachments (they are not cached). The
+     * OUT body of the exchange is replaced by the cached one if it could only be read once.
+     */
+    public void store(final String key, final Exchange exchange) {
+        if (exchange.getException() != null || !exchange.hasOut()) {
+            return;
+        }
+
+        final Message out = exchange.getOut();
+        if (Boolean.TRUE.equals(out.getHeader(PetalsCamelComponent.MESSAGE_FAULT_HEADER)) || out.hasAttachments()) {
+            return;
+        }
+
+        final byte[] body = Messages.bodyAsBytes(out);
+        if (body == null) {
+            return;
+        }
+
+        final Answer answer = new Answer(body, out.getHeaders());
+        this.answers.put(key, answer);
+        this.metrics.cached(sizeOf(key, answer));
+    }
+
+    private static class Answer {
+
+        private final byte[] body;
+
+        /**
+         * A copy of the headers of the answer (they were already filtered when it was received)
+         */
+        private final Map<String, Object> headers;
+
+        /**
+         * An estimation in bytes of the memory taken by the answer
+         */
+        private final int size;
+
+        public Answer(final byte[] body, final Map<String, Object> headers) {
+            this.body = body;
+            this.headers = new HashMap<>(headers);
+            int size = body.length;
+            for (final Entry<String, Object> header : headers.entrySet()) {
+                final Object value = header.getValue();
+                size += 2 * header.getKey().length()
+                        + (value instanceof CharSequence ? 2 * ((CharSequence) value).length() : 16);
+            }
+            this.size = size;
+        }
+    }
+}
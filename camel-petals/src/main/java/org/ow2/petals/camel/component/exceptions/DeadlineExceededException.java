@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component.exceptions;
+
+import javax.jbi.messaging.MessagingException;
+
+/**
+ * An exception set on a Camel exchange that a producer did not send because the caller of the route already stopped
+ * waiting for its answer.
+ */
+public class DeadlineExceededException extends MessagingException {
+
+    private static final long serialVersionUID = -2635139260171950817L;
+
+    private static final String MESSAGE_PATTERN = "The deadline of the exchange sent to %s expired %dms ago";
+
+    public DeadlineExceededException(final String endpointUri, final long expiredSince) {
+        super(String.format(MESSAGE_PATTERN, endpointUri, expiredSince));
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.activation.FileDataSource;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.spi.Synchronization;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Writes the attachments larger than a threshold to files of a directory so that they are not kept in memory while
+ * they cross the Camel/Petals boundary: they are then read through {@link SpooledDataSource}s.
+ * 
+ * Each exchange holding a spooled attachment holds a reference to its file, released when the Camel exchange
+ * completes, or, for the answers given back to Petals, when their receiver has read them. The files still referenced
+ * when the spool is closed are deleted then.
+ */
+public class AttachmentSpool {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File directory;
+
+    private final long threshold;
+
+    private final Logger logger;
+
+    @SuppressWarnings("null")
+    private final Set<SpooledDataSource> files = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param directory
+     *            where the attachments are written, it is created if needed
+     * @param threshold
+     *            size in bytes above which an attachment is spooled
+     */
+    public AttachmentSpool(final File directory, final long threshold, final Logger logger) {
+        this.directory = directory;
+        this.threshold = threshold;
+        this.logger = logger;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return the number of spooled attachments still referenced
+     */
+    public int getSpooled() {
+        return files.size();
+    }
+
+    /**
+     * Spools the attachment if it is larger than the threshold, the spooled file being referenced until the given
+     * Camel exchange completes.
+     * 
+     * @return the attachment to use instead of the given one (that may have been read)
+     */
+    public DataHandler spool(final DataHandler data, final Exchange owner) {
+        final DataHandler result = spool(data);
+        share(result, owner);
+        return result;
+    }
+
+    /**
+     * Spools the attachment if it is larger than the threshold, the spooled file being referenced until the stream
+     * obtained from the returned attachment is closed, or until this spool is closed if it is never read.
+     * 
+     * @return the attachment to use instead of the given one (that may have been read)
+     */
+    public DataHandler handOff(final DataHandler data) {
+        final DataHandler result = spool(data);
+        final DataSource source = result.getDataSource();
+        if (source instanceof SpooledDataSource) {
+            ((SpooledDataSource) source).handOff();
+        }
+        return result;
+    }
+
+    /**
+     * If the attachment is spooled, its file stays referenced until the given Camel exchange completes.
+     */
+    public static void share(final DataHandler data, final Exchange owner) {
+        final DataSource source = data.getDataSource();
+        if (source instanceof SpooledDataSource) {
+            final SpooledDataSource spooled = (SpooledDataSource) source;
+            spooled.retain();
+            owner.addOnCompletion(new Synchronization() {
+                @NonNullByDefault(false)
+                @Override
+                public void onComplete(final Exchange exchange) {
+                    spooled.release();
+                }
+
+                @NonNullByDefault(false)
+                @Override
+                public void onFailure(final Exchange exchange) {
+                    spooled.release();
+                }
+            });
+        }
+    }
+
+    private DataHandler spool(final DataHandler data) {
+        final DataSource source = data.getDataSource();
+        if (source instanceof SpooledDataSource || source instanceof FileDataSource) {
+            // it is already on disk
+            return data;
+        }
+
+        File file = null;
+        try (final InputStream in = data.getInputStream()) {
+            final ByteArrayOutputStream head = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read = 0;
+            while (head.size() <= threshold && (read = in.read(buffer)) != -1) {
+                head.write(buffer, 0, read);
+            }
+
+            final String contentType = data.getContentType();
+            assert contentType != null;
+            if (read == -1) {
+                // the whole attachment has been read, it is small enough to stay in memory
+                return new DataHandler(new BytesDataSource(head.toByteArray(), contentType, data.getName()));
+            }
+
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can't create the spool directory " + directory);
+            }
+            file = File.createTempFile("attachment", ".spool", directory);
+            try (final OutputStream out = new FileOutputStream(file)) {
+                head.writeTo(out);
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+
+            final SpooledDataSource spooled = new SpooledDataSource(this, file, contentType, data.getName());
+            files.add(spooled);
+            return new DataHandler(spooled);
+        } catch (final IOException e) {
+            logger.log(Level.WARNING, "Can't spool the attachment " + data.getName() + ", it is kept as is", e);
+            if (file != null && !file.delete()) {
+                file.deleteOnExit();
+            }
+            return data;
+        }
+    }
+
+    void delete(final SpooledDataSource spooled) {
+        if (files.remove(spooled) && !spooled.getFile().delete()) {
+            // it may still be mapped
+            spooled.getFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * Deletes the spooled attachments, even if they are still referenced
+     */
+    public void close() {
+        for (final SpooledDataSource spooled : files) {
+            delete(spooled);
+        }
+    }
+
+    private static class BytesDataSource implements DataSource {
+
+        private final byte[] data;
+
+        private final String contentType;
+
+        @Nullable
+        private final String name;
+
+        public BytesDataSource(final byte[] data, final String contentType, final @Nullable String name) {
+            this.data = data;
+            this.contentType = contentType;
+            this.name = name;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("This attachment can't be written");
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @SuppressWarnings("null")
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -17,8 +17,12 @@
  */
 package org.ow2.petals.camel.component.utils;
 
-import java.util.HashSet;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -26,14 +30,25 @@ import javax.activation.DataHandler;
 import javax.jbi.messaging.Fault;
 import javax.jbi.messaging.MessagingException;
 import javax.jbi.messaging.NormalizedMessage;
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamSource;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.ExchangePattern;
 import org.apache.camel.Message;
+import org.apache.camel.StreamCache;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.spi.HeaderFilterStrategy;
+import org.eclipse.jdt.annotation.Nullable;
+import org.ow2.petals.camel.ServiceEndpointOperation;
+import org.ow2.petals.camel.component.BodyMode;
 import org.ow2.petals.camel.component.PetalsCamelComponent;
 import org.ow2.petals.jbi.xml.BytesSource;
+import org.w3c.dom.Node;
 
 /**
  * Utils to convert between petals exchange and camel exchange.
@@ -63,6 +78,19 @@ public class Conversions {
         }
     }
 
+    /**
+     * Removes all the properties of a petals exchange
+     */
+    private static void clearProperties(final org.ow2.petals.component.framework.api.message.Exchange exchange) {
+        final Set<String> names = exchange.getPropertyNames();
+        if (!names.isEmpty()) {
+            // the names can't be iterated while they are removed
+            for (final Object name : names.toArray()) {
+                exchange.setProperty((String) name, null);
+            }
+        }
+    }
+
     /**
      * Used to update properties from an exchange we received
      */
@@ -85,13 +113,43 @@ public class Conversions {
      */
     public static void populateNewCamelExchange(final org.ow2.petals.component.framework.api.message.Exchange from,
             final boolean currentFlowTracingActivation, final Exchange to) {
+        populateNewCamelExchange(from, currentFlowTracingActivation, to, null, null);
+    }
+
+    /**
+     * To populate a new camel exchange with an exchange coming from petals, the properties of the petals message being
+     * copied to the headers of the camel message only if the given {@link HeaderFilterStrategy} does not filter them
+     * and its large attachments being spooled if an {@link AttachmentSpool} is given
+     * 
+     * @param from
+     *            JBI exchange received by the service provider implemented with Camel route.
+     * @param currentFlowTracingActivation
+     *            Current flow tracing activation state on JBI exchange processing at service provider level.
+     * @param to
+     *            Camel exchange to populate.
+     * @param headerFilter
+     *            The filter of the properties of the petals message, <code>null</code> to copy all of them.
+     * @param spool
+     *            Where the large attachments of the petals message are written until the camel exchange completes,
+     *            <code>null</code> to keep them as they are.
+     */
+    public static void populateNewCamelExchange(final org.ow2.petals.component.framework.api.message.Exchange from,
+            final boolean currentFlowTracingActivation, final Exchange to,
+            final @Nullable HeaderFilterStrategy headerFilter, final @Nullable AttachmentSpool spool) {
 
         to.setExchangeId(from.getExchangeId());
 
         // let's first copy properties that were potentially in the new created exchange
         copyProperties(to, from, PetalsCamelComponent.EXCHANGE_ORIGINAL_PROPERTY_PREFIX);
 
-        copyProperties(from, to, PetalsCamelComponent.EXCHANGE_ORIGINAL_PROPERTY_PREFIX);
+        if (to instanceof DefaultExchange) {
+            // the properties of the petals exchange are only copied if the route reads them
+            ((DefaultExchange) to).setProperties(new LazyExchangeProperties(from,
+                    PetalsCamelComponent.EXCHANGE_ORIGINAL_PROPERTY_PREFIX,
+                    to.hasProperties() ? to.getProperties() : Collections.<String, Object> emptyMap()));
+        } else {
+            copyProperties(from, to, PetalsCamelComponent.EXCHANGE_ORIGINAL_PROPERTY_PREFIX);
+        }
 
         to.setProperty(PetalsCamelComponent.EXCHANGE_ORIGINAL_INTERFACE, from.getInterfaceName());
         to.setProperty(PetalsCamelComponent.EXCHANGE_ORIGINAL_SERVICE, from.getService());
@@ -102,7 +160,7 @@ public class Conversions {
         to.setProperty(PetalsCamelComponent.EXCHANGE_CURRENT_FLOW_TRACING_ACTIVATION,
                 Boolean.valueOf(currentFlowTracingActivation));
 
-        populateCamelMessage(from.getInMessage(), to.getIn());
+        populateCamelMessage(from.getInMessage(), to.getIn(), headerFilter, spool);
     }
 
     /**
@@ -110,6 +168,18 @@ public class Conversions {
      */
     public static void populateAnswerCamelExchange(final org.ow2.petals.component.framework.api.message.Exchange from,
             final Exchange to) {
+        populateAnswerCamelExchange(from, to, null, null);
+    }
+
+    /**
+     * To populate a camel exchange from the answer we got through petals, the properties of the petals message being
+     * copied to the headers of the camel message only if the given {@link HeaderFilterStrategy} does not filter them
+     * and its large attachments being spooled until the camel exchange completes if an {@link AttachmentSpool} is
+     * given
+     */
+    public static void populateAnswerCamelExchange(final org.ow2.petals.component.framework.api.message.Exchange from,
+            final Exchange to, final @Nullable HeaderFilterStrategy headerFilter,
+            final @Nullable AttachmentSpool spool) {
 
         // let's first clean the previous properties before copying those of the answer
         final Iterator<String> it = to.getProperties().keySet().iterator();
@@ -128,32 +198,38 @@ public class Conversions {
                     error == null ? new Exception("Status ERROR returned without no more explanations !!") : error);
         } else if (from.getFault() != null) {
             // there has been a fault
-            populateCamelMessage(from.getFault(), to.getOut());
+            populateCamelMessage(from.getFault(), to.getOut(), headerFilter, spool);
             to.getOut().setHeader(PetalsCamelComponent.MESSAGE_FAULT_HEADER, true);
             // TODO add test of conversions in both direction to be sure everything is correct!
         } else if (from.isOutMessage()) {
             // this is a response
-            populateCamelMessage(from.getOutMessage(), to.getOut());
+            populateCamelMessage(from.getOutMessage(), to.getOut(), headerFilter, spool);
         } else {
             // the exchange is finished! it corresponds to done for petals exchange, but in Camel there is
             // nothing specific to do...
         }
     }
 
-    private static void populateCamelMessage(final NormalizedMessage from, final Message to) {
+    private static void populateCamelMessage(final NormalizedMessage from, final Message to,
+            final @Nullable HeaderFilterStrategy headerFilter, final @Nullable AttachmentSpool spool) {
 
         // Normally, it is an empty message that is populated...
 
         @SuppressWarnings("unchecked")
         final Set<String> props = from.getPropertyNames();
         for (String prop : props) {
-            to.setHeader(prop, from.getProperty(prop));
+            final Object value = from.getProperty(prop);
+            if (headerFilter == null || !headerFilter.applyFilterToExternalHeaders(prop, value, to.getExchange())) {
+                to.setHeader(prop, value);
+            }
         }
 
         @SuppressWarnings("unchecked")
         final Set<String> attachs = from.getAttachmentNames();
         for (String attach : attachs) {
-            to.addAttachment(attach, from.getAttachment(attach));
+            final DataHandler attachment = from.getAttachment(attach);
+            to.addAttachment(attach,
+                    spool == null || attachment == null ? attachment : spool.spool(attachment, to.getExchange()));
         }
 
         final Source content = from.getContent();
@@ -175,6 +251,29 @@ public class Conversions {
     public static void populateNewPetalsExchange(final Exchange from,
             final org.ow2.petals.component.framework.api.message.Exchange to)
             throws MessagingException {
+        populateNewPetalsExchange(from, to, BodyMode.DOM);
+    }
+
+    /**
+     * To populate a new petals exchange with an exchange coming from camel, converting the body as specified by the
+     * given {@link BodyMode}
+     */
+    public static void populateNewPetalsExchange(final Exchange from,
+            final org.ow2.petals.component.framework.api.message.Exchange to, final BodyMode bodyMode)
+            throws MessagingException {
+        populateNewPetalsExchange(from, to, bodyMode, null, null);
+    }
+
+    /**
+     * To populate a new petals exchange with an exchange coming from camel, converting the body as specified by the
+     * given {@link BodyMode} and copying the headers of the camel message to the properties of the petals message only
+     * if the given {@link HeaderFilterStrategy} does not filter them. If an {@link AttachmentSpool} is given, the large
+     * attachments are spooled until the camel exchange completes.
+     */
+    public static void populateNewPetalsExchange(final Exchange from,
+            final org.ow2.petals.component.framework.api.message.Exchange to, final BodyMode bodyMode,
+            final @Nullable HeaderFilterStrategy headerFilter, final @Nullable AttachmentSpool spool)
+            throws MessagingException {
 
         // let's first copy properties that were potentially in the new created exchange
         // (such as flow attributes or other CDK things)
@@ -182,7 +281,7 @@ public class Conversions {
 
         copyProperties(from, to, PetalsCamelComponent.EXCHANGE_PROPERTY_PREFIX);
 
-        Conversions.populateNormalizedMessage(from.getIn(), to.getInMessage());
+        Conversions.populateNormalizedMessage(from.getIn(), to.getInMessage(), bodyMode, headerFilter, spool, false);
     }
 
     /**
@@ -191,20 +290,46 @@ public class Conversions {
     public static void populateAnswerPetalsExchange(final Exchange from,
             final org.ow2.petals.component.framework.api.message.Exchange to)
             throws MessagingException {
+        populateAnswerPetalsExchange(from, to, BodyMode.DOM);
+    }
 
-        // let's clean what was in the Exchange before copying from the answer
-        final Set<String> oldProps = new HashSet<>(to.getPropertyNames());
-        for (final String oldProp : oldProps) {
-            to.setProperty(oldProp, null);
-        }
+    /**
+     * To populate a petals exchange from the answer we got through camel, converting the body as specified by the given
+     * {@link BodyMode}
+     */
+    public static void populateAnswerPetalsExchange(final Exchange from,
+            final org.ow2.petals.component.framework.api.message.Exchange to, final BodyMode bodyMode)
+            throws MessagingException {
+        populateAnswerPetalsExchange(from, to, bodyMode, null, null);
+    }
+
+    /**
+     * To populate a petals exchange from the answer we got through camel, converting the body as specified by the given
+     * {@link BodyMode} and copying the headers of the camel message to the properties of the petals message only if the
+     * given {@link HeaderFilterStrategy} does not filter them. If an {@link AttachmentSpool} is given, the large
+     * attachments are spooled until the petals consumer reads them.
+     */
+    public static void populateAnswerPetalsExchange(final Exchange from,
+            final org.ow2.petals.component.framework.api.message.Exchange to, final BodyMode bodyMode,
+            final @Nullable HeaderFilterStrategy headerFilter, final @Nullable AttachmentSpool spool)
+            throws MessagingException {
 
-        copyProperties(from, to, PetalsCamelComponent.EXCHANGE_ORIGINAL_PROPERTY_PREFIX);
+        final Map<String, Object> properties = from.getProperties();
+        if (properties instanceof LazyExchangeProperties && ((LazyExchangeProperties) properties).isAttachedTo(to)) {
+            // the route did not change the properties of the petals exchange: they are already those of the answer,
+            // but the camel exchange must not see them change once the exchange is answered
+            ((LazyExchangeProperties) properties).detach();
+        } else {
+            // let's clean what was in the Exchange before copying from the answer
+            clearProperties(to);
+            copyProperties(from, to, PetalsCamelComponent.EXCHANGE_ORIGINAL_PROPERTY_PREFIX);
+        }
 
         // Note: the Petals exchange checks that all is correct w.r.t. to MEP and status
 
         if (from.hasOut() && Boolean.TRUE.equals(from.getOut().getHeader(PetalsCamelComponent.MESSAGE_FAULT_HEADER))) {
             final Fault fault = to.createFault();
-            Conversions.populateNormalizedMessage(from.getOut(), fault);
+            Conversions.populateNormalizedMessage(from.getOut(), fault, bodyMode, headerFilter, spool, true);
             to.setFault(fault);
         } else if (from.getException() != null) {
             to.setError(from.getException());
@@ -220,10 +345,11 @@ public class Conversions {
                 } else {
                     out = from.getOut();
                 }
-                Conversions.populateNormalizedMessage(out, to.getOutMessage());
+                Conversions.populateNormalizedMessage(out, to.getOutMessage(), bodyMode, headerFilter, spool, true);
             } else if (mep == ExchangePattern.InOptionalOut) {
                 if (from.hasOut()) {
-                    Conversions.populateNormalizedMessage(from.getOut(), to.getOutMessage());
+                    Conversions.populateNormalizedMessage(from.getOut(), to.getOutMessage(), bodyMode,
+                            headerFilter, spool, true);
                 } else {
                     // the exchange is finished
                     to.setDoneStatus();
@@ -237,17 +363,36 @@ public class Conversions {
         }
     }
 
-    private static void populateNormalizedMessage(final Message from, final NormalizedMessage to)
-            throws MessagingException {
+    /**
+     * @param answer
+     *            if the message is given back to a petals consumer, its spooled attachments are then released once the
+     *            consumer reads them instead of when the camel exchange completes
+     */
+    private static void populateNormalizedMessage(final Message from, final NormalizedMessage to,
+            final BodyMode bodyMode, final @Nullable HeaderFilterStrategy headerFilter,
+            final @Nullable AttachmentSpool spool, final boolean answer) throws MessagingException {
 
         // Normally, it is an empty message that is populated...
 
         for (final Entry<String, Object> e : from.getHeaders().entrySet()) {
-            to.setProperty(e.getKey(), e.getValue());
+            if (headerFilter == null
+                    || !headerFilter.applyFilterToCamelHeaders(e.getKey(), e.getValue(), from.getExchange())) {
+                to.setProperty(e.getKey(), e.getValue());
+            }
         }
 
         for (final Entry<String, DataHandler> e : from.getAttachments().entrySet()) {
-            to.addAttachment(e.getKey(), e.getValue());
+            final DataHandler attachment = e.getValue();
+            if (spool == null || attachment == null) {
+                to.addAttachment(e.getKey(), attachment);
+            } else if (answer) {
+                to.addAttachment(e.getKey(), spool.handOff(attachment));
+            } else {
+                final DataHandler spooled = spool.spool(attachment, from.getExchange());
+                // the camel message must not keep an attachment that may have been read
+                e.setValue(spooled);
+                to.addAttachment(e.getKey(), spooled);
+            }
         }
 
         final Object body = from.getBody();
@@ -256,14 +401,183 @@ public class Conversions {
         if (body instanceof org.apache.camel.BytesSource) {
             // let's apply the inverse transformation applied earlier
             content = new BytesSource(((org.apache.camel.BytesSource) body).getData(), ((Source) body).getSystemId());
-        } else if (body instanceof Source) {
-            // let's continue with a Source then
-            content = (Source) body;
         } else {
-            // TODO provide an endpoint option to force the use of a desired Source implementation?
-            // This uses available converters (see http://camel.apache.org/type-converter.html)
-            content = from.getBody(DOMSource.class);
+            content = toSource(from, bodyMode);
         }
         to.setContent(content);
     }
+
+    private static Source toSource(final Message from, final BodyMode bodyMode) {
+        final Object body = from.getBody();
+        if (body instanceof Source) {
+            // let's continue with a Source then
+            return (Source) body;
+        }
+
+        if (bodyMode == BodyMode.STREAM) {
+            final Source streamed = toStreamingSource(body);
+            if (streamed != null) {
+                return streamed;
+            }
+        }
+
+        // This uses available converters (see http://camel.apache.org/type-converter.html)
+        return from.getBody(DOMSource.class);
+    }
+
+    /**
+     * Wraps the body without parsing nor copying it
+     * 
+     * @return <code>null</code> if the body can't be streamed
+     */
+    private static @Nullable Source toStreamingSource(final @Nullable Object body) {
+        if (body instanceof StreamCache) {
+            // it may have been read earlier in the route
+            ((StreamCache) body).reset();
+        }
+
+        if (body instanceof byte[]) {
+            return new BytesSource((byte[]) body, (String) null);
+        } else if (body instanceof InputStream) {
+            return new StreamSource((InputStream) body);
+        } else if (body instanceof Reader) {
+            return new StreamSource((Reader) body);
+        } else if (body instanceof String) {
+            return new StreamSource(new StringReader((String) body));
+        } else if (body instanceof XMLStreamReader) {
+            return new StAXSource((XMLStreamReader) body);
+        } else if (body instanceof Node) {
+            return new DOMSource((Node) body);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * To populate a new camel exchange with an exchange coming from a camel producer of the same container, without
+     * going through a petals exchange: it is the equivalent of
+     * {@link #populateNewPetalsExchange(Exchange, org.ow2.petals.component.framework.api.message.Exchange)} followed by
+     * {@link #populateNewCamelExchange(org.ow2.petals.component.framework.api.message.Exchange, boolean, Exchange)}.
+     * 
+     * @param from
+     *            Camel exchange sent by the producer.
+     * @param target
+     *            The service provided by the route that will process the new exchange.
+     * @param targetEndpoint
+     *            The endpoint of the service provided by the route that will process the new exchange.
+     * @param currentFlowTracingActivation
+     *            The flow tracing activation resolved by the service provider for the exchange.
+     * @param to
+     *            Camel exchange to populate.
+     * @param bodyMode
+     *            The body mode of the producer.
+     * @param fromFilter
+     *            The header filter strategy of the producer.
+     * @param toFilter
+     *            The header filter strategy of the route.
+     */
+    public static void populateNewLocalCamelExchange(final Exchange from, final ServiceEndpointOperation target,
+            final @Nullable ServiceEndpoint targetEndpoint, final boolean currentFlowTracingActivation,
+            final Exchange to, final BodyMode bodyMode, final @Nullable HeaderFilterStrategy fromFilter,
+            final @Nullable HeaderFilterStrategy toFilter) {
+
+        final int prefixLength = PetalsCamelComponent.EXCHANGE_PROPERTY_PREFIX.length();
+        for (final Entry<String, Object> prop : from.getProperties().entrySet()) {
+            if (prop.getKey().startsWith(PetalsCamelComponent.EXCHANGE_PROPERTY_PREFIX)) {
+                to.setProperty(
+                        PetalsCamelComponent.EXCHANGE_ORIGINAL_PROPERTY_PREFIX + prop.getKey().substring(prefixLength),
+                        prop.getValue());
+            }
+        }
+
+        to.setProperty(PetalsCamelComponent.EXCHANGE_ORIGINAL_INTERFACE, target.getInterface());
+        to.setProperty(PetalsCamelComponent.EXCHANGE_ORIGINAL_SERVICE, target.getService());
+        to.setProperty(PetalsCamelComponent.EXCHANGE_ORIGINAL_ENDPOINT, targetEndpoint);
+        to.setProperty(PetalsCamelComponent.EXCHANGE_ORIGINAL_OPERATION, target.getOperation());
+        to.setProperty(PetalsCamelComponent.EXCHANGE_ORIGINAL_MEP, target.getMEP());
+
+        to.setProperty(PetalsCamelComponent.EXCHANGE_CURRENT_FLOW_TRACING_ACTIVATION, currentFlowTracingActivation);
+
+        populateLocalCamelMessage(from.getIn(), to.getIn(), bodyMode, fromFilter, toFilter);
+    }
+
+    /**
+     * To populate a camel exchange from the answer we got from a route of the same container, without going through a
+     * petals exchange: it is the equivalent of
+     * {@link #populateAnswerPetalsExchange(Exchange, org.ow2.petals.component.framework.api.message.Exchange)} followed
+     * by {@link #populateAnswerCamelExchange(org.ow2.petals.component.framework.api.message.Exchange, Exchange)}.
+     * 
+     * @param from
+     *            Camel exchange processed by the route.
+     * @param to
+     *            Camel exchange sent by the producer.
+     * @param bodyMode
+     *            The body mode of the route.
+     * @param fromFilter
+     *            The header filter strategy of the route.
+     * @param toFilter
+     *            The header filter strategy of the producer.
+     */
+    public static void populateLocalAnswerCamelExchange(final Exchange from, final Exchange to,
+            final BodyMode bodyMode, final @Nullable HeaderFilterStrategy fromFilter,
+            final @Nullable HeaderFilterStrategy toFilter) {
+
+        // let's first clean the previous properties before copying those of the answer
+        final Iterator<String> it = to.getProperties().keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(PetalsCamelComponent.EXCHANGE_PROPERTY_PREFIX)) {
+                it.remove();
+            }
+        }
+
+        final int prefixLength = PetalsCamelComponent.EXCHANGE_ORIGINAL_PROPERTY_PREFIX.length();
+        for (final Entry<String, Object> prop : from.getProperties().entrySet()) {
+            if (prop.getKey().startsWith(PetalsCamelComponent.EXCHANGE_ORIGINAL_PROPERTY_PREFIX)) {
+                to.setProperty(PetalsCamelComponent.EXCHANGE_PROPERTY_PREFIX + prop.getKey().substring(prefixLength),
+                        prop.getValue());
+            }
+        }
+
+        // same precedence as in populateAnswerPetalsExchange()
+        if (from.hasOut() && Boolean.TRUE.equals(from.getOut().getHeader(PetalsCamelComponent.MESSAGE_FAULT_HEADER))) {
+            populateLocalCamelMessage(from.getOut(), to.getOut(), bodyMode, fromFilter, toFilter);
+            to.getOut().setHeader(PetalsCamelComponent.MESSAGE_FAULT_HEADER, true);
+        } else if (from.getException() != null) {
+            to.setException(from.getException());
+        } else {
+            final ExchangePattern mep = from.getPattern();
+            if (mep == ExchangePattern.InOut) {
+                // sometimes camel exchange out is stored inplace of the in by Camel processors...
+                populateLocalCamelMessage(from.hasOut() ? from.getOut() : from.getIn(), to.getOut(), bodyMode,
+                        fromFilter, toFilter);
+            } else if (mep == ExchangePattern.InOptionalOut && from.hasOut()) {
+                populateLocalCamelMessage(from.getOut(), to.getOut(), bodyMode, fromFilter, toFilter);
+            } else {
+                // the exchange is finished, there is nothing specific to do in Camel
+            }
+        }
+    }
+
+    /**
+     * The headers go through the filters of both sides and the body is converted with the body mode of the sender, as
+     * they would through the NMR.
+     */
+    private static void populateLocalCamelMessage(final Message from, final Message to, final BodyMode bodyMode,
+            final @Nullable HeaderFilterStrategy fromFilter, final @Nullable HeaderFilterStrategy toFilter) {
+        for (final Entry<String, Object> e : from.getHeaders().entrySet()) {
+            if ((fromFilter == null
+                    || !fromFilter.applyFilterToCamelHeaders(e.getKey(), e.getValue(), from.getExchange()))
+                    && (toFilter == null
+                            || !toFilter.applyFilterToExternalHeaders(e.getKey(), e.getValue(), to.getExchange()))) {
+                to.setHeader(e.getKey(), e.getValue());
+            }
+        }
+
+        for (final Entry<String, DataHandler> e : from.getAttachments().entrySet()) {
+            to.addAttachment(e.getKey(), e.getValue());
+        }
+
+        // no need to go through a petals BytesSource here
+        to.setBody(toSource(from, bodyMode));
+    }
 }
@@ -0,0 +1,346 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.ow2.petals.component.framework.api.message.Exchange;
+
+/**
+ * The properties of a Camel exchange created from a Petals exchange, seen as Camel properties with a prefix.
+ * 
+ * As long as it is attached to the Petals exchange, a property with the prefix is only copied from the Petals exchange
+ * when it is read: a route that does not look at them does not pay for them. It is detached, i.e. all the properties of
+ * the Petals exchange are copied, as soon as a property with the prefix is changed or removed. Iterating on it (for
+ * example to send a Petals exchange or to copy the Camel exchange) does not detach it: the properties of the Petals
+ * exchange are iterated after the ones of the Camel exchange, and their values are only read if asked for.
+ * 
+ * While it is attached, the properties of the Petals exchange are exactly the ones that would be copied back from the
+ * Camel exchange, which is what {@link Conversions} takes advantage of when answering.
+ */
+public class LazyExchangeProperties extends AbstractMap<String, Object> {
+
+    private final ConcurrentHashMap<String, Object> properties;
+
+    private final String prefix;
+
+    private volatile @Nullable Exchange source;
+
+    /**
+     * @param properties
+     *            the properties already set on the Camel exchange
+     */
+    public LazyExchangeProperties(final Exchange source, final String prefix, final Map<String, Object> properties) {
+        this.properties = new ConcurrentHashMap<>(properties);
+        this.prefix = prefix;
+        this.source = source;
+    }
+
+    /**
+     * @return <code>true</code> if the properties with the prefix are still the ones of the Petals exchange
+     */
+    public boolean isAttachedTo(final Exchange exchange) {
+        return this.source == exchange;
+    }
+
+    /**
+     * Copies the properties of the Petals exchange that were not yet read: after that, the Petals exchange can change
+     * without impacting the Camel exchange.
+     */
+    public void detach() {
+        if (this.source == null) {
+            return;
+        }
+        synchronized (this) {
+            final Exchange source = this.source;
+            if (source == null) {
+                return;
+            }
+            for (final String name : source.getPropertyNames()) {
+                final Object value = source.getProperty(name);
+                if (value != null) {
+                    this.properties.putIfAbsent(this.prefix + name, value);
+                }
+            }
+            this.source = null;
+        }
+    }
+
+    private boolean isPrefixed(final @Nullable Object key) {
+        return key instanceof String && ((String) key).startsWith(this.prefix);
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public Object get(final Object key) {
+        final Object value = this.properties.get(key);
+        if (value != null || !isPrefixed(key)) {
+            return value;
+        }
+
+        final Exchange source = this.source;
+        if (source == null) {
+            return null;
+        }
+
+        final Object sourceValue = source.getProperty(((String) key).substring(this.prefix.length()));
+        if (sourceValue == null) {
+            return null;
+        }
+        final Object previous = this.properties.putIfAbsent((String) key, sourceValue);
+        return previous == null ? sourceValue : previous;
+    }
+
+    /**
+     * @return the value of the property, without keeping it if it was read from the Petals exchange
+     */
+    private @Nullable Object peek(final String key) {
+        final Object value = this.properties.get(key);
+        if (value != null || !isPrefixed(key)) {
+            return value;
+        }
+        final Exchange source = this.source;
+        return source == null ? null : source.getProperty(key.substring(this.prefix.length()));
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public boolean containsKey(final Object key) {
+        return key instanceof String && peek((String) key) != null;
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public Object put(final String key, final Object value) {
+        if (isPrefixed(key)) {
+            detach();
+        }
+        return this.properties.put(key, value);
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public Object remove(final Object key) {
+        if (isPrefixed(key)) {
+            detach();
+        }
+        return this.properties.remove(key);
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public void putAll(final Map<? extends String, ? extends Object> m) {
+        detach();
+        this.properties.putAll(m);
+    }
+
+    @Override
+    public void clear() {
+        // nothing must come back from the Petals exchange
+        this.source = null;
+        this.properties.clear();
+    }
+
+    @Override
+    public int size() {
+        final Exchange source = this.source;
+        int size = this.properties.size();
+        if (source != null) {
+            for (final String name : source.getPropertyNames()) {
+                if (!this.properties.containsKey(this.prefix + name)) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        final Exchange source = this.source;
+        return this.properties.isEmpty() && (source == null || source.getPropertyNames().isEmpty());
+    }
+
+    /**
+     * The key set and the values are those of {@link AbstractMap}, based on this set
+     */
+    @NonNullByDefault(false)
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new PropertiesIterator();
+            }
+
+            @Override
+            public int size() {
+                return LazyExchangeProperties.this.size();
+            }
+        };
+    }
+
+    /**
+     * Iterates on the properties of the Camel exchange, then on the ones of the Petals exchange that were not read yet
+     */
+    private final class PropertiesIterator implements Iterator<Entry<String, Object>> {
+
+        private final Iterator<Entry<String, Object>> read = LazyExchangeProperties.this.properties.entrySet()
+                .iterator();
+
+        /**
+         * The properties with the prefix already iterated on
+         */
+        private final Set<String> seen = new HashSet<>();
+
+        private @Nullable Iterator<String> names;
+
+        private @Nullable PropertyEntry next;
+
+        private @Nullable PropertyEntry current;
+
+        @Override
+        public boolean hasNext() {
+            if (this.next != null) {
+                return true;
+            }
+
+            if (this.read.hasNext()) {
+                final Entry<String, Object> entry = this.read.next();
+                final String key = entry.getKey();
+                if (isPrefixed(key)) {
+                    this.seen.add(key);
+                }
+                this.next = new PropertyEntry(key, entry.getValue());
+                return true;
+            }
+
+            Iterator<String> names = this.names;
+            if (names == null) {
+                final Exchange source = LazyExchangeProperties.this.source;
+                final Set<String> sourceNames = source == null ? Collections.<String> emptySet()
+                        : source.getPropertyNames();
+                assert sourceNames != null;
+                names = sourceNames.iterator();
+                this.names = names;
+            }
+            while (names.hasNext()) {
+                final String key = LazyExchangeProperties.this.prefix + names.next();
+                // if it was detached since, the property may have been removed
+                if (this.seen.add(key) && (LazyExchangeProperties.this.source != null
+                        || LazyExchangeProperties.this.properties.containsKey(key))) {
+                    this.next = new PropertyEntry(key, null);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final PropertyEntry next = this.next;
+            assert next != null;
+            this.current = next;
+            this.next = null;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            final PropertyEntry current = this.current;
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            this.current = null;
+            LazyExchangeProperties.this.remove(current.getKey());
+        }
+    }
+
+    /**
+     * Its value is only read from the Petals exchange when asked for, and it is changed through the map so that the
+     * map is detached if needed
+     */
+    private final class PropertyEntry implements Entry<String, Object> {
+
+        private final String key;
+
+        private @Nullable Object value;
+
+        public PropertyEntry(final String key, final @Nullable Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return this.key;
+        }
+
+        @Override
+        public @Nullable Object getValue() {
+            Object value = this.value;
+            if (value == null) {
+                value = peek(this.key);
+                this.value = value;
+            }
+            return value;
+        }
+
+        @NonNullByDefault(false)
+        @Override
+        public Object setValue(final Object value) {
+            final Object previous = getValue();
+            put(this.key, value);
+            this.value = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(final @Nullable Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            final Entry<?, ?> other = (Entry<?, ?>) obj;
+            return this.key.equals(other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return this.key.hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return this.key + "=" + getValue();
+        }
+    }
+}
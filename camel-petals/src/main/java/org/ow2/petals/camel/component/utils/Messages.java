@@ -0,0 +1,310 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component.utils;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.BytesSource;
+import org.apache.camel.Exchange;
+import org.apache.camel.InvalidPayloadException;
+import org.apache.camel.Message;
+import org.apache.camel.StreamCache;
+import org.apache.camel.StringSource;
+import org.eclipse.jdt.annotation.Nullable;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Helpers to identify the requests sent by a producer and to share their answers.
+ */
+public class Messages {
+
+    private Messages() {
+    }
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
+    private static XMLInputFactory createXMLInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * A request is identified by its operation and a hash of the canonical form of its IN body (names with their
+     * namespace, sorted attributes and text), so that the way the body is provided (bytes, stream, DOM...), its
+     * encoding, its prefixes or its XML declaration do not matter.
+     * 
+     * The body is read as a stream, without building a DOM tree, and a DOM body is only read. The IN body of the
+     * exchange is replaced by a {@link StreamCache} if it could only be read once.
+     * 
+     * @throws XMLStreamException
+     *             if the body is not XML
+     * @throws InvalidPayloadException
+     *             if the body can't be read as a stream
+     */
+    public static String requestKey(final Exchange exchange, final @Nullable QName operation)
+            throws InvalidPayloadException, XMLStreamException {
+        final Message in = exchange.getIn();
+        Object body = in.getBody();
+
+        if (isReadOnce(body)) {
+            final StreamCache cache = in.getBody(StreamCache.class);
+            if (cache != null) {
+                in.setBody(cache);
+                body = cache;
+            } else {
+                bodyAsBytes(in);
+                body = in.getBody();
+            }
+        }
+
+        final CanonicalHasher hasher = new CanonicalHasher();
+        if (body instanceof StreamCache) {
+            ((StreamCache) body).reset();
+        }
+        try {
+            if (body instanceof Node) {
+                hasher.hash((Node) body);
+            } else if (body instanceof DOMSource) {
+                hasher.hash(((DOMSource) body).getNode());
+            } else if (body != null) {
+                hasher.hash(createXMLStreamReader(in, body));
+            }
+        } finally {
+            if (body instanceof StreamCache) {
+                ((StreamCache) body).reset();
+            }
+        }
+        return operation + "#" + hasher.hash();
+    }
+
+    private static XMLStreamReader createXMLStreamReader(final Message in, final Object body)
+            throws InvalidPayloadException, XMLStreamException {
+        if (body instanceof String) {
+            return XML_INPUT_FACTORY.createXMLStreamReader(new StringReader((String) body));
+        } else if (body instanceof StreamSource) {
+            // this includes the bytes and string sources and some stream caches
+            return XML_INPUT_FACTORY.createXMLStreamReader((StreamSource) body);
+        } else if (body instanceof Reader) {
+            return XML_INPUT_FACTORY.createXMLStreamReader((Reader) body);
+        } else {
+            return XML_INPUT_FACTORY.createXMLStreamReader(in.getMandatoryBody(InputStream.class));
+        }
+    }
+
+    /**
+     * The body of the message is replaced by the returned bytes if it could only be read once.
+     * 
+     * @return the body of the message as bytes or <code>null</code> if it has no body or it can't be converted
+     */
+    public static @Nullable byte[] bodyAsBytes(final Message message) {
+        final Object body = message.getBody();
+        if (body instanceof BytesSource) {
+            return ((BytesSource) body).getData();
+        }
+
+        final String content = message.getBody(String.class);
+        if (content == null) {
+            return null;
+        }
+
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (body instanceof StreamCache) {
+            ((StreamCache) body).reset();
+        } else if (isReadOnce(body)) {
+            message.setBody(new BytesSource(bytes));
+        }
+        return bytes;
+    }
+
+    /**
+     * The bytes and string sources are stream sources that can be read again, as the stream caches
+     */
+    private static boolean isReadOnce(final @Nullable Object body) {
+        if (body instanceof BytesSource || body instanceof StringSource || body instanceof StreamCache) {
+            return false;
+        }
+        return body instanceof InputStream || body instanceof Reader || body instanceof StreamSource
+                || body instanceof StAXSource || body instanceof SAXSource;
+    }
+
+    /**
+     * Hashes the canonical form of an XML document, the same way if it is read as a stream or from a DOM tree.
+     */
+    private static final class CanonicalHasher {
+
+        private static final byte START = 1;
+
+        private static final byte END = 2;
+
+        private static final byte TEXT = 3;
+
+        private final Hasher hasher = Hashing.sha256().newHasher();
+
+        private final StringBuilder text = new StringBuilder();
+
+        private final List<String> attributes = new ArrayList<>();
+
+        private int depth = 0;
+
+        public void hash(final XMLStreamReader reader) throws XMLStreamException {
+            try {
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                        case XMLStreamConstants.START_ELEMENT:
+                            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                                this.attributes.add(attribute(reader.getAttributeNamespace(i),
+                                        reader.getAttributeLocalName(i), reader.getAttributeValue(i)));
+                            }
+                            startElement(reader.getNamespaceURI(), reader.getLocalName());
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            endElement();
+                            break;
+                        case XMLStreamConstants.CHARACTERS:
+                        case XMLStreamConstants.CDATA:
+                        case XMLStreamConstants.SPACE:
+                            if (this.depth > 0) {
+                                this.text.append(reader.getTextCharacters(), reader.getTextStart(),
+                                        reader.getTextLength());
+                            }
+                            break;
+                        default:
+                            // comments, processing instructions and the prolog are not part of the request
+                            break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        public void hash(final Node node) {
+            switch (node.getNodeType()) {
+                case Node.DOCUMENT_NODE:
+                case Node.DOCUMENT_FRAGMENT_NODE:
+                case Node.ENTITY_REFERENCE_NODE:
+                    hashChildren(node);
+                    break;
+                case Node.ELEMENT_NODE:
+                    final NamedNodeMap attributes = node.getAttributes();
+                    for (int i = 0; i < attributes.getLength(); i++) {
+                        final Node attribute = attributes.item(i);
+                        if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())
+                                && !XMLConstants.XMLNS_ATTRIBUTE.equals(attribute.getNodeName())
+                                && !attribute.getNodeName().startsWith(XMLConstants.XMLNS_ATTRIBUTE + ':')) {
+                            this.attributes.add(attribute(attribute.getNamespaceURI(), localName(attribute),
+                                    attribute.getNodeValue()));
+                        }
+                    }
+                    startElement(node.getNamespaceURI(), localName(node));
+                    hashChildren(node);
+                    endElement();
+                    break;
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    if (this.depth > 0) {
+                        this.text.append(node.getNodeValue());
+                    }
+                    break;
+                default:
+                    // comments and processing instructions are not part of the request
+                    break;
+            }
+        }
+
+        private void hashChildren(final Node node) {
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                hash(child);
+            }
+        }
+
+        private static String localName(final Node node) {
+            final String localName = node.getLocalName();
+            return localName == null ? node.getNodeName() : localName;
+        }
+
+        private static String attribute(final @Nullable String namespace, final String localName,
+                final String value) {
+            return (namespace == null ? "" : namespace) + '}' + localName + '=' + value;
+        }
+
+        private void startElement(final @Nullable String namespace, final String localName) {
+            flushText();
+            this.hasher.putByte(START);
+            putString(namespace == null ? "" : namespace);
+            putString(localName);
+            Collections.sort(this.attributes);
+            this.hasher.putInt(this.attributes.size());
+            for (final String attribute : this.attributes) {
+                putString(attribute);
+            }
+            this.attributes.clear();
+            this.depth++;
+        }
+
+        private void endElement() {
+            flushText();
+            this.hasher.putByte(END);
+            this.depth--;
+        }
+
+        private void flushText() {
+            if (this.text.length() > 0) {
+                this.hasher.putByte(TEXT);
+                putString(this.text);
+                this.text.setLength(0);
+            }
+        }
+
+        private void putString(final CharSequence value) {
+            // the length makes the concatenation of the values unambiguous
+            this.hasher.putInt(value.length());
+            this.hasher.putUnencodedChars(value);
+        }
+
+        public String hash() {
+            flushText();
+            return this.hasher.hash().toString();
+        }
+    }
+}
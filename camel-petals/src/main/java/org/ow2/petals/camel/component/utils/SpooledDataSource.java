@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.activation.DataSource;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * An attachment written to a file of an {@link AttachmentSpool} and read through a memory mapping of this file.
+ * 
+ * The file is reference-counted: it is deleted when the last exchange using the attachment releases it.
+ */
+public class SpooledDataSource implements DataSource {
+
+    private final AttachmentSpool spool;
+
+    private final File file;
+
+    private final String contentType;
+
+    @Nullable
+    private final String name;
+
+    private final AtomicInteger references = new AtomicInteger();
+
+    /**
+     * References released by the next streams read and closed
+     */
+    private final AtomicInteger handedOff = new AtomicInteger();
+
+    SpooledDataSource(final AttachmentSpool spool, final File file, final String contentType,
+            final @Nullable String name) {
+        this.spool = spool;
+        this.file = file;
+        this.contentType = contentType;
+        this.name = name;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return file.length();
+    }
+
+    public int getReferences() {
+        return references.get();
+    }
+
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * The reference is released by whoever reads the attachment, once the stream it reads is closed.
+     */
+    void handOff() {
+        retain();
+        handedOff.incrementAndGet();
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            spool.delete(this);
+        }
+    }
+
+    private boolean takeHandedOff() {
+        while (true) {
+            final int current = handedOff.get();
+            if (current == 0) {
+                return false;
+            }
+            if (handedOff.compareAndSet(current, current - 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        final InputStream in;
+        if (file.length() > Integer.MAX_VALUE) {
+            // a single mapping can't be larger
+            in = Files.newInputStream(file.toPath());
+        } else {
+            try (final RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    final FileChannel channel = raf.getChannel()) {
+                // the mapping stays valid once the channel is closed
+                in = new MappedInputStream(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        if (takeHandedOff()) {
+            return new ReleasingInputStream(in);
+        } else {
+            return in;
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("A spooled attachment can't be written");
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @SuppressWarnings("null")
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    private static class MappedInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        public MappedInputStream(final MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @NonNullByDefault(false)
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private class ReleasingInputStream extends InputStream {
+
+        private final InputStream in;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        public ReleasingInputStream(final InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @NonNullByDefault(false)
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            return in.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                if (closed.compareAndSet(false, true)) {
+                    release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.helpers;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * JAXB contexts are expensive to create and thread-safe: this keeps one per set of classes for all the routes of the
+ * container, to be used for example with {@link MarshallingHelper} or Camel's JAXB data format.
+ */
+public class JAXBContexts {
+
+    private static final Cache<List<Class<?>>, JAXBContext> CONTEXTS = CacheBuilder.newBuilder().build();
+
+    private JAXBContexts() {
+    }
+
+    /**
+     * @return the JAXB context of the given classes, created at the first call
+     */
+    public static JAXBContext get(final Class<?>... classes) throws JAXBException {
+        try {
+            return CONTEXTS.get(Arrays.<Class<?>> asList(classes.clone()), new Callable<JAXBContext>() {
+                @Override
+                public JAXBContext call() throws JAXBException {
+                    return JAXBContext.newInstance(classes);
+                }
+            });
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof JAXBException) {
+                throw (JAXBException) e.getCause();
+            }
+            throw new JAXBException(e.getCause());
+        }
+    }
+
+    /**
+     * Forgets the contexts of the classes loaded by the given class loader so that it can be garbage collected
+     */
+    public static void invalidate(final ClassLoader classLoader) {
+        final Iterator<List<Class<?>>> it = CONTEXTS.asMap().keySet().iterator();
+        while (it.hasNext()) {
+            for (final Class<?> clazz : it.next()) {
+                if (clazz.getClassLoader() == classLoader) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
+    }
+}
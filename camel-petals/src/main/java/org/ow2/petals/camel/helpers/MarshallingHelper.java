@@ -17,8 +17,14 @@
  */
 package org.ow2.petals.camel.helpers;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.activation.DataHandler;
 import javax.xml.bind.JAXBContext;
@@ -27,12 +33,15 @@ import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.attachment.AttachmentMarshaller;
 import javax.xml.bind.attachment.AttachmentUnmarshaller;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.camel.Message;
+import org.apache.camel.StreamCache;
 
 import com.ebmwebsourcing.easycommons.stream.EasyByteArrayOutputStream;
 import com.ebmwebsourcing.easycommons.xml.jaxb.AbstractAttachmentMarshaller;
@@ -40,13 +49,49 @@ import com.ebmwebsourcing.easycommons.xml.jaxb.AbstractAttachmentUnmarshaller;
 
 public class MarshallingHelper {
 
-    private final Unmarshaller unm;
+    /**
+     * The default maximum number of idle marshallers (and of idle unmarshallers) kept by a helper
+     */
+    public static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
 
-    private final Marshaller m;
+    private final Pool<Unmarshaller> unmarshallers;
+
+    private final Pool<Marshaller> marshallers;
 
     public MarshallingHelper(final JAXBContext context) throws JAXBException {
-        this.unm = context.createUnmarshaller();
-        this.m = context.createMarshaller();
+        this(context, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Marshallers and unmarshallers are not thread-safe: each call borrows one from a pool, creating a new one if none
+     * is idle, and gives it back afterwards, at most {@code poolSize} idle instances are kept.
+     * 
+     * @param context
+     *            JAXB context used to create marshallers and unmarshallers
+     * @param poolSize
+     *            the maximum number of idle marshallers (and of idle unmarshallers)
+     */
+    public MarshallingHelper(final JAXBContext context, final int poolSize) throws JAXBException {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("The pool size must be strictly positive: " + poolSize);
+        }
+
+        this.unmarshallers = new Pool<Unmarshaller>(poolSize) {
+            @Override
+            protected Unmarshaller create() throws JAXBException {
+                return context.createUnmarshaller();
+            }
+        };
+        this.marshallers = new Pool<Marshaller>(poolSize) {
+            @Override
+            protected Marshaller create() throws JAXBException {
+                return context.createMarshaller();
+            }
+        };
+
+        // let's fail now if the context can't create them
+        this.unmarshallers.release(this.unmarshallers.acquire());
+        this.marshallers.release(this.marshallers.acquire());
     }
 
     /**
@@ -66,34 +111,68 @@ public class MarshallingHelper {
     @SuppressWarnings("unchecked")
     public <T> T unmarshal(final Message msg, final Class<T> declaredType) throws JAXBException {
 
-        // we can't simply use getBody(Source.class) because StAxSource are not supported by jaxb
-        // and sometimes they are returned by getBody!
-        Object oBody = msg.getBody();
-        Source body;
-        if (oBody instanceof Source && !(oBody instanceof StAXSource)) {
-            body = (Source) oBody;
-        } else {
-            body = msg.getBody(DOMSource.class);
-        }
+        final Object body = msg.getBody();
 
-        synchronized (this.unm) {
-            final AttachmentUnmarshaller oldAttachmentUnmarshaller = this.unm.getAttachmentUnmarshaller();
-            this.unm.setAttachmentUnmarshaller(new AbstractAttachmentUnmarshaller() {
-                @Override
-                protected DataHandler getAttachment(final String cid) {
-                    return msg.getAttachment(cid);
-                }
-            });
+        final Unmarshaller unm = this.unmarshallers.acquire();
+        final AttachmentUnmarshaller oldAttachmentUnmarshaller = unm.getAttachmentUnmarshaller();
+        unm.setAttachmentUnmarshaller(new AbstractAttachmentUnmarshaller() {
+            @Override
+            protected DataHandler getAttachment(final String cid) {
+                return msg.getAttachment(cid);
+            }
+        });
 
-            try {
+        try {
+            // StAXSource are not supported by jaxb as Source, but their readers are
+            if (body instanceof StAXSource && ((StAXSource) body).getXMLStreamReader() != null) {
+                final XMLStreamReader reader = ((StAXSource) body).getXMLStreamReader();
+                if (Object.class.equals(declaredType)) {
+                    return (T) unm.unmarshal(reader);
+                } else {
+                    return unm.unmarshal(reader, declaredType).getValue();
+                }
+            } else if (body instanceof StAXSource) {
+                final XMLEventReader reader = ((StAXSource) body).getXMLEventReader();
+                if (Object.class.equals(declaredType)) {
+                    return (T) unm.unmarshal(reader);
+                } else {
+                    return unm.unmarshal(reader, declaredType).getValue();
+                }
+            } else {
+                final Source source = toSource(msg, body);
                 if (Object.class.equals(declaredType)) {
-                    return (T) this.unm.unmarshal(body);
+                    return (T) unm.unmarshal(source);
                 } else {
-                    return this.unm.unmarshal(body, declaredType).getValue();
+                    return unm.unmarshal(source, declaredType).getValue();
                 }
-            } finally {
-                this.unm.setAttachmentUnmarshaller(oldAttachmentUnmarshaller);
             }
+        } finally {
+            unm.setAttachmentUnmarshaller(oldAttachmentUnmarshaller);
+            this.unmarshallers.release(unm);
+        }
+    }
+
+    /**
+     * Streamable bodies are not converted to DOM: JAXB is able to unmarshal them directly.
+     */
+    private static Source toSource(final Message msg, final Object body) {
+        if (body instanceof StreamCache) {
+            // it may have been read earlier in the route
+            ((StreamCache) body).reset();
+        }
+
+        if (body instanceof Source) {
+            return (Source) body;
+        } else if (body instanceof InputStream) {
+            return new StreamSource((InputStream) body);
+        } else if (body instanceof Reader) {
+            return new StreamSource((Reader) body);
+        } else if (body instanceof byte[]) {
+            return new StreamSource(new ByteArrayInputStream((byte[]) body));
+        } else if (body instanceof String) {
+            return new StreamSource(new StringReader((String) body));
+        } else {
+            return msg.getBody(DOMSource.class);
         }
     }
 
@@ -131,23 +210,23 @@ public class MarshallingHelper {
      */
     public <T> void marshal(final Message msg, final T t, final boolean xop) throws JAXBException {
 
-        synchronized (this.m) {
-            final AttachmentMarshaller oldAttachmentMarshaller = m.getAttachmentMarshaller();
-            if (xop) {
-                this.m.setAttachmentMarshaller(new AbstractAttachmentMarshaller() {
-                    @Override
-                    protected void addAttachment(final String cid, final DataHandler data) {
-                        msg.addAttachment(cid, data);
-                    }
-                });
-            }
+        final Marshaller m = this.marshallers.acquire();
+        final AttachmentMarshaller oldAttachmentMarshaller = m.getAttachmentMarshaller();
+        if (xop) {
+            m.setAttachmentMarshaller(new AbstractAttachmentMarshaller() {
+                @Override
+                protected void addAttachment(final String cid, final DataHandler data) {
+                    msg.addAttachment(cid, data);
+                }
+            });
+        }
 
-            try (final EasyByteArrayOutputStream out = new EasyByteArrayOutputStream()) {
-                this.m.marshal(t, out);
-                msg.setBody(new StreamSource(out.toByteArrayInputStream()));
-            } finally {
-                this.m.setAttachmentMarshaller(oldAttachmentMarshaller);
-            }
+        try (final EasyByteArrayOutputStream out = new EasyByteArrayOutputStream()) {
+            m.marshal(t, out);
+            msg.setBody(new StreamSource(out.toByteArrayInputStream()));
+        } finally {
+            m.setAttachmentMarshaller(oldAttachmentMarshaller);
+            this.marshallers.release(m);
         }
     }
 
@@ -160,8 +239,11 @@ public class MarshallingHelper {
      * @param object
      */
     public void basicMarshal(final OutputStream out, final Object object) throws JAXBException {
-        synchronized (this.m) {
-            this.m.marshal(object, out);
+        final Marshaller m = this.marshallers.acquire();
+        try {
+            m.marshal(object, out);
+        } finally {
+            this.marshallers.release(m);
         }
     }
 
@@ -173,8 +255,50 @@ public class MarshallingHelper {
      * @param in
      */
     public Object basicUnmarshal(final InputStream in) throws JAXBException {
-        synchronized (this.unm) {
-            return this.unm.unmarshal(in);
+        final Unmarshaller unm = this.unmarshallers.acquire();
+        try {
+            return unm.unmarshal(in);
+        } finally {
+            this.unmarshallers.release(unm);
+        }
+    }
+
+    /**
+     * A bounded pool that never blocks: threads take an idle instance if there is one, else a new one is created, and
+     * instances given back while the pool is full are dropped.
+     */
+    private abstract static class Pool<T> {
+
+        private final Queue<T> idle = new ConcurrentLinkedQueue<>();
+
+        /**
+         * {@link ConcurrentLinkedQueue#size()} is not constant-time
+         */
+        private final AtomicInteger idleCount = new AtomicInteger();
+
+        private final int maxIdle;
+
+        public Pool(final int maxIdle) {
+            this.maxIdle = maxIdle;
+        }
+
+        protected abstract T create() throws JAXBException;
+
+        public T acquire() throws JAXBException {
+            final T instance = this.idle.poll();
+            if (instance == null) {
+                return create();
+            }
+            this.idleCount.decrementAndGet();
+            return instance;
+        }
+
+        public void release(final T instance) {
+            if (this.idleCount.incrementAndGet() <= this.maxIdle) {
+                this.idle.offer(instance);
+            } else {
+                this.idleCount.decrementAndGet();
+            }
         }
     }
 }
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.helpers;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.NoTypeConversionAvailableException;
+import org.apache.camel.TypeConversionException;
+import org.apache.camel.TypeConverter;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExecutorServiceManager;
+import org.apache.camel.impl.converter.AnnotationTypeConverterLoader;
+import org.apache.camel.spi.TypeConverterRegistry;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.collect.Sets;
+
+/**
+ * The infrastructure that Camel contexts can share instead of each creating its own: the thread pools (through the
+ * {@link org.apache.camel.spi.ExecutorServiceManager}) and the type converters (loaded once from the class loader given
+ * at creation).
+ * 
+ * The routes, endpoints and components stay those of each context. A context whose class loader has type converters
+ * that the shared class loader does not see keeps its own type converters, so that they are still loaded and not
+ * visible to the other contexts. For the same reason, type converters can't be added to (or removed from) the shared
+ * registry through a context.
+ */
+public class SharedCamelInfrastructure {
+
+    /**
+     * Holds the shared infrastructure, it is never started
+     */
+    private final DefaultCamelContext owner;
+
+    private final SharedExecutorServiceManager executorServiceManager;
+
+    private final TypeConverter typeConverter;
+
+    private final TypeConverterRegistry typeConverterRegistry;
+
+    private final ClassLoader classLoader;
+
+    public SharedCamelInfrastructure(final ClassLoader classLoader) {
+        this.classLoader = classLoader;
+        this.owner = new DefaultCamelContext();
+        this.owner.setName("petals-shared");
+        this.owner.disableJMX();
+        this.owner.setApplicationContextClassLoader(classLoader);
+
+        this.executorServiceManager = new SharedExecutorServiceManager(this.owner);
+        this.owner.setExecutorServiceManager(this.executorServiceManager);
+
+        this.typeConverter = new SharedTypeConverter(this.owner.getTypeConverter());
+        this.typeConverterRegistry = readOnly(this.owner.getTypeConverterRegistry());
+    }
+
+    /**
+     * Makes the given context, not yet started, use the shared infrastructure
+     * 
+     * @param classLoader
+     *            the class loader of the context
+     * @return <code>false</code> if the context keeps its own type converters because its class loader has some that
+     *         are not shared
+     */
+    public boolean share(final DefaultCamelContext context, final ClassLoader classLoader) {
+        context.setExecutorServiceManager(this.executorServiceManager);
+        if (hasOwnTypeConverters(classLoader)) {
+            return false;
+        }
+        context.setTypeConverter(this.typeConverter);
+        context.setTypeConverterRegistry(this.typeConverterRegistry);
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if the class loader declares type converters (the way Camel finds the classes annotated
+     *         with {@link org.apache.camel.Converter}) that the shared class loader does not
+     */
+    private boolean hasOwnTypeConverters(final ClassLoader classLoader) {
+        try {
+            final Set<String> shared = Sets.newHashSet();
+            for (final URL url : Collections
+                    .list(this.classLoader.getResources(AnnotationTypeConverterLoader.META_INF_SERVICES))) {
+                shared.add(url.toExternalForm());
+            }
+            for (final URL url : Collections
+                    .list(classLoader.getResources(AnnotationTypeConverterLoader.META_INF_SERVICES))) {
+                if (!shared.contains(url.toExternalForm())) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (final IOException e) {
+            // the context can't be wrong with its own type converters
+            return true;
+        }
+    }
+
+    /**
+     * The shared registry is a service started with the shared infrastructure: the contexts only use its type
+     * converters and can't change them
+     */
+    private static TypeConverterRegistry readOnly(final TypeConverterRegistry registry) {
+        return (TypeConverterRegistry) Proxy.newProxyInstance(TypeConverterRegistry.class.getClassLoader(),
+                new Class<?>[] { TypeConverterRegistry.class }, new InvocationHandler() {
+                    @Override
+                    public @Nullable Object invoke(final @Nullable Object proxy, final @Nullable Method method,
+                            final @Nullable Object[] args) throws Throwable {
+                        assert method != null;
+                        if (method.getName().startsWith("add") || method.getName().startsWith("remove")) {
+                            throw new UnsupportedOperationException("The type converters are shared by the Camel "
+                                    + "contexts: they can't be added or removed by one of them, ship them in the "
+                                    + "service unit or don't share the Camel infrastructure");
+                        }
+                        try {
+                            return method.invoke(registry, args);
+                        } catch (final InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Shuts down the shared thread pools, the contexts sharing them must have been stopped
+     */
+    public void close() throws Exception {
+        this.executorServiceManager.close();
+        this.owner.stop();
+    }
+
+    /**
+     * Only shut down by {@link SharedCamelInfrastructure#close()} and not by the contexts using it when they stop
+     */
+    private static class SharedExecutorServiceManager extends DefaultExecutorServiceManager {
+
+        public SharedExecutorServiceManager(final DefaultCamelContext owner) {
+            super(owner);
+        }
+
+        @Override
+        protected void doShutdown() throws Exception {
+            // the thread pools created for a context are shut down by its services when they stop
+        }
+
+        public void close() throws Exception {
+            super.doShutdown();
+        }
+    }
+
+    /**
+     * Hides the shared type converter from the contexts using it so that they don't take it over (it is a service aware
+     * of its context)
+     */
+    private static class SharedTypeConverter implements TypeConverter {
+
+        private final TypeConverter delegate;
+
+        public SharedTypeConverter(final TypeConverter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean allowNull() {
+            return delegate.allowNull();
+        }
+
+        @Override
+        public <T> T convertTo(final Class<T> type, final Object value) throws TypeConversionException {
+            return delegate.convertTo(type, value);
+        }
+
+        @Override
+        public <T> T convertTo(final Class<T> type, final Exchange exchange, final Object value)
+                throws TypeConversionException {
+            return delegate.convertTo(type, exchange, value);
+        }
+
+        @Override
+        public <T> T mandatoryConvertTo(final Class<T> type, final Object value)
+                throws TypeConversionException, NoTypeConversionAvailableException {
+            return delegate.mandatoryConvertTo(type, value);
+        }
+
+        @Override
+        public <T> T mandatoryConvertTo(final Class<T> type, final Exchange exchange, final Object value)
+                throws TypeConversionException, NoTypeConversionAvailableException {
+            return delegate.mandatoryConvertTo(type, exchange, value);
+        }
+
+        @Override
+        public <T> T tryConvertTo(final Class<T> type, final Object value) {
+            return delegate.tryConvertTo(type, value);
+        }
+
+        @Override
+        public <T> T tryConvertTo(final Class<T> type, final Exchange exchange, final Object value) {
+            return delegate.tryConvertTo(type, exchange, value);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the exchanges sent by a consumes service-id to one endpoint of the service it targets, used to choose the
+ * endpoint of the next exchanges.
+ * 
+ * Latencies and errors are exponentially weighted moving averages so that the recent exchanges count the most.
+ */
+public class EndpointMetrics {
+
+    /**
+     * The weight of a new sample in the moving averages
+     */
+    private static final double ALPHA = 0.2;
+
+    /**
+     * How much an error rate of 1 multiplies the cost of an endpoint
+     */
+    private static final double ERROR_PENALTY = 10;
+
+    private final String endpointName;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private volatile double latency = 0;
+
+    private volatile double errorRate = 0;
+
+    private boolean sampled = false;
+
+    public EndpointMetrics(final String endpointName) {
+        this.endpointName = endpointName;
+    }
+
+    /**
+     * An exchange was sent to the endpoint, it must then be {@link #end(long, boolean) ended}
+     */
+    public void begin() {
+        this.inFlight.incrementAndGet();
+    }
+
+    /**
+     * @param latencyNanos
+     *            the time the exchange took to be answered
+     * @param failed
+     *            if the exchange timed out or was answered with an error
+     */
+    public void end(final long latencyNanos, final boolean failed) {
+        this.inFlight.decrementAndGet();
+        this.count.increment();
+        if (failed) {
+            this.errors.increment();
+        }
+        synchronized (this) {
+            if (this.sampled) {
+                this.latency += ALPHA * (latencyNanos - this.latency);
+                this.errorRate += ALPHA * ((failed ? 1 : 0) - this.errorRate);
+            } else {
+                this.sampled = true;
+                this.latency = latencyNanos;
+                this.errorRate = failed ? 1 : 0;
+            }
+        }
+    }
+
+    /**
+     * The lower the better: the average latency weighted by the exchanges in flight and the error rate.
+     * 
+     * An endpoint that never answered has no latency, so it is tried before the others.
+     */
+    public double getCost() {
+        return (this.latency + 1) * (this.inFlight.get() + 1) * (1 + ERROR_PENALTY * this.errorRate);
+    }
+
+    public String getEndpointName() {
+        return this.endpointName;
+    }
+
+    public long getInFlight() {
+        return this.inFlight.get();
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getErrors() {
+        return this.errors.sum();
+    }
+
+    /**
+     * @return the moving average of the latency in microseconds
+     */
+    public long getLatency() {
+        return TimeUnit.NANOSECONDS.toMicros((long) this.latency);
+    }
+
+    /**
+     * @return the moving average of the errors, between 0 and 1
+     */
+    public double getErrorRate() {
+        return this.errorRate;
+    }
+}
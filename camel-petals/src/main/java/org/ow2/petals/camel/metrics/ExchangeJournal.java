@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Records the events of the lifecycle of exchanges without formatting nor logging them on the thread processing the
+ * exchange: each event is a fixed-size record (time, event, subject of at most {@link #SUBJECT_LENGTH} characters)
+ * written in preallocated arrays used as a ring buffer without locking, the records are formatted and given to the
+ * logger when the journal is drained, periodically by the {@link JournalDrainer} it is registered to.
+ * 
+ * Only one out of {@link #getSampling()} records of each event reaches the logger (none if it is 0), all are counted.
+ * If the ring is full (the logger can't keep up), records are dropped and counted. Once the journal is closed, the
+ * events are only counted.
+ */
+public class ExchangeJournal implements AutoCloseable {
+
+    public enum Event {
+        PROCESSING_STARTED(Level.INFO, "Let's start processing Exchange %s with Camel"),
+        PROCESSING_DONE_SYNC(Level.INFO, "Processing of Exchange %s with Camel is finished (happened synchronously)"),
+        PROCESSING_PENDING_ASYNC(Level.INFO, "Processing of Exchange %s with Camel will finish asynchronously"),
+        NEW_FLOW(Level.WARNING,
+                "There is no flow attributes in the Execution Context: either we received a petals exchange without "
+                        + "flow attributes or we are acting as a BC and we are starting a new flow. "
+                        + "We assume the later and initialise a new flow: %s");
+
+        private final Level level;
+
+        private final String format;
+
+        private Event(final Level level, final String format) {
+            this.level = level;
+            this.format = format;
+        }
+
+        public Level getLevel() {
+            return this.level;
+        }
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The maximum number of characters of the subject kept in a record, the longer ones are truncated
+     */
+    public static final int SUBJECT_LENGTH = 48;
+
+    private static final Event[] EVENTS = Event.values();
+
+    private final Logger logger;
+
+    private final int sampling;
+
+    private final int mask;
+
+    private final long[] times;
+
+    private final int[] events;
+
+    /**
+     * The subject of the record of the slot <code>i</code> starts at <code>i * SUBJECT_LENGTH</code> and has
+     * <code>subjectLengths[i]</code> characters
+     */
+    private final char[] subjects;
+
+    private final int[] subjectLengths;
+
+    /**
+     * For each slot, the sequence of the record written in it plus one, once it is fully written
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * The sequence of the next record to write
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The sequence of the next record to drain, only written by the drainer
+     */
+    private volatile long tail;
+
+    private final LongAdder[] counts = new LongAdder[EVENTS.length];
+
+    private final AtomicLong[] sampled = new AtomicLong[EVENTS.length];
+
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile boolean closed;
+
+    public ExchangeJournal(final Logger logger, final int sampling) {
+        this(logger, sampling, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param sampling
+     *            one out of this number of records of each event is logged, none if it is 0
+     * @param capacity
+     *            the number of records the ring can hold, rounded up to a power of two
+     */
+    public ExchangeJournal(final Logger logger, final int sampling, final int capacity) {
+        this.logger = logger;
+        this.sampling = Math.max(0, sampling);
+        // nothing is written in the ring if nothing is logged
+        final int length = this.sampling == 0 ? 1 : Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.mask = length - 1;
+        this.times = new long[length];
+        this.events = new int[length];
+        this.subjects = new char[length * SUBJECT_LENGTH];
+        this.subjectLengths = new int[length];
+        this.published = new AtomicLongArray(length);
+        for (int i = 0; i < EVENTS.length; i++) {
+            this.counts[i] = new LongAdder();
+            this.sampled[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * @param subject
+     *            what the event is about (for example the exchange id), it is copied in the record only if the record
+     *            is sampled and formatted only when it is logged
+     */
+    public void record(final Event event, final CharSequence subject) {
+        final int ordinal = event.ordinal();
+        this.counts[ordinal].increment();
+
+        if (this.sampling == 0 || this.closed || !this.logger.isLoggable(event.level)
+                || (this.sampling > 1 && this.sampled[ordinal].getAndIncrement() % this.sampling != 0)) {
+            return;
+        }
+
+        long seq;
+        do {
+            seq = this.head.get();
+            if (seq - this.tail > this.mask) {
+                this.dropped.increment();
+                return;
+            }
+        } while (!this.head.compareAndSet(seq, seq + 1));
+
+        final int slot = (int) seq & this.mask;
+        final int length = Math.min(subject.length(), SUBJECT_LENGTH);
+        final int offset = slot * SUBJECT_LENGTH;
+        for (int i = 0; i < length; i++) {
+            this.subjects[offset + i] = subject.charAt(i);
+        }
+        this.subjectLengths[slot] = length;
+        this.times[slot] = System.currentTimeMillis();
+        this.events[slot] = ordinal;
+        // publishes the fields written before
+        this.published.lazySet(slot, seq + 1);
+    }
+
+    /**
+     * Logs the records written so far, it is done periodically by the {@link JournalDrainer} of the journal
+     */
+    public synchronized void drain() {
+        long t = this.tail;
+        while (true) {
+            final int slot = (int) t & this.mask;
+            if (this.published.get(slot) != t + 1) {
+                // empty, or the next record is not fully written yet
+                break;
+            }
+            final long time = this.times[slot];
+            final Event event = EVENTS[this.events[slot]];
+            final String subject = new String(this.subjects, slot * SUBJECT_LENGTH, this.subjectLengths[slot]);
+            // the slot can be written again
+            this.tail = ++t;
+
+            final LogRecord record = new LogRecord(event.level, String.format(event.format, subject));
+            record.setMillis(time);
+            record.setLoggerName(this.logger.getName());
+            this.logger.log(record);
+        }
+    }
+
+    public long getCount(final Event event) {
+        return this.counts[event.ordinal()].sum();
+    }
+
+    /**
+     * @return the number of records that were sampled but could not be logged because the ring was full
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    public int getSampling() {
+        return this.sampling;
+    }
+
+    /**
+     * @return <code>true</code> once the journal is closed, its {@link JournalDrainer} then forgets it
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Logs the remaining records: the events recorded after are only counted
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        drain();
+    }
+}
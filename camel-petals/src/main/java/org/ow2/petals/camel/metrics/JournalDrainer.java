@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.metrics;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Drains periodically the {@link ExchangeJournal}s registered to it with a single background thread, so that a
+ * component has one thread for all its journals whatever its number of SUs. The journals closed are forgotten.
+ * 
+ * It must be closed by its owner (for example on shutdown of the component) to stop its thread.
+ */
+public class JournalDrainer implements AutoCloseable {
+
+    /**
+     * Time in milliseconds between two drains of the journals
+     */
+    private static final long DRAIN_PERIOD = 100;
+
+    private final Set<ExchangeJournal> journals = new CopyOnWriteArraySet<>();
+
+    private final ScheduledExecutorService executor;
+
+    public JournalDrainer() {
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("petals-camel-journal").build());
+        assert executor != null;
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, DRAIN_PERIOD, DRAIN_PERIOD, TimeUnit.MILLISECONDS);
+        this.executor = executor;
+    }
+
+    /**
+     * Nothing is done if the journal logs nothing
+     */
+    public void register(final ExchangeJournal journal) {
+        if (journal.getSampling() > 0 && !journal.isClosed()) {
+            this.journals.add(journal);
+        }
+    }
+
+    /**
+     * Drains the journals registered, it is done periodically by the background thread
+     */
+    public void drain() {
+        for (final ExchangeJournal journal : this.journals) {
+            if (journal.isClosed()) {
+                // it was drained a last time when closed
+                this.journals.remove(journal);
+            } else {
+                journal.drain();
+            }
+        }
+    }
+
+    /**
+     * @return the number of journals drained
+     */
+    public int size() {
+        return this.journals.size();
+    }
+
+    /**
+     * Stops the background thread, after having drained a last time the journals registered
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        drain();
+        this.journals.clear();
+    }
+}
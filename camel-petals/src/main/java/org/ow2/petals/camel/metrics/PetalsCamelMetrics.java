@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@link ServiceMetrics} of the service-ids of a {@link org.ow2.petals.camel.PetalsCamelContext}.
+ * 
+ * Endpoints get their {@link ServiceMetrics} once when they are created, so this is not used on the hot path.
+ */
+public class PetalsCamelMetrics {
+
+    private final ConcurrentMap<String, ServiceMetrics> services = new ConcurrentHashMap<>();
+
+    private final LongAdder activations = new LongAdder();
+
+    private final LongAdder passivations = new LongAdder();
+
+    private final AtomicLong lastActivationTime = new AtomicLong();
+
+    public ServiceMetrics getServiceMetrics(final String serviceId) {
+        final ServiceMetrics metrics = this.services.get(serviceId);
+        if (metrics != null) {
+            return metrics;
+        }
+        final ServiceMetrics newMetrics = new ServiceMetrics(serviceId);
+        final ServiceMetrics previous = this.services.putIfAbsent(serviceId, newMetrics);
+        return previous == null ? newMetrics : previous;
+    }
+
+    public Collection<ServiceMetrics> getServiceMetrics() {
+        return Collections.unmodifiableCollection(this.services.values());
+    }
+
+    /**
+     * The context was started by the first exchange it received (when it is lazily activated)
+     * 
+     * @param durationNanos
+     *            the time the exchange waited for the context to be started, including the first time the actions
+     *            executed on deployment, init and start of its route definitions
+     */
+    public void activated(final long durationNanos) {
+        this.activations.increment();
+        this.lastActivationTime.set(TimeUnit.NANOSECONDS.toMillis(durationNanos));
+    }
+
+    /**
+     * The context was stopped because it was idle
+     */
+    public void passivated() {
+        this.passivations.increment();
+    }
+
+    public long getActivations() {
+        return this.activations.sum();
+    }
+
+    public long getPassivations() {
+        return this.passivations.sum();
+    }
+
+    /**
+     * @return the time in milliseconds the first exchange waited for the context to be started the last time it was
+     *         activated
+     */
+    public long getLastActivationTime() {
+        return this.lastActivationTime.get();
+    }
+}
@@ -0,0 +1,314 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the exchanges processed by a route (for a provides service-id) or sent by a route (for a consumes
+ * service-id).
+ * 
+ * The recording methods do not allocate: an exchange is started with {@link #begin()} and the returned value is given
+ * back when it is ended.
+ */
+public class ServiceMetrics {
+
+    private final String serviceId;
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder faults = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final LongAdder inFlight = new LongAdder();
+
+    private final LongAdder localDispatches = new LongAdder();
+
+    private final LongAdder queued = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final AtomicLong lastDrainTime = new AtomicLong();
+
+    private final LongAdder cacheHits = new LongAdder();
+
+    private final LongAdder cacheMisses = new LongAdder();
+
+    private final LongAdder cacheEntries = new LongAdder();
+
+    private final LongAdder cacheSize = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder hedges = new LongAdder();
+
+    private final LongAdder hedgesWon = new LongAdder();
+
+    private final LongAdder expired = new LongAdder();
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+    public ServiceMetrics(final String serviceId) {
+        this.serviceId = serviceId;
+    }
+
+    /**
+     * @return the start time of the exchange to give to the method ending it
+     */
+    public long begin() {
+        this.inFlight.increment();
+        return System.nanoTime();
+    }
+
+    public void success(final long start) {
+        end(start);
+    }
+
+    public void error(final long start) {
+        this.errors.increment();
+        end(start);
+    }
+
+    public void fault(final long start) {
+        this.faults.increment();
+        end(start);
+    }
+
+    public void timeout(final long start) {
+        this.timeouts.increment();
+        end(start);
+    }
+
+    /**
+     * An exchange was passed to a route of the same container instead of going through the NMR
+     */
+    public void localDispatch() {
+        this.localDispatches.increment();
+    }
+
+    /**
+     * An exchange is waiting for the in-flight exchanges of a producer to finish
+     */
+    public void enqueued() {
+        this.queued.increment();
+    }
+
+    public void dequeued() {
+        this.queued.decrement();
+    }
+
+    /**
+     * An exchange was not sent because the in-flight limits of a producer were reached
+     */
+    public void rejected() {
+        this.rejected.increment();
+    }
+
+    /**
+     * The route was stopped after waiting for its exchanges in flight
+     * 
+     * @param durationNanos
+     *            the time spent waiting
+     */
+    public void drained(final long durationNanos) {
+        this.lastDrainTime.set(TimeUnit.NANOSECONDS.toMillis(durationNanos));
+    }
+
+    /**
+     * An exchange was answered by the response cache of a producer
+     */
+    public void cacheHit() {
+        this.cacheHits.increment();
+    }
+
+    /**
+     * An exchange had no answer in the response cache of a producer and was sent
+     */
+    public void cacheMiss() {
+        this.cacheMisses.increment();
+    }
+
+    /**
+     * An answer was added to the response cache of a producer
+     * 
+     * @param size
+     *            the size in bytes of the cached answer
+     */
+    public void cached(final long size) {
+        this.cacheEntries.increment();
+        this.cacheSize.add(size);
+    }
+
+    /**
+     * An answer was removed from the response cache of a producer
+     * 
+     * @param size
+     *            the size in bytes of the removed answer
+     */
+    public void uncached(final long size) {
+        this.cacheEntries.decrement();
+        this.cacheSize.add(-size);
+    }
+
+    /**
+     * An exchange was not sent because the same request was already sent by a producer, it will share its answer
+     */
+    public void coalesced() {
+        this.coalesced.increment();
+    }
+
+    /**
+     * A copy of an exchange not answered in time was sent to another endpoint by a producer
+     */
+    public void hedged() {
+        this.hedges.increment();
+    }
+
+    /**
+     * The answer of a copy sent by a producer arrived first and was used
+     */
+    public void hedgeWon() {
+        this.hedgesWon.increment();
+    }
+
+    /**
+     * An exchange was not sent because the caller of the route already stopped waiting for its answer
+     */
+    public void expired() {
+        this.expired.increment();
+    }
+
+    private void end(final long start) {
+        this.latencies.record(System.nanoTime() - start);
+        this.count.increment();
+        this.inFlight.decrement();
+    }
+
+    public String getServiceId() {
+        return this.serviceId;
+    }
+
+    /**
+     * @return the number of finished exchanges, whatever their outcome
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getErrors() {
+        return this.errors.sum();
+    }
+
+    public long getFaults() {
+        return this.faults.sum();
+    }
+
+    public long getTimeouts() {
+        return this.timeouts.sum();
+    }
+
+    public long getInFlight() {
+        return this.inFlight.sum();
+    }
+
+    public long getLocalDispatches() {
+        return this.localDispatches.sum();
+    }
+
+    public long getQueued() {
+        return this.queued.sum();
+    }
+
+    public long getRejected() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * @return the time in milliseconds spent waiting for the exchanges in flight the last time the route was stopped
+     */
+    public long getLastDrainTime() {
+        return this.lastDrainTime.get();
+    }
+
+    public long getCacheHits() {
+        return this.cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return this.cacheMisses.sum();
+    }
+
+    public long getCacheEntries() {
+        return this.cacheEntries.sum();
+    }
+
+    /**
+     * @return the size in bytes of the answers in the response caches
+     */
+    public long getCacheSize() {
+        return this.cacheSize.sum();
+    }
+
+    public long getCoalesced() {
+        return this.coalesced.sum();
+    }
+
+    public long getHedges() {
+        return this.hedges.sum();
+    }
+
+    public long getHedgesWon() {
+        return this.hedgesWon.sum();
+    }
+
+    public long getExpired() {
+        return this.expired.sum();
+    }
+
+    public LatencyHistogram getLatencies() {
+        return this.latencies;
+    }
+
+    /**
+     * @return the metrics of the exchanges sent to the given endpoint, when the producers choose the endpoints
+     */
+    public EndpointMetrics getEndpointMetrics(final String endpointName) {
+        final EndpointMetrics metrics = this.endpoints.get(endpointName);
+        if (metrics != null) {
+            return metrics;
+        }
+        final EndpointMetrics newMetrics = new EndpointMetrics(endpointName);
+        final EndpointMetrics previous = this.endpoints.putIfAbsent(endpointName, newMetrics);
+        return previous == null ? newMetrics : previous;
+    }
+
+    public Collection<EndpointMetrics> getEndpointMetrics() {
+        return Collections.unmodifiableCollection(this.endpoints.values());
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.ow2.petals.camel.component.CircuitBreaker.Admission;
+import org.ow2.petals.camel.component.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+    private static final long OPEN_DURATION = 50;
+
+    private final CircuitBreaker breaker = new CircuitBreaker("serviceId", 3, 60000, OPEN_DURATION);
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure(breaker.tryAcquire());
+        }
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testOpensAtThreshold() {
+        assertFalse(breaker.onFailure(breaker.tryAcquire()));
+        assertFalse(breaker.onSuccess(breaker.tryAcquire()));
+        assertFalse(breaker.onFailure(breaker.tryAcquire()));
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(2, breaker.getFailures());
+
+        assertTrue(breaker.onFailure(breaker.tryAcquire()));
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getOpenings());
+    }
+
+    @Test
+    public void testRejectsWhileOpen() {
+        open();
+        assertEquals(Admission.REJECTED, breaker.tryAcquire());
+        assertEquals(Admission.REJECTED, breaker.tryAcquire());
+        assertEquals(2, breaker.getRejected());
+    }
+
+    @Test
+    public void testFailuresOfExchangesSentBeforeOpeningAreIgnored() {
+        final Admission late = breaker.tryAcquire();
+        open();
+        assertFalse(breaker.onFailure(late));
+        assertFalse(breaker.onSuccess(late));
+        assertEquals(1, breaker.getOpenings());
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testProbeSuccessCloses() throws Exception {
+        open();
+        Thread.sleep(OPEN_DURATION * 2);
+
+        final Admission probe = breaker.tryAcquire();
+        assertEquals(Admission.PROBE, probe);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        // only one probe at a time
+        assertEquals(Admission.REJECTED, breaker.tryAcquire());
+
+        assertTrue(breaker.onSuccess(probe));
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getFailures());
+        assertEquals(Admission.ALLOWED, breaker.tryAcquire());
+    }
+
+    @Test
+    public void testProbeFailureOpensAgain() throws Exception {
+        open();
+        Thread.sleep(OPEN_DURATION * 2);
+
+        assertTrue(breaker.onFailure(breaker.tryAcquire()));
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpenings());
+        assertEquals(Admission.REJECTED, breaker.tryAcquire());
+    }
+
+    @Test
+    public void testCancelledProbeLetsAnotherOneGo() throws Exception {
+        open();
+        Thread.sleep(OPEN_DURATION * 2);
+
+        breaker.cancel(breaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertEquals(Admission.PROBE, breaker.tryAcquire());
+    }
+
+    @Test
+    public void testFailuresOutsideTheWindowAreForgotten() throws Exception {
+        final CircuitBreaker shortWindow = new CircuitBreaker("serviceId", 2, 50, OPEN_DURATION);
+        shortWindow.onFailure(shortWindow.tryAcquire());
+        Thread.sleep(100);
+        assertEquals(0, shortWindow.getFailures());
+        assertFalse(shortWindow.onFailure(shortWindow.tryAcquire()));
+        assertEquals(State.CLOSED, shortWindow.getState());
+    }
+}
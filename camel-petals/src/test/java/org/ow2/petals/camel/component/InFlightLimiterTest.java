@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.ow2.petals.camel.component.InFlightLimiter.Admission;
+import org.ow2.petals.camel.metrics.ServiceMetrics;
+
+public class InFlightLimiterTest {
+
+    private final ServiceMetrics metrics = new ServiceMetrics("serviceId");
+
+    @Test
+    public void testMaxInFlight() {
+        final InFlightLimiter limiter = new InFlightLimiter(2, 0, 0, metrics);
+        assertTrue(limiter.tryAcquire(100));
+        assertTrue(limiter.tryAcquire(100));
+        assertFalse(limiter.tryAcquire(100));
+        limiter.release(100);
+        assertTrue(limiter.tryAcquire(100));
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(200, limiter.getInFlightBytes());
+    }
+
+    @Test
+    public void testMaxInFlightBytes() {
+        final InFlightLimiter limiter = new InFlightLimiter(0, 100, 0, metrics);
+        // accepted when nothing is in flight even if too big
+        assertTrue(limiter.tryAcquire(150));
+        assertFalse(limiter.tryAcquire(1));
+        limiter.release(150);
+        assertTrue(limiter.tryAcquire(60));
+        assertTrue(limiter.tryAcquire(40));
+        assertFalse(limiter.tryAcquire(1));
+    }
+
+    @Test
+    public void testAcquireTimeout() throws Exception {
+        final InFlightLimiter limiter = new InFlightLimiter(1, 0, 0, metrics);
+        assertTrue(limiter.acquire(0, 10));
+        assertFalse(limiter.acquire(0, 10));
+    }
+
+    @Test
+    public void testAcquireWaitsForRelease() throws Exception {
+        final InFlightLimiter limiter = new InFlightLimiter(1, 0, 0, metrics);
+        assertTrue(limiter.acquire(0, 0));
+        final Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                limiter.release(0);
+            }
+        });
+        releaser.start();
+        assertTrue(limiter.acquire(0, 10000));
+        releaser.join();
+    }
+
+    @Test
+    public void testQueue() {
+        final InFlightLimiter limiter = new InFlightLimiter(1, 0, 1, metrics);
+        final AtomicInteger executed = new AtomicInteger();
+        final InFlightLimiter.QueuedTask task = new InFlightLimiter.QueuedTask() {
+            @Override
+            public void run() {
+                executed.incrementAndGet();
+            }
+
+            @Override
+            public void cancel() {
+                throw new AssertionError();
+            }
+        };
+
+        assertEquals(Admission.ACQUIRED, limiter.acquireOrQueue(0, task));
+        assertEquals(Admission.QUEUED, limiter.acquireOrQueue(0, task));
+        assertEquals(Admission.REJECTED, limiter.acquireOrQueue(0, task));
+        assertEquals(1, metrics.getQueued());
+        assertEquals(0, executed.get());
+
+        // the queued task is executed and takes the place of the released exchange
+        limiter.release(0);
+        assertEquals(1, executed.get());
+        assertEquals(0, metrics.getQueued());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void testCancelQueued() {
+        final InFlightLimiter limiter = new InFlightLimiter(1, 0, 2, metrics);
+        final AtomicInteger executed = new AtomicInteger();
+        final AtomicInteger cancelled = new AtomicInteger();
+        final InFlightLimiter.QueuedTask task = new InFlightLimiter.QueuedTask() {
+            @Override
+            public void run() {
+                executed.incrementAndGet();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled.incrementAndGet();
+            }
+        };
+
+        assertEquals(Admission.ACQUIRED, limiter.acquireOrQueue(0, task));
+        assertEquals(Admission.QUEUED, limiter.acquireOrQueue(0, task));
+        assertEquals(Admission.QUEUED, limiter.acquireOrQueue(0, task));
+
+        limiter.cancelQueued();
+        assertEquals(2, cancelled.get());
+        assertEquals(0, metrics.getQueued());
+
+        // nothing is left to take the place of the released exchange
+        limiter.release(0);
+        assertEquals(0, executed.get());
+        assertEquals(0, limiter.getInFlight());
+    }
+}
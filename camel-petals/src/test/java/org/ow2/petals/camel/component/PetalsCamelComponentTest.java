@@ -190,6 +190,43 @@ public class PetalsCamelComponentTest extends CamelPetalsTestSupport {
         createEndpoint("serviceId1?exchangePattern=notGood");
     }
 
+    @Test
+    public void testCreateEndpoint_BodyMode_OK() {
+        addMockConsumes("serviceId1");
+        addMockProvides("serviceId2");
+        assertEquals(BodyMode.DOM, createEndpoint("serviceId1").getBodyMode());
+        assertEquals(BodyMode.STREAM, createEndpoint("serviceId1?bodyMode=stream").getBodyMode());
+        assertEquals(BodyMode.STREAM, createEndpoint("serviceId2?bodyMode=STREAM").getBodyMode());
+    }
+
+    @Test
+    public void testCreateEndpoint_BodyMode_KO() {
+        addMockConsumes("serviceId1");
+        thrown.expect(ResolveEndpointFailedException.class);
+        thrown.expectCause(CoreMatchers.isA(IllegalArgumentException.class));
+        createEndpoint("serviceId1?bodyMode=sax");
+    }
+
+    @Test
+    public void testCreateEndpoint_InFlight_OK() {
+        addMockConsumes("serviceId1");
+        final PetalsCamelEndpoint endpoint = createEndpoint(
+                "serviceId1?maxInFlight=10&maxInFlightBytes=1000&inFlightPolicy=queue&inFlightQueueSize=5");
+        assertEquals(10, endpoint.getMaxInFlight());
+        assertEquals(1000, endpoint.getMaxInFlightBytes());
+        assertEquals(InFlightPolicy.QUEUE, endpoint.getInFlightPolicy());
+        assertEquals(5, endpoint.getInFlightQueueSize());
+        assertEquals(InFlightPolicy.BLOCK, createEndpoint("serviceId1").getInFlightPolicy());
+    }
+
+    @Test
+    public void testCreateProvidesEndpoint_InFlight_KO() {
+        addMockProvides("serviceId1");
+        thrown.expect(ResolveEndpointFailedException.class);
+        thrown.expectMessage("The parameter maxInFlight can't be set on a from() endpoint");
+        createEndpoint("serviceId1?maxInFlight=10");
+    }
+
     @Test
     public void testCreateConsumesEndpoint_KO1() {
         addMockConsumes("serviceId1");
@@ -238,6 +275,16 @@ public class PetalsCamelComponentTest extends CamelPetalsTestSupport {
         createEndpoint("serviceId1?exchangePattern=InOut");
     }
 
+    @Test
+    public void testCreateConsumesEndpoint_KO7() {
+        pcc().addMockService("serviceId1", new ServiceEndpointOperationMock("Service", "Interface", null, "operation",
+                ServiceType.CONSUMES, MEPPatternConstants.IN_OUT.value()));
+        createEndpoint("serviceId1?hedgeDelay=50&endpointSelection=LEAST_LATENCY");
+        thrown.expect(ResolveEndpointFailedException.class);
+        thrown.expectMessage("if the NMR chooses the endpoint");
+        createEndpoint("serviceId1?hedgeDelay=50");
+    }
+
     @Test
     public void testCreateConsumesEndpoint_KO_URI1() {
         addMockConsumes("serviceId1");
@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import org.apache.camel.Consumer;
+import org.apache.camel.builder.RouteBuilder;
+import org.junit.Test;
+import org.ow2.petals.camel.helpers.PetalsRouteBuilder;
+import org.ow2.petals.component.framework.api.message.Exchange;
+
+public class PetalsCamelConsumerSuspendTest extends CamelPetalsTestSupport {
+
+    @Override
+    protected void initializeServices() {
+        super.initializeServices();
+        addMockProvides("serviceId1");
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new PetalsRouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                fromPetals("serviceId1").routeId("route1").setBody(constant("<b/>"));
+            }
+        };
+    }
+
+    private PetalsCamelConsumer consumer() {
+        final Consumer consumer = context().getRoute("route1").getConsumer();
+        assertTrue(consumer instanceof PetalsCamelConsumer);
+        return (PetalsCamelConsumer) consumer;
+    }
+
+    @Test
+    public void testSuspendedRefusesExchanges() throws Exception {
+        final PetalsCamelConsumer consumer = consumer();
+        consumer.suspend();
+
+        final Exchange refused = pcc().createExchange("serviceId1", "<a/>");
+        pcc().process("serviceId1", refused);
+        assertNotNull(refused.getError());
+
+        // nothing was in flight
+        assertTrue(consumer.drain(0));
+
+        consumer.resume();
+
+        final Exchange accepted = pcc().createExchange("serviceId1", "<a/>");
+        pcc().process("serviceId1", accepted);
+        assertNull(accepted.getError());
+        assertEquals(0, consumer.getInFlight());
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.io.StringReader;
+
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Processor;
+import org.apache.camel.ResolveEndpointFailedException;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.impl.DefaultHeaderFilterStrategy;
+import org.apache.camel.impl.JndiRegistry;
+import org.apache.camel.spi.HeaderFilterStrategy;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockSendHandler;
+import org.ow2.petals.camel.helpers.PetalsRouteBuilder;
+import org.ow2.petals.component.framework.api.message.Exchange;
+
+public class PetalsCamelHeaderFilterTest extends CamelPetalsTestSupport {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private volatile @Nullable NormalizedMessage sent;
+
+    private final MockSendHandler handler = new MockSendHandler() {
+        @Override
+        public boolean sendSync(final Exchange exchange, final long timeout) throws MessagingException {
+            sent = exchange.getInMessage();
+            exchange.setOutMessageContent(new StreamSource(new StringReader("<b/>")));
+            exchange.getOutMessage().setProperty("CamelAnswer", "internal");
+            exchange.getOutMessage().setProperty("answer", "b");
+            exchange.getOutMessage().setProperty("kept", "c");
+            return true;
+        }
+    };
+
+    @Override
+    protected void initializeServices() {
+        super.initializeServices();
+        addMockConsumes("consumesId", handler);
+        addMockProvides("providesId");
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new PetalsRouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("direct:default").to("petals:consumesId");
+                from("direct:patterns")
+                        .to("petals:consumesId?excludeHeadersToPetals=secret&includeHeadersFromPetals=kept");
+                fromPetals("providesId").to("mock:result").setHeader("CamelRouted", constant("internal"))
+                        .setHeader("routed", constant("d"));
+            }
+        };
+    }
+
+    private Processor setIn() {
+        return new Processor() {
+            @Override
+            public void process(final @Nullable org.apache.camel.Exchange exchange) throws Exception {
+                assert exchange != null;
+                exchange.getIn().setBody("<a/>");
+                exchange.getIn().setHeader("CamelFoo", "internal");
+                exchange.getIn().setHeader("custom", "a");
+                exchange.getIn().setHeader("secret", "s");
+            }
+        };
+    }
+
+    private NormalizedMessage sent() {
+        final NormalizedMessage sent = this.sent;
+        assertNotNull(sent);
+        assert sent != null;
+        return sent;
+    }
+
+    @Test
+    public void testCamelInternalsAreNotSentToPetals() throws Exception {
+        final org.apache.camel.Exchange exchange = template().send("direct:default", ExchangePattern.InOut, setIn());
+        assertNull(exchange.getException());
+
+        assertEquals("a", sent().getProperty("custom"));
+        assertEquals("s", sent().getProperty("secret"));
+        assertNull(sent().getProperty("CamelFoo"));
+        assertNull(sent().getProperty(org.apache.camel.Exchange.BREADCRUMB_ID));
+
+        assertEquals("b", exchange.getOut().getHeader("answer"));
+        assertNull(exchange.getOut().getHeader("CamelAnswer"));
+    }
+
+    @Test
+    public void testPatterns() throws Exception {
+        final org.apache.camel.Exchange exchange = template().send("direct:patterns", ExchangePattern.InOut, setIn());
+        assertNull(exchange.getException());
+
+        assertEquals("a", sent().getProperty("custom"));
+        assertNull(sent().getProperty("secret"));
+        // the default exclusion has been replaced
+        assertEquals("internal", sent().getProperty("CamelFoo"));
+
+        assertEquals("c", exchange.getOut().getHeader("kept"));
+        assertNull(exchange.getOut().getHeader("answer"));
+        assertNull(exchange.getOut().getHeader("CamelAnswer"));
+    }
+
+    @Test
+    public void testCamelInternalsAreNotReceivedFromPetals() throws Exception {
+        final MockEndpoint result = getMockEndpoint("mock:result");
+        result.expectedMessageCount(1);
+        result.expectedHeaderReceived("custom", "a");
+        result.message(0).header("CamelFoo").isNull();
+
+        final Exchange exchange = pcc().createExchange("providesId", "<a/>");
+        exchange.getInMessage().setProperty("CamelFoo", "internal");
+        exchange.getInMessage().setProperty("custom", "a");
+        pcc().process("providesId", exchange);
+
+        result.assertIsSatisfied();
+
+        assertEquals("d", exchange.getOutMessage().getProperty("routed"));
+        assertEquals("a", exchange.getOutMessage().getProperty("custom"));
+        assertNull(exchange.getOutMessage().getProperty("CamelRouted"));
+    }
+
+    @Test
+    public void testHeaderFilterStrategyReference() {
+        final HeaderFilterStrategy strategy = new DefaultHeaderFilterStrategy();
+        context().getRegistry(JndiRegistry.class).bind("myFilter", strategy);
+        assertSame(strategy, createEndpoint("consumesId?headerFilterStrategy=#myFilter").getHeaderFilterStrategy());
+    }
+
+    @Test
+    public void testHeaderFilterStrategyAndPatterns() {
+        context().getRegistry(JndiRegistry.class).bind("myFilter", new DefaultHeaderFilterStrategy());
+        thrown.expect(ResolveEndpointFailedException.class);
+        thrown.expectMessage("can't be set together with header patterns");
+        createEndpoint("consumesId?headerFilterStrategy=#myFilter&includeHeadersToPetals=custom");
+    }
+
+    @Test
+    public void testComponentDefault() {
+        assertTrue(createEndpoint("consumesId").getHeaderFilterStrategy() instanceof PetalsHeaderFilterStrategy);
+        assertSame(context().getComponent("petals", PetalsCamelComponent.class).getHeaderFilterStrategy(),
+                createEndpoint("consumesId").getHeaderFilterStrategy());
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jbi.messaging.MessagingException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.junit.Test;
+import org.ow2.petals.camel.ServiceEndpointOperation;
+import org.ow2.petals.camel.component.exceptions.CircuitBreakerOpenException;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockConsumesChannel;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockSendHandler;
+import org.ow2.petals.component.framework.api.message.Exchange;
+
+public class PetalsCamelProducerCircuitBreakerTest extends CamelPetalsTestSupport {
+
+    private static final long OPEN_DURATION = 100;
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    private volatile boolean timeout = false;
+
+    private volatile boolean error = false;
+
+    private final MockSendHandler handler = new MockSendHandler() {
+        @Override
+        public boolean sendSync(final Exchange exchange, final long timeout) throws MessagingException {
+            sent.incrementAndGet();
+            if (PetalsCamelProducerCircuitBreakerTest.this.timeout) {
+                return false;
+            }
+            if (error) {
+                exchange.setError(new Exception("unavailable"));
+            } else {
+                exchange.setOutMessageContent(new StreamSource(new StringReader("<b/>")));
+            }
+            return true;
+        }
+    };
+
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("consumesId", 2, 60000, OPEN_DURATION);
+
+    @Override
+    protected void initializeServices() {
+        super.initializeServices();
+        final ServiceEndpointOperation seo = addMockConsumes("consumesId", handler);
+        ((MockConsumesChannel) pcc().getConsumesChannel(seo)).setCircuitBreaker(circuitBreaker);
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("direct:start").to("petals:consumesId?synchronous=true");
+            }
+        };
+    }
+
+    private org.apache.camel.Exchange send() {
+        final org.apache.camel.Exchange exchange = template().send("direct:start", ExchangePattern.InOut,
+                new Processor() {
+                    @Override
+                    public void process(final org.apache.camel.Exchange exchange) throws Exception {
+                        exchange.getIn().setBody("<a/>");
+                    }
+                });
+        assertNotNull(exchange);
+        return exchange;
+    }
+
+    @Test
+    public void testTimeoutsOpenTheBreaker() throws Exception {
+        timeout = true;
+        assertSame(PetalsCamelProducer.TIMEOUT_EXCEPTION, send().getException());
+        assertSame(PetalsCamelProducer.TIMEOUT_EXCEPTION, send().getException());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        // fails without being sent
+        assertTrue(send().getException() instanceof CircuitBreakerOpenException);
+        assertEquals(2, sent.get());
+        assertEquals(1, circuitBreaker.getRejected());
+    }
+
+    @Test
+    public void testProbeClosesTheBreaker() throws Exception {
+        error = true;
+        assertNotNull(send().getException());
+        assertNotNull(send().getException());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        error = false;
+        Thread.sleep(OPEN_DURATION * 2);
+
+        assertNull(send().getException());
+        assertEquals(3, sent.get());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertNull(send().getException());
+        assertEquals(4, sent.get());
+    }
+
+    @Test
+    public void testAnswersAreNotFailures() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertNull(send().getException());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getFailures());
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jbi.messaging.MessagingException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.CamelExchangeException;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.custommonkey.xmlunit.Diff;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.petals.camel.component.exceptions.DeadlineExceededException;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockSendHandler;
+import org.ow2.petals.camel.metrics.ServiceMetrics;
+import org.ow2.petals.component.framework.api.message.Exchange;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class PetalsCamelProducerCoalescingTest extends CamelPetalsTestSupport {
+
+    private static final String OUT = "<b>answer</b>";
+
+    private static final int CONCURRENT = 3;
+
+    private static final String CALLER_PROPERTY = PetalsCamelComponent.EXCHANGE_PROPERTY_PREFIX + "caller";
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    private volatile int expectedCoalesced = 0;
+
+    private volatile boolean fail = false;
+
+    /**
+     * If not <code>null</code>, the sent exchanges are answered once it is released
+     */
+    private volatile @Nullable CountDownLatch release = null;
+
+    private final MockSendHandler handler = new MockSendHandler() {
+        @Override
+        public boolean sendSync(final Exchange exchange, final long timeout) throws MessagingException {
+            sent.incrementAndGet();
+            final CountDownLatch release = PetalsCamelProducerCoalescingTest.this.release;
+            if (release != null) {
+                Uninterruptibles.awaitUninterruptibly(release, 10, TimeUnit.SECONDS);
+            }
+            // let the other exchanges join this one
+            final long end = System.currentTimeMillis() + 10000;
+            while (metrics().getCoalesced() < expectedCoalesced && System.currentTimeMillis() < end) {
+                try {
+                    Thread.sleep(10);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (fail) {
+                exchange.setError(new Exception("failure"));
+            } else {
+                exchange.setOutMessageContent(new StreamSource(new StringReader(OUT)));
+            }
+            return true;
+        }
+    };
+
+    @Before
+    public void before() {
+        this.sent.set(0);
+        this.expectedCoalesced = 0;
+        this.fail = false;
+        this.release = null;
+    }
+
+    @Override
+    protected void initializeServices() {
+        super.initializeServices();
+        addMockConsumes("consumesId", handler);
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("direct:coalesced").to("petals:consumesId?synchronous=true&coalesce=true");
+            }
+        };
+    }
+
+    private org.apache.camel.Exchange send(final String body) {
+        final org.apache.camel.Exchange exchange = send(body, null);
+        assertNull(exchange.getException());
+        return exchange;
+    }
+
+    /**
+     * @param deadline
+     *            the deadline of the caller of the route, <code>null</code> if there is none
+     */
+    private org.apache.camel.Exchange send(final String body, final @Nullable Long deadline) {
+        final org.apache.camel.Exchange exchange = template().send("direct:coalesced", ExchangePattern.InOut,
+                new Processor() {
+                    @Override
+                    public void process(final org.apache.camel.Exchange exchange) throws Exception {
+                        exchange.getIn().setBody(body);
+                        exchange.setProperty(CALLER_PROPERTY, exchange.getExchangeId());
+                        if (deadline != null) {
+                            exchange.setProperty(PetalsCamelComponent.EXCHANGE_DEADLINE, deadline);
+                        }
+                    }
+                });
+        assertNotNull(exchange);
+        return exchange;
+    }
+
+    private List<org.apache.camel.Exchange> sendConcurrently(final String body) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT);
+        try {
+            final List<Future<org.apache.camel.Exchange>> results = Lists.newArrayList();
+            for (int i = 0; i < CONCURRENT; i++) {
+                results.add(executor.submit(new Callable<org.apache.camel.Exchange>() {
+                    @Override
+                    public org.apache.camel.Exchange call() throws Exception {
+                        return send(body, null);
+                    }
+                }));
+            }
+
+            final List<org.apache.camel.Exchange> exchanges = Lists.newArrayList();
+            for (final Future<org.apache.camel.Exchange> result : results) {
+                exchanges.add(result.get(10, TimeUnit.SECONDS));
+            }
+            return exchanges;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ServiceMetrics metrics() {
+        return pcc().getMetrics().getServiceMetrics("consumesId");
+    }
+
+    @Test
+    public void testConcurrentSameRequestsAreSentOnce() throws Exception {
+        expectedCoalesced = CONCURRENT - 1;
+
+        for (final org.apache.camel.Exchange exchange : sendConcurrently("<a>request</a>")) {
+            assertNull(exchange.getException());
+            assertTrue(new Diff(OUT, exchange.getOut().getBody(String.class)).similar());
+            // the properties of the exchange sent are not copied to the others
+            assertEquals(exchange.getExchangeId(), exchange.getProperty(CALLER_PROPERTY));
+        }
+
+        assertEquals(1, sent.get());
+        assertEquals(CONCURRENT - 1, metrics().getCoalesced());
+        // the exchanges that were not sent are accounted too
+        assertEquals(CONCURRENT, metrics().getCount());
+        assertEquals(0, metrics().getInFlight());
+    }
+
+    @Test
+    public void testWaitersGetTheirOwnException() throws Exception {
+        expectedCoalesced = CONCURRENT - 1;
+        fail = true;
+
+        final List<org.apache.camel.Exchange> exchanges = sendConcurrently("<a>request</a>");
+
+        final Set<Exception> exceptions = Sets.newIdentityHashSet();
+        Exception sentException = null;
+        for (final org.apache.camel.Exchange exchange : exchanges) {
+            final Exception exception = exchange.getException();
+            assertNotNull(exception);
+            exceptions.add(exception);
+            if (!(exception instanceof CamelExchangeException)) {
+                sentException = exception;
+            }
+        }
+        assertEquals(CONCURRENT, exceptions.size());
+        assertNotNull(sentException);
+        for (final Exception exception : exceptions) {
+            if (exception != sentException) {
+                assertSame(sentException, exception.getCause());
+            }
+        }
+
+        assertEquals(1, sent.get());
+        assertEquals(CONCURRENT, metrics().getErrors());
+    }
+
+    @Test
+    public void testExpiredWaiterDoesNotWait() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        this.release = release;
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<org.apache.camel.Exchange> first = executor.submit(new Callable<org.apache.camel.Exchange>() {
+                @Override
+                public org.apache.camel.Exchange call() throws Exception {
+                    return send("<a>request</a>");
+                }
+            });
+            while (sent.get() == 0) {
+                Thread.sleep(10);
+            }
+
+            // the first exchange is not answered yet
+            final org.apache.camel.Exchange expired = send("<a>request</a>", System.currentTimeMillis() - 1000);
+            assertTrue(expired.getException() instanceof DeadlineExceededException);
+            assertEquals(0, metrics().getCoalesced());
+
+            release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, sent.get());
+        assertEquals(1, metrics().getExpired());
+    }
+
+    @Test
+    public void testSuccessiveRequestsAreSent() throws Exception {
+        send("<a>request</a>");
+        send("<a>request</a>");
+
+        assertEquals(2, sent.get());
+        assertEquals(0, metrics().getCoalesced());
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jbi.messaging.MessagingException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Test;
+import org.ow2.petals.camel.ServiceEndpointOperation;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockConsumesChannel;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockProvidesChannel;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockSendHandler;
+import org.ow2.petals.component.framework.api.message.Exchange;
+
+public class PetalsCamelProducerDeadlineTest extends CamelPetalsTestSupport {
+
+    private static final long TIMEOUT = 5000;
+
+    private static final long CONSUMES_TIMEOUT = 3000;
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    private final AtomicLong sentTimeout = new AtomicLong();
+
+    private final AtomicReference<Object> sentDeadline = new AtomicReference<>();
+
+    private @Nullable ServiceEndpointOperation provides;
+
+    private final MockSendHandler handler = new MockSendHandler() {
+        @Override
+        public boolean sendSync(final Exchange exchange, final long timeout) throws MessagingException {
+            sent.incrementAndGet();
+            sentTimeout.set(timeout);
+            sentDeadline.set(exchange.getProperty(PetalsCamelComponent.DEADLINE_PROPERTY));
+            exchange.setOutMessageContent(new StreamSource(new StringReader("<b/>")));
+            return true;
+        }
+    };
+
+    @Override
+    protected void initializeServices() {
+        super.initializeServices();
+        provides = addMockProvides("providesId");
+        final ServiceEndpointOperation consumes = addMockConsumes("consumesId", handler);
+        ((MockConsumesChannel) pcc().getConsumesChannel(consumes)).setTimeout(CONSUMES_TIMEOUT);
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("petals:providesId").to("petals:consumesId?synchronous=true&timeout=" + TIMEOUT);
+                from("direct:consumesTimeout").to("petals:consumesId?synchronous=true");
+            }
+        };
+    }
+
+    private Exchange process(final @Nullable Object deadline) throws MessagingException {
+        final Exchange exchange = pcc().createExchange("providesId", "<a/>");
+        if (deadline != null) {
+            exchange.setProperty(PetalsCamelComponent.DEADLINE_PROPERTY, deadline);
+        }
+        pcc().process("providesId", exchange);
+        return exchange;
+    }
+
+    private void setProvidesTimeout(final long timeout) {
+        final ServiceEndpointOperation provides = this.provides;
+        assert provides != null;
+        ((MockProvidesChannel) pcc().getProvidesChannel(provides)).setTimeout(timeout);
+    }
+
+    @Test
+    public void testWithoutDeadline() throws Exception {
+        final Exchange exchange = process(null);
+        assertNull(exchange.getError());
+        assertEquals(1, sent.get());
+        assertEquals(TIMEOUT, sentTimeout.get());
+        assertNull(sentDeadline.get());
+    }
+
+    @Test
+    public void testTimeoutOfTheConsumes() throws Exception {
+        template().requestBody("direct:consumesTimeout", "<a/>");
+        assertEquals(1, sent.get());
+        assertEquals(CONSUMES_TIMEOUT, sentTimeout.get());
+    }
+
+    @Test
+    public void testTimeoutOfTheConsumesIsKeptIfShorter() throws Exception {
+        template().send("direct:consumesTimeout", new Processor() {
+            @Override
+            public void process(final org.apache.camel.Exchange exchange) throws Exception {
+                exchange.setProperty(PetalsCamelComponent.EXCHANGE_DEADLINE, System.currentTimeMillis() + 60000);
+                exchange.getIn().setBody("<a/>");
+            }
+        });
+        assertEquals(1, sent.get());
+        assertEquals(CONSUMES_TIMEOUT, sentTimeout.get());
+    }
+
+    @Test
+    public void testDeadlineOfTheCaller() throws Exception {
+        final long deadline = System.currentTimeMillis() + 1000;
+        final Exchange exchange = process(deadline);
+        assertNull(exchange.getError());
+        assertEquals(1, sent.get());
+        assertTrue(sentTimeout.get() > 0);
+        assertTrue(sentTimeout.get() <= 1000);
+        // it is propagated to the provider
+        assertEquals(deadline, sentDeadline.get());
+    }
+
+    @Test
+    public void testTimeoutOfTheEndpointIsKeptIfShorter() throws Exception {
+        process(String.valueOf(System.currentTimeMillis() + 60000));
+        assertEquals(TIMEOUT, sentTimeout.get());
+    }
+
+    @Test
+    public void testTimeoutOfTheProvides() throws Exception {
+        setProvidesTimeout(500);
+        final long before = System.currentTimeMillis();
+        process(null);
+        assertTrue(sentTimeout.get() > 0);
+        assertTrue(sentTimeout.get() <= 500);
+        final Object deadline = sentDeadline.get();
+        assertTrue(deadline instanceof Long);
+        assertTrue((Long) deadline >= before + 500);
+    }
+
+    @Test
+    public void testExpiredDeadlineFailsFast() throws Exception {
+        final Exchange exchange = process(System.currentTimeMillis() - 10);
+        assertNotNull(exchange.getError());
+        assertEquals(0, sent.get());
+        assertEquals(1, pcc().getMetrics().getServiceMetrics("consumesId").getExpired());
+    }
+}
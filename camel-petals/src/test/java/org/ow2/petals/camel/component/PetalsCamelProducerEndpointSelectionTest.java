@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.junit.Test;
+import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
+import org.ow2.petals.camel.ServiceEndpointOperation.ServiceType;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockSendHandler;
+import org.ow2.petals.camel.component.mocks.ServiceEndpointOperationMock;
+import org.ow2.petals.camel.metrics.EndpointMetrics;
+import org.ow2.petals.component.framework.api.message.Exchange;
+
+public class PetalsCamelProducerEndpointSelectionTest extends CamelPetalsTestSupport {
+
+    private static final String SLOW = "slowEndpoint";
+
+    private static final String FAST = "fastEndpoint";
+
+    private final Map<String, AtomicInteger> received = new ConcurrentHashMap<>();
+
+    private final AtomicInteger withoutEndpoint = new AtomicInteger();
+
+    private final MockSendHandler handler = new MockSendHandler() {
+        @Override
+        public boolean sendSync(final Exchange exchange, final long timeout) throws MessagingException {
+            final ServiceEndpoint endpoint = exchange.getEndpoint();
+            if (endpoint == null) {
+                withoutEndpoint.incrementAndGet();
+            } else {
+                received.get(endpoint.getEndpointName()).incrementAndGet();
+                if (SLOW.equals(endpoint.getEndpointName())) {
+                    try {
+                        Thread.sleep(20);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            exchange.setOutMessageContent(new StreamSource(new StringReader("<b/>")));
+            return true;
+        }
+    };
+
+    @Override
+    protected void initializeServices() {
+        super.initializeServices();
+        received.put(SLOW, new AtomicInteger());
+        received.put(FAST, new AtomicInteger());
+        // the consumes only declares the service
+        pcc().addMockService("consumesId", new ServiceEndpointOperationMock("Service", "Interface", null,
+                "operation", ServiceType.CONSUMES, MEPPatternConstants.IN_OUT.value()), handler);
+        pcc().addMockEndpoint(new QName("tests", "Service"), SLOW);
+        pcc().addMockEndpoint(new QName("tests", "Service"), FAST);
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("direct:nmr").to("petals:consumesId?synchronous=true");
+                from("direct:p2c").to("petals:consumesId?synchronous=true&endpointSelection=POWER_OF_TWO_CHOICES");
+                from("direct:least").to("petals:consumesId?synchronous=true&endpointSelection=LEAST_LATENCY");
+            }
+        };
+    }
+
+    private void send(final String uri, final int times) {
+        for (int i = 0; i < times; i++) {
+            final org.apache.camel.Exchange exchange = template().send(uri, ExchangePattern.InOut,
+                    new Processor() {
+                        @Override
+                        public void process(final org.apache.camel.Exchange exchange) throws Exception {
+                            exchange.getIn().setBody("<a/>");
+                        }
+                    });
+            assertNotNull(exchange);
+            assertNull(exchange.getException());
+        }
+    }
+
+    private EndpointMetrics endpointMetrics(final String endpointName) {
+        return pcc().getMetrics().getServiceMetrics("consumesId").getEndpointMetrics(endpointName);
+    }
+
+    @Test
+    public void testNMRChoosesByDefault() {
+        send("direct:nmr", 5);
+        assertEquals(5, withoutEndpoint.get());
+        assertEquals(0, received.get(SLOW).get() + received.get(FAST).get());
+    }
+
+    @Test
+    public void testLeastLatency() {
+        send("direct:least", 20);
+        assertEquals(0, withoutEndpoint.get());
+        // each endpoint is tried once, then the fast one is always chosen
+        assertEquals(1, received.get(SLOW).get());
+        assertEquals(19, received.get(FAST).get());
+        assertTrue(endpointMetrics(SLOW).getLatency() > endpointMetrics(FAST).getLatency());
+        assertEquals(0, endpointMetrics(FAST).getInFlight());
+    }
+
+    @Test
+    public void testPowerOfTwoChoices() {
+        // with two endpoints, both are always compared
+        send("direct:p2c", 20);
+        assertEquals(1, received.get(SLOW).get());
+        assertEquals(19, received.get(FAST).get());
+        assertEquals(20, endpointMetrics(SLOW).getCount() + endpointMetrics(FAST).getCount());
+    }
+}
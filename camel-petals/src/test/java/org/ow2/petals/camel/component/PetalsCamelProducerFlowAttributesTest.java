@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jbi.messaging.MessagingException;
+
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockSendHandler;
+import org.ow2.petals.commons.log.FlowAttributes;
+import org.ow2.petals.commons.log.PetalsExecutionContext;
+import org.ow2.petals.component.framework.api.message.Exchange;
+
+public class PetalsCamelProducerFlowAttributesTest extends CamelPetalsTestSupport {
+
+    private volatile @Nullable FlowAttributes sentWith;
+
+    private volatile CountDownLatch sent = new CountDownLatch(1);
+
+    private volatile @Nullable FlowAttributes afterSend;
+
+    private volatile CountDownLatch routed = new CountDownLatch(1);
+
+    private final MockSendHandler handler = new MockSendHandler() {
+        @Override
+        public boolean sendSync(final Exchange exchange, final long timeout) throws MessagingException {
+            sentWith = PetalsExecutionContext.getFlowAttributes();
+            exchange.setDoneStatus();
+            sent.countDown();
+            return true;
+        }
+    };
+
+    @Before
+    public void before() {
+        this.sentWith = null;
+        this.sent = new CountDownLatch(1);
+        this.afterSend = null;
+        this.routed = new CountDownLatch(1);
+    }
+
+    @Override
+    protected void initializeServices() {
+        super.initializeServices();
+        addMockConsumes("consumesId", handler);
+        addMockProvides("providesId");
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                // the consumer thread is not the one of the producer
+                from("petals:providesId").to("seda:hop?waitForTaskToComplete=Never");
+                from("seda:hop").to("petals:consumesId?synchronous=true").process(new Processor() {
+                    @Override
+                    public void process(final org.apache.camel.Exchange exchange) throws Exception {
+                        afterSend = PetalsExecutionContext.getFlowAttributes();
+                        routed.countDown();
+                    }
+                });
+            }
+        };
+    }
+
+    @Test
+    public void testFlowAttributesFollowTheExchange() throws Exception {
+        final Exchange exchange = pcc().createExchange("providesId", "<a/>");
+        pcc().process("providesId", exchange);
+        final FlowAttributes received = PetalsExecutionContext.getFlowAttributes();
+        assertNotNull(received);
+        assert received != null;
+
+        assertTrue(sent.await(10, TimeUnit.SECONDS));
+
+        final FlowAttributes sentWith = this.sentWith;
+        assertNotNull(sentWith);
+        assert sentWith != null;
+        assertEquals(received.getFlowInstanceId(), sentWith.getFlowInstanceId());
+        assertEquals(received.getFlowStepId(), sentWith.getFlowStepId());
+
+        // the thread of the seda consumer does not keep them for its next exchanges
+        assertTrue(routed.await(10, TimeUnit.SECONDS));
+        assertNull(afterSend);
+    }
+}
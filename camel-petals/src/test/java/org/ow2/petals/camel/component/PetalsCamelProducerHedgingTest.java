@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.custommonkey.xmlunit.Diff;
+import org.junit.Test;
+import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
+import org.ow2.petals.camel.PetalsChannel.SendAsyncCallback;
+import org.ow2.petals.camel.ServiceEndpointOperation.ServiceType;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockSendHandler;
+import org.ow2.petals.camel.component.mocks.ServiceEndpointOperationMock;
+import org.ow2.petals.camel.metrics.ServiceMetrics;
+import org.ow2.petals.component.framework.api.message.Exchange;
+
+public class PetalsCamelProducerHedgingTest extends CamelPetalsTestSupport {
+
+    private static final String SELECTION = "endpointSelection=LEAST_LATENCY";
+
+    /**
+     * How long the primary exchange (the first one received) takes to be answered
+     */
+    private volatile long primaryLatency = 0;
+
+    private final AtomicReference<String> primaryEndpoint = new AtomicReference<>();
+
+    private final AtomicReference<String> hedgeEndpoint = new AtomicReference<>();
+
+    private final AtomicReference<String> hedgeContent = new AtomicReference<>();
+
+    private final AtomicInteger hedgesReceived = new AtomicInteger();
+
+    private final AtomicLong hedgeTimeout = new AtomicLong();
+
+    private final CountDownLatch primaryAcknowledged = new CountDownLatch(1);
+
+    private final MockSendHandler handler = new MockSendHandler() {
+        @Override
+        public void sendAsync(final Exchange exchange, final long timeout, final SendAsyncCallback callback)
+                throws MessagingException {
+            final ServiceEndpoint endpoint = exchange.getEndpoint();
+            assertNotNull(endpoint);
+            if (!primaryEndpoint.compareAndSet(null, endpoint.getEndpointName())) {
+                hedgesReceived.incrementAndGet();
+                hedgeTimeout.set(timeout);
+                hedgeEndpoint.set(endpoint.getEndpointName());
+                hedgeContent.set(getContent(exchange.getInMessage()));
+                exchange.setOutMessageContent(new StreamSource(new StringReader("<hedge/>")));
+                callback.done(exchange, false);
+            } else if (primaryLatency == 0) {
+                exchange.setOutMessageContent(new StreamSource(new StringReader("<primary/>")));
+                callback.done(exchange, false);
+            } else {
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(primaryLatency);
+                            exchange.setOutMessageContent(new StreamSource(new StringReader("<primary/>")));
+                        } catch (final Exception e) {
+                            throw new AssertionError(e);
+                        }
+                        callback.done(exchange, false);
+                    }
+                }.start();
+            }
+        }
+
+        @Override
+        public void send(final Exchange exchange) throws MessagingException {
+            if (exchange.getEndpoint().getEndpointName().equals(primaryEndpoint.get())) {
+                primaryAcknowledged.countDown();
+            }
+        }
+    };
+
+    @Override
+    protected void initializeServices() {
+        super.initializeServices();
+        pcc().addMockService("consumesId", new ServiceEndpointOperationMock("Service", "Interface", null,
+                "operation", ServiceType.CONSUMES, MEPPatternConstants.IN_OUT.value()), handler);
+        pcc().addMockEndpoint(new QName("tests", "Service"), "endpoint1");
+        pcc().addMockEndpoint(new QName("tests", "Service"), "endpoint2");
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("direct:fixed").to("petals:consumesId?synchronous=true&hedgeDelay=50&" + SELECTION);
+                from("direct:async").to("petals:consumesId?hedgeDelay=50&" + SELECTION);
+                from("direct:timeout")
+                        .to("petals:consumesId?synchronous=true&hedgeDelay=200&timeout=1000&" + SELECTION);
+                from("direct:percentile").to("petals:consumesId?synchronous=true&hedgeDelay=p95&" + SELECTION);
+            }
+        };
+    }
+
+    private String send(final String uri) {
+        return send(uri, "<a/>");
+    }
+
+    private String send(final String uri, final Object body) {
+        return sendExchange(uri, body).getOut().getBody(String.class);
+    }
+
+    private org.apache.camel.Exchange sendExchange(final String uri, final Object body) {
+        final org.apache.camel.Exchange exchange = template().send(uri, ExchangePattern.InOut, new Processor() {
+            @Override
+            public void process(final org.apache.camel.Exchange exchange) throws Exception {
+                exchange.getIn().setBody(body);
+            }
+        });
+        assertNotNull(exchange);
+        assertNull(exchange.getException());
+        return exchange;
+    }
+
+    private ServiceMetrics metrics() {
+        return pcc().getMetrics().getServiceMetrics("consumesId");
+    }
+
+    @Test
+    public void testNoHedgeWhenAnsweredInTime() {
+        assertTrue(send("direct:fixed").contains("primary"));
+        assertEquals(0, hedgesReceived.get());
+        assertEquals(0, metrics().getHedges());
+    }
+
+    @Test
+    public void testHedgeWinsSync() throws Exception {
+        primaryLatency = 1000;
+        assertTrue(send("direct:fixed").contains("hedge"));
+        assertEquals(1, hedgesReceived.get());
+        assertEquals(1, metrics().getHedges());
+        assertEquals(1, metrics().getHedgesWon());
+        // the late primary answer is still completed
+        assertTrue(primaryAcknowledged.await(5, TimeUnit.SECONDS));
+        // the hedge went to the other endpoint
+        assertNotNull(hedgeEndpoint.get());
+        assertFalse(hedgeEndpoint.get().equals(primaryEndpoint.get()));
+    }
+
+    @Test
+    public void testHedgeOfAStream() throws Exception {
+        primaryLatency = 1000;
+        // it can only be read once, by the primary exchange if it was not copied
+        assertTrue(send("direct:fixed", new ByteArrayInputStream("<a>stream</a>".getBytes(StandardCharsets.UTF_8)))
+                .contains("hedge"));
+        assertTrue(new Diff("<a>stream</a>", hedgeContent.get()).similar());
+    }
+
+    @Test
+    public void testHedgeWinsAsync() throws Exception {
+        primaryLatency = 1000;
+        assertTrue(send("direct:async").contains("hedge"));
+        assertEquals(1, metrics().getHedgesWon());
+        assertTrue(primaryAcknowledged.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testHedgeTimeoutIsWhatRemainsOfThePrimaryOne() throws Exception {
+        primaryLatency = 500;
+        assertTrue(send("direct:timeout").contains("hedge"));
+        assertTrue(hedgeTimeout.get() > 0);
+        assertTrue(hedgeTimeout.get() <= 800);
+    }
+
+    @Test
+    public void testNoHedgeWithoutEnoughSamples() {
+        primaryLatency = 100;
+        assertTrue(send("direct:percentile").contains("primary"));
+        assertEquals(0, hedgesReceived.get());
+        assertEquals(0, metrics().getHedges());
+    }
+
+    @Test
+    public void testNoCopyWithoutEnoughSamples() {
+        final InputStream body = new ByteArrayInputStream("<a>stream</a>".getBytes(StandardCharsets.UTF_8));
+        final org.apache.camel.Exchange exchange = sendExchange("direct:percentile", body);
+        // there can't be a hedge yet, so the body was not read as bytes for it
+        assertSame(body, exchange.getIn().getBody());
+    }
+
+    @Test
+    public void testSchedulerIsStoppedWithTheComponent() throws Exception {
+        final ScheduledExecutorService scheduler = context().getComponent("petals", PetalsCamelComponent.class)
+                .getHedgeScheduler();
+        assertTrue(send("direct:fixed").contains("primary"));
+
+        context().stop();
+
+        assertTrue(scheduler.isShutdown());
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.custommonkey.xmlunit.Diff;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Test;
+import org.ow2.petals.camel.ServiceEndpointOperation;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockProvidesChannel;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockSendHandler;
+import org.ow2.petals.camel.helpers.PetalsRouteBuilder;
+import org.ow2.petals.component.framework.api.message.Exchange;
+
+public class PetalsCamelProducerLocalDispatchTest extends CamelPetalsTestSupport {
+
+    protected static final String IN = "<a/>";
+
+    protected static final String OUT = "<b/>";
+
+    private int sentThroughNMR = 0;
+
+    private @Nullable Object receivedBody;
+
+    private @Nullable Object receivedHeader;
+
+    private @Nullable Object receivedEndpoint;
+
+    private @Nullable Object receivedFlowTracingActivation;
+
+    private @Nullable ServiceEndpointOperation provides;
+
+    private final MockSendHandler handler = new MockSendHandler() {
+        @Override
+        public boolean sendSync(final Exchange exchange, final long timeout) throws MessagingException {
+            sentThroughNMR++;
+            exchange.setDoneStatus();
+            return true;
+        }
+
+        @Override
+        public void sendAsync(final Exchange exchange, final long timeout) throws MessagingException {
+            sentThroughNMR++;
+            exchange.setDoneStatus();
+        }
+    };
+
+    @Override
+    protected void initializeServices() {
+        super.initializeServices();
+        // the mocked consumes and provides target the same service endpoint operation
+        addMockConsumes("consumesId", handler);
+        provides = addMockProvides("providesId");
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new PetalsRouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                fromPetals("providesId").process(new Processor() {
+                    @Override
+                    public void process(final @Nullable org.apache.camel.Exchange exchange) throws Exception {
+                        assert exchange != null;
+                        receivedBody = exchange.getIn().getBody();
+                        receivedHeader = exchange.getIn().getHeader("CamelRequest");
+                        receivedEndpoint = exchange.getProperty(PetalsCamelComponent.EXCHANGE_ORIGINAL_ENDPOINT);
+                        receivedFlowTracingActivation = exchange
+                                .getProperty(PetalsCamelComponent.EXCHANGE_CURRENT_FLOW_TRACING_ACTIVATION);
+                    }
+                }).setHeader("provider", constant("local")).setHeader("CamelAnswer", constant("internal"))
+                        .setBody(constant(OUT));
+                from("direct:local").to("petals:consumesId?localDispatch=true");
+                from("direct:localStream").to("petals:consumesId?localDispatch=true&bodyMode=STREAM");
+                from("direct:nmr").to("petals:consumesId");
+            }
+        };
+    }
+
+    @Test
+    public void testLocalDispatch() throws Exception {
+        final org.apache.camel.Exchange exchange = template().send("direct:local", ExchangePattern.InOut, setIn());
+
+        assertEquals(0, sentThroughNMR);
+        assertNull(exchange.getException());
+        assertTrue(exchange.hasOut());
+        assertEquals("local", exchange.getOut().getHeader("provider"));
+        assertSimilar(new Diff(OUT, getContent(exchange.getOut())));
+    }
+
+    @Test
+    public void testLocalDispatchAppliesTheHeaderFilterStrategies() throws Exception {
+        final org.apache.camel.Exchange exchange = template().send("direct:local", ExchangePattern.InOut,
+                new Processor() {
+                    @Override
+                    public void process(final @Nullable org.apache.camel.Exchange exchange) throws Exception {
+                        assert exchange != null;
+                        exchange.getIn().setBody(IN);
+                        exchange.getIn().setHeader("CamelRequest", "internal");
+                    }
+                });
+
+        assertNull(exchange.getException());
+        // the Camel internals are dropped in both directions as through the NMR
+        assertNull(receivedHeader);
+        assertNull(exchange.getOut().getHeader("CamelAnswer"));
+        assertEquals("local", exchange.getOut().getHeader("provider"));
+    }
+
+    @Test
+    public void testLocalDispatchAppliesTheBodyMode() throws Exception {
+        template().send("direct:local", ExchangePattern.InOut, setIn());
+        assertTrue(receivedBody instanceof DOMSource);
+
+        template().send("direct:localStream", ExchangePattern.InOut, setIn());
+        assertTrue(receivedBody instanceof StreamSource);
+    }
+
+    @Test
+    public void testLocalDispatchResolvesAsTheNMR() throws Exception {
+        final ServiceEndpointOperation provides = this.provides;
+        assert provides != null;
+        ((MockProvidesChannel) pcc().getProvidesChannel(provides)).setFlowTracingActivated(false);
+
+        template().send("direct:local", ExchangePattern.InOut, setIn());
+
+        // the endpoint of the consumes, and the flow tracing activation of the provides
+        assertTrue(receivedEndpoint instanceof ServiceEndpoint);
+        assertEquals("endpoint", ((ServiceEndpoint) receivedEndpoint).getEndpointName());
+        assertEquals(Boolean.FALSE, receivedFlowTracingActivation);
+    }
+
+    @Test
+    public void testNoLocalDispatchByDefault() throws Exception {
+        template().send("direct:nmr", ExchangePattern.InOut, setIn());
+
+        assertEquals(1, sentThroughNMR);
+    }
+
+    private static Processor setIn() {
+        return new Processor() {
+            @Override
+            public void process(final @Nullable org.apache.camel.Exchange exchange) throws Exception {
+                assert exchange != null;
+                exchange.getIn().setBody(IN);
+            }
+        };
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jbi.messaging.Fault;
+import javax.jbi.messaging.MessagingException;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.BytesSource;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Processor;
+import org.apache.camel.StringSource;
+import org.apache.camel.builder.RouteBuilder;
+import org.custommonkey.xmlunit.Diff;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.petals.camel.component.mocks.PetalsCamelContextMock.MockSendHandler;
+import org.ow2.petals.camel.metrics.ServiceMetrics;
+import org.ow2.petals.component.framework.api.message.Exchange;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class PetalsCamelProducerResponseCacheTest extends CamelPetalsTestSupport {
+
+    private static final String OUT = "<b>answer</b>";
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    private volatile boolean fault = false;
+
+    private final MockSendHandler handler = new MockSendHandler() {
+        @Override
+        public boolean sendSync(final Exchange exchange, final long timeout) throws MessagingException {
+            sent.incrementAndGet();
+            if (fault) {
+                final Fault f = exchange.createFault();
+                f.setContent(new StreamSource(new StringReader("<c/>")));
+                exchange.setFault(f);
+            } else {
+                exchange.setOutMessageContent(new StreamSource(new StringReader(OUT)));
+                exchange.getOutMessage().setProperty("answered", "yes");
+            }
+            return true;
+        }
+    };
+
+    @Before
+    public void before() {
+        this.sent.set(0);
+        this.fault = false;
+    }
+
+    @Override
+    protected void initializeServices() {
+        super.initializeServices();
+        addMockConsumes("consumesId", handler);
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("direct:cached").to("petals:consumesId?synchronous=true&responseCacheTTL=60000");
+                from("direct:uncached").to("petals:consumesId?synchronous=true");
+                // the body is passed to the provider without being parsed
+                from("direct:cachedStream")
+                        .to("petals:consumesId?synchronous=true&responseCacheTTL=60000&bodyMode=STREAM");
+            }
+        };
+    }
+
+    private org.apache.camel.Exchange send(final String uri, final Object body) {
+        final org.apache.camel.Exchange exchange = template().send(uri, ExchangePattern.InOut, new Processor() {
+            @Override
+            public void process(final org.apache.camel.Exchange exchange) throws Exception {
+                exchange.getIn().setBody(body);
+            }
+        });
+        assertNotNull(exchange);
+        assertNull(exchange.getException());
+        return exchange;
+    }
+
+    private ServiceMetrics metrics() {
+        return pcc().getMetrics().getServiceMetrics("consumesId");
+    }
+
+    @Test
+    public void testSameRequestIsAnsweredFromTheCache() throws Exception {
+        final org.apache.camel.Exchange first = send("direct:cached", "<a>request</a>");
+        // the same payload provided differently
+        final org.apache.camel.Exchange second = send("direct:cached",
+                new StreamSource(new StringReader("<?xml version=\"1.0\"?><a>request</a>")));
+
+        assertEquals(1, sent.get());
+        assertTrue(new Diff(OUT, first.getOut().getBody(String.class)).similar());
+        assertTrue(new Diff(OUT, second.getOut().getBody(String.class)).similar());
+
+        assertEquals("yes", first.getOut().getHeader("answered"));
+        assertEquals("yes", second.getOut().getHeader("answered"));
+
+        assertEquals(1, metrics().getCacheHits());
+        assertEquals(1, metrics().getCacheMisses());
+        assertEquals(1, metrics().getCacheEntries());
+        assertTrue(metrics().getCacheSize() > 0);
+        // the answers from the cache are accounted as the sent ones
+        assertEquals(2, metrics().getCount());
+        assertEquals(0, metrics().getInFlight());
+    }
+
+    @Test
+    public void testEquivalentRequestsHaveTheSameKey() throws Exception {
+        send("direct:cached", "<p:a xmlns:p=\"urn:test\" y=\"2\" x=\"1\"><!-- comment --><p:b>request</p:b></p:a>");
+        send("direct:cached", "<a xmlns=\"urn:test\" x=\"1\" y=\"2\"><b>request</b></a>");
+        send("direct:cached", "<a xmlns=\"urn:other\" x=\"1\" y=\"2\"><b>request</b></a>");
+
+        assertEquals(2, sent.get());
+        assertEquals(1, metrics().getCacheHits());
+    }
+
+    @Test
+    public void testDomRequestIsNotModified() throws Exception {
+        final Document request = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        final Element root = request.createElementNS("urn:test", "a");
+        request.appendChild(root);
+        root.appendChild(request.createTextNode("re"));
+        root.appendChild(request.createTextNode("quest"));
+
+        final org.apache.camel.Exchange first = send("direct:cached", request);
+        send("direct:cached", "<a xmlns=\"urn:test\">request</a>");
+
+        assertEquals(1, sent.get());
+        assertSame(request, first.getIn().getBody());
+        // normalizing the document would have merged the text nodes
+        assertEquals(2, root.getChildNodes().getLength());
+    }
+
+    @Test
+    public void testReReadableSourcesAreNotReplaced() throws Exception {
+        final BytesSource bytes = new BytesSource("<a>request</a>".getBytes(StandardCharsets.UTF_8));
+        final StringSource string = new StringSource("<a>request</a>");
+
+        final org.apache.camel.Exchange first = send("direct:cached", bytes);
+        final org.apache.camel.Exchange second = send("direct:cached", string);
+
+        assertEquals(1, sent.get());
+        assertSame(bytes, first.getIn().getBody());
+        assertSame(string, second.getIn().getBody());
+    }
+
+    @Test
+    public void testNonXmlRequestsAreSent() throws Exception {
+        final org.apache.camel.Exchange first = send("direct:cachedStream", "{\"a\": \"request\"}");
+        send("direct:cachedStream", "{\"a\": \"request\"}");
+
+        // they can't be identified, so they are neither cached nor answered from the cache
+        assertEquals(2, sent.get());
+        assertTrue(new Diff(OUT, first.getOut().getBody(String.class)).similar());
+        assertEquals(0, metrics().getCacheMisses());
+        assertEquals(0, metrics().getCacheEntries());
+    }
+
+    @Test
+    public void testDifferentRequestsAreSent() throws Exception {
+        send("direct:cached", "<a>request</a>");
+        send("direct:cached", "<a>another request</a>");
+
+        assertEquals(2, sent.get());
+        assertEquals(0, metrics().getCacheHits());
+        assertEquals(2, metrics().getCacheEntries());
+    }
+
+    @Test
+    public void testFaultsAreNotCached() throws Exception {
+        fault = true;
+        send("direct:cached", "<a>request</a>");
+        final org.apache.camel.Exchange second = send("direct:cached", "<a>request</a>");
+
+        assertEquals(2, sent.get());
+        assertEquals(Boolean.TRUE, second.getOut().getHeader(PetalsCamelComponent.MESSAGE_FAULT_HEADER));
+        assertEquals(0, metrics().getCacheEntries());
+    }
+
+    @Test
+    public void testCacheIsDisabledByDefault() throws Exception {
+        send("direct:uncached", "<a>request</a>");
+        send("direct:uncached", "<a>request</a>");
+
+        assertEquals(2, sent.get());
+        assertEquals(0, metrics().getCacheMisses());
+    }
+}
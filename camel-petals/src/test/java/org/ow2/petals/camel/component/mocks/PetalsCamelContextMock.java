@@ -18,6 +18,7 @@
 package org.ow2.petals.camel.component.mocks;
 
 import java.io.StringReader;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.logging.Logger;
@@ -39,9 +40,14 @@ import org.ow2.petals.camel.PetalsCamelRoute;
 import org.ow2.petals.camel.PetalsChannel;
 import org.ow2.petals.camel.PetalsChannel.PetalsConsumesChannel;
 import org.ow2.petals.camel.PetalsChannel.PetalsProvidesChannel;
+import org.ow2.petals.camel.PetalsChannel.SendAsyncCallback;
 import org.ow2.petals.camel.ServiceEndpointOperation;
 import org.ow2.petals.camel.ServiceEndpointOperation.ServiceType;
+import org.ow2.petals.camel.component.CircuitBreaker;
+import org.ow2.petals.camel.component.ResponseCache;
 import org.ow2.petals.camel.exceptions.UnknownServiceException;
+import org.ow2.petals.camel.metrics.ExchangeJournal;
+import org.ow2.petals.camel.metrics.PetalsCamelMetrics;
 import org.ow2.petals.commons.log.Level;
 import org.ow2.petals.commons.log.PetalsExecutionContext;
 import org.ow2.petals.component.framework.api.message.Exchange;
@@ -58,6 +64,8 @@ import org.ow2.petals.jbi.messaging.exchange.PetalsMessageExchange;
 import org.w3c.dom.DocumentFragment;
 
 import com.ebmwebsourcing.easycommons.lang.UncheckedException;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Maps;
 
 public class PetalsCamelContextMock implements PetalsCamelContext {
@@ -68,10 +76,16 @@ public class PetalsCamelContextMock implements PetalsCamelContext {
 
     private final Map<ServiceEndpointOperationKey, PetalsCamelRoute> ppos = Maps.newHashMap();
 
+    private final ListMultimap<QName, String> endpoints = ArrayListMultimap.create();
+
     private final CamelContext context;
 
+    private final PetalsCamelMetrics metrics = new PetalsCamelMetrics();
+
     private final Logger logger = Logger.getLogger(PetalsCamelContextMock.class.getName());
 
+    private final ExchangeJournal journal = new ExchangeJournal(logger, 0);
+
     private final TestMessageExchangeFactory factory = new TestMessageExchangeFactoryImpl(new MockEndpointDirectory(),
             logger);
 
@@ -98,6 +112,13 @@ public class PetalsCamelContextMock implements PetalsCamelContext {
         Assert.assertNull(pS);
     }
 
+    /**
+     * Registers an endpoint of a service, returned by {@link MockConsumesChannel#getEndpoints(QName, QName)}
+     */
+    public void addMockEndpoint(final QName serviceName, final String endpointName) {
+        this.endpoints.put(serviceName, endpointName);
+    }
+
     @Override
     public ServiceEndpointOperation getService(final String serviceId) throws UnknownServiceException {
         final ServiceEndpointOperation seo = this.seos.get(serviceId);
@@ -139,6 +160,12 @@ public class PetalsCamelContextMock implements PetalsCamelContext {
         assert removed != null;
     }
 
+    @Override
+    public @Nullable PetalsCamelRoute getLocalRoute(final QName service, final String endpoint,
+            final QName operation) {
+        return this.ppos.get(new ServiceEndpointOperationKey(service, endpoint, operation));
+    }
+
     @Override
     public CamelContext getCamelContext() {
         return this.context;
@@ -222,6 +249,11 @@ public class PetalsCamelContextMock implements PetalsCamelContext {
         assert seo.getService() == null;
         assert seo.getEndpoint() == null;
 
+        return createEndpoint(seo, serviceName, endpointName);
+    }
+
+    private static ServiceEndpoint createEndpoint(final ServiceEndpointOperation seo, final QName serviceName,
+            final String endpointName) {
         return new ServiceEndpoint() {
             @Override
             public QName getServiceName() {
@@ -254,6 +286,15 @@ public class PetalsCamelContextMock implements PetalsCamelContext {
         public void sendAsync(final Exchange exchange, final long timeout) throws MessagingException {
         }
 
+        /**
+         * Answers before returning by default, can be overridden to answer later from another thread
+         */
+        public void sendAsync(final Exchange exchange, final long timeout, final SendAsyncCallback callback)
+                throws MessagingException {
+            sendAsync(exchange, timeout);
+            callback.done(exchange, false);
+        }
+
         public void send(final Exchange exchange) throws MessagingException {
             // do nothing
         }
@@ -288,9 +329,13 @@ public class PetalsCamelContextMock implements PetalsCamelContext {
         public void sendAsync(final Exchange exchange, final long timeout, final SendAsyncCallback callback)
                 throws MessagingException {
             setRole(exchange);
-            handler.sendAsync(exchange, timeout);
-            revertRole(exchange);
-            callback.done(exchange, false);
+            handler.sendAsync(exchange, timeout, new SendAsyncCallback() {
+                @Override
+                public void done(final Exchange answer, final boolean timedOut) {
+                    revertRole(answer);
+                    callback.done(answer, timedOut);
+                }
+            });
         }
 
         @Override
@@ -309,6 +354,10 @@ public class PetalsCamelContextMock implements PetalsCamelContext {
 
         private final String serviceId;
 
+        private @Nullable CircuitBreaker circuitBreaker;
+
+        private long timeout = 0;
+
         public MockConsumesChannel(final String serviceId, final MockSendHandler handler) {
             super(handler);
             this.serviceId = serviceId;
@@ -325,6 +374,50 @@ public class PetalsCamelContextMock implements PetalsCamelContext {
             return PetalsCamelContextMock.this.resolveEndpoint(serviceId, serviceName, endpointName);
         }
 
+        @Override
+        public ServiceEndpoint[] getEndpoints(final QName interfaceName, final @Nullable QName serviceName) {
+            if (serviceName == null) {
+                return new ServiceEndpoint[0];
+            }
+            final List<String> endpointNames = PetalsCamelContextMock.this.endpoints.get(serviceName);
+            final ServiceEndpoint[] result = new ServiceEndpoint[endpointNames.size()];
+            for (int i = 0; i < result.length; i++) {
+                final String endpointName = endpointNames.get(i);
+                assert endpointName != null;
+                result[i] = createEndpoint(PetalsCamelContextMock.this.seos.get(serviceId), serviceName,
+                        endpointName);
+            }
+            return result;
+        }
+
+        @Override
+        public long getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(final long timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public long getResponseCacheTTL() {
+            return 0;
+        }
+
+        @Override
+        public long getResponseCacheMaxSize() {
+            return ResponseCache.DEFAULT_MAX_SIZE;
+        }
+
+        @Override
+        public @Nullable CircuitBreaker getCircuitBreaker() {
+            return circuitBreaker;
+        }
+
+        public void setCircuitBreaker(final @Nullable CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+        }
+
         @Override
         public void setRole(Exchange exchange) {
             PetalsCamelContextMock.setRole(exchange, Role.PROVIDER);
@@ -338,10 +431,23 @@ public class PetalsCamelContextMock implements PetalsCamelContext {
 
     public class MockProvidesChannel extends MockChannel implements PetalsProvidesChannel {
 
+        private long timeout = 0;
+
+        private boolean flowTracingActivated = true;
+
         public MockProvidesChannel(final MockSendHandler handler) {
             super(handler);
         }
 
+        @Override
+        public long getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(final long timeout) {
+            this.timeout = timeout;
+        }
+
         @Override
         public void setRole(Exchange exchange) {
             PetalsCamelContextMock.setRole(exchange, Role.CONSUMER);
@@ -354,8 +460,22 @@ public class PetalsCamelContextMock implements PetalsCamelContext {
 
         @Override
         public boolean isFlowTracingActivated(final @NonNull Exchange exchange) {
-            return true;
+            return flowTracingActivated;
         }
+
+        public void setFlowTracingActivated(final boolean flowTracingActivated) {
+            this.flowTracingActivated = flowTracingActivated;
+        }
+    }
+
+    @Override
+    public PetalsCamelMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public ExchangeJournal getJournal() {
+        return this.journal;
     }
 
     @Override
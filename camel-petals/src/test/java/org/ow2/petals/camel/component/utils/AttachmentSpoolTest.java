@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.activation.FileDataSource;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.spi.Synchronization;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AttachmentSpoolTest {
+
+    private static final int THRESHOLD = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CamelContext context = new DefaultCamelContext();
+
+    private File directory;
+
+    private AttachmentSpool spool;
+
+    @Before
+    public void before() {
+        this.directory = new File(folder.getRoot(), "spool");
+        this.spool = new AttachmentSpool(directory, THRESHOLD, Logger.getLogger(AttachmentSpoolTest.class.getName()));
+    }
+
+    private static byte[] content(final int size) {
+        final byte[] content = new byte[size];
+        Arrays.fill(content, (byte) 'a');
+        return content;
+    }
+
+    private static DataHandler attachment(final byte[] content) {
+        return new DataHandler(new DataSource() {
+            @Override
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(content);
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                throw new IOException();
+            }
+
+            @Override
+            public String getContentType() {
+                return "application/octet-stream";
+            }
+
+            @Override
+            public String getName() {
+                return "attachment";
+            }
+        });
+    }
+
+    private static byte[] read(final DataHandler data) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final InputStream in = data.getInputStream()) {
+            final byte[] buffer = new byte[100];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void complete(final Exchange exchange) {
+        for (final Synchronization synchronization : exchange.handoverCompletions()) {
+            synchronization.onComplete(exchange);
+        }
+    }
+
+    private int spooledFiles() {
+        final String[] files = directory.list();
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void testSmallAttachmentStaysInMemory() throws Exception {
+        final byte[] content = content(THRESHOLD);
+        final DataHandler result = spool.spool(attachment(content), new DefaultExchange(context));
+
+        assertFalse(result.getDataSource() instanceof SpooledDataSource);
+        assertArrayEquals(content, read(result));
+        assertEquals("attachment", result.getName());
+        assertEquals(0, spooledFiles());
+    }
+
+    @Test
+    public void testFileAttachmentIsNotSpooled() throws Exception {
+        final File file = folder.newFile();
+        final DataHandler data = new DataHandler(new FileDataSource(file));
+        assertSame(data, spool.spool(data, new DefaultExchange(context)));
+    }
+
+    @Test
+    public void testLargeAttachmentIsSpooledUntilTheExchangeCompletes() throws Exception {
+        final byte[] content = content(10 * THRESHOLD + 1);
+        final Exchange exchange = new DefaultExchange(context);
+        final DataHandler result = spool.spool(attachment(content), exchange);
+
+        assertTrue(result.getDataSource() instanceof SpooledDataSource);
+        assertEquals("application/octet-stream", result.getContentType());
+        assertArrayEquals(content, read(result));
+        // it can be read many times
+        assertArrayEquals(content, read(result));
+        assertEquals(1, spooledFiles());
+        assertEquals(1, spool.getSpooled());
+
+        complete(exchange);
+
+        assertEquals(0, spooledFiles());
+        assertEquals(0, spool.getSpooled());
+    }
+
+    @Test
+    public void testSharedAttachmentIsDeletedWithTheLastExchange() throws Exception {
+        final Exchange first = new DefaultExchange(context);
+        final Exchange second = new DefaultExchange(context);
+        final DataHandler result = spool.spool(attachment(content(2 * THRESHOLD)), first);
+        // spooling it again does not copy it
+        assertSame(result, spool.spool(result, second));
+        assertEquals(2, ((SpooledDataSource) result.getDataSource()).getReferences());
+
+        complete(first);
+        assertEquals(1, spooledFiles());
+
+        complete(second);
+        assertEquals(0, spooledFiles());
+    }
+
+    @Test
+    public void testHandedOffAttachmentIsDeletedOnceRead() throws Exception {
+        final byte[] content = content(2 * THRESHOLD);
+        final DataHandler result = spool.handOff(attachment(content));
+        assertEquals(1, spooledFiles());
+
+        assertArrayEquals(content, read(result));
+        assertEquals(0, spooledFiles());
+    }
+
+    @Test
+    public void testHandedOffAttachmentOfAnExchange() throws Exception {
+        final Exchange exchange = new DefaultExchange(context);
+        final DataHandler spooled = spool.spool(attachment(content(2 * THRESHOLD)), exchange);
+        assertSame(spooled, spool.handOff(spooled));
+
+        complete(exchange);
+        assertEquals(1, spooledFiles());
+
+        read(spooled);
+        assertEquals(0, spooledFiles());
+    }
+
+    @Test
+    public void testCloseDeletesReferencedAttachments() throws Exception {
+        final DataHandler data = attachment(content(2 * THRESHOLD));
+        assertNotSame(data, spool.spool(data, new DefaultExchange(context)));
+        assertEquals(1, spooledFiles());
+
+        spool.close();
+        assertEquals(0, spooledFiles());
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.component.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+import javax.jbi.messaging.MessageExchange.Role;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
+import org.ow2.petals.camel.component.PetalsCamelComponent;
+import org.ow2.petals.component.framework.api.message.Exchange;
+import org.ow2.petals.component.framework.junit.impl.mock.MockEndpointDirectory;
+import org.ow2.petals.component.framework.junit.impl.mock.TestMessageExchangeFactoryImpl;
+import org.ow2.petals.component.framework.message.ExchangeImpl;
+import org.ow2.petals.jbi.messaging.exchange.PetalsMessageExchange;
+
+public class LazyExchangePropertiesTest {
+
+    private static final String A = PetalsCamelComponent.EXCHANGE_ORIGINAL_PROPERTY_PREFIX + "a";
+
+    private static final String B = PetalsCamelComponent.EXCHANGE_ORIGINAL_PROPERTY_PREFIX + "b";
+
+    private final CamelContext context = new DefaultCamelContext();
+
+    private final TestMessageExchangeFactoryImpl factory = new TestMessageExchangeFactoryImpl(
+            new MockEndpointDirectory(), Logger.getLogger(LazyExchangePropertiesTest.class.getName()));
+
+    private Exchange exchange;
+
+    private org.apache.camel.Exchange camelExchange;
+
+    @Before
+    public void before() throws Exception {
+        final PetalsMessageExchange petalsExchange = this.factory.createExchange(MEPPatternConstants.IN_OUT.value());
+        this.exchange = new ExchangeImpl(petalsExchange);
+        this.exchange.setInMessageContent(new org.ow2.petals.jbi.xml.BytesSource("<a/>".getBytes()));
+        this.exchange.setProperty("a", "1");
+
+        this.camelExchange = new DefaultExchange(this.context, ExchangePattern.InOut);
+        Conversions.populateNewCamelExchange(this.exchange, true, this.camelExchange);
+
+        // the answer is set by the provider
+        petalsExchange.setRole(Role.PROVIDER);
+        this.camelExchange.getOut().setBody("<b/>");
+    }
+
+    private LazyExchangeProperties properties() {
+        assertTrue(this.camelExchange.getProperties() instanceof LazyExchangeProperties);
+        return (LazyExchangeProperties) this.camelExchange.getProperties();
+    }
+
+    @Test
+    public void testPropertiesAreReadFromThePetalsExchange() throws Exception {
+        assertEquals("1", this.camelExchange.getProperty(A));
+        assertNull(this.camelExchange.getProperty(B));
+        assertTrue(properties().isAttachedTo(this.exchange));
+    }
+
+    @Test
+    public void testUnchangedPropertiesAreKeptInTheAnswer() throws Exception {
+        this.camelExchange.getProperty(A);
+        Conversions.populateAnswerPetalsExchange(this.camelExchange, this.exchange);
+
+        assertEquals("1", this.exchange.getProperty("a"));
+        assertFalse(properties().isAttachedTo(this.exchange));
+
+        // the camel exchange does not see the petals exchange anymore
+        this.exchange.setProperty("a", "2");
+        assertEquals("1", this.camelExchange.getProperty(A));
+    }
+
+    @Test
+    public void testChangedPropertiesAreCopiedToTheAnswer() throws Exception {
+        this.camelExchange.setProperty(B, "2");
+        assertFalse(properties().isAttachedTo(this.exchange));
+
+        Conversions.populateAnswerPetalsExchange(this.camelExchange, this.exchange);
+
+        assertEquals("1", this.exchange.getProperty("a"));
+        assertEquals("2", this.exchange.getProperty("b"));
+    }
+
+    @Test
+    public void testRemovedPropertiesAreRemovedFromTheAnswer() throws Exception {
+        this.camelExchange.removeProperty(A);
+
+        Conversions.populateAnswerPetalsExchange(this.camelExchange, this.exchange);
+
+        assertNull(this.exchange.getProperty("a"));
+    }
+
+    @Test
+    public void testOtherPropertiesDoNotDetach() throws Exception {
+        this.camelExchange.setProperty("other", "3");
+
+        assertTrue(properties().isAttachedTo(this.exchange));
+        assertEquals("3", this.camelExchange.getProperty("other"));
+    }
+
+    @Test
+    public void testCopiedExchangeHasAllProperties() throws Exception {
+        this.camelExchange.setProperty("other", "3");
+        final org.apache.camel.Exchange copy = this.camelExchange.copy();
+
+        assertEquals("1", copy.getProperty(A));
+        assertEquals("3", copy.getProperty("other"));
+        assertTrue(properties().isAttachedTo(this.exchange));
+    }
+
+    @Test
+    public void testIterationDoesNotDetach() throws Exception {
+        this.camelExchange.setProperty("other", "3");
+
+        final Map<String, Object> expected = new HashMap<>();
+        for (final Entry<String, Object> entry : properties().entrySet()) {
+            expected.put(entry.getKey(), entry.getValue());
+        }
+
+        assertEquals("1", expected.get(A));
+        assertEquals("3", expected.get("other"));
+        assertEquals(expected.size(), properties().size());
+        assertTrue(properties().containsKey(A));
+        assertTrue(properties().keySet().contains(A));
+        assertTrue(properties().isAttachedTo(this.exchange));
+    }
+
+    @Test
+    public void testPetalsHopDoesNotDetach() throws Exception {
+        this.camelExchange.setProperty(PetalsCamelComponent.EXCHANGE_PROPERTY_PREFIX + "c", "4");
+        final Exchange sent = new ExchangeImpl(this.factory.createExchange(MEPPatternConstants.IN_OUT.value()));
+
+        Conversions.populateNewPetalsExchange(this.camelExchange, sent);
+
+        assertEquals("4", sent.getProperty("c"));
+        assertNull(sent.getProperty("a"));
+        assertTrue(properties().isAttachedTo(this.exchange));
+    }
+
+    @Test
+    public void testRemovedWhileIterating() throws Exception {
+        final Iterator<Entry<String, Object>> it = properties().entrySet().iterator();
+        while (it.hasNext()) {
+            if (A.equals(it.next().getKey())) {
+                it.remove();
+            }
+        }
+
+        assertFalse(properties().isAttachedTo(this.exchange));
+        assertFalse(properties().containsKey(A));
+    }
+}
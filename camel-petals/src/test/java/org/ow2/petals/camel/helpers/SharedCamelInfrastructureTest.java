@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.converter.AnnotationTypeConverterLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SharedCamelInfrastructureTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ClassLoader classLoader = SharedCamelInfrastructureTest.class.getClassLoader();
+
+    private SharedCamelInfrastructure infrastructure;
+
+    @Before
+    public void before() {
+        this.infrastructure = new SharedCamelInfrastructure(this.classLoader);
+    }
+
+    @After
+    public void after() throws Exception {
+        this.infrastructure.close();
+    }
+
+    @Test
+    public void testTypeConvertersAreShared() throws Exception {
+        final DefaultCamelContext first = new DefaultCamelContext();
+        final DefaultCamelContext second = new DefaultCamelContext();
+        assertTrue(this.infrastructure.share(first, this.classLoader));
+        assertTrue(this.infrastructure.share(second, this.classLoader));
+        assertSame(first.getTypeConverter(), second.getTypeConverter());
+
+        first.start();
+        try {
+            assertEquals(Integer.valueOf(1), first.getTypeConverter().convertTo(Integer.class, "1"));
+        } finally {
+            first.stop();
+        }
+    }
+
+    @Test
+    public void testOwnTypeConvertersAreNotShared() throws Exception {
+        final File services = new File(folder.getRoot(), AnnotationTypeConverterLoader.META_INF_SERVICES);
+        assertTrue(services.getParentFile().mkdirs());
+        Files.write(services.toPath(), "org.ow2.petals.su.converters".getBytes(StandardCharsets.UTF_8));
+
+        final DefaultCamelContext shared = new DefaultCamelContext();
+        this.infrastructure.share(shared, this.classLoader);
+
+        try (final URLClassLoader suClassLoader = new URLClassLoader(
+                new URL[] { folder.getRoot().toURI().toURL() }, this.classLoader)) {
+            final DefaultCamelContext context = new DefaultCamelContext();
+            assertFalse(this.infrastructure.share(context, suClassLoader));
+            assertNotSame(shared.getTypeConverter(), context.getTypeConverter());
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSharedRegistryIsReadOnly() throws Exception {
+        final DefaultCamelContext context = new DefaultCamelContext();
+        this.infrastructure.share(context, this.classLoader);
+
+        context.getTypeConverterRegistry().addTypeConverter(Integer.class, String.class, context.getTypeConverter());
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.camel.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.petals.camel.metrics.ExchangeJournal.Event;
+
+public class ExchangeJournalTest {
+
+    private final Logger logger = Logger.getLogger(ExchangeJournalTest.class.getName());
+
+    private final List<LogRecord> records = Collections.synchronizedList(new ArrayList<LogRecord>());
+
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(final @Nullable LogRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+            // nothing to do
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    };
+
+    @Before
+    public void addHandler() {
+        this.logger.setUseParentHandlers(false);
+        this.logger.setLevel(Level.ALL);
+        this.logger.addHandler(this.handler);
+    }
+
+    @After
+    public void removeHandler() {
+        this.logger.removeHandler(this.handler);
+    }
+
+    @Test
+    public void testRecordsAreLoggedWhenDrained() {
+        try (final ExchangeJournal journal = new ExchangeJournal(this.logger, 1)) {
+            journal.record(Event.PROCESSING_STARTED, "id1");
+            journal.record(Event.PROCESSING_DONE_SYNC, "id1");
+            journal.drain();
+
+            assertEquals(2, this.records.size());
+            assertEquals(Level.INFO, this.records.get(0).getLevel());
+            assertEquals("Let's start processing Exchange id1 with Camel", this.records.get(0).getMessage());
+            assertEquals("Processing of Exchange id1 with Camel is finished (happened synchronously)",
+                    this.records.get(1).getMessage());
+            assertEquals(1, journal.getCount(Event.PROCESSING_STARTED));
+        }
+    }
+
+    @Test
+    public void testSampling() {
+        try (final ExchangeJournal journal = new ExchangeJournal(this.logger, 10)) {
+            for (int i = 0; i < 100; i++) {
+                journal.record(Event.PROCESSING_STARTED, "id" + i);
+            }
+            journal.drain();
+
+            assertEquals(10, this.records.size());
+            assertEquals(100, journal.getCount(Event.PROCESSING_STARTED));
+        }
+
+        this.records.clear();
+        try (final ExchangeJournal journal = new ExchangeJournal(this.logger, 0)) {
+            journal.record(Event.NEW_FLOW, "flow");
+            journal.drain();
+
+            assertEquals(0, this.records.size());
+            assertEquals(1, journal.getCount(Event.NEW_FLOW));
+        }
+    }
+
+    @Test
+    public void testDroppedWhenFull() {
+        try (final ExchangeJournal journal = new ExchangeJournal(this.logger, 1, 16)) {
+            for (int i = 0; i < 20; i++) {
+                journal.record(Event.PROCESSING_STARTED, "id" + i);
+            }
+            journal.drain();
+
+            assertEquals(16, this.records.size());
+            assertEquals(4, journal.getDropped());
+        }
+    }
+
+    @Test
+    public void testLongSubjectsAreTruncated() {
+        final StringBuilder subject = new StringBuilder();
+        for (int i = 0; i < ExchangeJournal.SUBJECT_LENGTH; i++) {
+            subject.append('a');
+        }
+        try (final ExchangeJournal journal = new ExchangeJournal(this.logger, 1)) {
+            journal.record(Event.PROCESSING_STARTED, subject + "bcd");
+            journal.drain();
+
+            assertEquals(1, this.records.size());
+            assertEquals("Let's start processing Exchange " + subject + " with Camel",
+                    this.records.get(0).getMessage());
+        }
+    }
+
+    @Test
+    public void testOnlyCountedOnceClosed() {
+        final ExchangeJournal journal = new ExchangeJournal(this.logger, 1);
+        journal.record(Event.PROCESSING_STARTED, "id1");
+        journal.close();
+        assertEquals(1, this.records.size());
+
+        journal.record(Event.PROCESSING_STARTED, "id2");
+        journal.drain();
+
+        assertEquals(1, this.records.size());
+        assertEquals(2, journal.getCount(Event.PROCESSING_STARTED));
+    }
+
+    @Test
+    public void testDrainerForgetsClosedJournals() {
+        try (final JournalDrainer drainer = new JournalDrainer()) {
+            final ExchangeJournal journal1 = new ExchangeJournal(this.logger, 1);
+            final ExchangeJournal journal2 = new ExchangeJournal(this.logger, 1);
+            drainer.register(journal1);
+            drainer.register(journal2);
+            // logs nothing, so it is not drained
+            drainer.register(new ExchangeJournal(this.logger, 0));
+            assertEquals(2, drainer.size());
+
+            journal1.record(Event.PROCESSING_STARTED, "id1");
+            journal2.record(Event.PROCESSING_STARTED, "id2");
+            journal2.close();
+            drainer.drain();
+
+            assertEquals(2, this.records.size());
+            assertEquals(1, drainer.size());
+        }
+    }
+}
@@ -24,6 +24,7 @@ import javax.jbi.messaging.MessagingException;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.ow2.petals.camel.PetalsCamelRoute;
+import org.ow2.petals.camel.metrics.ExchangeJournal;
 import org.ow2.petals.commons.log.Level;
 import org.ow2.petals.component.framework.AbstractComponent;
 import org.ow2.petals.component.framework.api.message.Exchange;
@@ -48,8 +49,6 @@ public class CamelJBIListener extends AbstractJBIListener {
 
         logger.fine("Start CamelJBIListener.onJBIMessage()");
 
-        final String logHint = "Exchange " + exchange.getExchangeId();
-
         try {
             if (exchange.isActiveStatus()) {
 
@@ -63,7 +62,8 @@ public class CamelJBIListener extends AbstractJBIListener {
                     }
 
                     if (logger.isLoggable(Level.FINE)) {
-                        logger.fine(logHint + " was received and is started to be processed.");
+                        logger.fine("Exchange " + exchange.getExchangeId()
+                                + " was received and is started to be processed.");
                         logger.fine("interfaceName = " + exchange.getInterfaceName());
                         logger.fine("Service       = " + exchange.getService());
                         logger.fine("EndpointName  = " + exchange.getEndpointName());
@@ -73,27 +73,28 @@ public class CamelJBIListener extends AbstractJBIListener {
                     
                     final PetalsCamelRoute route = getCamelSE().getCamelSUManager().getRoute(exchange);
 
-                    logger.info("Let's start processing " + logHint + " with Camel");
+                    final ExchangeJournal journal = getCamelSE().getJournal();
+
+                    journal.record(ExchangeJournal.Event.PROCESSING_STARTED, exchange.getExchangeId());
 
                     final boolean doneSync = route.process(exchange);
 
-                    if (doneSync) {
-                        logger.info("Processing of " + logHint + " with Camel is finished (happened synchronously)");
-                    } else {
-                        logger.info("Processing of " + logHint + " with Camel will finish asynchronously");
-                    }
+                    journal.record(doneSync ? ExchangeJournal.Event.PROCESSING_DONE_SYNC
+                            : ExchangeJournal.Event.PROCESSING_PENDING_ASYNC, exchange.getExchangeId());
 
                     // we always take care of answering things in the processing!
                     return false;
                 } catch (final JBIException e) {
                     // This concerns all exceptions but the processing of the message itself!
-                    logger.log(Level.SEVERE, logHint + " encountered a problem.", e);
+                    logger.log(Level.SEVERE, "Exchange " + exchange.getExchangeId() + " encountered a problem.", e);
                     exchange.setError(e);
                 }
             } else if (exchange.isErrorStatus()) {
-                logger.warning(logHint + " received with a status 'ERROR', this shouldn't happen here. Skipped!");
+                logger.warning("Exchange " + exchange.getExchangeId()
+                        + " received with a status 'ERROR', this shouldn't happen here. Skipped!");
             } else if (exchange.isDoneStatus()) {
-                logger.warning(logHint + " received with a status 'DONE', this shouldn't happen here. Skipped");
+                logger.warning("Exchange " + exchange.getExchangeId()
+                        + " received with a status 'DONE', this shouldn't happen here. Skipped");
             }
 
             // let the CDK handle the response (either an error occured or it is an error message or a done message)
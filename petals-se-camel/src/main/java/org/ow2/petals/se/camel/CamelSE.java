@@ -17,8 +17,21 @@
  */
 package org.ow2.petals.se.camel;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jbi.JBIException;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.ow2.petals.camel.helpers.SharedCamelInfrastructure;
+import org.ow2.petals.camel.metrics.ExchangeJournal;
+import org.ow2.petals.camel.metrics.JournalDrainer;
+import org.ow2.petals.component.framework.api.monitoring.MonitTraceLogger;
 import org.ow2.petals.component.framework.se.AbstractServiceEngine;
 import org.ow2.petals.component.framework.se.ServiceEngineServiceUnitManager;
+import org.ow2.petals.se.camel.monitoring.AsyncMonitTraceLogger;
+import org.ow2.petals.se.camel.monitoring.AsyncMonitTraceLogger.OverflowPolicy;
+import org.ow2.petals.se.camel.utils.JbiCamelConstants;
 
 /**
  * This only manage the SUManager and provides a reference to the JBI Listener
@@ -28,6 +41,199 @@ import org.ow2.petals.component.framework.se.ServiceEngineServiceUnitManager;
  */
 public class CamelSE extends AbstractServiceEngine {
 
+    private long endpointResolutionCacheTTL = JbiCamelConstants.DEFAULT_ENDPOINT_RESOLUTION_CACHE_TTL;
+
+    private long endpointResolutionCacheNegativeTTL = JbiCamelConstants.DEFAULT_ENDPOINT_RESOLUTION_CACHE_NEGATIVE_TTL;
+
+    private long drainTimeout = JbiCamelConstants.DEFAULT_DRAIN_TIMEOUT;
+
+    private int journalSampling = (int) JbiCamelConstants.DEFAULT_EXCHANGE_JOURNAL_SAMPLING;
+
+    /**
+     * The journal of the exchanges received by the SE, closed (but still usable) once the SE is shut down
+     */
+    @Nullable
+    private ExchangeJournal journal;
+
+    /**
+     * Drains the journals of the SE and of the SUs with a single thread, if they log something
+     */
+    @Nullable
+    private JournalDrainer journalDrainer;
+
+    /**
+     * Writes the MONIT traces of the routes, if they are written asynchronously
+     */
+    @Nullable
+    private AsyncMonitTraceLogger asyncMonitTraceLogger;
+
+    /**
+     * The infrastructure shared by the Camel contexts of the SUs, if they share it
+     */
+    @Nullable
+    private SharedCamelInfrastructure sharedInfrastructure;
+
+    @Override
+    protected void doInit() throws JBIException {
+        this.endpointResolutionCacheTTL = getLongParameter(JbiCamelConstants.PARAM_ENDPOINT_RESOLUTION_CACHE_TTL,
+                JbiCamelConstants.DEFAULT_ENDPOINT_RESOLUTION_CACHE_TTL);
+        this.endpointResolutionCacheNegativeTTL = getLongParameter(
+                JbiCamelConstants.PARAM_ENDPOINT_RESOLUTION_CACHE_NEGATIVE_TTL,
+                JbiCamelConstants.DEFAULT_ENDPOINT_RESOLUTION_CACHE_NEGATIVE_TTL);
+        this.drainTimeout = getLongParameter(JbiCamelConstants.PARAM_DRAIN_TIMEOUT,
+                JbiCamelConstants.DEFAULT_DRAIN_TIMEOUT);
+
+        this.journalSampling = (int) getLongParameter(JbiCamelConstants.PARAM_EXCHANGE_JOURNAL_SAMPLING,
+                JbiCamelConstants.DEFAULT_EXCHANGE_JOURNAL_SAMPLING);
+        this.journal = createJournal(getLogger());
+
+        final String async = getComponentExtensions().get(JbiCamelConstants.PARAM_ASYNC_MONIT_TRACES);
+        if (async != null && Boolean.parseBoolean(async.trim())) {
+            final String policy = getComponentExtensions().get(JbiCamelConstants.PARAM_MONIT_TRACES_OVERFLOW_POLICY);
+            final OverflowPolicy overflowPolicy;
+            try {
+                overflowPolicy = policy == null || policy.trim().isEmpty() ? OverflowPolicy.CALLER_RUNS
+                        : OverflowPolicy.parse(policy);
+            } catch (final IllegalArgumentException e) {
+                throw new JBIException("Invalid value for the component parameter "
+                        + JbiCamelConstants.PARAM_MONIT_TRACES_OVERFLOW_POLICY + ": " + policy, e);
+            }
+            this.asyncMonitTraceLogger = new AsyncMonitTraceLogger(this,
+                    (int) getLongParameter(JbiCamelConstants.PARAM_MONIT_TRACES_QUEUE_SIZE,
+                            AsyncMonitTraceLogger.DEFAULT_QUEUE_SIZE),
+                    overflowPolicy, getLogger());
+        }
+
+        final String shared = getComponentExtensions().get(JbiCamelConstants.PARAM_SHARED_CAMEL_INFRASTRUCTURE);
+        if (shared != null && Boolean.parseBoolean(shared.trim())) {
+            this.sharedInfrastructure = new SharedCamelInfrastructure(getClass().getClassLoader());
+        }
+
+        // last, so that its thread is only started if the init succeeded
+        if (this.journalSampling > 0) {
+            final JournalDrainer journalDrainer = new JournalDrainer();
+            this.journalDrainer = journalDrainer;
+            journalDrainer.register(this.journal);
+        }
+    }
+
+    @Override
+    protected void doShutdown() throws JBIException {
+        final AsyncMonitTraceLogger asyncMonitTraceLogger = this.asyncMonitTraceLogger;
+        if (asyncMonitTraceLogger != null) {
+            this.asyncMonitTraceLogger = null;
+            try {
+                asyncMonitTraceLogger.close();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JBIException("Interrupted while writing the MONIT traces", e);
+            }
+        }
+
+        final ExchangeJournal journal = this.journal;
+        if (journal != null) {
+            // kept, so that the exchanges still processed are only counted
+            journal.close();
+        }
+
+        final JournalDrainer journalDrainer = this.journalDrainer;
+        if (journalDrainer != null) {
+            this.journalDrainer = null;
+            // the journals of the SUs are closed when they are undeployed, this drains a last time the others
+            journalDrainer.close();
+        }
+
+        final SharedCamelInfrastructure shared = this.sharedInfrastructure;
+        if (shared != null) {
+            this.sharedInfrastructure = null;
+            try {
+                shared.close();
+            } catch (final Exception e) {
+                throw new JBIException("Can't shut down the shared Camel infrastructure", e);
+            }
+        }
+    }
+
+    private long getLongParameter(final String name, final long defaultValue) throws JBIException {
+        final String value = getComponentExtensions().get(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            throw new JBIException("Invalid value for the component parameter " + name + ": " + value, e);
+        }
+    }
+
+    public long getEndpointResolutionCacheTTL() {
+        return this.endpointResolutionCacheTTL;
+    }
+
+    public long getEndpointResolutionCacheNegativeTTL() {
+        return this.endpointResolutionCacheNegativeTTL;
+    }
+
+    public long getDrainTimeout() {
+        return this.drainTimeout;
+    }
+
+    public @Nullable SharedCamelInfrastructure getSharedInfrastructure() {
+        return this.sharedInfrastructure;
+    }
+
+    public ExchangeJournal getJournal() {
+        final ExchangeJournal journal = this.journal;
+        assert journal != null;
+        return journal;
+    }
+
+    /**
+     * @return the MONIT trace logger given to the routes of the SUs
+     */
+    public MonitTraceLogger getRoutesMonitTraceLogger() {
+        final AsyncMonitTraceLogger asyncMonitTraceLogger = this.asyncMonitTraceLogger;
+        return asyncMonitTraceLogger != null ? asyncMonitTraceLogger : this;
+    }
+
+    /**
+     * Waits for the MONIT traces logged by the routes so far to be written, if they are written asynchronously
+     * 
+     * @param timeout
+     *            in milliseconds
+     */
+    public void flushMonitTraces(final long timeout) {
+        final AsyncMonitTraceLogger asyncMonitTraceLogger = this.asyncMonitTraceLogger;
+        if (asyncMonitTraceLogger != null) {
+            try {
+                if (!asyncMonitTraceLogger.flush(timeout)) {
+                    getLogger().warning("MONIT traces are still not written after " + timeout + "ms");
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                getLogger().log(Level.WARNING, "Interrupted while waiting for the MONIT traces to be written", e);
+            }
+        }
+    }
+
+    /**
+     * @return a journal logging to the given logger with the sampling of the component, it is only logged once
+     *         registered with {@link #registerJournal(ExchangeJournal)}
+     */
+    public ExchangeJournal createJournal(final Logger logger) {
+        return new ExchangeJournal(logger, this.journalSampling);
+    }
+
+    /**
+     * The journal is drained by the thread of the component until it is closed
+     */
+    public void registerJournal(final ExchangeJournal journal) {
+        final JournalDrainer journalDrainer = this.journalDrainer;
+        if (journalDrainer != null) {
+            journalDrainer.register(journal);
+        }
+    }
+
     @SuppressWarnings("null")
     public CamelSUManager getCamelSUManager() {
         return (CamelSUManager) getServiceUnitManager();
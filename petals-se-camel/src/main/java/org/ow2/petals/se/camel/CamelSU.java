@@ -22,23 +22,35 @@ import java.net.URLClassLoader;
 import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.xml.namespace.QName;
+
 import org.apache.camel.CamelContext;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.impl.DefaultCamelContext;
 import org.apache.camel.impl.JndiRegistry;
 import org.apache.camel.model.ModelCamelContext;
 import org.apache.camel.model.RoutesDefinition;
+import org.eclipse.jdt.annotation.Nullable;
 import org.ow2.petals.camel.PetalsCamelContext;
 import org.ow2.petals.camel.PetalsCamelRoute;
 import org.ow2.petals.camel.PetalsChannel.PetalsConsumesChannel;
 import org.ow2.petals.camel.PetalsChannel.PetalsProvidesChannel;
 import org.ow2.petals.camel.ServiceEndpointOperation;
+import org.ow2.petals.camel.component.BodyMode;
+import org.ow2.petals.camel.component.PetalsCamelComponent;
+import org.ow2.petals.camel.component.PetalsCamelConsumer;
+import org.ow2.petals.camel.component.utils.AttachmentSpool;
 import org.ow2.petals.camel.exceptions.UnknownServiceException;
+import org.ow2.petals.camel.helpers.JAXBContexts;
 import org.ow2.petals.camel.helpers.PetalsRouteBuilder;
+import org.ow2.petals.camel.helpers.SharedCamelInfrastructure;
+import org.ow2.petals.camel.metrics.ExchangeJournal;
+import org.ow2.petals.camel.metrics.PetalsCamelMetrics;
 import org.ow2.petals.component.framework.api.monitoring.MonitTraceLogger;
 import org.ow2.petals.se.camel.exceptions.InvalidCamelRouteDefinitionException;
 import org.ow2.petals.se.camel.exceptions.PetalsCamelSEException;
@@ -46,8 +58,10 @@ import org.ow2.petals.se.camel.impl.ServiceEndpointOperationConsumes;
 import org.ow2.petals.se.camel.impl.ServiceEndpointOperationProvides;
 import org.ow2.petals.se.camel.utils.CamelRoutesHelper;
 
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 
 /**
  * This handles the mapping between what is declared in a SU and a PetalsComponent (which is a Camel component for
@@ -81,23 +95,90 @@ public class CamelSU implements PetalsCamelContext {
 
     private final CamelSUManager manager;
 
+    /**
+     * The sender used by the services of this SU
+     */
+    private final PetalsCamelSender sender;
+
     private final Logger suLogger;
 
     private final MonitTraceLogger monitTraceLogger;
 
+    private final PetalsCamelMetrics metrics = new PetalsCamelMetrics();
+
+    private final ExchangeJournal journal;
+
+    /**
+     * The routes of this SU, suspended when it is stopped
+     */
+    @SuppressWarnings("null")
+    private final ConcurrentMap<ServiceEndpointOperation, PetalsCamelRoute> routes = Maps.newConcurrentMap();
+
+    /**
+     * Maximum time in milliseconds to wait for the exchanges in flight when the SU is stopped
+     */
+    private final long drainTimeout;
+
+    /**
+     * Where the large attachments of the exchanges of this SU are written, if they are spooled
+     */
+    @Nullable
+    private final AttachmentSpool attachmentSpool;
+
+    /**
+     * If <code>true</code>, the context is only started when the first exchange is dispatched to this SU
+     */
+    private final boolean lazyActivation;
+
+    /**
+     * <code>true</code> when the context is started
+     */
+    private volatile boolean active;
+
+    /**
+     * <code>true</code> once the actions to do on deployment of the route definitions were executed: when the SU is
+     * deployed, or for a lazy SU when its context is first started, so that they are always executed after the start of
+     * the context. Until then, the actions of the other steps of the lifecycle of the SU are not executed.
+     */
+    private volatile boolean routesDeployed;
+
+    /**
+     * <code>true</code> between the start and the stop of the SU, a lazy SU can only be activated then
+     */
+    private volatile boolean started;
+
+    /**
+     * The last time (as given by {@link System#nanoTime()}) an exchange was dispatched to a lazy SU
+     */
+    private volatile long lastUsed = System.nanoTime();
+
     public CamelSU(final ImmutableMap<String, ServiceEndpointOperation> sid2seo, final ImmutableList<String> classNames,
-            final ImmutableList<String> xmlNames, final URLClassLoader classLoader, final Logger suLogger,
-            final CamelSUManager manager, final MonitTraceLogger monitTraceLogger) throws PetalsCamelSEException {
+            final ImmutableList<String> xmlNames, final BodyMode bodyMode,
+            final @Nullable AttachmentSpool attachmentSpool, final URLClassLoader classLoader,
+            final Logger suLogger, final PetalsCamelSender sender, final CamelSUManager manager,
+            final MonitTraceLogger monitTraceLogger, final ExchangeJournal journal, final long drainTimeout,
+            final boolean lazyActivation, final @Nullable SharedCamelInfrastructure sharedInfrastructure)
+            throws PetalsCamelSEException {
+        this.journal = journal;
         this.classLoader = classLoader;
+        this.drainTimeout = drainTimeout;
+        this.lazyActivation = lazyActivation;
+        this.attachmentSpool = attachmentSpool;
+        this.sender = sender;
         this.sid2seo = sid2seo;
         this.manager = manager;
         this.suLogger = suLogger;
         this.monitTraceLogger = monitTraceLogger;
 
-        this.context = new DefaultCamelContext();
+        final DefaultCamelContext context = new DefaultCamelContext();
+        if (sharedInfrastructure != null && !sharedInfrastructure.share(context, classLoader)) {
+            suLogger.info("The SU has its own Camel type converters: its Camel context does not share them");
+        }
+        this.context = context;
 
-        this.context.getShutdownStrategy().setTimeout(10);
-        this.context.getShutdownStrategy().setTimeUnit(TimeUnit.SECONDS);
+        // Camel needs a strictly positive timeout
+        this.context.getShutdownStrategy().setTimeout(Math.max(1, drainTimeout));
+        this.context.getShutdownStrategy().setTimeUnit(TimeUnit.MILLISECONDS);
 
         // needed so that routes are executed with the correct context classloader
         // (for example JAXB uses it to load classes)
@@ -107,6 +188,12 @@ public class CamelSU implements PetalsCamelContext {
         // initialise itself
         this.context.getRegistry(JndiRegistry.class).bind(PetalsCamelContext.class.getName(), this);
 
+        // the component is registered explicitly to pass it the defaults of this SU
+        final PetalsCamelComponent petalsComponent = new PetalsCamelComponent();
+        petalsComponent.setBodyMode(bodyMode);
+        petalsComponent.setAttachmentSpool(attachmentSpool);
+        this.context.addComponent("petals", petalsComponent);
+
         for (final String className : classNames) {
             assert className != null;
             final RouteBuilder routes = CamelRoutesHelper.loadRoutesFromClass(classLoader, className);
@@ -134,16 +221,24 @@ public class CamelSU implements PetalsCamelContext {
             }
         }
 
-        try {
-            this.context.start();
-        } catch (final Exception e) {
-            throw new PetalsCamelSEException("Problem starting the Camel context", e);
+        // else it is started by ensureActive(), which then executes the actions to do on deployment
+        if (!lazyActivation) {
+            try {
+                this.context.start();
+            } catch (final Exception e) {
+                throw new PetalsCamelSEException("Problem starting the Camel context", e);
+            }
+            this.active = true;
+            deployRoutes();
         }
+    }
 
-        /*
-         * Execute actions to do on deployment of the route definitions. Only for Camel routes based on
-         * PetalsRouteBuilder
-         */
+    /**
+     * Execute actions to do on deployment of the route definitions. Only for Camel routes based on
+     * {@link PetalsRouteBuilder}
+     */
+    private void deployRoutes() {
+        this.routesDeployed = true;
         for (final RouteBuilder routeBuilder : this.classRoutes) {
             assert routeBuilder != null;
             if (routeBuilder instanceof PetalsRouteBuilder) {
@@ -160,6 +255,12 @@ public class CamelSU implements PetalsCamelContext {
      * Execute actions to do on init of the route definitions. Only for Camel routes based on {@link PetalsRouteBuilder}
      */
     public void init() throws PetalsCamelSEException {
+        if (this.routesDeployed) {
+            initRoutes();
+        }
+    }
+
+    private void initRoutes() {
         for (final RouteBuilder routeBuilder : this.classRoutes) {
             assert routeBuilder != null;
             if (routeBuilder instanceof PetalsRouteBuilder) {
@@ -177,6 +278,9 @@ public class CamelSU implements PetalsCamelContext {
      * {@link PetalsRouteBuilder}
      */
     public void shutdown() throws PetalsCamelSEException {
+        if (!this.routesDeployed) {
+            return;
+        }
         for (final RouteBuilder routeBuilder : this.classRoutes) {
             assert routeBuilder != null;
             if (routeBuilder instanceof PetalsRouteBuilder) {
@@ -190,9 +294,20 @@ public class CamelSU implements PetalsCamelContext {
     }
 
     /**
-     * Execute actions to do on stop of the route definitions. Only for Camel routes based on {@link PetalsRouteBuilder}
+     * The routes are first suspended and their exchanges in flight waited for, then the actions to do on stop of the
+     * route definitions are executed. Only for Camel routes based on {@link PetalsRouteBuilder}
      */
     public void stop() throws PetalsCamelSEException {
+        synchronized (this) {
+            // a lazy SU can't be activated anymore
+            this.started = false;
+        }
+
+        suspendAndDrain();
+
+        if (!this.routesDeployed) {
+            return;
+        }
         for (final RouteBuilder routeBuilder : this.classRoutes) {
             assert routeBuilder != null;
             if (routeBuilder instanceof PetalsRouteBuilder) {
@@ -206,10 +321,28 @@ public class CamelSU implements PetalsCamelContext {
     }
 
     /**
-     * Execute actions to do on startup of the route definitions. Only for Camel routes based on
-     * {@link PetalsRouteBuilder}
+     * Execute actions to do on startup of the route definitions, only for Camel routes based on
+     * {@link PetalsRouteBuilder}, then resume the routes if they were suspended by {@link #stop()}
      */
     public void start() throws PetalsCamelSEException {
+        if (this.routesDeployed) {
+            startRoutes();
+        }
+
+        for (final PetalsCamelRoute route : this.routes.values()) {
+            if (route instanceof PetalsCamelConsumer) {
+                try {
+                    ((PetalsCamelConsumer) route).resume();
+                } catch (final Exception e) {
+                    getLogger().log(Level.SEVERE, "Can't resume a route of the SU", e);
+                }
+            }
+        }
+
+        this.started = true;
+    }
+
+    private void startRoutes() {
         for (final RouteBuilder routeBuilder : this.classRoutes) {
             assert routeBuilder != null;
             if (routeBuilder instanceof PetalsRouteBuilder) {
@@ -222,18 +355,133 @@ public class CamelSU implements PetalsCamelContext {
         }
     }
 
+    public boolean isLazyActivation() {
+        return this.lazyActivation;
+    }
+
+    /**
+     * Called for each exchange dispatched to a lazy SU: its context is started by the first one, which then executes
+     * the actions to do on deployment, init and start of the route definitions, in the order of an eager SU.
+     * 
+     * @return <code>false</code> if the SU is stopped or its context can't be started
+     */
+    public boolean ensureActive() {
+        // written before reading active, see passivateIfIdle()
+        this.lastUsed = System.nanoTime();
+        if (this.active) {
+            return true;
+        }
+        return activate();
+    }
+
+    private synchronized boolean activate() {
+        if (this.active) {
+            return true;
+        }
+        if (!this.started) {
+            return false;
+        }
+        final long begin = System.nanoTime();
+        try {
+            this.context.start();
+        } catch (final Exception e) {
+            getLogger().log(Level.SEVERE, "Can't start the Camel context of the SU", e);
+            return false;
+        }
+        this.active = true;
+        if (!this.routesDeployed) {
+            deployRoutes();
+            initRoutes();
+            startRoutes();
+        }
+        this.metrics.activated(System.nanoTime() - begin);
+        getLogger().fine("Camel context of the SU activated by an exchange");
+        return true;
+    }
+
+    /**
+     * Stops the context of a lazy SU if no exchange was dispatched to it since idleTimeout and none is in flight, the
+     * next exchange will start it again.
+     */
+    public synchronized void passivateIfIdle(final long idleTimeout) {
+        final long seen = this.lastUsed;
+        if (!this.active || !this.started
+                || System.nanoTime() - seen < TimeUnit.MILLISECONDS.toNanos(idleTimeout)) {
+            return;
+        }
+        for (final PetalsCamelRoute route : this.routes.values()) {
+            if (route instanceof PetalsCamelConsumer && ((PetalsCamelConsumer) route).getInFlight() > 0) {
+                return;
+            }
+        }
+
+        this.active = false;
+        // an exchange that read active before it was changed has written lastUsed before
+        if (this.lastUsed != seen) {
+            this.active = true;
+            return;
+        }
+
+        try {
+            this.context.stop();
+        } catch (final Exception e) {
+            getLogger().log(Level.SEVERE, "Can't stop the Camel context of the SU", e);
+        }
+        this.metrics.passivated();
+        getLogger().fine("Camel context of the SU passivated after " + idleTimeout + "ms without exchange");
+    }
+
+    /**
+     * New exchanges are refused while the ones in flight are waited for, at most {@link #drainTimeout} for all the
+     * routes.
+     */
+    private void suspendAndDrain() {
+        for (final PetalsCamelRoute route : this.routes.values()) {
+            if (route instanceof PetalsCamelConsumer) {
+                try {
+                    ((PetalsCamelConsumer) route).suspend();
+                } catch (final Exception e) {
+                    getLogger().log(Level.SEVERE, "Can't suspend a route of the SU", e);
+                }
+            }
+        }
+
+        final long begin = System.nanoTime();
+        final long deadline = begin + TimeUnit.MILLISECONDS.toNanos(this.drainTimeout);
+        for (final PetalsCamelRoute route : this.routes.values()) {
+            if (route instanceof PetalsCamelConsumer) {
+                final PetalsCamelConsumer consumer = (PetalsCamelConsumer) route;
+                try {
+                    final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (!consumer.drain(Math.max(0, remaining))) {
+                        getLogger().warning(consumer.getInFlight() + " exchanges are still in flight for "
+                                + consumer.getEndpoint().getServiceId() + " after " + this.drainTimeout + "ms");
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    getLogger().log(Level.WARNING, "Interrupted while waiting for the exchanges in flight", e);
+                    return;
+                }
+                this.metrics.getServiceMetrics(consumer.getEndpoint().getServiceId())
+                        .drained(System.nanoTime() - begin);
+            }
+        }
+    }
+
     /**
      * Execute actions to do on undeployment of the route definitions. Only for Camel routes based on
      * {@link PetalsRouteBuilder}
      */
     public void undeploy() {
-        for (final RouteBuilder routeBuilder : this.classRoutes) {
-            assert routeBuilder != null;
-            if (routeBuilder instanceof PetalsRouteBuilder) {
-                try {
-                    ((PetalsRouteBuilder) routeBuilder).undeploy();
-                } catch (final Exception e) {
-                    getLogger().log(Level.SEVERE, "Can't undeploy the Route definitions of the SU", e);
+        if (this.routesDeployed) {
+            for (final RouteBuilder routeBuilder : this.classRoutes) {
+                assert routeBuilder != null;
+                if (routeBuilder instanceof PetalsRouteBuilder) {
+                    try {
+                        ((PetalsRouteBuilder) routeBuilder).undeploy();
+                    } catch (final Exception e) {
+                        getLogger().log(Level.SEVERE, "Can't undeploy the Route definitions of the SU", e);
+                    }
                 }
             }
         }
@@ -244,6 +492,16 @@ public class CamelSU implements PetalsCamelContext {
             getLogger().log(Level.SEVERE, "Can't stop the Camel context of the SU", e);
         }
 
+        final AttachmentSpool spool = this.attachmentSpool;
+        if (spool != null) {
+            spool.close();
+        }
+
+        this.journal.close();
+
+        // the JAXB contexts of the classes of the SU must not keep its classloader
+        JAXBContexts.invalidate(this.classLoader);
+
         try {
             this.classLoader.close();
         } catch (final IOException e) {
@@ -279,13 +537,21 @@ public class CamelSU implements PetalsCamelContext {
     @Override
     public void registerRoute(final ServiceEndpointOperation service, final PetalsCamelRoute route) {
         this.manager.registerRoute(service, route);
+        this.routes.put(service, route);
     }
 
     @Override
     public void unregisterRoute(final ServiceEndpointOperation seo) {
+        this.routes.remove(seo);
         this.manager.unregisterRoute(seo);
     }
 
+    @Override
+    public @Nullable PetalsCamelRoute getLocalRoute(final QName service, final String endpoint,
+            final QName operation) {
+        return this.manager.getLocalRoute(service, endpoint, operation);
+    }
+
     @Override
     public PetalsConsumesChannel getConsumesChannel(final ServiceEndpointOperation seo) {
         assert seo instanceof PetalsConsumesChannel : "This can't happen";
@@ -300,6 +566,19 @@ public class CamelSU implements PetalsCamelContext {
         return (PetalsProvidesChannel) seo;
     }
     
+    /**
+     * @return the services of this SU, provided and consumed
+     */
+    public ImmutableCollection<ServiceEndpointOperation> getServices() {
+        final ImmutableCollection<ServiceEndpointOperation> services = this.sid2seo.values();
+        assert services != null;
+        return services;
+    }
+
+    public PetalsCamelSender getSender() {
+        return this.sender;
+    }
+
     @Override
     public CamelContext getCamelContext() {
         return this.context;
@@ -314,4 +593,14 @@ public class CamelSU implements PetalsCamelContext {
     public MonitTraceLogger getMonitTraceLogger() {
         return this.monitTraceLogger;
     }
+
+    @Override
+    public PetalsCamelMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public ExchangeJournal getJournal() {
+        return this.journal;
+    }
 }
@@ -17,18 +17,31 @@
  */
 package org.ow2.petals.se.camel;
 
+import java.io.File;
 import java.net.URLClassLoader;
 import java.util.List;
 import java.util.Map;
 import java.util.MissingResourceException;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.jbi.JBIException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.xml.namespace.QName;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
 import org.ow2.petals.camel.PetalsCamelRoute;
 import org.ow2.petals.camel.ServiceEndpointOperation;
+import org.ow2.petals.camel.component.BodyMode;
+import org.ow2.petals.camel.component.utils.AttachmentSpool;
+import org.ow2.petals.camel.metrics.ExchangeJournal;
 import org.ow2.petals.component.framework.api.exception.PEtALSCDKException;
 import org.ow2.petals.component.framework.api.message.Exchange;
 import org.ow2.petals.component.framework.jbidescriptor.generated.Services;
@@ -38,12 +51,16 @@ import org.ow2.petals.component.framework.util.ClassLoaderUtil;
 import org.ow2.petals.component.framework.util.ServiceEndpointOperationKey;
 import org.ow2.petals.se.camel.exceptions.NotImplementedRouteException;
 import org.ow2.petals.se.camel.exceptions.PetalsCamelSEException;
+import org.ow2.petals.se.camel.impl.ServiceEndpointOperationProvides;
+import org.ow2.petals.se.camel.monitoring.CamelSUMonitoring;
 import org.ow2.petals.se.camel.utils.PetalsCamelJBIHelper;
+import org.ow2.petals.se.camel.utils.ServiceEndpointOperationIndex;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * 
@@ -68,10 +85,30 @@ public class CamelSUManager extends ServiceEngineServiceUnitManager {
     /**
      * Mapping from service endpoint operations to the route that implements them
      * 
-     * Needed to know where to send an arriving exchange (coming from the JBIListener)
+     * Needed to know where to send an arriving exchange (coming from the JBIListener), it is looked up for every
+     * exchange without allocating anything
+     */
+    private final ServiceEndpointOperationIndex<PetalsCamelRoute> eo2routes = new ServiceEndpointOperationIndex<>();
+
+    /**
+     * Mapping from the provided service endpoint operations of the lazy SUs to them, so that they are activated by
+     * the exchanges they receive
+     */
+    private final ServiceEndpointOperationIndex<CamelSU> eo2lazySUs = new ServiceEndpointOperationIndex<>();
+
+    /**
+     * The passivation task of each lazy SU that has one
+     * 
+     * Used only by deploy and undeploy that are synchronized
      */
     @SuppressWarnings("null")
-    private final ConcurrentMap<ServiceEndpointOperationKey, PetalsCamelRoute> eo2routes = Maps.newConcurrentMap();
+    private final Map<String, ScheduledFuture<?>> su2passivation = Maps.newHashMap();
+
+    /**
+     * Runs the passivation tasks, created with the first one
+     */
+    @Nullable
+    private ScheduledExecutorService passivator;
 
     public CamelSUManager(final CamelSE component) {
         super(component);
@@ -81,14 +118,75 @@ public class CamelSUManager extends ServiceEngineServiceUnitManager {
     @Override
     protected void doDeploy(final ServiceUnitDataHandler suDH) throws PetalsCamelSEException {
         assert suDH != null;
+        final Services services = suDH.getDescriptor().getServices();
+        assert services != null;
+        final long idleTimeout = PetalsCamelJBIHelper.getPassivationIdleTimeout(services);
+
         final CamelSU camelSU = createCamelSU(suDH);
 
         // No need to check if it isn't here: the CDK did that for us.
         su2camel.put(suDH.getName(), camelSU);
 
+        if (camelSU.isLazyActivation()) {
+            registerLazySU(suDH.getName(), camelSU, idleTimeout);
+        }
+
+        registerMonitoring(suDH.getName(), camelSU);
+
+        invalidateEndpointResolutions();
+
         // TODO checks that there is at least one route per operation
     }
 
+    /**
+     * The endpoints of the SU are activated by the CDK, but its routes are only registered once its context is
+     * started: until then, the exchanges received for its provides are used to activate it.
+     */
+    private void registerLazySU(final String suName, final CamelSU camelSU, final long idleTimeout) {
+        for (final ServiceEndpointOperation seo : camelSU.getServices()) {
+            if (seo instanceof ServiceEndpointOperationProvides) {
+                this.eo2lazySUs.put(seo.getService(), seo.getEndpoint(), seo.getOperation(), camelSU);
+            }
+        }
+
+        if (idleTimeout > 0) {
+            ScheduledExecutorService passivator = this.passivator;
+            if (passivator == null) {
+                passivator = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("petals-se-camel-passivator").build());
+                assert passivator != null;
+                this.passivator = passivator;
+            }
+            final ScheduledFuture<?> passivation = passivator.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    camelSU.passivateIfIdle(idleTimeout);
+                }
+            }, idleTimeout, idleTimeout, TimeUnit.MILLISECONDS);
+            assert passivation != null;
+            this.su2passivation.put(suName, passivation);
+        }
+    }
+
+    private void unregisterLazySU(final String suName, final CamelSU camelSU) {
+        final ScheduledFuture<?> passivation = this.su2passivation.remove(suName);
+        if (passivation != null) {
+            passivation.cancel(false);
+        }
+
+        final ScheduledExecutorService passivator = this.passivator;
+        if (passivator != null && this.su2passivation.isEmpty()) {
+            this.passivator = null;
+            passivator.shutdown();
+        }
+
+        for (final ServiceEndpointOperation seo : camelSU.getServices()) {
+            if (seo instanceof ServiceEndpointOperationProvides) {
+                this.eo2lazySUs.remove(seo.getService(), seo.getEndpoint(), seo.getOperation(), camelSU);
+            }
+        }
+    }
+
     private CamelSU createCamelSU(final ServiceUnitDataHandler suDH) throws PetalsCamelSEException {
         assert suDH != null;
         final String serviceUnitName = suDH.getName();
@@ -101,8 +199,10 @@ public class CamelSUManager extends ServiceEngineServiceUnitManager {
             throw new PetalsCamelSEException("Error when getting logger for SU " + serviceUnitName, e);
         }
 
+        final PetalsCamelSender sender = new PetalsCamelSender(getComponent(), suLogger);
+
         final Map<String, ServiceEndpointOperation> sid2seo = PetalsCamelJBIHelper
-                .extractServicesIdAndEndpointOperations(suDH, new PetalsCamelSender(getComponent(), suLogger));
+                .extractServicesIdAndEndpointOperations(suDH, sender);
 
         final List<String> classNames = Lists.newArrayList();
         final List<String> xmlNames = Lists.newArrayList();
@@ -110,13 +210,32 @@ public class CamelSUManager extends ServiceEngineServiceUnitManager {
         final Services services = suDH.getDescriptor().getServices();
         assert services != null;
         PetalsCamelJBIHelper.populateRouteLists(services, classNames, xmlNames);
+        final BodyMode bodyMode = PetalsCamelJBIHelper.getBodyMode(services);
+
+        final long spoolThreshold = PetalsCamelJBIHelper.getAttachmentSpoolThreshold(services);
+        final AttachmentSpool spool;
+        if (spoolThreshold > 0) {
+            spool = new AttachmentSpool(
+                    new File(new File(getComponent().getContext().getWorkspaceRoot(), "spool"), serviceUnitName),
+                    spoolThreshold, suLogger);
+        } else {
+            spool = null;
+        }
+
+        final boolean lazyActivation = PetalsCamelJBIHelper.isLazyActivation(services);
 
         final URLClassLoader classLoader = ClassLoaderUtil.createClassLoader(suDH.getInstallRoot(), getClass()
                 .getClassLoader());
         assert classLoader != null;
 
-        return new CamelSU(ImmutableMap.copyOf(sid2seo), ImmutableList.copyOf(classNames),
-                ImmutableList.copyOf(xmlNames), classLoader, suLogger, this, this.getComponent());
+        final ExchangeJournal journal = this.getComponent().createJournal(suLogger);
+        final CamelSU camelSU = new CamelSU(ImmutableMap.copyOf(sid2seo), ImmutableList.copyOf(classNames),
+                ImmutableList.copyOf(xmlNames), bodyMode, spool, classLoader, suLogger, sender, this,
+                this.getComponent().getRoutesMonitTraceLogger(), journal, this.getComponent().getDrainTimeout(),
+                lazyActivation, this.getComponent().getSharedInfrastructure());
+        // only once the SU exists, so that nothing drains the journal of a SU that failed to deploy
+        this.getComponent().registerJournal(journal);
+        return camelSU;
     }
 
     @NonNullByDefault(false)
@@ -125,8 +244,14 @@ public class CamelSUManager extends ServiceEngineServiceUnitManager {
         final CamelSU camelSU = this.su2camel.remove(suDH.getName());
         // could happen if deployed failed before
         if (camelSU != null) {
+            unregisterMonitoring(suDH.getName());
+            if (camelSU.isLazyActivation()) {
+                unregisterLazySU(suDH.getName(), camelSU);
+            }
             camelSU.undeploy();
         }
+
+        invalidateEndpointResolutions();
     }
 
     @NonNullByDefault(false)
@@ -148,49 +273,126 @@ public class CamelSUManager extends ServiceEngineServiceUnitManager {
     @NonNullByDefault(false)
     @Override
     protected void doStart(final ServiceUnitDataHandler suDH) throws PEtALSCDKException {
+        // the routes suspended by a previous stop are resumed
         this.su2camel.get(suDH.getName()).start();
-        // TODO handle resume/suspend
+
+        // the endpoints of the SU have been activated
+        invalidateEndpointResolutions();
     }
 
     @NonNullByDefault(false)
     @Override
     protected void doStop(final ServiceUnitDataHandler suDH) throws PEtALSCDKException {
-        // TODO handle resume/suspend
+        // the routes are suspended once their exchanges in flight are answered
         this.su2camel.get(suDH.getName()).stop();
+
+        // and the MONIT traces of these exchanges are written
+        this.getComponent().flushMonitTraces(this.getComponent().getDrainTimeout());
+
+        // the endpoints of the SU are going to be deactivated
+        invalidateEndpointResolutions();
     }
 
-    public void registerRoute(final ServiceEndpointOperation service, final PetalsCamelRoute route) {
+    /**
+     * The monitoring is not essential to the SU, so failing to register it only produces a warning
+     */
+    private void registerMonitoring(final String suName, final CamelSU camelSU) {
+        final MBeanServer server = getComponent().getContext().getMBeanServer();
+        if (server == null) {
+            return;
+        }
+        try {
+            server.registerMBean(
+                    new CamelSUMonitoring(camelSU.getMetrics(), camelSU.getSender().getEndpointResolutionCache(),
+                            camelSU.getServices()),
+                    getMonitoringName(suName));
+        } catch (final JMException e) {
+            getComponent().getLogger().log(Level.WARNING, "Can't register the monitoring MBean of SU " + suName, e);
+        }
+    }
+
+    private void unregisterMonitoring(final String suName) {
+        final MBeanServer server = getComponent().getContext().getMBeanServer();
+        if (server == null) {
+            return;
+        }
+        try {
+            final ObjectName name = getMonitoringName(suName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (final JMException e) {
+            getComponent().getLogger().log(Level.WARNING, "Can't unregister the monitoring MBean of SU " + suName, e);
+        }
+    }
+
+    private ObjectName getMonitoringName(final String suName) {
+        return getComponent().getContext().getMBeanNames().createCustomComponentMBeanName("CamelSU-" + suName);
+    }
 
-        final ServiceEndpointOperationKey key = buildEOK(service);
+    /**
+     * Endpoints of a SU can be resolved by the other SUs, so all the caches are invalidated
+     */
+    private void invalidateEndpointResolutions() {
+        for (final CamelSU camelSU : this.su2camel.values()) {
+            camelSU.getSender().getEndpointResolutionCache().invalidate();
+        }
+    }
 
-        final PetalsCamelRoute put = this.eo2routes.put(key, route);
+    public void registerRoute(final ServiceEndpointOperation service, final PetalsCamelRoute route) {
+
+        final PetalsCamelRoute put = this.eo2routes.put(service.getService(), service.getEndpoint(),
+                service.getOperation(), route);
 
         assert put == null;
     }
 
     public void unregisterRoute(final ServiceEndpointOperation service) {
 
-        final ServiceEndpointOperationKey key = buildEOK(service);
-
-        final PetalsCamelRoute removed = this.eo2routes.remove(key);
+        final PetalsCamelRoute removed = this.eo2routes.remove(service.getService(), service.getEndpoint(),
+                service.getOperation());
 
         assert removed != null;
     }
 
     public PetalsCamelRoute getRoute(final Exchange exchange) throws NotImplementedRouteException {
-        final ServiceEndpointOperationKey eo = new ServiceEndpointOperationKey(exchange);
+        final QName service = exchange.getService();
+        final String endpoint = exchange.getEndpointName();
+        final QName operation = exchange.getOperation();
+
+        activateLazySU(service, endpoint, operation);
 
-        final PetalsCamelRoute ppo = this.eo2routes.get(eo);
+        final PetalsCamelRoute ppo = this.eo2routes.get(service, endpoint, operation);
 
         if (ppo == null) {
-            throw new NotImplementedRouteException(eo);
+            throw new NotImplementedRouteException(new ServiceEndpointOperationKey(exchange));
         }
 
         return ppo;
     }
 
-    private ServiceEndpointOperationKey buildEOK(final ServiceEndpointOperation seo) {
-        return new ServiceEndpointOperationKey(seo.getService(), seo.getEndpoint(), seo.getOperation());
+    /**
+     * Used by producers to dispatch exchanges to a route of this container without going through the NMR
+     */
+    public @Nullable PetalsCamelRoute getLocalRoute(final QName service, final String endpoint,
+            final QName operation) {
+        activateLazySU(service, endpoint, operation);
+        return this.eo2routes.get(service, endpoint, operation);
+    }
+
+    /**
+     * If the service endpoint operation is provided by a lazy SU, its context is started if it was not (and its routes
+     * registered)
+     */
+    private void activateLazySU(final @Nullable QName service, final @Nullable String endpoint,
+            final @Nullable QName operation) {
+        if (this.eo2lazySUs.size() == 0) {
+            return;
+        }
+        final CamelSU lazySU = this.eo2lazySUs.get(service, endpoint, operation);
+        if (lazySU != null) {
+            lazySU.ensureActive();
+        }
     }
 
     @SuppressWarnings("null")
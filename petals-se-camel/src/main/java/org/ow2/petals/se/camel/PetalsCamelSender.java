@@ -19,7 +19,12 @@ package org.ow2.petals.se.camel;
 
 import java.util.logging.Logger;
 
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.xml.namespace.QName;
+
+import org.eclipse.jdt.annotation.Nullable;
 import org.ow2.petals.component.framework.listener.AbstractListener;
+import org.ow2.petals.se.camel.utils.EndpointResolutionCache;
 
 /**
  * This is needed to send messages.
@@ -33,11 +38,58 @@ public class PetalsCamelSender extends AbstractListener {
 
     private final Logger suLogger;
 
+    private final EndpointResolutionCache endpointResolutionCache;
+
     public PetalsCamelSender(final CamelSE component, final Logger suLogger) {
         this.suLogger = suLogger;
+        this.endpointResolutionCache = new EndpointResolutionCache(new EndpointResolutionCache.Resolver() {
+            @Override
+            public @Nullable ServiceEndpoint resolve(final QName serviceName, final String endpointName) {
+                return component.getContext().getEndpoint(serviceName, endpointName);
+            }
+
+            @Override
+            public ServiceEndpoint[] resolveService(final QName serviceName) {
+                return orEmpty(component.getContext().getEndpointsForService(serviceName));
+            }
+
+            @Override
+            public ServiceEndpoint[] resolveInterface(final QName interfaceName) {
+                return orEmpty(component.getContext().getEndpoints(interfaceName));
+            }
+        }, component.getEndpointResolutionCacheTTL(), component.getEndpointResolutionCacheNegativeTTL());
         init(component);
     }
 
+    /**
+     * Resolutions are cached, see {@link EndpointResolutionCache}
+     */
+    public @Nullable ServiceEndpoint resolveEndpoint(final QName serviceName, final String endpointName) {
+        return this.endpointResolutionCache.resolve(serviceName, endpointName);
+    }
+
+    /**
+     * Resolutions are cached, see {@link EndpointResolutionCache}
+     * 
+     * @param interfaceName
+     *            used if there is no service name
+     */
+    public ServiceEndpoint[] resolveEndpoints(final QName interfaceName, final @Nullable QName serviceName) {
+        if (serviceName != null) {
+            return this.endpointResolutionCache.resolveService(serviceName);
+        } else {
+            return this.endpointResolutionCache.resolveInterface(interfaceName);
+        }
+    }
+
+    private static ServiceEndpoint[] orEmpty(final @Nullable ServiceEndpoint[] endpoints) {
+        return endpoints == null ? new ServiceEndpoint[0] : endpoints;
+    }
+
+    public EndpointResolutionCache getEndpointResolutionCache() {
+        return this.endpointResolutionCache;
+    }
+
     @Override
     public Logger getLogger() {
         return suLogger;
@@ -28,6 +28,7 @@ import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
 import org.ow2.petals.camel.PetalsChannel.PetalsConsumesChannel;
+import org.ow2.petals.camel.component.CircuitBreaker;
 import org.ow2.petals.component.framework.api.message.Exchange;
 import org.ow2.petals.component.framework.jbidescriptor.generated.Consumes;
 import org.ow2.petals.component.framework.util.ServiceUnitUtil;
@@ -36,13 +37,28 @@ import org.ow2.petals.se.camel.exceptions.InvalidJBIConfigurationException;
 
 public class ServiceEndpointOperationConsumes extends AbstractServiceEndpointOperation implements PetalsConsumesChannel {
 
+    /**
+     * The timeout of the CDK when the consumes does not set one
+     */
+    public static final long DEFAULT_TIMEOUT = 30000L;
+
     private final Consumes consumes;
 
-    public ServiceEndpointOperationConsumes(final PetalsCamelSender sender, final Consumes consumes)
-            throws InvalidJBIConfigurationException {
+    private final long responseCacheTTL;
+
+    private final long responseCacheMaxSize;
+
+    private final @Nullable CircuitBreaker circuitBreaker;
+
+    public ServiceEndpointOperationConsumes(final PetalsCamelSender sender, final Consumes consumes,
+            final long responseCacheTTL, final long responseCacheMaxSize,
+            final @Nullable CircuitBreaker circuitBreaker) throws InvalidJBIConfigurationException {
         super(consumes.getInterfaceName(), consumes.getServiceName(), consumes.getEndpointName(),
                 consumes.getOperation(), toMEP(consumes), sender);
         this.consumes = consumes;
+        this.responseCacheTTL = responseCacheTTL;
+        this.responseCacheMaxSize = responseCacheMaxSize;
+        this.circuitBreaker = circuitBreaker;
     }
 
     @Override
@@ -58,9 +74,69 @@ public class ServiceEndpointOperationConsumes extends AbstractServiceEndpointOpe
         return exchange;
     }
 
+    /**
+     * A send that fails may come from a cached endpoint that was deactivated since it was resolved
+     */
+    @Override
+    public boolean sendSync(final Exchange exchange, final long timeout) throws MessagingException {
+        try {
+            return super.sendSync(exchange, timeout);
+        } catch (final MessagingException e) {
+            invalidateEndpoint(exchange);
+            throw e;
+        }
+    }
+
+    @Override
+    public void sendAsync(final Exchange exchange, final long timeout, final SendAsyncCallback callback)
+            throws MessagingException {
+        try {
+            super.sendAsync(exchange, timeout, callback);
+        } catch (final MessagingException e) {
+            invalidateEndpoint(exchange);
+            throw e;
+        }
+    }
+
+    /**
+     * Only the entries of the endpoint the exchange was sent to are forgotten, the others are still valid
+     */
+    private void invalidateEndpoint(final Exchange exchange) {
+        final ServiceEndpoint endpoint = exchange.getEndpoint();
+        if (endpoint != null) {
+            sender.getEndpointResolutionCache().invalidate(endpoint);
+        }
+    }
+
     @Override
     public @Nullable ServiceEndpoint resolveEndpoint(final QName serviceName, final String endpointName) {
-        return sender.getComponent().getContext().getEndpoint(serviceName, endpointName);
+        return sender.resolveEndpoint(serviceName, endpointName);
+    }
+
+    @Override
+    public ServiceEndpoint[] getEndpoints(final QName interfaceName, final @Nullable QName serviceName) {
+        return sender.resolveEndpoints(interfaceName, serviceName);
+    }
+
+    @Override
+    public long getTimeout() {
+        final Long timeout = consumes.getTimeout();
+        return timeout == null ? DEFAULT_TIMEOUT : timeout;
+    }
+
+    @Override
+    public long getResponseCacheTTL() {
+        return responseCacheTTL;
+    }
+
+    @Override
+    public long getResponseCacheMaxSize() {
+        return responseCacheMaxSize;
+    }
+
+    @Override
+    public @Nullable CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
     }
 
     private static @Nullable URI toMEP(final Consumes c) throws InvalidJBIConfigurationException {
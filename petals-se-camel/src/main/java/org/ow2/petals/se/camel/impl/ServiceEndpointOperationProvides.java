@@ -31,11 +31,14 @@ public class ServiceEndpointOperationProvides extends AbstractServiceEndpointOpe
 
     private final Provides provides;
 
+    private final long timeout;
+
     public ServiceEndpointOperationProvides(final QName operation, final URI mep, final PetalsCamelSender sender,
-            final Provides provides) {
+            final Provides provides, final long timeout) {
         super(provides.getInterfaceName(), provides.getServiceName(), provides.getEndpointName(), operation, mep,
                 sender);
         this.provides = provides;
+        this.timeout = timeout;
     }
 
     @Override
@@ -76,4 +79,9 @@ public class ServiceEndpointOperationProvides extends AbstractServiceEndpointOpe
         return this.sender.getComponent().isFlowTracingActivated(exchange.getMessageExchange(), this.provides);
     }
 
+    @Override
+    public long getTimeout() {
+        return this.timeout;
+    }
+
 }
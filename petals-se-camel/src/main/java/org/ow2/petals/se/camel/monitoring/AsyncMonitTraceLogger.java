@@ -0,0 +1,328 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel.monitoring;
+
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jbi.messaging.MessageExchange;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.ow2.petals.component.framework.api.monitoring.MonitTraceLogger;
+import org.ow2.petals.component.framework.jbidescriptor.generated.Consumes;
+import org.ow2.petals.component.framework.jbidescriptor.generated.Provides;
+import org.ow2.petals.component.framework.logger.AbstractFlowLogData;
+
+/**
+ * Writes the MONIT traces of the routes with another {@link MonitTraceLogger} on a background thread, so that their
+ * formatting and writing is not done by the threads processing the exchanges.
+ * 
+ * The traces are put in a bounded queue (many producers, one consumer, without locking) and written by batches in the
+ * order they were queued. When the queue is full, the {@link OverflowPolicy} decides what is done with a trace.
+ * 
+ * The time of a trace is the time it is written, which is usually less than a millisecond after it is queued.
+ */
+public class AsyncMonitTraceLogger implements MonitTraceLogger, AutoCloseable {
+
+    public enum OverflowPolicy {
+        /**
+         * The trace is written by the thread that queued it, so it is not lost, but can be written before traces
+         * still in the queue
+         */
+        CALLER_RUNS,
+        /**
+         * The thread waits for some room in the queue
+         */
+        BLOCK,
+        /**
+         * The trace is dropped (and counted)
+         */
+        DROP;
+
+        public static OverflowPolicy parse(final String value) {
+            final OverflowPolicy policy = valueOf(value.trim().toUpperCase(Locale.ROOT));
+            assert policy != null;
+            return policy;
+        }
+    }
+
+    public static final int DEFAULT_QUEUE_SIZE = 8192;
+
+    /**
+     * Maximum number of traces written before looking for the traces to flush
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Maximum time in nanoseconds the writer waits before looking for traces again, in case a notification is missed
+     */
+    private static final long MAX_PARK = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Time in nanoseconds a thread waits for some room in the queue with {@link OverflowPolicy#BLOCK}
+     */
+    private static final long BLOCK_PARK = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private abstract static class Trace {
+
+        abstract void writeTo(MonitTraceLogger target);
+    }
+
+    private final MonitTraceLogger delegate;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final Logger logger;
+
+    private final AtomicReferenceArray<Trace> queue;
+
+    private final int mask;
+
+    /**
+     * The sequence of the next trace to queue
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The sequence of the next trace to take from the queue, only written by the writer
+     */
+    private volatile long tail;
+
+    /**
+     * The number of traces written, only written by the writer
+     */
+    private volatile long written;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final Object flushLock = new Object();
+
+    private final Thread writer;
+
+    private volatile boolean writerParked;
+
+    private volatile boolean closed;
+
+    /**
+     * @param delegate
+     *            writes the traces
+     * @param queueSize
+     *            the number of traces the queue can hold, rounded up to a power of two
+     * @param logger
+     *            where the problems of the writer are logged
+     */
+    public AsyncMonitTraceLogger(final MonitTraceLogger delegate, final int queueSize,
+            final OverflowPolicy overflowPolicy, final Logger logger) {
+        this.delegate = delegate;
+        this.overflowPolicy = overflowPolicy;
+        this.logger = logger;
+        final int length = Integer.highestOneBit(Math.max(2, queueSize) * 2 - 1);
+        this.queue = new AtomicReferenceArray<>(length);
+        this.mask = length - 1;
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "petals-se-camel-monit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public void logMonitTrace(final Optional<Boolean> externalFlowTracingActivation, final Consumes consumes,
+            final AbstractFlowLogData monitTrace) {
+        queue(new Trace() {
+            @Override
+            void writeTo(final MonitTraceLogger target) {
+                target.logMonitTrace(externalFlowTracingActivation, consumes, monitTrace);
+            }
+        });
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public void logMonitTrace(final Optional<Boolean> externalFlowTracingActivation,
+            final AbstractFlowLogData monitTrace) {
+        queue(new Trace() {
+            @Override
+            void writeTo(final MonitTraceLogger target) {
+                target.logMonitTrace(externalFlowTracingActivation, monitTrace);
+            }
+        });
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public void logMonitTrace(final Optional<Boolean> externalFlowTracingActivation, final MessageExchange exchange,
+            final AbstractFlowLogData monitTrace) {
+        queue(new Trace() {
+            @Override
+            void writeTo(final MonitTraceLogger target) {
+                target.logMonitTrace(externalFlowTracingActivation, exchange, monitTrace);
+            }
+        });
+    }
+
+    @NonNullByDefault(false)
+    @Override
+    public void logMonitTrace(final MessageExchange exchange, final Provides provides,
+            final AbstractFlowLogData monitTrace) {
+        queue(new Trace() {
+            @Override
+            void writeTo(final MonitTraceLogger target) {
+                target.logMonitTrace(exchange, provides, monitTrace);
+            }
+        });
+    }
+
+    private void queue(final Trace trace) {
+        if (this.closed) {
+            writeTo(trace);
+            return;
+        }
+
+        long seq;
+        while (true) {
+            seq = this.head.get();
+            if (seq - this.tail > this.mask) {
+                switch (this.overflowPolicy) {
+                    case DROP:
+                        this.dropped.increment();
+                        return;
+                    case BLOCK:
+                        LockSupport.unpark(this.writer);
+                        LockSupport.parkNanos(this, BLOCK_PARK);
+                        continue;
+                    case CALLER_RUNS:
+                    default:
+                        writeTo(trace);
+                        return;
+                }
+            }
+            if (this.head.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+
+        // written before reading writerParked, see write()
+        this.queue.set((int) seq & this.mask, trace);
+        if (this.writerParked) {
+            LockSupport.unpark(this.writer);
+        }
+    }
+
+    private void write() {
+        while (true) {
+            if (writeBatch() == 0) {
+                if (this.closed && this.head.get() == this.tail) {
+                    return;
+                }
+                this.writerParked = true;
+                // a trace queued before writerParked was set is seen here
+                if (this.queue.get((int) this.tail & this.mask) == null) {
+                    LockSupport.parkNanos(this, MAX_PARK);
+                }
+                this.writerParked = false;
+            }
+        }
+    }
+
+    private int writeBatch() {
+        long t = this.tail;
+        int count = 0;
+        while (count < BATCH_SIZE) {
+            final int slot = (int) t & this.mask;
+            final Trace trace = this.queue.get(slot);
+            if (trace == null) {
+                // empty, or the next trace is not queued yet
+                break;
+            }
+            this.queue.set(slot, null);
+            // the slot can be used again
+            this.tail = ++t;
+            writeTo(trace);
+            count++;
+        }
+        if (count > 0) {
+            synchronized (this.flushLock) {
+                this.written += count;
+                this.flushLock.notifyAll();
+            }
+        }
+        return count;
+    }
+
+    private void writeTo(final Trace trace) {
+        try {
+            trace.writeTo(this.delegate);
+        } catch (final RuntimeException e) {
+            this.logger.log(Level.WARNING, "Can't write a MONIT trace", e);
+        }
+    }
+
+    /**
+     * Waits for the traces queued before the call to be written
+     * 
+     * @param timeout
+     *            in milliseconds
+     * @return <code>false</code> if they were not all written before the timeout
+     */
+    public boolean flush(final long timeout) throws InterruptedException {
+        final long target = this.head.get();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        LockSupport.unpark(this.writer);
+        synchronized (this.flushLock) {
+            while (this.written < target) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !this.writer.isAlive()) {
+                    return false;
+                }
+                this.flushLock.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of traces dropped because the queue was full (with {@link OverflowPolicy#DROP})
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Writes the queued traces and stops the writer, the traces logged afterwards are written synchronously
+     */
+    @Override
+    public void close() throws InterruptedException {
+        this.closed = true;
+        LockSupport.unpark(this.writer);
+        this.writer.join();
+        // a trace queued while the writer was stopping
+        writeBatch();
+    }
+}
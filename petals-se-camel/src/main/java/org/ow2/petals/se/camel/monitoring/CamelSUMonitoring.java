@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel.monitoring;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.ow2.petals.camel.PetalsChannel.PetalsConsumesChannel;
+import org.ow2.petals.camel.ServiceEndpointOperation;
+import org.ow2.petals.camel.component.CircuitBreaker;
+import org.ow2.petals.camel.metrics.EndpointMetrics;
+import org.ow2.petals.camel.metrics.PetalsCamelMetrics;
+import org.ow2.petals.camel.metrics.ServiceMetrics;
+import org.ow2.petals.se.camel.utils.EndpointResolutionCache;
+
+import com.google.common.collect.Lists;
+
+public class CamelSUMonitoring implements CamelSUMonitoringMXBean {
+
+    private final PetalsCamelMetrics metrics;
+
+    private final EndpointResolutionCache endpointResolutionCache;
+
+    private final Collection<ServiceEndpointOperation> services;
+
+    public CamelSUMonitoring(final PetalsCamelMetrics metrics,
+            final EndpointResolutionCache endpointResolutionCache,
+            final Collection<ServiceEndpointOperation> services) {
+        this.metrics = metrics;
+        this.endpointResolutionCache = endpointResolutionCache;
+        this.services = services;
+    }
+
+    @Override
+    public List<ServiceStatistics> getServiceStatistics() {
+        final List<ServiceStatistics> statistics = Lists.newArrayList();
+        for (final ServiceMetrics serviceMetrics : this.metrics.getServiceMetrics()) {
+            assert serviceMetrics != null;
+            statistics.add(new ServiceStatistics(serviceMetrics));
+        }
+        assert statistics != null;
+        return statistics;
+    }
+
+    @Override
+    public List<CircuitBreakerStatistics> getCircuitBreakers() {
+        final List<CircuitBreakerStatistics> statistics = Lists.newArrayList();
+        for (final ServiceEndpointOperation service : this.services) {
+            if (service instanceof PetalsConsumesChannel) {
+                final CircuitBreaker circuitBreaker = ((PetalsConsumesChannel) service).getCircuitBreaker();
+                if (circuitBreaker != null) {
+                    statistics.add(new CircuitBreakerStatistics(circuitBreaker));
+                }
+            }
+        }
+        assert statistics != null;
+        return statistics;
+    }
+
+    @Override
+    public List<EndpointStatistics> getEndpointStatistics() {
+        final List<EndpointStatistics> statistics = Lists.newArrayList();
+        for (final ServiceMetrics serviceMetrics : this.metrics.getServiceMetrics()) {
+            assert serviceMetrics != null;
+            for (final EndpointMetrics endpointMetrics : serviceMetrics.getEndpointMetrics()) {
+                assert endpointMetrics != null;
+                statistics.add(new EndpointStatistics(serviceMetrics.getServiceId(), endpointMetrics));
+            }
+        }
+        assert statistics != null;
+        return statistics;
+    }
+
+    @Override
+    public long getEndpointResolutionCacheHits() {
+        return this.endpointResolutionCache.getHits();
+    }
+
+    @Override
+    public long getEndpointResolutionCacheMisses() {
+        return this.endpointResolutionCache.getMisses();
+    }
+
+    @Override
+    public long getActivations() {
+        return this.metrics.getActivations();
+    }
+
+    @Override
+    public long getPassivations() {
+        return this.metrics.getPassivations();
+    }
+
+    @Override
+    public long getLastActivationTime() {
+        return this.metrics.getLastActivationTime();
+    }
+}
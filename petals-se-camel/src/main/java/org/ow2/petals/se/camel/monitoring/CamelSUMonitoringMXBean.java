@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel.monitoring;
+
+import java.util.List;
+
+/**
+ * The monitoring of a Camel SU, there is one MBean registered for each deployed SU.
+ */
+public interface CamelSUMonitoringMXBean {
+
+    /**
+     * @return the statistics of each provides and consumes service-id of the SU that has been used
+     */
+    List<ServiceStatistics> getServiceStatistics();
+
+    /**
+     * @return the state of the circuit breaker of each consumes service-id of the SU that has one
+     */
+    List<CircuitBreakerStatistics> getCircuitBreakers();
+
+    /**
+     * @return the statistics of each endpoint chosen by the producers of the consumes service-ids of the SU (with the
+     *         endpointSelection option)
+     */
+    List<EndpointStatistics> getEndpointStatistics();
+
+    /**
+     * @return the number of endpoint resolutions served by the cache of the SU
+     */
+    long getEndpointResolutionCacheHits();
+
+    /**
+     * @return the number of endpoint resolutions that went to the container
+     */
+    long getEndpointResolutionCacheMisses();
+
+    /**
+     * @return the number of times the Camel context of the SU was started by an exchange (with lazy activation)
+     */
+    long getActivations();
+
+    /**
+     * @return the number of times the Camel context of the SU was stopped because it was idle
+     */
+    long getPassivations();
+
+    /**
+     * @return the time in milliseconds the first exchange waited for the Camel context of the SU to be started the
+     *         last time it was activated
+     */
+    long getLastActivationTime();
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel.monitoring;
+
+import org.ow2.petals.camel.component.CircuitBreaker;
+
+/**
+ * A snapshot of the {@link CircuitBreaker} of a consumes service-id, exposed as a composite data by the MBean.
+ */
+public class CircuitBreakerStatistics {
+
+    private final String serviceId;
+
+    private final String state;
+
+    private final int failures;
+
+    private final int failureThreshold;
+
+    private final long openings;
+
+    private final long rejected;
+
+    private final long lastTransitionTime;
+
+    public CircuitBreakerStatistics(final CircuitBreaker circuitBreaker) {
+        this.serviceId = circuitBreaker.getName();
+        this.state = circuitBreaker.getState().name();
+        this.failures = circuitBreaker.getFailures();
+        this.failureThreshold = circuitBreaker.getFailureThreshold();
+        this.openings = circuitBreaker.getOpenings();
+        this.rejected = circuitBreaker.getRejected();
+        this.lastTransitionTime = circuitBreaker.getLastTransitionTime();
+    }
+
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    /**
+     * @return CLOSED, OPEN or HALF_OPEN
+     */
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * @return the timeouts and errors in the current window
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getOpenings() {
+        return openings;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return in milliseconds since the epoch
+     */
+    public long getLastTransitionTime() {
+        return lastTransitionTime;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel.monitoring;
+
+import org.ow2.petals.camel.metrics.EndpointMetrics;
+
+/**
+ * A snapshot of the {@link EndpointMetrics} of an endpoint chosen by the producers of a consumes service-id, exposed
+ * as a composite data by the MBean.
+ */
+public class EndpointStatistics {
+
+    private final String serviceId;
+
+    private final String endpointName;
+
+    private final long count;
+
+    private final long errors;
+
+    private final long inFlight;
+
+    private final long latency;
+
+    private final double errorRate;
+
+    public EndpointStatistics(final String serviceId, final EndpointMetrics metrics) {
+        this.serviceId = serviceId;
+        this.endpointName = metrics.getEndpointName();
+        this.count = metrics.getCount();
+        this.errors = metrics.getErrors();
+        this.inFlight = metrics.getInFlight();
+        this.latency = metrics.getLatency();
+        this.errorRate = metrics.getErrorRate();
+    }
+
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    public String getEndpointName() {
+        return endpointName;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the moving average in microseconds
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the moving average of the errors and timeouts, between 0 and 1
+     */
+    public double getErrorRate() {
+        return errorRate;
+    }
+}
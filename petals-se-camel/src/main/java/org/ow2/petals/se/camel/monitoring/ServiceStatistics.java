@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel.monitoring;
+
+import org.ow2.petals.camel.metrics.LatencyHistogram;
+import org.ow2.petals.camel.metrics.ServiceMetrics;
+
+/**
+ * A snapshot of the {@link ServiceMetrics} of a service-id, exposed as a composite data by the MBean.
+ * 
+ * Latencies are in microseconds.
+ */
+public class ServiceStatistics {
+
+    private final String serviceId;
+
+    private final long count;
+
+    private final long errors;
+
+    private final long faults;
+
+    private final long timeouts;
+
+    private final long inFlight;
+
+    private final long localDispatches;
+
+    private final long queued;
+
+    private final long rejected;
+
+    private final long lastDrainTime;
+
+    private final long cacheHits;
+
+    private final long cacheMisses;
+
+    private final double cacheHitRatio;
+
+    private final long cacheEntries;
+
+    private final long cacheSize;
+
+    private final long coalesced;
+
+    private final long hedges;
+
+    private final long hedgesWon;
+
+    private final long expired;
+
+    private final long latencyP50;
+
+    private final long latencyP99;
+
+    private final long latencyP999;
+
+    public ServiceStatistics(final ServiceMetrics metrics) {
+        this.serviceId = metrics.getServiceId();
+        this.count = metrics.getCount();
+        this.errors = metrics.getErrors();
+        this.faults = metrics.getFaults();
+        this.timeouts = metrics.getTimeouts();
+        this.inFlight = metrics.getInFlight();
+        this.localDispatches = metrics.getLocalDispatches();
+        this.queued = metrics.getQueued();
+        this.rejected = metrics.getRejected();
+        this.lastDrainTime = metrics.getLastDrainTime();
+        this.cacheHits = metrics.getCacheHits();
+        this.cacheMisses = metrics.getCacheMisses();
+        final long lookups = this.cacheHits + this.cacheMisses;
+        this.cacheHitRatio = lookups == 0 ? 0 : (double) this.cacheHits / lookups;
+        this.cacheEntries = metrics.getCacheEntries();
+        this.cacheSize = metrics.getCacheSize();
+        this.coalesced = metrics.getCoalesced();
+        this.hedges = metrics.getHedges();
+        this.hedgesWon = metrics.getHedgesWon();
+        this.expired = metrics.getExpired();
+        final LatencyHistogram latencies = metrics.getLatencies();
+        this.latencyP50 = latencies.getValueAtPercentile(50);
+        this.latencyP99 = latencies.getValueAtPercentile(99);
+        this.latencyP999 = latencies.getValueAtPercentile(99.9);
+    }
+
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getFaults() {
+        return faults;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    public long getLocalDispatches() {
+        return localDispatches;
+    }
+
+    public long getQueued() {
+        return queued;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return in milliseconds
+     */
+    public long getLastDrainTime() {
+        return lastDrainTime;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * @return between 0 and 1, 0 if the response cache was never used
+     */
+    public double getCacheHitRatio() {
+        return cacheHitRatio;
+    }
+
+    public long getCacheEntries() {
+        return cacheEntries;
+    }
+
+    /**
+     * @return in bytes
+     */
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    public long getHedges() {
+        return hedges;
+    }
+
+    public long getHedgesWon() {
+        return hedgesWon;
+    }
+
+    public long getExpired() {
+        return expired;
+    }
+
+    public long getLatencyP50() {
+        return latencyP50;
+    }
+
+    public long getLatencyP99() {
+        return latencyP99;
+    }
+
+    public long getLatencyP999() {
+        return latencyP999;
+    }
+}
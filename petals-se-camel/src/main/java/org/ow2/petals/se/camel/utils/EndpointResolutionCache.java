@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.xml.namespace.QName;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Caches the resolution of service endpoints for a SU for a limited time.
+ * 
+ * Failed resolutions (and services or interfaces without endpoint) are cached for a shorter time, so that a provider is
+ * found soon after it is activated. The cache is invalidated when endpoints of this component are activated or
+ * deactivated, and the entries of an endpoint when sending an exchange to it fails, which is how the deactivation of
+ * the endpoints of other components is noticed.
+ * 
+ * Entries are stored by service name then by endpoint name so that a lookup does not allocate anything. The endpoints
+ * activated for a service or an interface are cached the same way.
+ */
+public class EndpointResolutionCache {
+
+    /**
+     * Does the actual resolution of an endpoint
+     */
+    public interface Resolver {
+
+        public @Nullable ServiceEndpoint resolve(QName serviceName, String endpointName);
+
+        public ServiceEndpoint[] resolveService(QName serviceName);
+
+        public ServiceEndpoint[] resolveInterface(QName interfaceName);
+    }
+
+    private final ConcurrentMap<QName, ConcurrentMap<String, Entry>> entries = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<QName, EndpointsEntry> services = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<QName, EndpointsEntry> interfaces = new ConcurrentHashMap<>();
+
+    private final Resolver resolver;
+
+    private final long ttlNanos;
+
+    private final long negativeTtlNanos;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param resolver
+     *            used when there is no valid entry in the cache
+     * @param ttl
+     *            time to live of entries in milliseconds, if less or equal to 0, nothing is cached
+     * @param negativeTtl
+     *            time to live in milliseconds of the failed resolutions, at most <code>ttl</code>, if less or equal to
+     *            0, they are not cached
+     */
+    public EndpointResolutionCache(final Resolver resolver, final long ttl, final long negativeTtl) {
+        this.resolver = resolver;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(Math.min(ttl, negativeTtl));
+    }
+
+    public @Nullable ServiceEndpoint resolve(final QName serviceName, final String endpointName) {
+        if (this.ttlNanos <= 0) {
+            this.misses.increment();
+            return this.resolver.resolve(serviceName, endpointName);
+        }
+
+        final long now = System.nanoTime();
+
+        ConcurrentMap<String, Entry> endpoints = this.entries.get(serviceName);
+        if (endpoints == null) {
+            final ConcurrentMap<String, Entry> newEndpoints = new ConcurrentHashMap<>();
+            endpoints = this.entries.putIfAbsent(serviceName, newEndpoints);
+            if (endpoints == null) {
+                endpoints = newEndpoints;
+            }
+        }
+
+        final Entry entry = endpoints.get(endpointName);
+        if (entry != null && now - entry.expiresAt < 0) {
+            this.hits.increment();
+            return entry.endpoint;
+        }
+
+        this.misses.increment();
+        // concurrent misses may resolve the same endpoint more than once, but it is harmless
+        final ServiceEndpoint endpoint = this.resolver.resolve(serviceName, endpointName);
+        if (endpoint != null) {
+            endpoints.put(endpointName, new Entry(endpoint, now + this.ttlNanos));
+        } else if (this.negativeTtlNanos > 0) {
+            endpoints.put(endpointName, new Entry(null, now + this.negativeTtlNanos));
+        } else if (entry != null) {
+            endpoints.remove(endpointName, entry);
+        }
+        return endpoint;
+    }
+
+    /**
+     * @return the endpoints activated for the service
+     */
+    public ServiceEndpoint[] resolveService(final QName serviceName) {
+        return resolveAll(this.services, serviceName, true);
+    }
+
+    /**
+     * @return the endpoints activated for the interface
+     */
+    public ServiceEndpoint[] resolveInterface(final QName interfaceName) {
+        return resolveAll(this.interfaces, interfaceName, false);
+    }
+
+    private ServiceEndpoint[] resolveAll(final ConcurrentMap<QName, EndpointsEntry> cache, final QName name,
+            final boolean service) {
+        if (this.ttlNanos > 0) {
+            final EndpointsEntry entry = cache.get(name);
+            if (entry != null && System.nanoTime() - entry.expiresAt < 0) {
+                this.hits.increment();
+                return entry.endpoints;
+            }
+        }
+
+        this.misses.increment();
+        final ServiceEndpoint[] endpoints = service ? this.resolver.resolveService(name)
+                : this.resolver.resolveInterface(name);
+        if (this.ttlNanos > 0 && endpoints.length > 0) {
+            cache.put(name, new EndpointsEntry(endpoints, System.nanoTime() + this.ttlNanos));
+        } else if (this.negativeTtlNanos > 0 && endpoints.length == 0) {
+            cache.put(name, new EndpointsEntry(endpoints, System.nanoTime() + this.negativeTtlNanos));
+        }
+        return endpoints;
+    }
+
+    /**
+     * Must be called when endpoints are activated or deactivated, or when an endpoint may have been deactivated
+     */
+    public void invalidate() {
+        this.entries.clear();
+        this.services.clear();
+        this.interfaces.clear();
+    }
+
+    /**
+     * Must be called when an endpoint may have been deactivated: the entries containing it are removed
+     */
+    public void invalidate(final ServiceEndpoint endpoint) {
+        final ConcurrentMap<String, Entry> endpoints = this.entries.get(endpoint.getServiceName());
+        if (endpoints != null) {
+            endpoints.remove(endpoint.getEndpointName());
+        }
+        invalidate(this.services, endpoint);
+        invalidate(this.interfaces, endpoint);
+    }
+
+    private static void invalidate(final ConcurrentMap<QName, EndpointsEntry> cache, final ServiceEndpoint endpoint) {
+        for (final Map.Entry<QName, EndpointsEntry> entry : cache.entrySet()) {
+            for (final ServiceEndpoint cached : entry.getValue().endpoints) {
+                if (cached.getServiceName().equals(endpoint.getServiceName())
+                        && cached.getEndpointName().equals(endpoint.getEndpointName())) {
+                    cache.remove(entry.getKey(), entry.getValue());
+                    break;
+                }
+            }
+        }
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    private static final class Entry {
+
+        /**
+         * <code>null</code> if the endpoint could not be resolved
+         */
+        private final @Nullable ServiceEndpoint endpoint;
+
+        private final long expiresAt;
+
+        private Entry(final @Nullable ServiceEndpoint endpoint, final long expiresAt) {
+            this.endpoint = endpoint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class EndpointsEntry {
+
+        /**
+         * Shared by all the callers, it must not be modified
+         */
+        private final ServiceEndpoint[] endpoints;
+
+        private final long expiresAt;
+
+        private EndpointsEntry(final ServiceEndpoint[] endpoints, final long expiresAt) {
+            this.endpoints = endpoints;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -27,11 +27,83 @@ public interface JbiCamelConstants {
 
     public static final String EL_CONSUMES_SERVICE_ID = "service-id";
 
+    public static final String EL_CONSUMES_RESPONSE_CACHE_TTL = "response-cache-ttl";
+
+    public static final String EL_CONSUMES_RESPONSE_CACHE_MAX_SIZE = "response-cache-max-size";
+
+    public static final String EL_CONSUMES_CIRCUIT_BREAKER_FAILURE_THRESHOLD = "circuit-breaker-failure-threshold";
+
+    public static final String EL_CONSUMES_CIRCUIT_BREAKER_WINDOW = "circuit-breaker-window";
+
+    public static final String EL_CONSUMES_CIRCUIT_BREAKER_OPEN_DURATION = "circuit-breaker-open-duration";
+
+    public static final String EL_PROVIDES_EXCHANGE_TIMEOUT = "exchange-timeout";
+
     public static final QName EL_SERVICES_ROUTE_CLASS = new QName(CAMEL_JBI_NS_URI, "java-routes");
 
     public static final QName EL_SERVICES_ROUTE_XML = new QName(CAMEL_JBI_NS_URI, "xml-routes");
 
+    public static final QName EL_SERVICES_BODY_MODE = new QName(CAMEL_JBI_NS_URI, "body-mode");
+
+    public static final QName EL_SERVICES_ATTACHMENT_SPOOL_THRESHOLD = new QName(CAMEL_JBI_NS_URI,
+            "attachment-spool-threshold");
+
+    public static final QName EL_SERVICES_LAZY_ACTIVATION = new QName(CAMEL_JBI_NS_URI, "lazy-activation");
+
+    public static final QName EL_SERVICES_PASSIVATION_IDLE_TIMEOUT = new QName(CAMEL_JBI_NS_URI,
+            "passivation-idle-timeout");
+
     public static final QName EL_WSDL_OPERATION = new QName(CAMEL_WSDL_NS_URI, "operation");
 
     public static final String ATTR_WSDL_OPERATION_SERVICEID = "service-id";
+
+    /**
+     * Component parameter: time to live in milliseconds of the cached endpoint resolutions, 0 (the default) to disable
+     * the cache
+     */
+    public static final String PARAM_ENDPOINT_RESOLUTION_CACHE_TTL = "endpoint-resolution-cache-ttl";
+
+    public static final long DEFAULT_ENDPOINT_RESOLUTION_CACHE_TTL = 0;
+
+    /**
+     * Component parameter: time to live in milliseconds of the cached failed endpoint resolutions (at most the one of
+     * the other resolutions), 0 to not cache them
+     */
+    public static final String PARAM_ENDPOINT_RESOLUTION_CACHE_NEGATIVE_TTL = "endpoint-resolution-cache-negative-ttl";
+
+    public static final long DEFAULT_ENDPOINT_RESOLUTION_CACHE_NEGATIVE_TTL = 1000;
+
+    /**
+     * Component parameter: maximum time in milliseconds to wait for the exchanges in flight of a SU when it is stopped
+     */
+    public static final String PARAM_DRAIN_TIMEOUT = "drain-timeout";
+
+    public static final long DEFAULT_DRAIN_TIMEOUT = 10000;
+
+    /**
+     * Component parameter: if true, the Camel contexts of the SUs share their thread pools and type converters
+     */
+    public static final String PARAM_SHARED_CAMEL_INFRASTRUCTURE = "shared-camel-infrastructure";
+
+    /**
+     * Component parameter: one out of this number of records of the exchange journals is logged, none if it is 0
+     */
+    public static final String PARAM_EXCHANGE_JOURNAL_SAMPLING = "exchange-journal-sampling";
+
+    public static final long DEFAULT_EXCHANGE_JOURNAL_SAMPLING = 100;
+
+    /**
+     * Component parameter: if true, the MONIT traces of the routes are written by a background thread
+     */
+    public static final String PARAM_ASYNC_MONIT_TRACES = "async-monit-traces";
+
+    /**
+     * Component parameter: the number of MONIT traces waiting to be written by the background thread
+     */
+    public static final String PARAM_MONIT_TRACES_QUEUE_SIZE = "monit-traces-queue-size";
+
+    /**
+     * Component parameter: what is done with a MONIT trace when the queue is full (CALLER_RUNS, BLOCK or DROP)
+     */
+    public static final String PARAM_MONIT_TRACES_OVERFLOW_POLICY = "monit-traces-overflow-policy";
 }
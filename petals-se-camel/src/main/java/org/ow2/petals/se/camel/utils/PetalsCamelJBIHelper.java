@@ -19,13 +19,20 @@ package org.ow2.petals.se.camel.utils;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.namespace.QName;
 
-import org.ow2.easywsdl.extensions.wsdl4complexwsdl.WSDL4ComplexWsdlFactory;
-import org.ow2.easywsdl.extensions.wsdl4complexwsdl.api.WSDL4ComplexWsdlReader;
+import org.eclipse.jdt.annotation.Nullable;
 import org.ow2.easywsdl.schema.api.XmlException;
 import org.ow2.easywsdl.wsdl.api.Binding;
 import org.ow2.easywsdl.wsdl.api.BindingOperation;
@@ -35,6 +42,9 @@ import org.ow2.easywsdl.wsdl.api.InterfaceType;
 import org.ow2.easywsdl.wsdl.api.Service;
 import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfOperation.MEPPatternConstants;
 import org.ow2.petals.camel.ServiceEndpointOperation;
+import org.ow2.petals.camel.component.BodyMode;
+import org.ow2.petals.camel.component.CircuitBreaker;
+import org.ow2.petals.camel.component.ResponseCache;
 import org.ow2.petals.component.framework.api.configuration.SuConfigurationParameters;
 import org.ow2.petals.component.framework.jbidescriptor.generated.Consumes;
 import org.ow2.petals.component.framework.jbidescriptor.generated.Jbi;
@@ -52,6 +62,7 @@ import org.w3c.dom.Node;
 import com.ebmwebsourcing.easycommons.lang.StringHelper;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * 
@@ -64,9 +75,23 @@ import com.google.common.collect.Lists;
  */
 public class PetalsCamelJBIHelper implements JbiCamelConstants {
 
+    /**
+     * Parses the descriptions of the provides of the SUs being deployed, its threads stop when it is idle
+     */
+    private static final ExecutorService WSDL_PARSERS = createWsdlParsers();
+
     private PetalsCamelJBIHelper() {
     }
 
+    private static ExecutorService createWsdlParsers() {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ThreadPoolExecutor parsers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("petals-se-camel-wsdl-%d").build());
+        parsers.allowCoreThreadTimeOut(true);
+        return parsers;
+    }
+
     /**
      * returns a Map of service-id &lt;-&gt; service/endpoint/operation
      * 
@@ -86,25 +111,26 @@ public class PetalsCamelJBIHelper implements JbiCamelConstants {
 
 
         // for provides, there is one serviceId per operation of each provides
-        for (final Provides p : jbiDescriptor.getServices().getProvides()) {
-
-            final Document wsdlDoc = suDH.getEndpointDescription(p);
+        final List<Provides> provides = jbiDescriptor.getServices().getProvides();
+        final List<Document> wsdlDocs = Lists.newArrayList();
+        for (final Provides p : provides) {
+            wsdlDocs.add(suDH.getEndpointDescription(p));
+        }
 
-            final List<OperationData> seos;
-            try {
-                seos = getOperationsAndServiceId(wsdlDoc, p);
-            } catch (final URISyntaxException | XmlException e) {
-                throw new InvalidJBIConfigurationException("Exception while parsing WSDL", e);
-            }
+        final List<List<OperationData>> operations = getOperationsAndServiceIds(provides, wsdlDocs);
 
-            for (final OperationData od : seos) {
+        for (int i = 0; i < provides.size(); i++) {
+            final Provides p = provides.get(i);
+            final long timeout = getLongExtension(suDH.getConfigurationExtensions(p), EL_PROVIDES_EXCHANGE_TIMEOUT,
+                    0);
+            for (final OperationData od : operations.get(i)) {
                 if (sid2seo.containsKey(od.serviceId)) {
                     throw new InvalidJBIConfigurationException("Duplicate " + ATTR_WSDL_OPERATION_SERVICEID + " ("
                             + od.serviceId
                             + ") in the operation " + od.operation);
                 }
                 final ServiceEndpointOperation seo = new ServiceEndpointOperationProvides(od.operation, od.mep, sender,
-                        p);
+                        p, timeout);
                 if (sid2seo.containsValue(seo)) {
                     throw new InvalidJBIConfigurationException("Duplicate service " + seo);
                 }
@@ -115,10 +141,14 @@ public class PetalsCamelJBIHelper implements JbiCamelConstants {
         // for consumes, there is one serviceId per consumes (because it includes the operation)
         for (final Consumes c : jbiDescriptor.getServices().getConsumes()) {
 
-            final ServiceEndpointOperation seo = new ServiceEndpointOperationConsumes(sender, c);
-
             final String serviceId = getServiceId(c, suDH);
 
+            final SuConfigurationParameters extensions = suDH.getConfigurationExtensions(c);
+            final ServiceEndpointOperation seo = new ServiceEndpointOperationConsumes(sender, c,
+                    getLongExtension(extensions, EL_CONSUMES_RESPONSE_CACHE_TTL, 0),
+                    getLongExtension(extensions, EL_CONSUMES_RESPONSE_CACHE_MAX_SIZE, ResponseCache.DEFAULT_MAX_SIZE),
+                    getCircuitBreaker(serviceId, extensions));
+
             if (sid2seo.containsKey(serviceId)) {
                 throw new InvalidJBIConfigurationException("Duplicate " + EL_CONSUMES_SERVICE_ID + " (" + serviceId
                         + ") in the consumes " + c.getServiceName());
@@ -141,15 +171,129 @@ public class PetalsCamelJBIHelper implements JbiCamelConstants {
         }
     }
 
+    /**
+     * @return the body mode used by default by the endpoints of the SU
+     */
+    public static BodyMode getBodyMode(final Services servicesNode) throws InvalidJBIConfigurationException {
+        for (final Element e : servicesNode.getAnyOrAny()) {
+            if (hasQName(e, EL_SERVICES_BODY_MODE)) {
+                final String value = e.getTextContent();
+                try {
+                    return BodyMode.parse(value);
+                } catch (final IllegalArgumentException ex) {
+                    throw new InvalidJBIConfigurationException("Invalid " + EL_SERVICES_BODY_MODE + ": " + value, ex);
+                }
+            }
+        }
+        return BodyMode.DOM;
+    }
+
+    /**
+     * @return the size in bytes above which the attachments are spooled by the endpoints of the SU, 0 if they are not
+     */
+    public static long getAttachmentSpoolThreshold(final Services servicesNode)
+            throws InvalidJBIConfigurationException {
+        return getLongElement(servicesNode, EL_SERVICES_ATTACHMENT_SPOOL_THRESHOLD, 0);
+    }
+
+    /**
+     * @return <code>true</code> if the Camel context of the SU is only started by the first exchange it receives
+     */
+    public static boolean isLazyActivation(final Services servicesNode) {
+        for (final Element e : servicesNode.getAnyOrAny()) {
+            if (hasQName(e, EL_SERVICES_LAZY_ACTIVATION)) {
+                return Boolean.parseBoolean(e.getTextContent().trim());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the time in milliseconds without exchange after which a lazily activated SU is stopped, 0 if it is not
+     */
+    public static long getPassivationIdleTimeout(final Services servicesNode)
+            throws InvalidJBIConfigurationException {
+        return getLongElement(servicesNode, EL_SERVICES_PASSIVATION_IDLE_TIMEOUT, 0);
+    }
+
+    private static long getLongElement(final Services servicesNode, final QName name, final long defaultValue)
+            throws InvalidJBIConfigurationException {
+        for (final Element e : servicesNode.getAnyOrAny()) {
+            if (hasQName(e, name)) {
+                final String value = e.getTextContent();
+                try {
+                    return Long.parseLong(value.trim());
+                } catch (final NumberFormatException ex) {
+                    throw new InvalidJBIConfigurationException("Invalid " + name + ": " + value, ex);
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * The descriptions are parsed in parallel (on a pool bounded by the number of processors, shared by the SUs being
+     * deployed)
+     * 
+     * @return the operations of each provides, in the same order as the provides
+     */
+    public static List<List<OperationData>> getOperationsAndServiceIds(final List<Provides> provides,
+            final List<Document> docs) throws InvalidJBIConfigurationException {
+        assert provides.size() == docs.size();
+
+        if (provides.size() == 1) {
+            // no need to change of thread
+            return Collections.singletonList(getOperationsAndServiceIdOrFail(docs.get(0), provides.get(0)));
+        }
+
+        final List<Future<List<OperationData>>> futures = Lists.newArrayList();
+        for (int i = 0; i < provides.size(); i++) {
+            final Document doc = docs.get(i);
+            final Provides p = provides.get(i);
+            futures.add(WSDL_PARSERS.submit(new Callable<List<OperationData>>() {
+                @Override
+                public List<OperationData> call() throws InvalidJBIConfigurationException {
+                    return getOperationsAndServiceIdOrFail(doc, p);
+                }
+            }));
+        }
+
+        final List<List<OperationData>> results = Lists.newArrayList();
+        try {
+            for (final Future<List<OperationData>> future : futures) {
+                results.add(future.get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvalidJBIConfigurationException("Interrupted while parsing WSDL", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof InvalidJBIConfigurationException) {
+                throw (InvalidJBIConfigurationException) e.getCause();
+            }
+            throw new InvalidJBIConfigurationException("Exception while parsing WSDL", e.getCause());
+        } finally {
+            for (final Future<List<OperationData>> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    private static List<OperationData> getOperationsAndServiceIdOrFail(final Document doc, final Provides provides)
+            throws InvalidJBIConfigurationException {
+        try {
+            return getOperationsAndServiceId(doc, provides);
+        } catch (final URISyntaxException | XmlException e) {
+            throw new InvalidJBIConfigurationException("Exception while parsing WSDL", e);
+        }
+    }
+
     public static List<OperationData> getOperationsAndServiceId(final Document doc, final Provides provides)
             throws URISyntaxException, XmlException, InvalidJBIConfigurationException {
 
         final List<OperationData> results = Lists.newArrayList();
 
-        // TODO reuse ?
-        final WSDL4ComplexWsdlReader reader = WSDL4ComplexWsdlFactory.newInstance().newWSDLReader();
-
-        final Description desc = reader.read(doc);
+        final Description desc = WsdlDescriptions.read(doc);
 
         final Service service = desc.getService(provides.getServiceName());
         if (service == null) {
@@ -229,6 +373,41 @@ public class PetalsCamelJBIHelper implements JbiCamelConstants {
         return serviceId;
     }
 
+    /**
+     * @return <code>null</code> if no failure threshold is configured for the consumes
+     */
+    private static @Nullable CircuitBreaker getCircuitBreaker(final String serviceId,
+            final SuConfigurationParameters extensions) throws InvalidJBIConfigurationException {
+        final long failureThreshold = getLongExtension(extensions, EL_CONSUMES_CIRCUIT_BREAKER_FAILURE_THRESHOLD, 0);
+        if (failureThreshold <= 0) {
+            return null;
+        }
+        final long window = getLongExtension(extensions, EL_CONSUMES_CIRCUIT_BREAKER_WINDOW,
+                CircuitBreaker.DEFAULT_WINDOW);
+        final long openDuration = getLongExtension(extensions, EL_CONSUMES_CIRCUIT_BREAKER_OPEN_DURATION,
+                CircuitBreaker.DEFAULT_OPEN_DURATION);
+        if (window <= 0 || openDuration <= 0) {
+            throw new InvalidJBIConfigurationException("The " + EL_CONSUMES_CIRCUIT_BREAKER_WINDOW + " and the "
+                    + EL_CONSUMES_CIRCUIT_BREAKER_OPEN_DURATION + " of the consumes " + serviceId
+                    + " must be greater than 0");
+        }
+        return new CircuitBreaker(serviceId, (int) Math.min(failureThreshold, Integer.MAX_VALUE), window,
+                openDuration);
+    }
+
+    private static long getLongExtension(final SuConfigurationParameters extensions, final String name,
+            final long defaultValue) throws InvalidJBIConfigurationException {
+        final String value = extensions.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            throw new InvalidJBIConfigurationException("Invalid " + name + ": " + value, e);
+        }
+    }
+
     @SuppressWarnings("all")
     public static class OperationData {
 
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel.utils;
+
+import java.util.List;
+import java.util.Objects;
+
+import javax.xml.namespace.QName;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Maps service endpoint operations to values, optimised for lookups: the service, endpoint and operation are given
+ * directly so that a lookup does not allocate anything.
+ * 
+ * The entries are kept in an open-addressing table that is never modified once published: it is rebuilt (copy on
+ * write) when an entry is added or removed, which happens only when routes are started or stopped.
+ */
+public class ServiceEndpointOperationIndex<V> {
+
+    private static final class Entry<V> {
+
+        @Nullable
+        private final QName service;
+
+        @Nullable
+        private final String endpoint;
+
+        @Nullable
+        private final QName operation;
+
+        private final int hash;
+
+        private final V value;
+
+        private Entry(final @Nullable QName service, final @Nullable String endpoint,
+                final @Nullable QName operation, final int hash, final V value) {
+            this.service = service;
+            this.endpoint = endpoint;
+            this.operation = operation;
+            this.hash = hash;
+            this.value = value;
+        }
+
+        private boolean matches(final int hash, final @Nullable QName service, final @Nullable String endpoint,
+                final @Nullable QName operation) {
+            return this.hash == hash && Objects.equals(this.operation, operation)
+                    && Objects.equals(this.endpoint, endpoint) && Objects.equals(this.service, service);
+        }
+    }
+
+    /**
+     * The length is a power of two at least twice the number of entries, so there is always a free slot to end a
+     * lookup
+     */
+    private volatile Entry<?>[] table = new Entry<?>[1];
+
+    private volatile int size;
+
+    @SuppressWarnings("unchecked")
+    public @Nullable V get(final @Nullable QName service, final @Nullable String endpoint,
+            final @Nullable QName operation) {
+        final Entry<?>[] t = this.table;
+        final int mask = t.length - 1;
+        final int hash = hash(service, endpoint, operation);
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            final Entry<?> e = t[i];
+            if (e == null) {
+                return null;
+            }
+            if (e.matches(hash, service, endpoint, operation)) {
+                return (V) e.value;
+            }
+        }
+    }
+
+    /**
+     * @return the previous value for the service endpoint operation
+     */
+    public synchronized @Nullable V put(final @Nullable QName service, final @Nullable String endpoint,
+            final @Nullable QName operation, final V value) {
+        final int hash = hash(service, endpoint, operation);
+        final List<Entry<V>> entries = entries();
+        V previous = null;
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry<V> e = entries.get(i);
+            if (e.matches(hash, service, endpoint, operation)) {
+                previous = e.value;
+                entries.remove(i);
+                break;
+            }
+        }
+        entries.add(new Entry<>(service, endpoint, operation, hash, value));
+        rebuild(entries);
+        return previous;
+    }
+
+    /**
+     * @return the removed value, if there was one for the service endpoint operation
+     */
+    public synchronized @Nullable V remove(final @Nullable QName service, final @Nullable String endpoint,
+            final @Nullable QName operation) {
+        return remove(service, endpoint, operation, null);
+    }
+
+    /**
+     * Removes the service endpoint operation only if it is mapped to the given value
+     * 
+     * @return the removed value
+     */
+    public synchronized @Nullable V remove(final @Nullable QName service, final @Nullable String endpoint,
+            final @Nullable QName operation, final @Nullable V value) {
+        final int hash = hash(service, endpoint, operation);
+        final List<Entry<V>> entries = entries();
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry<V> e = entries.get(i);
+            if (e.matches(hash, service, endpoint, operation) && (value == null || e.value == value)) {
+                entries.remove(i);
+                rebuild(entries);
+                return e.value;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Entry<V>> entries() {
+        final List<Entry<V>> entries = Lists.newArrayListWithCapacity(this.size + 1);
+        for (final Entry<?> e : this.table) {
+            if (e != null) {
+                entries.add((Entry<V>) e);
+            }
+        }
+        assert entries != null;
+        return entries;
+    }
+
+    private void rebuild(final List<Entry<V>> entries) {
+        int length = 1;
+        while (length < entries.size() * 2 + 1) {
+            length <<= 1;
+        }
+        final Entry<?>[] t = new Entry<?>[length];
+        final int mask = length - 1;
+        for (final Entry<V> e : entries) {
+            int i = e.hash & mask;
+            while (t[i] != null) {
+                i = (i + 1) & mask;
+            }
+            t[i] = e;
+        }
+        this.size = entries.size();
+        this.table = t;
+    }
+
+    private static int hash(final @Nullable QName service, final @Nullable String endpoint,
+            final @Nullable QName operation) {
+        final int h = 31 * (31 * Objects.hashCode(service) + Objects.hashCode(endpoint)) + Objects.hashCode(operation);
+        // spread the high bits as the table is indexed with the low ones
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.ow2.easywsdl.extensions.wsdl4complexwsdl.WSDL4ComplexWsdlFactory;
+import org.ow2.easywsdl.extensions.wsdl4complexwsdl.api.WSDL4ComplexWsdlReader;
+import org.ow2.easywsdl.schema.api.XmlException;
+import org.ow2.easywsdl.wsdl.api.Description;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Reads the WSDL descriptions of the provides with one reader per thread and keeps them by content (including the
+ * content of the WSDL and XML schemas they import), so that the SUs sharing a description (or redeployed) don't parse
+ * it again, wherever they are installed.
+ * 
+ * Descriptions are only read once parsed, they can be shared between threads.
+ */
+public class WsdlDescriptions {
+
+    /**
+     * The maximum number of descriptions kept, they are also collected if memory is needed
+     */
+    private static final int MAX_DESCRIPTIONS = 256;
+
+    @SuppressWarnings("null")
+    private static final Cache<String, Description> DESCRIPTIONS = CacheBuilder.newBuilder()
+            .maximumSize(MAX_DESCRIPTIONS).softValues().build();
+
+    private static final String WSDL11_NS = "http://schemas.xmlsoap.org/wsdl/";
+
+    private static final String WSDL20_NS = "http://www.w3.org/ns/wsdl";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    private static final ThreadLocal<WSDL4ComplexWsdlReader> READERS = new ThreadLocal<>();
+
+    private static final ThreadLocal<Transformer> SERIALISERS = new ThreadLocal<>();
+
+    private WsdlDescriptions() {
+    }
+
+    public static Description read(final Document document) throws XmlException, URISyntaxException {
+        final String key = key(document);
+        try {
+            final Description description = DESCRIPTIONS.get(key, new Callable<Description>() {
+                @Override
+                public Description call() throws XmlException, URISyntaxException {
+                    final Description read = reader().read(document);
+                    assert read != null;
+                    return read;
+                }
+            });
+            assert description != null;
+            return description;
+        } catch (final ExecutionException | UncheckedExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof XmlException) {
+                throw (XmlException) cause;
+            } else if (cause instanceof URISyntaxException) {
+                throw (URISyntaxException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Forgets all the descriptions read
+     */
+    public static void clear() {
+        DESCRIPTIONS.invalidateAll();
+    }
+
+    private static WSDL4ComplexWsdlReader reader() throws XmlException {
+        WSDL4ComplexWsdlReader reader = READERS.get();
+        if (reader == null) {
+            reader = WSDL4ComplexWsdlFactory.newInstance().newWSDLReader();
+            assert reader != null;
+            READERS.set(reader);
+        }
+        return reader;
+    }
+
+    /**
+     * The hash of the content of the document and of the documents it imports, so that a description is read again if
+     * one of its imports changed. An import is identified by its location relatively to the directory of the document
+     * (which stands for the SU) if it is inside, else by its absolute location: the location of the document is thus
+     * only part of the key if it has relative imports outside of its directory.
+     * 
+     * Remote imports (i.e. not files) are only identified by their location: they are not fetched here but only by the
+     * reader, when the description is not already known.
+     */
+    private static String key(final Document document) throws XmlException {
+        Transformer serialiser = SERIALISERS.get();
+        try {
+            if (serialiser == null) {
+                serialiser = TransformerFactory.newInstance().newTransformer();
+                assert serialiser != null;
+                SERIALISERS.set(serialiser);
+            }
+            final Hasher hasher = Hashing.sha256().newHasher();
+            serialiser.transform(new DOMSource(document), new StreamResult(Funnels.asOutputStream(hasher)));
+            final String base = document.getDocumentURI();
+            hashImports(hasher, directory(base), base, imports(document), new HashSet<String>());
+            return hasher.hash().toString();
+        } catch (final TransformerException e) {
+            throw new XmlException("Can't serialise the description " + document.getDocumentURI(), e);
+        }
+    }
+
+    /**
+     * The imported documents that can't be read are ignored: the reader of the description will report them.
+     * 
+     * @param visited
+     *            the documents already hashed, an import cycle is thus only hashed once
+     */
+    private static void hashImports(final Hasher hasher, final @Nullable URI directory, final @Nullable String base,
+            final List<String> locations, final Set<String> visited) {
+        for (final String location : locations) {
+            final URI uri;
+            try {
+                uri = base == null ? new URI(location) : new URI(base).resolve(location);
+            } catch (final URISyntaxException | IllegalArgumentException e) {
+                continue;
+            }
+            if (!visited.add(uri.toString())) {
+                continue;
+            }
+
+            if (!"file".equals(uri.getScheme())) {
+                hasher.putUnencodedChars(uri.toString());
+                continue;
+            }
+
+            final byte[] content;
+            try (final InputStream is = uri.toURL().openStream()) {
+                content = ByteStreams.toByteArray(is);
+            } catch (final IOException | IllegalArgumentException e) {
+                continue;
+            }
+
+            // it is left absolute if it is not inside the directory
+            hasher.putUnencodedChars(directory == null ? uri.toString() : directory.relativize(uri).toString());
+            hasher.putBytes(content);
+            hashImports(hasher, directory, uri.toString(), imports(content), visited);
+        }
+    }
+
+    private static @Nullable URI directory(final @Nullable String location) {
+        if (location == null) {
+            return null;
+        }
+        try {
+            return new URI(location).resolve(".");
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static List<String> imports(final Document document) {
+        final List<String> locations = Lists.newArrayList();
+        final NodeList elements = document.getElementsByTagNameNS("*", "*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            final Element element = (Element) elements.item(i);
+            final String attribute = locationAttribute(element.getNamespaceURI(), element.getLocalName());
+            if (attribute != null && element.hasAttribute(attribute)) {
+                locations.add(element.getAttribute(attribute));
+            }
+        }
+        return locations;
+    }
+
+    private static List<String> imports(final byte[] content) {
+        final List<String> locations = Lists.newArrayList();
+        try {
+            final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(content));
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        final String attribute = locationAttribute(reader.getNamespaceURI(), reader.getLocalName());
+                        final String location = attribute == null ? null : reader.getAttributeValue(null, attribute);
+                        if (location != null) {
+                            locations.add(location);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (final XMLStreamException e) {
+            // the reader of the description will report it
+        }
+        return locations;
+    }
+
+    /**
+     * @return the attribute giving the location of the imported document if the element is a WSDL or XML schema
+     *         import, else <code>null</code>
+     */
+    private static @Nullable String locationAttribute(final @Nullable String namespace,
+            final @Nullable String localName) {
+        if (WSDL11_NS.equals(namespace)) {
+            return "import".equals(localName) ? "location" : null;
+        } else if (WSDL20_NS.equals(namespace)) {
+            return "import".equals(localName) || "include".equals(localName) ? "location" : null;
+        } else if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(namespace)) {
+            return "import".equals(localName) || "include".equals(localName) || "redefine".equals(localName)
+                    ? "schemaLocation"
+                    : null;
+        } else {
+            return null;
+        }
+    }
+}
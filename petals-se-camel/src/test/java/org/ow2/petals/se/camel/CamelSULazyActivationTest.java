@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static com.jayway.awaitility.Duration.TWO_SECONDS;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.petals.camel.helpers.PetalsRouteBuilder;
+import org.ow2.petals.component.framework.junit.impl.ProvidesServiceConfiguration;
+import org.ow2.petals.component.framework.junit.impl.ServiceConfiguration;
+import org.ow2.petals.component.framework.junit.rule.ServiceConfigurationFactory;
+
+public class CamelSULazyActivationTest extends AbstractComponentTest {
+
+    private static @Nullable CamelContext context;
+
+    /**
+     * The actions executed by {@link HookRecordingRoute}, with the status of the context when they were
+     */
+    private static final List<String> hooks = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void before() {
+        context = null;
+        hooks.clear();
+    }
+
+    public static class RouteKeepingContext extends RouteBuilder {
+        @Override
+        public void configure() throws Exception {
+            context = getContext();
+            from("petals:sayHello-provider").to("petals:theConsumesId");
+        }
+    }
+
+    public static class HookRecordingRoute extends PetalsRouteBuilder {
+        @Override
+        public void configure() throws Exception {
+            context = getContext();
+            from("petals:sayHello-provider").to("petals:theConsumesId");
+        }
+
+        @Override
+        public void deploy() throws Exception {
+            hooks.add("deploy:" + getContext().getStatus());
+        }
+
+        @Override
+        public void init() throws Exception {
+            hooks.add("init:" + getContext().getStatus());
+        }
+
+        @Override
+        public void start() throws Exception {
+            hooks.add("start:" + getContext().getStatus());
+        }
+    }
+
+    private static void deployLazyHello(final long idleTimeout) throws Exception {
+        deployLazyHello(RouteKeepingContext.class, idleTimeout);
+    }
+
+    private static void deployLazyHello(final Class<?> routes, final long idleTimeout) throws Exception {
+        final ProvidesServiceConfiguration provides = createHelloServiceProvider(WSDL11, routes, null);
+        provides.setServicesSectionParameter(EL_SERVICES_LAZY_ACTIVATION, "true");
+        provides.setServicesSectionParameter(EL_SERVICES_PASSIVATION_IDLE_TIMEOUT, Long.toString(idleTimeout));
+        provides.addServiceConfigurationDependency(createHelloConsumes());
+
+        COMPONENT_UNDER_TEST.deployService(SU_NAME, new ServiceConfigurationFactory() {
+            @Override
+            public ServiceConfiguration create() {
+                return provides;
+            }
+        });
+    }
+
+    private static CamelContext suContext() {
+        final CamelContext ctx = context;
+        assertNotNull(ctx);
+        assert ctx != null;
+        return ctx;
+    }
+
+    @Test
+    public void testActivatedByFirstExchange() throws Exception {
+        deployLazyHello(0);
+
+        assertFalse(suContext().getStatus().isStarted());
+
+        sendHelloIdentity(SU_NAME);
+
+        assertTrue(suContext().getStatus().isStarted());
+
+        sendHelloIdentity(SU_NAME);
+    }
+
+    @Test
+    public void testPassivatedWhenIdle() throws Exception {
+        deployLazyHello(100);
+
+        sendHelloIdentity(SU_NAME);
+
+        await().atMost(TWO_SECONDS).until(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return suContext().getStatus().isStopped();
+            }
+        });
+
+        // activated again
+        sendHelloIdentity(SU_NAME);
+    }
+
+    @Test
+    public void testRouteActionsAfterActivation() throws Exception {
+        deployLazyHello(HookRecordingRoute.class, 0);
+
+        // as for an eager SU, they are executed once the context is started
+        assertTrue(hooks.isEmpty());
+
+        sendHelloIdentity(SU_NAME);
+
+        assertEquals(Arrays.asList("deploy:Started", "init:Started", "start:Started"), hooks);
+
+        sendHelloIdentity(SU_NAME);
+
+        assertEquals(3, hooks.size());
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel.monitoring;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import javax.jbi.messaging.MessageExchange;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ow2.petals.component.framework.api.monitoring.MonitTraceLogger;
+import org.ow2.petals.component.framework.jbidescriptor.generated.Consumes;
+import org.ow2.petals.component.framework.jbidescriptor.generated.Provides;
+import org.ow2.petals.component.framework.logger.AbstractFlowLogData;
+import org.ow2.petals.component.framework.logger.ConsumeExtFlowStepBeginLogData;
+import org.ow2.petals.se.camel.monitoring.AsyncMonitTraceLogger.OverflowPolicy;
+
+import com.google.common.collect.Lists;
+
+public class AsyncMonitTraceLoggerTest extends Assert {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncMonitTraceLoggerTest.class.getName());
+
+    /**
+     * Keeps the traces, the writer of the {@link AsyncMonitTraceLogger} waits for {@link #blocked} to be released
+     */
+    private static class RecordingMonitTraceLogger implements MonitTraceLogger {
+
+        private final List<AbstractFlowLogData> traces = Collections
+                .synchronizedList(Lists.<AbstractFlowLogData> newArrayList());
+
+        private final List<Thread> threads = Collections.synchronizedList(Lists.<Thread> newArrayList());
+
+        private final CountDownLatch blocked;
+
+        public RecordingMonitTraceLogger(final boolean block) {
+            this.blocked = new CountDownLatch(block ? 1 : 0);
+        }
+
+        private void record(final AbstractFlowLogData monitTrace) {
+            try {
+                if (Thread.currentThread().getName().equals("petals-se-camel-monit-writer")) {
+                    this.blocked.await();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.traces.add(monitTrace);
+            this.threads.add(Thread.currentThread());
+        }
+
+        @Override
+        public void logMonitTrace(final Optional<Boolean> externalFlowTracingActivation, final Consumes consumes,
+                final AbstractFlowLogData monitTrace) {
+            record(monitTrace);
+        }
+
+        @Override
+        public void logMonitTrace(final Optional<Boolean> externalFlowTracingActivation,
+                final AbstractFlowLogData monitTrace) {
+            record(monitTrace);
+        }
+
+        @Override
+        public void logMonitTrace(final Optional<Boolean> externalFlowTracingActivation,
+                final MessageExchange exchange, final AbstractFlowLogData monitTrace) {
+            record(monitTrace);
+        }
+
+        @Override
+        public void logMonitTrace(final MessageExchange exchange, final Provides provides,
+                final AbstractFlowLogData monitTrace) {
+            record(monitTrace);
+        }
+    }
+
+    private static AbstractFlowLogData trace(final int i) {
+        return new ConsumeExtFlowStepBeginLogData("flow" + i, "step" + i);
+    }
+
+    @Test
+    public void testTracesWrittenInOrderByTheWriter() throws Exception {
+        final RecordingMonitTraceLogger delegate = new RecordingMonitTraceLogger(false);
+        try (final AsyncMonitTraceLogger async = new AsyncMonitTraceLogger(delegate, 16, OverflowPolicy.BLOCK,
+                LOGGER)) {
+            final List<AbstractFlowLogData> expected = Lists.newArrayList();
+            for (int i = 0; i < 1000; i++) {
+                final AbstractFlowLogData trace = trace(i);
+                expected.add(trace);
+                async.logMonitTrace(Optional.<Boolean> empty(), trace);
+            }
+
+            assertTrue(async.flush(10000));
+            assertEquals(expected, delegate.traces);
+            assertFalse(delegate.threads.contains(Thread.currentThread()));
+        }
+    }
+
+    @Test
+    public void testFlushWaitsForTheWriter() throws Exception {
+        final RecordingMonitTraceLogger delegate = new RecordingMonitTraceLogger(true);
+        try (final AsyncMonitTraceLogger async = new AsyncMonitTraceLogger(delegate, 16, OverflowPolicy.BLOCK,
+                LOGGER)) {
+            async.logMonitTrace(Optional.<Boolean> empty(), trace(0));
+
+            assertFalse(async.flush(100));
+
+            delegate.blocked.countDown();
+            assertTrue(async.flush(10000));
+            assertEquals(1, delegate.traces.size());
+        }
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        final RecordingMonitTraceLogger delegate = new RecordingMonitTraceLogger(true);
+        try (final AsyncMonitTraceLogger async = new AsyncMonitTraceLogger(delegate, 4, OverflowPolicy.DROP,
+                LOGGER)) {
+            // the writer is blocked with at most one trace, the queue holds 4 others
+            for (int i = 0; i < 10; i++) {
+                async.logMonitTrace(Optional.<Boolean> empty(), trace(i));
+            }
+            delegate.blocked.countDown();
+            assertTrue(async.flush(10000));
+
+            assertTrue(async.getDropped() >= 5);
+            assertEquals(10, delegate.traces.size() + async.getDropped());
+        }
+    }
+
+    @Test
+    public void testCallerRunsWhenFull() throws Exception {
+        final RecordingMonitTraceLogger delegate = new RecordingMonitTraceLogger(true);
+        try (final AsyncMonitTraceLogger async = new AsyncMonitTraceLogger(delegate, 4, OverflowPolicy.CALLER_RUNS,
+                LOGGER)) {
+            for (int i = 0; i < 10; i++) {
+                async.logMonitTrace(Optional.<Boolean> empty(), trace(i));
+            }
+            assertTrue(delegate.threads.contains(Thread.currentThread()));
+
+            delegate.blocked.countDown();
+            assertTrue(async.flush(10000));
+
+            assertEquals(10, delegate.traces.size());
+            assertEquals(0, async.getDropped());
+        }
+    }
+}
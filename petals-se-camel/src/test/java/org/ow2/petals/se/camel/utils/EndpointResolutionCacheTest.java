@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel.utils;
+
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.xml.namespace.QName;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+
+public class EndpointResolutionCacheTest extends Assert {
+
+    private static final QName SERVICE = new QName("http://petals.ow2.org", "HelloService");
+
+    private static final String ENDPOINT = "helloEndpoint";
+
+    private static final String UNKNOWN_ENDPOINT = "unknownEndpoint";
+
+    private int resolutions = 0;
+
+    private final EndpointResolutionCache.Resolver resolver = new EndpointResolutionCache.Resolver() {
+        @Override
+        public @Nullable ServiceEndpoint resolve(final QName serviceName, final String endpointName) {
+            resolutions++;
+            return ENDPOINT.equals(endpointName) ? new TestServiceEndpoint(serviceName, endpointName) : null;
+        }
+
+        @Override
+        public ServiceEndpoint[] resolveService(final QName serviceName) {
+            resolutions++;
+            return new ServiceEndpoint[] { new TestServiceEndpoint(serviceName, ENDPOINT) };
+        }
+
+        @Override
+        public ServiceEndpoint[] resolveInterface(final QName interfaceName) {
+            resolutions++;
+            return new ServiceEndpoint[0];
+        }
+    };
+
+    @Test
+    public void testHitsAndMisses() {
+        final EndpointResolutionCache cache = new EndpointResolutionCache(resolver, 60000, 60000);
+
+        final ServiceEndpoint first = cache.resolve(SERVICE, ENDPOINT);
+        assertNotNull(first);
+        assertSame(first, cache.resolve(SERVICE, ENDPOINT));
+
+        assertEquals(1, resolutions);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testNegativeEntries() {
+        final EndpointResolutionCache cache = new EndpointResolutionCache(resolver, 60000, 60000);
+
+        assertNull(cache.resolve(SERVICE, UNKNOWN_ENDPOINT));
+        assertNull(cache.resolve(SERVICE, UNKNOWN_ENDPOINT));
+
+        assertEquals(1, resolutions);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testNegativeEntriesExpireFirst() throws Exception {
+        final EndpointResolutionCache cache = new EndpointResolutionCache(resolver, 60000, 1);
+
+        cache.resolve(SERVICE, ENDPOINT);
+        cache.resolve(SERVICE, UNKNOWN_ENDPOINT);
+        Thread.sleep(10);
+        cache.resolve(SERVICE, ENDPOINT);
+        cache.resolve(SERVICE, UNKNOWN_ENDPOINT);
+
+        assertEquals(3, resolutions);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testFailedResolutionsAreNotCached() {
+        final EndpointResolutionCache cache = new EndpointResolutionCache(resolver, 60000, 0);
+
+        assertNull(cache.resolve(SERVICE, UNKNOWN_ENDPOINT));
+        assertNull(cache.resolve(SERVICE, UNKNOWN_ENDPOINT));
+
+        assertEquals(2, resolutions);
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testInvalidate() {
+        final EndpointResolutionCache cache = new EndpointResolutionCache(resolver, 60000, 60000);
+
+        cache.resolve(SERVICE, ENDPOINT);
+        cache.invalidate();
+        cache.resolve(SERVICE, ENDPOINT);
+
+        assertEquals(2, resolutions);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidateEndpoint() {
+        final EndpointResolutionCache cache = new EndpointResolutionCache(resolver, 60000, 60000);
+
+        final ServiceEndpoint endpoint = cache.resolve(SERVICE, ENDPOINT);
+        assertNotNull(endpoint);
+        assert endpoint != null;
+        cache.resolve(SERVICE, UNKNOWN_ENDPOINT);
+        cache.resolveService(SERVICE);
+        assertEquals(3, resolutions);
+
+        cache.invalidate(endpoint);
+
+        // only the entries containing the endpoint are resolved again
+        cache.resolve(SERVICE, ENDPOINT);
+        cache.resolve(SERVICE, UNKNOWN_ENDPOINT);
+        cache.resolveService(SERVICE);
+        assertEquals(5, resolutions);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testServiceEndpoints() {
+        final EndpointResolutionCache cache = new EndpointResolutionCache(resolver, 60000, 60000);
+
+        final ServiceEndpoint[] first = cache.resolveService(SERVICE);
+        assertEquals(1, first.length);
+        assertSame(first, cache.resolveService(SERVICE));
+        // the same name as an interface is another entry
+        assertEquals(0, cache.resolveInterface(SERVICE).length);
+        // an interface without endpoint is a negative entry
+        assertEquals(0, cache.resolveInterface(SERVICE).length);
+
+        assertEquals(2, resolutions);
+        assertEquals(2, cache.getHits());
+
+        cache.invalidate();
+        cache.resolveService(SERVICE);
+        assertEquals(3, resolutions);
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        final EndpointResolutionCache cache = new EndpointResolutionCache(resolver, 1, 1);
+
+        cache.resolve(SERVICE, ENDPOINT);
+        Thread.sleep(10);
+        cache.resolve(SERVICE, ENDPOINT);
+
+        assertEquals(2, resolutions);
+    }
+
+    @Test
+    public void testDisabled() {
+        final EndpointResolutionCache cache = new EndpointResolutionCache(resolver, 0, 0);
+
+        cache.resolve(SERVICE, ENDPOINT);
+        cache.resolve(SERVICE, ENDPOINT);
+
+        assertEquals(2, resolutions);
+        assertEquals(0, cache.getHits());
+    }
+
+    private static class TestServiceEndpoint implements ServiceEndpoint {
+
+        private final QName serviceName;
+
+        private final String endpointName;
+
+        public TestServiceEndpoint(final QName serviceName, final String endpointName) {
+            this.serviceName = serviceName;
+            this.endpointName = endpointName;
+        }
+
+        @Override
+        public @Nullable DocumentFragment getAsReference(final @Nullable QName operationName) {
+            return null;
+        }
+
+        @Override
+        public String getEndpointName() {
+            return this.endpointName;
+        }
+
+        @Override
+        public QName[] getInterfaces() {
+            return new QName[0];
+        }
+
+        @Override
+        public QName getServiceName() {
+            return this.serviceName;
+        }
+    }
+}
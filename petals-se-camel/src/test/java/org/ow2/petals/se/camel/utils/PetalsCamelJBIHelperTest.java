@@ -17,15 +17,22 @@
  */
 package org.ow2.petals.se.camel.utils;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 
 import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.ow2.easywsdl.wsdl.api.Description;
 import org.ow2.easywsdl.wsdl.api.WSDLException;
 import org.ow2.easywsdl.wsdl.api.abstractItf.AbsItfDescription.WSDLVersionConstants;
+import org.ow2.petals.camel.component.BodyMode;
 import org.ow2.petals.component.framework.jbidescriptor.CDKJBIDescriptorBuilder;
 import org.ow2.petals.component.framework.jbidescriptor.generated.Jbi;
 import org.ow2.petals.component.framework.jbidescriptor.generated.Provides;
@@ -45,11 +52,17 @@ public class PetalsCamelJBIHelperTest extends Assert {
 
     private static final String JBI_JAVA = "/tests/jbi-java.xml";
 
+    private static final String JBI_BODY_MODE = "/tests/jbi-body-mode.xml";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testJbiJavaOk() throws Exception {
         final Jbi jbi = getJBI(JBI_JAVA);
 
         testPopulateRouteLists(jbi, 1, 0);
+        assertEquals(BodyMode.DOM, PetalsCamelJBIHelper.getBodyMode(jbi.getServices()));
     }
 
     @Test
@@ -59,6 +72,14 @@ public class PetalsCamelJBIHelperTest extends Assert {
         testPopulateRouteLists(jbi, 0, 1);
     }
 
+    @Test
+    public void testJbiBodyModeOk() throws Exception {
+        final Jbi jbi = getJBI(JBI_BODY_MODE);
+
+        testPopulateRouteLists(jbi, 0, 1);
+        assertEquals(BodyMode.STREAM, PetalsCamelJBIHelper.getBodyMode(jbi.getServices()));
+    }
+
     @Test
     public void testWsdl11Ok() throws Exception {
 
@@ -93,6 +114,88 @@ public class PetalsCamelJBIHelperTest extends Assert {
 
     }
 
+    @Test
+    public void testWsdlsInParallel() throws Exception {
+
+        final List<Provides> provides = Lists.newArrayList();
+        final List<Document> docs = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            final Provides p = new Provides();
+            p.setEndpointName("autogenerate");
+            p.setServiceName(new QName("http://petals.ow2.org", "HelloService"));
+            p.setInterfaceName(new QName("http://petals.ow2.org", "HelloInterface"));
+            provides.add(p);
+            docs.add(getWSDL(i % 2 == 0 ? WSDL11 : WSDL20,
+                    i % 2 == 0 ? WSDLVersionConstants.WSDL11 : WSDLVersionConstants.WSDL20));
+        }
+
+        final List<List<OperationData>> res = PetalsCamelJBIHelper.getOperationsAndServiceIds(provides, docs);
+
+        assertEquals(20, res.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i % 2 == 0 ? 3 : 1, res.get(i).size());
+            assertEquals(i % 2 == 0 ? "sayHello-provider" : "theProvidesId", res.get(i).get(0).serviceId);
+        }
+    }
+
+    @Test
+    public void testWsdlDescriptionCached() throws Exception {
+
+        final Document doc = getWSDL(WSDL11, WSDLVersionConstants.WSDL11);
+
+        final Description desc = WsdlDescriptions.read(doc);
+        assertSame(desc, WsdlDescriptions.read(doc));
+        // same content, other document
+        assertSame(desc, WsdlDescriptions.read(getWSDL(WSDL11, WSDLVersionConstants.WSDL11)));
+        assertNotSame(desc, WsdlDescriptions.read(getWSDL(WSDL20, WSDLVersionConstants.WSDL20)));
+    }
+
+    @Test
+    public void testWsdlDescriptionReadAgainIfAnImportChanged() throws Exception {
+        final File wsdl = writeWsdl(folder.getRoot(), "xs:string");
+
+        final Description desc = WsdlDescriptions.read(parse(wsdl));
+        assertSame(desc, WsdlDescriptions.read(parse(wsdl)));
+
+        // same WSDL redeployed at the same location, but its schema changed
+        Files.write(new File(folder.getRoot(), "service.xsd").toPath(), schema("xs:int"));
+        assertNotSame(desc, WsdlDescriptions.read(parse(wsdl)));
+    }
+
+    @Test
+    public void testWsdlDescriptionSharedBySUsInstalledElsewhere() throws Exception {
+        final File wsdl1 = writeWsdl(folder.newFolder("su1"), "xs:boolean");
+        final File wsdl2 = writeWsdl(folder.newFolder("su2"), "xs:boolean");
+
+        assertSame(WsdlDescriptions.read(parse(wsdl1)), WsdlDescriptions.read(parse(wsdl2)));
+    }
+
+    /**
+     * @return a WSDL importing a schema next to it, whose element has the given type
+     */
+    private static File writeWsdl(final File directory, final String type) throws Exception {
+        Files.write(new File(directory, "service.xsd").toPath(), schema(type));
+        final File wsdl = new File(directory, "service.wsdl");
+        Files.write(wsdl.toPath(), ("<wsdl:definitions xmlns:wsdl=\"http://schemas.xmlsoap.org/wsdl/\""
+                + " xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"http://petals.ow2.org/test\">"
+                + "<wsdl:types><xs:schema><xs:import namespace=\"http://petals.ow2.org/test/types\""
+                + " schemaLocation=\"service.xsd\"/></xs:schema></wsdl:types></wsdl:definitions>")
+                        .getBytes(StandardCharsets.UTF_8));
+        return wsdl;
+    }
+
+    private static byte[] schema(final String type) {
+        return ("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\""
+                + " targetNamespace=\"http://petals.ow2.org/test/types\"><xs:element name=\"hello\" type=\"" + type
+                + "\"/></xs:schema>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Document parse(final File file) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(file);
+    }
+
     private Document getWSDL(final String localPath, final WSDLVersionConstants version) throws WSDLException {
         final Description desc = WSDLUtilImpl.createWsdlDescription(this.getClass().getResource(localPath));
         Assert.assertEquals(desc.getVersion(), version);
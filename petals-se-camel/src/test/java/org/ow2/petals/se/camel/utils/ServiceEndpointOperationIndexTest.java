@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2020 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or (at your
+ * option) any later version.
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program/library; If not, see http://www.gnu.org/licenses/
+ * for the GNU Lesser General Public License version 2.1.
+ */
+package org.ow2.petals.se.camel.utils;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ServiceEndpointOperationIndexTest extends Assert {
+
+    private static final String NS = "http://petals.ow2.org";
+
+    private static final QName SERVICE = new QName(NS, "HelloService");
+
+    private static final String ENDPOINT = "helloEndpoint";
+
+    private static final QName OPERATION = new QName(NS, "sayHello");
+
+    @Test
+    public void testLookupWithEqualKeys() {
+        final ServiceEndpointOperationIndex<String> index = new ServiceEndpointOperationIndex<>();
+        assertNull(index.get(SERVICE, ENDPOINT, OPERATION));
+
+        assertNull(index.put(SERVICE, ENDPOINT, OPERATION, "route"));
+
+        // exchanges don't carry the same instances
+        assertEquals("route",
+                index.get(new QName(NS, "HelloService"), new String(ENDPOINT), new QName(NS, "sayHello")));
+        assertNull(index.get(SERVICE, ENDPOINT, new QName(NS, "sayGoodbye")));
+        assertNull(index.get(SERVICE, "otherEndpoint", OPERATION));
+        assertNull(index.get(SERVICE, ENDPOINT, null));
+
+        assertEquals("route", index.put(SERVICE, ENDPOINT, OPERATION, "other route"));
+        assertEquals("other route", index.get(SERVICE, ENDPOINT, OPERATION));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testManyOperations() {
+        final ServiceEndpointOperationIndex<Integer> index = new ServiceEndpointOperationIndex<>();
+        for (int i = 0; i < 1000; i++) {
+            index.put(SERVICE, ENDPOINT + (i % 10), new QName(NS, "op" + i), i);
+        }
+        assertEquals(1000, index.size());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), index.get(SERVICE, ENDPOINT + (i % 10), new QName(NS, "op" + i)));
+        }
+
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(Integer.valueOf(i), index.remove(SERVICE, ENDPOINT + (i % 10), new QName(NS, "op" + i)));
+        }
+        assertEquals(500, index.size());
+
+        for (int i = 0; i < 1000; i++) {
+            final Integer value = index.get(SERVICE, ENDPOINT + (i % 10), new QName(NS, "op" + i));
+            assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), value);
+        }
+    }
+
+    @Test
+    public void testRemoveOnlyGivenValue() {
+        final ServiceEndpointOperationIndex<String> index = new ServiceEndpointOperationIndex<>();
+        index.put(SERVICE, ENDPOINT, OPERATION, "route");
+
+        assertNull(index.remove(SERVICE, ENDPOINT, OPERATION, "other route"));
+        assertEquals("route", index.get(SERVICE, ENDPOINT, OPERATION));
+
+        assertEquals("route", index.remove(SERVICE, ENDPOINT, OPERATION, "route"));
+        assertNull(index.get(SERVICE, ENDPOINT, OPERATION));
+        assertEquals(0, index.size());
+    }
+}